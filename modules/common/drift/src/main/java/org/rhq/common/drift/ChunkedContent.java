@@ -0,0 +1,118 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.common.drift;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the zip file the agent uses to send drift file content split into chunks, see {@link ContentChunker}.
+ * Before building the zip file the agent asks the server which of the chunks it is missing, so the zip file only
+ * holds those chunks. The server stores the chunks it receives and rebuilds the files from its stored chunks.
+ * <br/>
+ * <br/>
+ * The zip file has the following entries:
+ * <ul>
+ *   <li>{@link #CHUNK_ENTRY_PREFIX}&lt;digest&gt; - the bytes of a chunk, named after its SHA-256 hash</li>
+ *   <li>{@link #MANIFEST_ENTRY} - the last entry, lists the chunks of each file</li>
+ * </ul>
+ * The manifest is a UTF-8 text file. For each file there is a line with two space-delimited fields, the SHA-256 hash
+ * of the file and its number of chunks, followed by one line per chunk with the chunk digest, in file order:
+ * <pre>
+ * a34ef6 2
+ * 11aa3f
+ * 7c2d09
+ * 3d9b71 1
+ * 8e2f10
+ * </pre>
+ */
+public class ChunkedContent {
+
+    public static final String MANIFEST_ENTRY = "manifest";
+
+    public static final String CHUNK_ENTRY_PREFIX = "chunks/";
+
+    private static final String CHARSET = "UTF-8";
+
+    private ChunkedContent() {
+    }
+
+    /**
+     * Writes the manifest. The stream is flushed but not closed.
+     *
+     * @param files maps the SHA-256 hash of each file to the digests of its chunks
+     */
+    public static void writeManifest(Map<String, List<String>> files, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, CHARSET);
+        for (Map.Entry<String, List<String>> file : files.entrySet()) {
+            writer.write(file.getKey() + " " + file.getValue().size() + "\n");
+            for (String digest : file.getValue()) {
+                writer.write(digest);
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads a manifest written by {@link #writeManifest(Map, OutputStream)}. The stream is not closed.
+     *
+     * @return maps the SHA-256 hash of each file to the digests of its chunks, in manifest order
+     */
+    public static Map<String, List<String>> readManifest(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, CHARSET));
+        Map<String, List<String>> files = new LinkedHashMap<String, List<String>>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            if (fields.length != 2) {
+                throw new IOException("Invalid chunk manifest line: " + line);
+            }
+            int count;
+            try {
+                count = Integer.parseInt(fields[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk count in chunk manifest line: " + line);
+            }
+            List<String> digests = new ArrayList<String>(count);
+            for (int i = 0; i < count; ++i) {
+                String digest = reader.readLine();
+                if (digest == null) {
+                    throw new IOException("Chunk manifest ends within the chunks of file " + fields[0]);
+                }
+                digests.add(digest);
+            }
+            files.put(fields[0], digests);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.common.drift;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.rhq.core.util.MessageDigestGenerator;
+
+/**
+ * Splits content into variable sized chunks whose boundaries are determined by the content itself. A boundary is
+ * declared wherever a rolling hash over the last 64 bytes has its top bits clear, so inserting or removing bytes
+ * only changes the chunks around the edit. The chunks before and after it, and their digests, stay the same, which
+ * lets the agent send only the changed parts of a large file.
+ * <br/>
+ * <br/>
+ * Chunks are at least {@link #MIN_CHUNK_SIZE} bytes (except the last chunk of a file), at most
+ * {@link #MAX_CHUNK_SIZE} bytes and about 20 KB on average. Each chunk is identified by the SHA-256 hash of its bytes,
+ * in the same hex form used for drift files.
+ * <br/>
+ * <br/>
+ * Instances are not thread-safe.
+ */
+public class ContentChunker {
+
+    public static final int MIN_CHUNK_SIZE = 4 * 1024;
+
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The top 14 bits of the rolling hash, which are clear about once every 16 KB.
+     */
+    private static final long BOUNDARY_MASK = 0xFFFC000000000000L;
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Random values for each byte value used by the rolling hash. The seed is fixed since the chunk boundaries, and
+     * with them the chunk digests, must be the same on every agent.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x52485144524946L);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Receives the chunks of the content in order.
+     */
+    public interface ChunkVisitor {
+        /**
+         * @param digest the SHA-256 hash of the chunk
+         * @param chunk a buffer holding the chunk, only valid until this method returns
+         * @param length the length of the chunk, which starts at offset 0 of the buffer
+         */
+        void visit(String digest, byte[] chunk, int length) throws IOException;
+    }
+
+    private final MessageDigestGenerator digestGenerator = new MessageDigestGenerator(
+        MessageDigestGenerator.SHA_256);
+
+    private final byte[] chunk = new byte[MAX_CHUNK_SIZE];
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Reads the stream to its end, passing each chunk to the visitor. The stream is not closed. Empty content has no
+     * chunks.
+     */
+    public void chunk(InputStream in, ChunkVisitor visitor) throws IOException {
+        int length = 0;
+        long hash = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            for (int i = 0; i < n; ++i) {
+                byte b = buffer[i];
+                chunk[length++] = b;
+                hash = (hash << 1) + GEAR[b & 0xFF];
+                if ((length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || length == MAX_CHUNK_SIZE) {
+                    visit(length, visitor);
+                    length = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (length > 0) {
+            visit(length, visitor);
+        }
+    }
+
+    private void visit(int length, ChunkVisitor visitor) throws IOException {
+        digestGenerator.add(chunk, 0, length);
+        visitor.visit(digestGenerator.getDigestString(), chunk, length);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.common.drift;
+
+import static org.rhq.common.drift.ContentChunker.MAX_CHUNK_SIZE;
+import static org.rhq.common.drift.ContentChunker.MIN_CHUNK_SIZE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class ContentChunkerTest {
+
+    @Test
+    public void chunksAddUpToContent() throws Exception {
+        byte[] content = randomBytes(1024 * 1024);
+        final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        final List<Integer> lengths = new ArrayList<Integer>();
+
+        new ContentChunker().chunk(new ByteArrayInputStream(content), new ContentChunker.ChunkVisitor() {
+            @Override
+            public void visit(String digest, byte[] chunk, int length) {
+                chunks.write(chunk, 0, length);
+                lengths.add(length);
+            }
+        });
+
+        assertTrue(Arrays.equals(chunks.toByteArray(), content), "The chunks should add up to the content");
+        for (int i = 0; i < lengths.size(); ++i) {
+            int length = lengths.get(i);
+            assertTrue(length <= MAX_CHUNK_SIZE, "Chunk " + i + " is larger than the maximum: " + length);
+            if (i < lengths.size() - 1) {
+                assertTrue(length >= MIN_CHUNK_SIZE, "Chunk " + i + " is smaller than the minimum: " + length);
+            }
+        }
+    }
+
+    @Test
+    public void doNotChunkEmptyContent() throws Exception {
+        assertEquals(chunkDigests(new byte[0]).size(), 0);
+    }
+
+    @Test
+    public void splitContentWithoutBoundariesAtMaximumSize() throws Exception {
+        List<String> digests = chunkDigests(new byte[2 * MAX_CHUNK_SIZE + 100]);
+
+        assertEquals(digests.size(), 3, "Content without boundaries should be cut at the maximum chunk size");
+        assertEquals(digests.get(0), digests.get(1), "Equal chunks should have equal digests");
+    }
+
+    @Test
+    public void insertionOnlyChangesNearbyChunks() throws Exception {
+        byte[] content = randomBytes(2 * 1024 * 1024);
+        byte[] edited = new byte[content.length + 10];
+        int offset = content.length / 2;
+        System.arraycopy(content, 0, edited, 0, offset);
+        System.arraycopy(randomBytes(10), 0, edited, offset, 10);
+        System.arraycopy(content, offset, edited, offset + 10, content.length - offset);
+
+        List<String> original = chunkDigests(content);
+        Set<String> changed = new HashSet<String>(chunkDigests(edited));
+        changed.removeAll(original);
+
+        assertTrue(original.size() > 20, "Expected more chunks for 2 MB of content but got " + original.size());
+        assertTrue(changed.size() <= 2, "An insertion should only change the chunks around it but changed "
+            + changed.size() + " of " + original.size() + " chunks");
+    }
+
+    @Test
+    public void readManifestThatWasWritten() throws Exception {
+        Map<String, List<String>> files = new LinkedHashMap<String, List<String>>();
+        files.put("a34ef6", Arrays.asList("11aa3f", "7c2d09"));
+        files.put("3d9b71", new ArrayList<String>());
+        files.put("8e2f10", Arrays.asList("11aa3f"));
+
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        ChunkedContent.writeManifest(files, manifest);
+
+        assertEquals(ChunkedContent.readManifest(new ByteArrayInputStream(manifest.toByteArray())), files);
+    }
+
+    private List<String> chunkDigests(byte[] content) throws Exception {
+        final List<String> digests = new ArrayList<String>();
+        new ContentChunker().chunk(new ByteArrayInputStream(content), new ContentChunker.ChunkVisitor() {
+            @Override
+            public void visit(String digest, byte[] chunk, int length) {
+                digests.add(digest);
+            }
+        });
+        return digests;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
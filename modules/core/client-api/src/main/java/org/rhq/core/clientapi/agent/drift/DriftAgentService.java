@@ -135,5 +135,21 @@ public interface DriftAgentService {
      */
     void ackChangeSetContent(int resourceId, String defName, String token);
 
+    /**
+     * This method is invoked instead of {@link #ackChangeSetContent(int, String, String)}
+     * when the server could not rebuild some of the files of chunked change set content,
+     * for instance because chunks it reported as present have been purged since. The agent
+     * sends the content of those files again as whole files and then purges the referenced
+     * content zip file.
+     *
+     * @param resourceId The id of the resource to which the referenced drift definition
+     * belongs.
+     * @param defName The name of the drift definition to which the content
+     * belongs.
+     * @param token A token that is used to identify the content zip file
+     * @param driftFiles The files the server could not rebuild
+     */
+    void resendDriftFiles(int resourceId, String defName, String token, List<? extends DriftFile> driftFiles);
+
     void pinSnapshot(int resourceId, String defName, DriftSnapshot snapshot);
 }
\ No newline at end of file
@@ -118,6 +118,38 @@ public interface DriftServerService {
     @Asynchronous(guaranteedDelivery = true)
     void sendFilesZip(int resourceId, String driftDefName, String token, long zipSize, InputStream zipStream);
 
+    /**
+     * The agent invokes this method before sending change set content in chunks. Large
+     * files are split into content-defined chunks, see
+     * {@link org.rhq.common.drift.ContentChunker ContentChunker}, and the agent only sends
+     * the chunks that the server does not already have.
+     *
+     * @param chunkDigests The SHA-256 hashes of the chunks of the files the agent is about to
+     * send
+     * @return The hashes of the chunks the server does not have
+     */
+    Set<String> findMissingContentChunks(Set<String> chunkDigests);
+
+    // note that this guaranteed delivery is weak because most likely the stream will be dead if it
+    // doesn't work the first time.
+    /**
+     * The agent invokes this method to send change set content as chunks. This works like
+     * {@link #sendFilesZip(int, String, String, long, InputStream)} except that the zip file
+     * is in the format described by {@link org.rhq.common.drift.ChunkedContent ChunkedContent}.
+     * It holds the chunks that {@link #findMissingContentChunks(Set)} reported as missing and
+     * a manifest from which the server rebuilds each file out of its stored chunks.
+     *
+     * @param resourceId The id of the resource to which the change set content belongs
+     * @param driftDefName The drift definition name. This is needed for the
+     * acknowledgement step.
+     * @param token A token needed for the acknowledgement step that allows the agent to
+     * uniquely identify the zip file that was sent.
+     * @param zipSize The total number of bytes to be streamed.
+     * @param zipStream A RemoteStream
+     */
+    @Asynchronous(guaranteedDelivery = true)
+    void sendChunkedFilesZip(int resourceId, String driftDefName, String token, long zipSize, InputStream zipStream);
+
     @Asynchronous
     void repeatChangeSet(int resourceId, String driftDefName, int version);
 
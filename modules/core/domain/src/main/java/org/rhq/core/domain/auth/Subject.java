@@ -166,6 +166,11 @@ import org.rhq.core.domain.resource.group.ResourceGroup;
         + "FROM Resource res, IN (res.implicitGroups) g, IN (g.roles) r, IN (r.subjects) s "
         + "WHERE s = :subject AND res.id IN (:resourceIds)"),
 
+    // a row per viewable resource and permission; a viewable resource the subject has no permission on has a null one
+    @NamedQuery(name = Subject.QUERY_GET_ACCESS_BY_RESOURCE_IDS, query = "SELECT DISTINCT res.id, p "
+        + "FROM Resource res JOIN res.implicitGroups g JOIN g.roles r JOIN r.subjects s LEFT JOIN r.permissions p "
+        + "WHERE s = :subject AND res.id IN (:resourceIds)"),
+
     @NamedQuery(name = Subject.QUERY_CAN_VIEW_GROUP, query = "" //
         + "SELECT count(g) " //
         + "  FROM ResourceGroup g " //
@@ -280,6 +285,7 @@ public class Subject implements Serializable {
     /** This query can return more than 1 if the resource is accessible via separate groups */
     public static final String QUERY_CAN_VIEW_RESOURCE = "Subject.canViewResource";
     public static final String QUERY_CAN_VIEW_RESOURCES = "Subject.canViewResources";
+    public static final String QUERY_GET_ACCESS_BY_RESOURCE_IDS = "Subject.getAccessByResources";
     public static final String QUERY_CAN_VIEW_GROUP = "Subject.canViewGroup";
     public static final String QUERY_CAN_VIEW_AUTO_GROUP = "Subject.canViewAutoGroup";
     public static final String QUERY_CAN_VIEW_BUNDLE = "Subject.canViewBundle";
@@ -38,6 +38,10 @@ public enum SystemSetting {
     /** Are we rendering features which are marked as experimental for this installation? */
     EXPERIMENTAL_FEATURES_ENABLED("ENABLE_EXPERIMENTAL_FEATURES", PropertySimpleType.BOOLEAN, false, true, true),
 
+    /** Are DynaGroups kept up to date from the inventory changes the servers see, rather than only recalculated? */
+    DYNAGROUP_INCREMENTAL_RECALCULATION_ENABLED("DYNAGROUP_INCREMENTAL_RECALCULATION", PropertySimpleType.BOOLEAN,
+        false, true, true),
+
     /** How often to perform database maintenance */
     DATA_MAINTENANCE_PERIOD("CAM_DATA_MAINTENANCE", PropertySimpleType.LONG, false, true, true),
 
@@ -120,6 +120,9 @@ public abstract class Criteria implements Serializable, BaseCriteria {
 
     private String searchExpression;
 
+    // only used on the server, see setSeekPosition()
+    private transient Object[] seekPosition;
+
     // All Criteria support sorting on ID
     protected PageOrdering sortId;
 
@@ -321,6 +324,27 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         return this.restriction;
     }
 
+    /**
+     * Switches the query to keyset ("seek") paging. Rather than skipping the results of the preceding pages, which
+     * makes the database produce and throw away all of them again, the query only returns the results that sort
+     * after the given position. The page number then counts pages from that position.
+     *
+     * The position consists of the values of the ordering fields, including the implicit sort on ID, of the last
+     * result of the previous page. An empty position starts at the first result; passing <code>null</code> turns
+     * keyset paging off. With keyset paging, the sort on ID is always added so that the position is unique. Unless
+     * the criteria is restricted, only the first page, at the empty position, is counted; the results of the pages
+     * after it are unbounded.
+     *
+     * This is meant for iterating over large results on the server side. The position is not sent to remote clients.
+     */
+    public void setSeekPosition(Object... seekPosition) {
+        this.seekPosition = seekPosition;
+    }
+
+    public Object[] getSeekPosition() {
+        return this.seekPosition;
+    }
+
     public void setSearchExpression(String searchExpression) {
         this.searchExpression = searchExpression;
     }
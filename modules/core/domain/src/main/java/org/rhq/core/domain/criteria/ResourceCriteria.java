@@ -69,6 +69,7 @@ public class ResourceCriteria extends TaggedCriteria {
     private List<Integer> filterExplicitGroupIds; // requires overrides
     private List<Integer> filterImplicitGroupIds; // requires overrides
     private Integer filterRootResourceId; // requires overrides    
+    private Integer filterAncestorResourceId; // requires overrides
 
     private boolean fetchResourceType;
     private boolean fetchChildResources;
@@ -139,6 +140,12 @@ public class ResourceCriteria extends TaggedCriteria {
             + "          JOIN ires.implicitGroups implicitGroup " //
             + "         WHERE implicitGroup.id IN ( ? ) )");
         filterOverrides.put("rootResourceId", "agent.id = (SELECT r2.agent.id FROM Resource r2 where r2.id = ?)");
+        // the ancestry lists the ids of all ancestors, each one enclosed in entry delimiters
+        filterOverrides.put("ancestorResourceId", "" //
+            + "id IN ( SELECT ares.id " //
+            + "          FROM Resource ares " //
+            + "         WHERE LOCATE( CONCAT('" + Resource.ANCESTRY_ENTRY_DELIM + "', CONCAT( str( ? ), '"
+            + Resource.ANCESTRY_ENTRY_DELIM + "') ), ares.ancestry ) > 0 )");
         filterOverrides.put("resourceTypeIds", "resourceType.id IN (?)");
         filterOverrides.put("inventoryStatuses", "inventoryStatus IN ( ? )");
         filterOverrides.put("parentInventoryStatuses", "parentResource.inventoryStatus IN ( ? )");
@@ -265,6 +272,17 @@ public class ResourceCriteria extends TaggedCriteria {
         this.filterRootResourceId = filterRootResourceId;
     }
 
+    /**
+     * Restricts the results to the descendants of the given resource, at any depth, not including the resource
+     * itself. This is a single lookup in the encoded {@link Resource#getAncestry() ancestry} of the resources, so it
+     * does not match resources whose ancestry was too long to be stored.
+     *
+     * @param filterAncestorResourceId the id of the root of the subtree
+     */
+    public void addFilterAncestorResourceId(Integer filterAncestorResourceId) {
+        this.filterAncestorResourceId = filterAncestorResourceId;
+    }
+
     public void fetchResourceType(boolean fetchResourceType) {
         this.fetchResourceType = fetchResourceType;
     }
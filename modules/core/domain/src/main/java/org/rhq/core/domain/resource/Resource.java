@@ -372,6 +372,11 @@ import org.rhq.core.domain.util.Summary;
         + "   AND r.resourceKey = :key " //
         + "   AND r.resourceType.plugin = :plugin " //
         + "   AND r.resourceType.name = :typeName"),
+    @NamedQuery(name = Resource.QUERY_FIND_MERGE_INFO_BY_IDS, query = "" //
+        + "   SELECT r.id, r.uuid, r.resourceKey, r.version, r.description, r.inventoryStatus, p.id " //
+        + "     FROM Resource AS r " //
+        + "LEFT JOIN r.parentResource p " //
+        + "    WHERE r.id IN ( :ids ) "),
     @NamedQuery(name = Resource.QUERY_FIND_EXPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN, query = "" //
         + "SELECT res.id " //
         + "  FROM ResourceGroup rg, IN (rg.explicitResources) res " //
@@ -682,6 +687,12 @@ import org.rhq.core.domain.util.Summary;
     @NamedQuery(name = Resource.QUERY_FIND_BY_ID_WITH_INSTALLED_PACKAGE_HIST, query = "SELECT r FROM Resource AS r LEFT JOIN r.installedPackageHistory ip WHERE r.id = :id"),
     @NamedQuery(name = Resource.QUERY_FIND_PLATFORM_BY_AGENT, query = "SELECT res FROM Resource res WHERE res.resourceType.category = :category AND res.agent = :agent"),
     @NamedQuery(name = Resource.QUERY_FIND_PARENT_ID, query = "SELECT res.parentResource.id FROM Resource AS res WHERE res.id = :id"),
+    @NamedQuery(name = Resource.QUERY_FIND_WITH_CHILDREN_BY_IDS_ADMIN, query = "" //
+        + "SELECT DISTINCT res " //
+        + "  FROM Resource res " //
+        + "  LEFT JOIN FETCH res.pluginConfiguration " //
+        + "  LEFT JOIN FETCH res.childResources " //
+        + " WHERE res.id IN ( :ids ) "),
     @NamedQuery(name = Resource.QUERY_FIND_ROOT_PLATFORM_OF_RESOURCE, query = ""
         + "SELECT DISTINCT r FROM Resource r "
         + "WHERE r.parentResource.id is null "
@@ -833,6 +844,8 @@ public class Resource implements Comparable<Resource>, Serializable {
     public static final String QUERY_FIND_BY_TYPE_AND_IDS_ADMIN = "Resource.findByTypeAndIds_admin";
 
     public static final String QUERY_FIND_BY_PARENT_AND_KEY = "Resource.findByParentAndKey";
+    /** the fields an inventory report merge compares to decide if a reported resource changed */
+    public static final String QUERY_FIND_MERGE_INFO_BY_IDS = "Resource.findMergeInfoByIds";
 
     public static final String QUERY_FIND_EXPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN = "Resource.findExplicitIdsByResourceGroup_admin";
     public static final String QUERY_FIND_IMPLICIT_IDS_BY_RESOURCE_GROUP_ADMIN = "Resource.findImplicitIdsByResourceGroup_admin";
@@ -889,6 +902,7 @@ public class Resource implements Comparable<Resource>, Serializable {
     public static final String QUERY_FIND_PLATFORM_BY_AGENT = "Resource.findPlatformByAgent";
 
     public static final String QUERY_FIND_PARENT_ID = "Resource.findParentId";
+    public static final String QUERY_FIND_WITH_CHILDREN_BY_IDS_ADMIN = "Resource.findWithChildrenByIds_admin";
 
     public static final String QUERY_FIND_ROOT_PLATFORM_OF_RESOURCE = "Resource.findRootPlatformOfResource";
 
@@ -977,6 +991,35 @@ public class Resource implements Comparable<Resource>, Serializable {
         + "    FROM parentResource AS pr " //
         + "   WHERE ( pr.parentResourceId IS NULL ) ";
 
+    /**
+     * The ids of the ancestors of a resource, nearest parent first.
+     */
+    public static final String QUERY_NATIVE_FIND_ANCESTORS_ORACLE = "" //
+        + "           SELECT r.id " //
+        + "             FROM rhq_resource r " //
+        + "            WHERE r.id <> :resourceId " //
+        + "       START WITH r.id = :resourceId " //
+        + " CONNECT BY PRIOR r.parent_resource_id = r.id " //
+        + "         ORDER BY LEVEL ";
+    /**
+     * The ids of the ancestors of a resource, nearest parent first.
+     */
+    public static final String QUERY_NATIVE_FIND_ANCESTORS_POSTGRES = "" //
+        + " WITH RECURSIVE parentResource AS " //
+        + " (       SELECT r.id AS resourceId, r.parent_resource_id AS parentResourceId, 0 AS depth " //
+        + "           FROM rhq_resource AS r " //
+        + "          WHERE r.id = :resourceId " // non-recursive term
+        + "      UNION ALL " //
+        + "         SELECT r.id AS resourceId, r.parent_resource_id AS parentResourceId, pr.depth + 1 AS depth " //
+        + "           FROM rhq_resource AS r " //
+        + "           JOIN parentResource AS pr " //
+        + "             ON (r.id = pr.parentResourceId) " //
+        + "  ) " //
+        + "  SELECT pr.resourceId " //
+        + "    FROM parentResource AS pr " //
+        + "   WHERE pr.depth > 0 " //
+        + "ORDER BY pr.depth ";
+
     private static final int UUID_LENGTH = 36;
 
     private static final long serialVersionUID = 1L;
@@ -97,6 +97,10 @@ public class PluginContainerConfiguration {
     private static final String MEASUREMENT_COLLECTION_THREADCOUNT_PROP = PROP_PREFIX
         + "measurement-collection-threadpoolsize";
     public static final int MEASUREMENT_COLLECTION_THREADCOUNT_DEFAULT = 5;
+    private static final String MEASUREMENT_COLLECTION_TYPE_THREADCOUNT_PROP = PROP_PREFIX
+        + "measurement-collection-type-threadcount";
+    private static final String MEASUREMENT_COLLECTION_TIMEOUT_PROP = PROP_PREFIX + "measurement-collection-timeout";
+    public static final long MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT = 30L; // in seconds
 
     // Drift ----------
 
@@ -104,6 +108,10 @@ public class PluginContainerConfiguration {
     public static final long DRIFT_DETECTION_INITIAL_DELAY_DEFAULT = 30L; // in seconds
     private static final String DRIFT_DETECTION_PERIOD_PROP = PROP_PREFIX + "drift-detection-period";
     public static final long DRIFT_DETECTION_PERIOD_DEFAULT = 60L; // in seconds
+    private static final String DRIFT_DETECTION_THREADCOUNT_PROP = PROP_PREFIX + "drift-detection-threadpoolsize";
+    public static final int DRIFT_DETECTION_THREADCOUNT_DEFAULT = 2;
+    private static final String DRIFT_CHUNKED_TRANSFER_PROP = PROP_PREFIX + "drift-chunked-transfer";
+    public static final boolean DRIFT_CHUNKED_TRANSFER_DEFAULT = false;
 
     // Content ----------
 
@@ -663,6 +671,47 @@ public class PluginContainerConfiguration {
         configuration.put(MEASUREMENT_COLLECTION_THREADCOUNT_PROP, Integer.valueOf(size));
     }
 
+    /**
+     * The maximum number of threads from the measurement collection thread pool that can concurrently collect
+     * measurements for resources of the same type. This keeps a type of slow resource components from making the
+     * collections of all other resources late. If not set, all threads but one can be used for the same type.
+     *
+     * @return the maximum number of concurrent collections per resource type
+     */
+    public int getMeasurementCollectionThreadPoolSizePerType() {
+        Integer size = (Integer) configuration.get(MEASUREMENT_COLLECTION_TYPE_THREADCOUNT_PROP);
+        return (size == null) ? Math.max(1, getMeasurementCollectionThreadPoolSize() - 1) : size.intValue();
+    }
+
+    /**
+     * Defines the number of threads that can concurrently collect measurements for resources of the same type.
+     *
+     * @param size the maximum number of concurrent collections per resource type
+     */
+    public void setMeasurementCollectionThreadPoolSizePerType(int size) {
+        configuration.put(MEASUREMENT_COLLECTION_TYPE_THREADCOUNT_PROP, Integer.valueOf(size));
+    }
+
+    /**
+     * When measurements are collected, this is the amount of time, in seconds, a resource component has to return
+     * the values before the collection is aborted.
+     *
+     * @return measurement collection timeout, in seconds
+     */
+    public long getMeasurementCollectionTimeout() {
+        Long timeout = (Long) configuration.get(MEASUREMENT_COLLECTION_TIMEOUT_PROP);
+        return (timeout == null) ? MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT : timeout.longValue();
+    }
+
+    /**
+     * Sets the measurement collection timeout, specified in seconds.
+     *
+     * @param timeout
+     */
+    public void setMeasurementCollectionTimeout(long timeout) {
+        configuration.put(MEASUREMENT_COLLECTION_TIMEOUT_PROP, Long.valueOf(timeout));
+    }
+
     /**
      * Returns the length of time, in seconds, before drift detection first begins.
      *
@@ -704,6 +753,47 @@ public class PluginContainerConfiguration {
         configuration.put(DRIFT_DETECTION_PERIOD_PROP, period);
     }
 
+    /**
+     * Returns the number of threads that compute file digests for drift detection. If this value was never set via
+     * {@link #setDriftDetectionThreadPoolSize(int)}, the default will be {@link #DRIFT_DETECTION_THREADCOUNT_DEFAULT}.
+     *
+     * @return the number of digest threads
+     */
+    public int getDriftDetectionThreadPoolSize() {
+        Integer size = (Integer) configuration.get(DRIFT_DETECTION_THREADCOUNT_PROP);
+        return (size == null) ? DRIFT_DETECTION_THREADCOUNT_DEFAULT : size.intValue();
+    }
+
+    /**
+     * Sets the number of threads that compute file digests for drift detection.
+     *
+     * @param size the number of digest threads
+     */
+    public void setDriftDetectionThreadPoolSize(int size) {
+        configuration.put(DRIFT_DETECTION_THREADCOUNT_PROP, size);
+    }
+
+    /**
+     * Returns whether drift file content is sent to the server as content-defined chunks, leaving out the chunks the
+     * server already has. If this value was never set via {@link #setDriftChunkedTransfer(boolean)}, the default will
+     * be {@link #DRIFT_CHUNKED_TRANSFER_DEFAULT}.
+     *
+     * @return true if drift file content is sent in chunks
+     */
+    public boolean isDriftChunkedTransfer() {
+        Boolean chunked = (Boolean) configuration.get(DRIFT_CHUNKED_TRANSFER_PROP);
+        return (chunked == null) ? DRIFT_CHUNKED_TRANSFER_DEFAULT : chunked.booleanValue();
+    }
+
+    /**
+     * Sets whether drift file content is sent to the server as content-defined chunks.
+     *
+     * @param chunked true to send drift file content in chunks
+     */
+    public void setDriftChunkedTransfer(boolean chunked) {
+        configuration.put(DRIFT_CHUNKED_TRANSFER_PROP, Boolean.valueOf(chunked));
+    }
+
     /**
      * Returns the length of time, in seconds, before auto-discovery of content first begins.
      *
@@ -1,6 +1,7 @@
 package org.rhq.core.pc.drift;
 
 import java.io.File;
+import java.util.Set;
 
 import org.rhq.core.domain.drift.DriftDefinition;
 
@@ -29,6 +30,18 @@ public interface DriftClient {
 
     void repeatChangeSet(int resourceId, String driftDefName, int version);
 
+    /**
+     * Asks the server which of the given content chunks it does not have yet. This is the
+     * first step of sending content in the {@link org.rhq.common.drift.ChunkedContent chunked}
+     * format. Content zip files in that format are sent by
+     * {@link #sendChangeSetContentToServer(int, String, File)} as well.
+     *
+     * @param chunkDigests The SHA-256 hashes of the chunks
+     * @return The hashes of the chunks the server is missing
+     * @throws RuntimeException if the server does not support chunked content
+     */
+    Set<String> findMissingContentChunks(Set<String> chunkDigests);
+
     File getAbsoluteBaseDirectory(int resourceId, DriftDefinition driftDefinition);
 
     void reportMissingBaseDir(int resourceId, DriftDefinition driftDefinition);
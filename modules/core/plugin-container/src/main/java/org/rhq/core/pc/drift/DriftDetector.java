@@ -22,6 +22,7 @@ package org.rhq.core.pc.drift;
 import static org.rhq.common.drift.FileEntry.addedFileEntry;
 import static org.rhq.common.drift.FileEntry.changedFileEntry;
 import static org.rhq.common.drift.FileEntry.removedFileEntry;
+import static org.rhq.core.domain.drift.DriftCategory.FILE_REMOVED;
 import static org.rhq.core.domain.drift.DriftChangeSetCategory.COVERAGE;
 import static org.rhq.core.domain.drift.DriftChangeSetCategory.DRIFT;
 import static org.rhq.core.util.file.FileUtil.copyFile;
@@ -31,12 +32,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -62,21 +72,45 @@ public class DriftDetector implements Runnable {
     static final String FILE_CHANGESET_FULL = "changeset.txt";
     static final String FILE_CHANGESET_DELTA = "drift-changeset.txt";
     static final String FILE_SNAPSHOT_PINNED = "snapshot.pinned";
+    static final String FILE_DIGEST_INDEX = "digest-index.dat";
+
+    /**
+     * The number of digests per digest thread that may be pending at a time. This keeps the digest threads busy
+     * without holding on to more than a handful of results.
+     */
+    private static final int PENDING_DIGESTS_PER_THREAD = 4;
 
     private final ScheduleQueue scheduleQueue;
 
     private final ChangeSetManager changeSetMgr;
 
-    private final MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
-
     private final DriftClient driftClient;
 
+    private final ExecutorService digestExecutor;
+
+    private final int maxPendingDigests;
+
     public DriftDetector(ScheduleQueue scheduleQueue,
             ChangeSetManager changeSetMgr,
             DriftClient driftClient) {
+        this(scheduleQueue, changeSetMgr, driftClient, null, 1);
+    }
+
+    /**
+     * @param digestExecutor the executor used to compute file digests, or null to compute them on the detection
+     * thread
+     * @param digestThreads the number of threads of the digest executor
+     */
+    public DriftDetector(ScheduleQueue scheduleQueue,
+            ChangeSetManager changeSetMgr,
+            DriftClient driftClient,
+            ExecutorService digestExecutor,
+            int digestThreads) {
         this.scheduleQueue = scheduleQueue;
         this.changeSetMgr = changeSetMgr;
         this.driftClient = driftClient;
+        this.digestExecutor = digestExecutor;
+        this.maxPendingDigests = Math.max(1, digestThreads) * PENDING_DIGESTS_PER_THREAD;
     }
 
     @Override
@@ -222,13 +256,15 @@ public class DriftDetector implements Runnable {
             }
         }
 
-        final List<FileEntry> unchangedEntries = new LinkedList<FileEntry>();
-        final List<FileEntry> changedEntries = new LinkedList<FileEntry>();
-        final List<FileEntry> removedEntries = new LinkedList<FileEntry>();
-        final List<FileEntry> addedEntries = new LinkedList<FileEntry>();
-        // for pinned snapshots, keep track of the original FileEntry objects for changed entries. These
-        // are used if we re-write the pinned snapshot file.
-        final List<FileEntry> changedPinnedEntries = isPinned ? new LinkedList<FileEntry>() : null;
+        // Only the drift and the entries that get their size and timestamp filled in are kept in memory. The new
+        // snapshot is written by streaming the unchanged entries from the snapshot we compared against.
+        final Map<String, FileEntry> driftEntries = new LinkedHashMap<String, FileEntry>();
+        final Map<String, FileEntry> updatedEntries = new HashMap<String, FileEntry>();
+        final List<FileEntry> addedEntries = new ArrayList<FileEntry>();
+
+        File indexFile = new File(currentFullSnapshot.getParentFile(), FILE_DIGEST_INDEX);
+        FileDigestIndex index = FileDigestIndex.load(indexFile, basedir.getAbsolutePath());
+        DigestQueue digests = new DigestQueue(index);
 
         try {
             ChangeSetReader snapshotReader = null;
@@ -259,8 +295,8 @@ public class DriftDetector implements Runnable {
                 }
 
                 // First look for files that have either been changed or removed
-                updateSnapshot = scanSnapshot(schedule, basedir, snapshotReader, newFiles, unchangedEntries,
-                    changedEntries, removedEntries, changedPinnedEntries);
+                updateSnapshot = scanSnapshot(schedule, basedir, snapshotReader, newFiles, driftEntries,
+                    updatedEntries, digests);
 
             } finally {
                 if (null != snapshotReader) {
@@ -271,10 +307,8 @@ public class DriftDetector implements Runnable {
             // if necessary, re-write the pinned snapshot file because we've updated timestamp/filesize info, which
             // on subsequent detection runs will help us avoid SHA generation. It must maintain the same entries.
             if (isPinned && updateSnapshot) {
-                changedPinnedEntries.addAll(unchangedEntries);
-
-                backupAndDeleteCurrentSnapshot(snapshotFile);
-                updatePinnedSnapshot(schedule, snapshotFile, changedPinnedEntries);
+                writeSnapshot(snapshotFile, snapshotFile, createHeaders(schedule, COVERAGE, 0),
+                    Collections.<String, FileEntry> emptyMap(), updatedEntries, Collections.<FileEntry> emptyList());
             }
 
             // add new files to the snapshotEntries and deltaEntries
@@ -284,10 +318,12 @@ public class DriftDetector implements Runnable {
                         log.info("Detected added file for " + schedule + " --> " + file.getAbsolutePath());
                     }
 
-                    FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                    if (null != addedFileEntry) {
-                        addedEntries.add(addedFileEntry);
-                    }
+                    digests.submit(new AddedFileDigest(schedule, basedir, file) {
+                        @Override
+                        void digested(String sha) {
+                            addedEntries.add(addedFileEntry(path, sha, lastModified, size));
+                        }
+                    });
 
                 } catch (Throwable t) {
                     // report the error but keep going, perhaps it is specific to a single file, try to
@@ -297,15 +333,12 @@ public class DriftDetector implements Runnable {
                             + " in schedule " + schedule + ". Skipping file.", t);
                 }
             }
-
-            // The new snapshot contains all changed, unchanged and added files. Not removed files.
-            final List<FileEntry> snapshotEntries = new LinkedList<FileEntry>(unchangedEntries);
-            snapshotEntries.addAll(changedEntries);
-            snapshotEntries.addAll(addedEntries);
+            digests.finish();
+            newFiles.clear();
+            storeDigestIndex(index, indexFile);
 
             // The snapshot delta contains all changed, added and removed files.
-            final List<FileEntry> deltaEntries = new LinkedList<FileEntry>(changedEntries);
-            deltaEntries.addAll(removedEntries);
+            final List<FileEntry> deltaEntries = new ArrayList<FileEntry>(driftEntries.values());
             deltaEntries.addAll(addedEntries);
 
             if (deltaEntries.isEmpty()) {
@@ -316,8 +349,9 @@ public class DriftDetector implements Runnable {
                     // But, if we have timestamp/filesize updates then we want to replace the current snapshot with
                     // the updated entries, so we can avoid SHA generation on subsequent runs.
                     if (updateSnapshot) {
-                        currentFullSnapshot.delete();
-                        newSnapshot = updateCurrentSnapshot(schedule, snapshotEntries, newVersion - 1);
+                        newSnapshot = writeSnapshot(currentFullSnapshot, currentFullSnapshot,
+                            createHeaders(schedule, COVERAGE, newVersion - 1), driftEntries, updatedEntries,
+                            addedEntries);
                     }
                 } else {
                     // If pinned and returning to compliance (meaning no drift now but the previous snapshot did have drift)
@@ -325,8 +359,8 @@ public class DriftDetector implements Runnable {
                     // increment the snapshot version in order to let the server know about the state change.
                     if (newVersion > 1
                         && !isPreviousChangeSetEmpty(schedule.getResourceId(), schedule.getDriftDefinition())) {
-                        currentFullSnapshot.delete();
-                        newSnapshot = updateCurrentSnapshot(schedule, snapshotEntries, newVersion);
+                        newSnapshot = writeSnapshot(snapshotFile, currentFullSnapshot,
+                            createHeaders(schedule, COVERAGE, newVersion), driftEntries, updatedEntries, addedEntries);
 
                         updateDeltaSnapshot(summary, schedule, deltaEntries, newVersion, currentFullSnapshot,
                             newSnapshot);
@@ -345,49 +379,51 @@ public class DriftDetector implements Runnable {
                     return;
                 }
 
-                // otherwise, generate a new current snapshot, and a snapshot delta reflecting the latest drift
+                // otherwise, generate a new current snapshot, and a snapshot delta reflecting the latest drift. The
+                // new snapshot holds all changed, unchanged and added files, but not the removed files.
                 File oldSnapshot = backupAndDeleteCurrentSnapshot(currentFullSnapshot);
-                File newSnapshot = updateCurrentSnapshot(schedule, snapshotEntries, newVersion);
+                File newSnapshot = writeSnapshot(isPinned ? snapshotFile : oldSnapshot, currentFullSnapshot,
+                    createHeaders(schedule, COVERAGE, newVersion), driftEntries, updatedEntries, addedEntries);
 
                 updateDeltaSnapshot(summary, schedule, deltaEntries, newVersion, oldSnapshot, newSnapshot);
             }
         } finally {
+            digests.cancel();
             // Help out the garbage collector by clearing all of our collections
-            safeClear(newFiles, unchangedEntries, changedEntries, changedPinnedEntries);
+            safeClear(newFiles, addedEntries);
+            driftEntries.clear();
+            updatedEntries.clear();
         }
     }
 
     /**
+     * Computes the digest of a file that is new to the snapshot.
+     * <p/>
      * File.canRead() is basically a security check and does not guarantee that the file contents can truly be read.
      * Certain files, like socket files on linux, can not be processed and it's not known until actually trying to
      * construct a FileInputStream, as is done when we actually try to generate the digest. These files will generate
-     * a FileNotFoundException. This method will catch, log and suppress that issue, and return null
-     * indicating the file is not suitable for drift detection.
-     *
-     * @param basedir the drift def base directory
-     * @param file the new file to add
-     * @return the new FileEntry, or null if this file is not appropriate for drift detection (typically if the
-     * underlying file does not support the needed File operations.
-     * @throws IOException if something unexpected occurs, outside of the FileNotFoundException it looks for.
+     * a FileNotFoundException, which is logged and otherwise ignored since the file is not suitable for drift
+     * detection. Other errors are logged as well, perhaps they are specific to the file.
      */
-    private FileEntry getAddedFileEntry(File basedir, File file) throws IOException {
-        FileEntry result = null;
-
-        try {
-            String sha256 = sha256(file);
-            String relativePath = relativePath(basedir, file);
-            long lastModified = file.lastModified();
-            long length = file.length();
+    private abstract class AddedFileDigest extends PendingDigest {
+        private final DriftDetectionSchedule schedule;
 
-            result = addedFileEntry(relativePath, sha256, lastModified, length);
+        AddedFileDigest(DriftDetectionSchedule schedule, File basedir, File file) {
+            super(file, relativePath(basedir, file));
+            this.schedule = schedule;
+        }
 
-        } catch (FileNotFoundException e) {
-            if (log.isDebugEnabled()) {
-                log.debug("Skipping " + file.getPath() + " since it is missing or is not a physically readable file.");
+        @Override
+        void failed(Exception e) {
+            if (e instanceof FileNotFoundException) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Skipping " + file.getPath() + " since it is missing or is not a physically readable file.");
+                }
+            } else {
+                log.error("An unexpected error occurred while generating the digest of file " + file.getPath()
+                    + " in schedule " + schedule + ". Skipping file.", e);
             }
         }
-
-        return result;
     }
 
     static private void safeClear(Collection<?>... collections) {
@@ -422,19 +458,18 @@ public class DriftDetector implements Runnable {
     }
 
     /**
-     * Process the entries for the snapshotReader. Each entry will be placed in one of the various Lists depending
-     * on what bucket it fall into.
-     * @return true if unchangedEntries (meaning no drift) had timestamp/filesize info updated, in which case the
+     * Process the entries for the snapshotReader. Changed and removed files are put in driftEntries, unchanged entries
+     * that had their timestamp/filesize info filled in are put in updatedEntries. Both are keyed by relative path.
+     * Unchanged entries are otherwise only recorded in the digest index.
+     * @return true if unchanged entries (meaning no drift) had timestamp/filesize info updated, in which case the
      * snapshot should be re-written to disk even if there was no drift.
      * @throws IOException
      */
     private boolean scanSnapshot(DriftDetectionSchedule schedule, File basedir, ChangeSetReader snapshotReader,
-        Set<File> newFiles, List<FileEntry> unchangedEntries, List<FileEntry> changedEntries,
-        List<FileEntry> removedEntries, List<FileEntry> changedPinnedEntries) throws IOException {
-
-        boolean result = false;
+        Set<File> newFiles, final Map<String, FileEntry> driftEntries, final Map<String, FileEntry> updatedEntries,
+        DigestQueue digests) throws IOException {
 
-        for (FileEntry entry : snapshotReader) {
+        for (final FileEntry entry : snapshotReader) {
             File file = new File(basedir, entry.getFile());
             newFiles.remove(file);
 
@@ -444,53 +479,43 @@ public class DriftDetector implements Runnable {
                     log.debug("Detected " + (file.exists() ? "unreadable" : "deleted") + " file for " + schedule
                         + " --> " + file.getAbsolutePath());
                 }
-                removedEntries.add(removedFileEntry(entry.getFile(), entry.getNewSHA()));
-
-                if (null != changedPinnedEntries) {
-                    changedPinnedEntries.add(entry);
-                }
-
+                driftEntries.put(entry.getFile(), removedFileEntry(entry.getFile(), entry.getNewSHA()));
                 continue;
+            }
 
-            } else {
-                String currentSHA = null;
-                boolean isChanged = false;
-
-                // perform a SHA comparison if we are unable to compare size and lastModified or if the
-                // size or lastModified test fails.  We may not have size or lastModified values for the
-                // entry when the current snapshot was provided by the server, either due to a synch or
-                // pinning scenario.  The server does not store that information and will provide -1 for defaults.
-                if (entry.getLastModified() == -1 || entry.getSize() == -1
-                    || entry.getLastModified() != file.lastModified() || entry.getSize() != file.length()) {
-
-                    currentSHA = sha256(file);
-                    isChanged = !entry.getNewSHA().equals(currentSHA);
-                }
-
-                if (isChanged) {
-                    FileEntry changedEntry = changedFileEntry(entry.getFile(), entry.getNewSHA(), currentSHA,
-                        file.lastModified(), file.length());
-                    changedEntries.add(changedEntry);
+            long lastModified = file.lastModified();
+            long size = file.length();
 
-                    if (null != changedPinnedEntries) {
-                        changedPinnedEntries.add(entry);
-                    }
+            // perform a SHA comparison if we are unable to compare size and lastModified or if the
+            // size or lastModified test fails.  We may not have size or lastModified values for the
+            // entry when the current snapshot was provided by the server, either due to a synch or
+            // pinning scenario.  The server does not store that information and will provide -1 for defaults.
+            if (entry.getLastModified() == -1 || entry.getSize() == -1 || entry.getLastModified() != lastModified
+                || entry.getSize() != size) {
 
-                } else {
-                    if (-1 == entry.getLastModified()) {
-                        entry.setLastModified(file.lastModified());
-                        result = true;
-                    }
-                    if (-1 == entry.getSize()) {
-                        entry.setSize(file.length());
-                        result = true;
+                digests.submit(new PendingDigest(file, entry.getFile(), size, lastModified) {
+                    @Override
+                    void digested(String sha) {
+                        if (!entry.getNewSHA().equals(sha)) {
+                            driftEntries.put(path, changedFileEntry(path, entry.getNewSHA(), sha, lastModified, size));
+                        } else if (-1 == entry.getLastModified() || -1 == entry.getSize()) {
+                            if (-1 == entry.getLastModified()) {
+                                entry.setLastModified(lastModified);
+                            }
+                            if (-1 == entry.getSize()) {
+                                entry.setSize(size);
+                            }
+                            updatedEntries.put(path, entry);
+                        }
                     }
-                    unchangedEntries.add(entry);
-                }
+                });
+            } else {
+                digests.remember(entry.getFile(), size, lastModified, entry.getNewSHA());
             }
         }
+        digests.finish();
 
-        return result;
+        return !updatedEntries.isEmpty();
     }
 
     private boolean isPreviousChangeSetEmpty(int resourceId, DriftDefinition definition) throws IOException {
@@ -549,48 +574,53 @@ public class DriftDetector implements Runnable {
         return oldSnapshot;
     }
 
-    private File updateCurrentSnapshot(DriftDetectionSchedule schedule, List<FileEntry> snapshotEntries, int newVersion)
-        throws IOException {
+    /**
+     * Writes a snapshot by streaming the entries of the source snapshot. An entry whose path is in driftEntries is
+     * replaced by the drift entry, or dropped if the file was removed. An entry whose path is in updatedEntries is
+     * replaced by the updated entry. The added entries are appended. The snapshot is written to a temporary file that
+     * then replaces the target, so source and target may be the same file.
+     *
+     * @return the target file
+     */
+    private File writeSnapshot(File source, File target, Headers headers, Map<String, FileEntry> driftEntries,
+        Map<String, FileEntry> updatedEntries, List<FileEntry> addedEntries) throws IOException {
 
-        ChangeSetWriter newSnapshotWriter = null;
+        File newSnapshot = new File(target.getParentFile(), target.getName() + ".new");
+        ChangeSetReader reader = null;
+        ChangeSetWriter writer = null;
 
         try {
-            Headers snapshotHeaders = createHeaders(schedule, COVERAGE, newVersion);
-            File newSnapshot = changeSetMgr.findChangeSet(schedule.getResourceId(), schedule.getDriftDefinition()
-                .getName(), COVERAGE);
-            newSnapshotWriter = changeSetMgr.getChangeSetWriter(schedule.getResourceId(), snapshotHeaders);
+            reader = changeSetMgr.getChangeSetReader(source);
+            writer = changeSetMgr.getChangeSetWriter(newSnapshot, headers);
 
-            for (FileEntry entry : snapshotEntries) {
-                newSnapshotWriter.write(entry);
+            for (FileEntry entry : reader) {
+                FileEntry driftEntry = driftEntries.get(entry.getFile());
+                if (null != driftEntry) {
+                    if (driftEntry.getType() != FILE_REMOVED) {
+                        writer.write(driftEntry);
+                    }
+                    continue;
+                }
+                FileEntry updatedEntry = updatedEntries.get(entry.getFile());
+                writer.write(null != updatedEntry ? updatedEntry : entry);
+            }
+            for (FileEntry entry : addedEntries) {
+                writer.write(entry);
             }
-            return newSnapshot;
         } finally {
-            if (null != newSnapshotWriter) {
-                newSnapshotWriter.close();
+            if (null != reader) {
+                reader.close();
             }
-        }
-    }
-
-    private File updatePinnedSnapshot(DriftDetectionSchedule schedule, File pinnedSnapshot,
-        List<FileEntry> snapshotEntries) throws IOException {
-
-        ChangeSetWriter newSnapshotWriter = null;
-
-        try {
-            Headers snapshotHeaders = createHeaders(schedule, COVERAGE, 0);
-            newSnapshotWriter = changeSetMgr.getChangeSetWriter(pinnedSnapshot, snapshotHeaders);
-
-            for (FileEntry entry : snapshotEntries) {
-                newSnapshotWriter.write(entry);
+            if (null != writer) {
+                writer.close();
             }
+        }
 
-            return pinnedSnapshot;
-
-        } finally {
-            if (null != newSnapshotWriter) {
-                newSnapshotWriter.close();
-            }
+        target.delete();
+        if (!newSnapshot.renameTo(target)) {
+            throw new IOException("Failed to rename " + newSnapshot.getPath() + " to " + target.getPath());
         }
+        return target;
     }
 
     private boolean isSameAsPreviousChangeSet(List<FileEntry> entries, File currentSnapsotFile) throws IOException {
@@ -659,20 +689,26 @@ public class DriftDetector implements Runnable {
         File snapshot = changeSetMgr.findChangeSet(schedule.getResourceId(), schedule.getDriftDefinition().getName(),
             COVERAGE);
 
+        File indexFile = new File(snapshot.getParentFile(), FILE_DIGEST_INDEX);
+        FileDigestIndex index = FileDigestIndex.load(indexFile, basedir.getAbsolutePath());
+        DigestQueue digests = new DigestQueue(index);
+
         ChangeSetWriter writer = null;
         try {
             writer = changeSetMgr.getChangeSetWriter(snapshot, createHeaders(schedule, COVERAGE, 0));
 
             if (basedir.isDirectory()) {
-                doDirectoryScan(schedule, driftDef, basedir, writer);
+                doDirectoryScan(schedule, driftDef, basedir, writer, digests);
                 writer.close();
                 writer = null;
+                storeDigestIndex(index, indexFile);
             }
             if (schedule.getDriftDefinition().isPinned()) {
                 copyFile(snapshot, new File(snapshot.getParentFile(), FILE_SNAPSHOT_PINNED));
             }
             summary.setNewSnapshot(snapshot);
         } finally {
+            digests.cancel();
             if (writer != null) {
                 writer.close();
             }
@@ -680,7 +716,7 @@ public class DriftDetector implements Runnable {
     }
 
     private void doDirectoryScan(final DriftDetectionSchedule schedule, DriftDefinition driftDef, final File basedir,
-        final ChangeSetWriter writer) {
+        final ChangeSetWriter writer, final DigestQueue digests) throws IOException {
 
         List<Filter> includes = driftDef.getIncludes();
         List<Filter> excludes = driftDef.getExcludes();
@@ -701,10 +737,12 @@ public class DriftDetector implements Runnable {
                             log.debug("Adding " + file.getPath() + " to coverage change set for " + schedule);
                         }
 
-                        FileEntry addedFileEntry = getAddedFileEntry(basedir, file);
-                        if (null != addedFileEntry) {
-                            writer.write(addedFileEntry);
-                        }
+                        digests.submit(new AddedFileDigest(schedule, basedir, file) {
+                            @Override
+                            void digested(String sha) throws IOException {
+                                writer.write(addedFileEntry(path, sha, lastModified, size));
+                            }
+                        });
 
                     } catch (Throwable t) {
                         // report the error but keep going, perhaps it is specific to a single file, try to
@@ -715,6 +753,7 @@ public class DriftDetector implements Runnable {
                 }
             }));
         }
+        digests.finish();
     }
 
     private String relativePath(File basedir, File file) {
@@ -730,8 +769,23 @@ public class DriftDetector implements Runnable {
         return filePath.substring(basedirLen);
     }
 
-    private String sha256(File file) throws IOException {
-        return digestGenerator.calcDigestString(file);
+    /**
+     * A new generator is used for each file since the digests may be computed concurrently.
+     */
+    private static String sha256(File file) throws IOException {
+        return new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(file);
+    }
+
+    private void storeDigestIndex(FileDigestIndex index, File indexFile) {
+        if (log.isDebugEnabled()) {
+            log.debug("Skipped " + index.getHits() + " of " + index.size() + " digests using " + indexFile.getPath());
+        }
+        try {
+            index.store(indexFile);
+        } catch (IOException e) {
+            // not fatal, the next detection just computes more digests
+            log.warn("Failed to store digest index " + indexFile.getPath() + ": " + e.getMessage());
+        }
     }
 
     private String basedir(int resourceId, DriftDefinition driftDef) {
@@ -784,6 +838,141 @@ public class DriftDetector implements Runnable {
         deleteZipFiles(newSnapshot.getParentFile());
     }
 
+    /**
+     * A file whose digest is needed. The size and modification time are read before the file is hashed, so they can
+     * safely be stored along with the digest.
+     */
+    abstract static class PendingDigest {
+        final File file;
+        final String path;
+        final long size;
+        final long lastModified;
+        long submitted;
+        String sha;
+        Future<String> future;
+
+        PendingDigest(File file, String path) {
+            this(file, path, file.length(), file.lastModified());
+        }
+
+        PendingDigest(File file, String path, long size, long lastModified) {
+            this.file = file;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Called on the detection thread, in the order the digests were submitted.
+         */
+        abstract void digested(String sha) throws IOException;
+
+        void failed(Exception e) throws IOException {
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Computes file digests on the digest executor, if there is one, and hands them back on the detection thread in
+     * the order they were submitted. Digests found in the index are not computed. Only a bounded number of digests
+     * is pending at a time, so the memory used does not grow with the number of files.
+     */
+    private class DigestQueue {
+        private final FileDigestIndex index;
+
+        private final LinkedList<PendingDigest> pending = new LinkedList<PendingDigest>();
+
+        DigestQueue(FileDigestIndex index) {
+            this.index = index;
+        }
+
+        void submit(final PendingDigest digest) throws IOException {
+            digest.submitted = System.currentTimeMillis();
+            digest.sha = index.get(digest.path, digest.size, digest.lastModified);
+            if (null == digest.sha && null != digestExecutor) {
+                digest.future = digestExecutor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return sha256(digest.file);
+                    }
+                });
+            }
+            pending.add(digest);
+            while (pending.size() > maxPendingDigests) {
+                complete(pending.removeFirst());
+            }
+        }
+
+        /**
+         * Records the digest of a file that did not have to be hashed.
+         */
+        void remember(String path, long size, long lastModified, String sha) {
+            index.put(path, size, lastModified, sha, System.currentTimeMillis());
+        }
+
+        /**
+         * Waits for all pending digests.
+         */
+        void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                complete(pending.removeFirst());
+            }
+        }
+
+        /**
+         * Drops the pending digests, used when the detection fails.
+         */
+        void cancel() {
+            for (PendingDigest digest : pending) {
+                if (null != digest.future) {
+                    digest.future.cancel(false);
+                }
+            }
+            pending.clear();
+        }
+
+        private void complete(PendingDigest digest) throws IOException {
+            String sha = digest.sha;
+            if (null == sha) {
+                try {
+                    sha = (null != digest.future) ? getDigest(digest.future) : sha256(digest.file);
+                } catch (IOException e) {
+                    digest.failed(e);
+                    return;
+                } catch (RuntimeException e) {
+                    digest.failed(e);
+                    return;
+                }
+                index.put(digest.path, digest.size, digest.lastModified, sha, digest.submitted);
+            }
+            digest.digested(sha);
+        }
+
+        private String getDigest(Future<String> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a file digest");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Failed to compute file digest: " + cause);
+            }
+        }
+    }
+
     private void deleteZipFiles(File dir) {
         File[] files = dir.listFiles(new FilenameFilter() {
             @Override
@@ -1,12 +1,20 @@
 package org.rhq.core.pc.drift;
 
+import static org.rhq.common.drift.ChunkedContent.CHUNK_ENTRY_PREFIX;
+import static org.rhq.common.drift.ChunkedContent.MANIFEST_ENTRY;
+
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -15,6 +23,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.common.drift.ChangeSetReader;
+import org.rhq.common.drift.ChunkedContent;
+import org.rhq.common.drift.ContentChunker;
 import org.rhq.common.drift.FileEntry;
 import org.rhq.common.drift.Headers;
 import org.rhq.core.domain.drift.DriftFile;
@@ -22,6 +32,11 @@ import org.rhq.core.util.stream.StreamUtil;
 
 public class DriftFilesSender implements Runnable {
 
+    /**
+     * The suffix of content zip files in the {@link ChunkedContent chunked} format.
+     */
+    static final String CHUNKED_CONTENT_SUFFIX = ".chunked.zip";
+
     private Log log = LogFactory.getLog(DriftFilesSender.class);
 
     private int resourceId;
@@ -34,6 +49,10 @@ public class DriftFilesSender implements Runnable {
 
     private DriftClient driftClient;
 
+    private boolean chunkedTransfer;
+
+    private String supersededToken;
+
     public void setResourceId(int resourceId) {
         this.resourceId = resourceId;
     }
@@ -54,17 +73,33 @@ public class DriftFilesSender implements Runnable {
         changeSetMgr = changeSetManager;
     }
 
+    public void setChunkedTransfer(boolean chunkedTransfer) {
+        this.chunkedTransfer = chunkedTransfer;
+    }
+
+    /**
+     * Makes the sender delete the content zip file with the given token once the new content zip file has been
+     * written. The server asks for files again when it could not rebuild them from a chunked content zip file; the
+     * new zip file replaces the old one, which would otherwise be resent on every restart.
+     */
+    public void setSupersededToken(String supersededToken) {
+        this.supersededToken = supersededToken;
+    }
+
     @Override
     public void run() {
         ZipOutputStream stream = null;
         int numContentFiles = 0;
+        File changeSetDir = null;
+        boolean written = false;
+        boolean noContent = false;
         try {
             if (log.isInfoEnabled()) {
                 log.info("Preparing to send content to server for " + defToString());
             }
             long startTime = System.currentTimeMillis();
             File changeSet = changeSetMgr.findChangeSet(resourceId, headers.getDriftDefinitionName());
-            File changeSetDir = changeSet.getParentFile();
+            changeSetDir = changeSet.getParentFile();
 
             // Note that the content file has a specific format that the server
             // expects. The file name is of the form content_<token>.zip where
@@ -80,42 +115,30 @@ public class DriftFilesSender implements Runnable {
             //
             // jsanda
 
+            // With chunked transfer the zip file holds the chunks of the files that the
+            // server does not have yet and a manifest listing the chunks of each file, see
+            // ChunkedContent. Its name ends with .chunked.zip but starts the same way.
+
+            Map<String, File> files = findContentFiles();
+            noContent = files.isEmpty();
+            Set<String> serverChunks = chunkedTransfer && !files.isEmpty() ? findServerChunks(files) : null;
+
             String timestamp = Long.toString(System.currentTimeMillis());
-            String contentFileName = "content_" + timestamp + ".zip";
+            String contentFileName = "content_" + timestamp
+                + (serverChunks == null ? ".zip" : CHUNKED_CONTENT_SUFFIX);
             final File zipFile = new File(changeSetDir, contentFileName);
             stream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
 
-            if (driftFiles.size() == 1) {
-                DriftFile driftFile = driftFiles.get(0);
-                File file = find(driftFile);
-                if (file == null || !file.exists()) {
-                    log.warn("Unable to find file for " + driftFile);
-                } else {
+            if (serverChunks == null) {
+                for (Map.Entry<String, File> file : files.entrySet()) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Adding " + file.getPath() + " to " + contentFileName);
+                        log.debug("Adding " + file.getValue().getPath() + " to " + contentFileName);
                     }
-                    addFileToContentZipFile(stream, driftFile, file);
+                    addFileToContentZipFile(stream, file.getKey(), file.getValue());
                     ++numContentFiles;
                 }
             } else {
-                Map<String, FileEntry> fileEntries = createSnapshotIndex();
-
-                for (DriftFile driftFile : driftFiles) {
-                    FileEntry entry = fileEntries.get(driftFile.getHashId());
-                    if (entry == null) {
-                        continue;
-                    }
-                    File file = new File(headers.getBasedir(), entry.getFile());
-                    if (file == null || !file.exists()) {
-                        log.warn("Unable to find file for " + driftFile);
-                    } else {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Adding " + file.getPath() + " to " + contentFileName);
-                        }
-                        addFileToContentZipFile(stream, driftFile, file);
-                        ++numContentFiles;
-                    }
-                }
+                numContentFiles = addChunksToContentZipFile(stream, files, serverChunks);
             }
 
             if (numContentFiles > 0) {
@@ -124,6 +147,7 @@ public class DriftFilesSender implements Runnable {
 
             stream.close();
             stream = null;
+            written = true;
 
             if (log.isInfoEnabled()) {
                 long endTime = System.currentTimeMillis();
@@ -152,13 +176,168 @@ public class DriftFilesSender implements Runnable {
                 } catch (IOException e) {
                 }
             }
+            // with no files left to send, the superseded content could not be sent again either
+            if (supersededToken != null && changeSetDir != null && (written || noContent)) {
+                deleteSupersededContent(changeSetDir);
+            }
+        }
+    }
+
+    private void deleteSupersededContent(File changeSetDir) {
+        final String prefix = "content_" + supersededToken + ".";
+        File[] files = changeSetDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Deleting " + file.getPath() + ", its files have been requested again");
+                }
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Looks up the files of the requested drift files in the snapshot. Files that no longer exist are left out.
+     *
+     * @return maps the hash of each file to the file
+     */
+    private Map<String, File> findContentFiles() throws IOException {
+        Map<String, File> files = new LinkedHashMap<String, File>();
+
+        if (driftFiles.size() == 1) {
+            DriftFile driftFile = driftFiles.get(0);
+            File file = find(driftFile);
+            if (file == null || !file.exists()) {
+                log.warn("Unable to find file for " + driftFile);
+            } else {
+                files.put(driftFile.getHashId(), file);
+            }
+        } else {
+            Map<String, FileEntry> fileEntries = createSnapshotIndex();
+
+            for (DriftFile driftFile : driftFiles) {
+                FileEntry entry = fileEntries.get(driftFile.getHashId());
+                if (entry == null) {
+                    continue;
+                }
+                File file = new File(headers.getBasedir(), entry.getFile());
+                if (!file.exists()) {
+                    log.warn("Unable to find file for " + driftFile);
+                } else {
+                    files.put(driftFile.getHashId(), file);
+                }
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Chunks the files and asks the server which of the chunks it is missing.
+     *
+     * @return the digests of the chunks the server already has or null if the server does not support chunked
+     * transfer, in which case whole files are sent
+     */
+    private Set<String> findServerChunks(Map<String, File> files) {
+        final Set<String> chunks = new HashSet<String>();
+        ContentChunker chunker = new ContentChunker();
+        for (File file : files.values()) {
+            try {
+                chunk(chunker, file, new ContentChunker.ChunkVisitor() {
+                    @Override
+                    public void visit(String digest, byte[] chunk, int length) {
+                        chunks.add(digest);
+                    }
+                });
+            } catch (IOException e) {
+                // the file will be skipped when the content zip file is written
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to read " + file.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        Set<String> missingChunks;
+        try {
+            missingChunks = driftClient.findMissingContentChunks(chunks);
+        } catch (RuntimeException e) {
+            log.warn("The server does not support chunked transfer of drift files, sending whole files for "
+                + defToString() + ": " + e.getMessage());
+            return null;
+        }
+
+        chunks.removeAll(missingChunks);
+        if (log.isDebugEnabled()) {
+            log.debug("The server already has " + chunks.size() + " of " + (chunks.size() + missingChunks.size())
+                + " chunks for " + defToString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Adds the chunks of the files that the server does not have, followed by the manifest. The files are chunked
+     * again rather than kept in memory. A chunk that was not seen when asking the server, because the file changed in
+     * the meantime, is sent as well; the server then rejects the file since its content no longer matches its hash.
+     *
+     * @return the number of files in the manifest
+     */
+    private int addChunksToContentZipFile(final ZipOutputStream stream, Map<String, File> files,
+        Set<String> serverChunks) throws IOException {
+
+        final Set<String> skippedChunks = new HashSet<String>(serverChunks);
+        Map<String, List<String>> manifest = new LinkedHashMap<String, List<String>>();
+        ContentChunker chunker = new ContentChunker();
+
+        for (Map.Entry<String, File> file : files.entrySet()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Adding chunks of " + file.getValue().getPath() + " to content zip file");
+            }
+            final List<String> digests = new ArrayList<String>();
+            try {
+                chunk(chunker, file.getValue(), new ContentChunker.ChunkVisitor() {
+                    @Override
+                    public void visit(String digest, byte[] chunk, int length) throws IOException {
+                        digests.add(digest);
+                        if (skippedChunks.add(digest)) {
+                            stream.putNextEntry(new ZipEntry(CHUNK_ENTRY_PREFIX + digest));
+                            stream.write(chunk, 0, length);
+                            stream.closeEntry();
+                        }
+                    }
+                });
+                manifest.put(file.getKey(), digests);
+            } catch (IOException e) {
+                log.warn("Failed to add chunks of " + file.getValue().getPath() + " to content zip file: "
+                    + e.getMessage());
+            }
+        }
+
+        if (!manifest.isEmpty()) {
+            stream.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+            ChunkedContent.writeManifest(manifest, stream);
+            stream.closeEntry();
+        }
+        return manifest.size();
+    }
+
+    private void chunk(ContentChunker chunker, File file, ContentChunker.ChunkVisitor visitor) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            chunker.chunk(fis, visitor);
+        } finally {
+            fis.close();
         }
     }
 
-    private void addFileToContentZipFile(ZipOutputStream stream, DriftFile driftFile, File file) throws IOException {
+    private void addFileToContentZipFile(ZipOutputStream stream, String hashId, File file) throws IOException {
         FileInputStream fis = new FileInputStream(file);
         try {
-            stream.putNextEntry(new ZipEntry(driftFile.getHashId()));
+            stream.putNextEntry(new ZipEntry(hashId));
             StreamUtil.copy(fis, stream, false);
         } finally {
             fis.close();
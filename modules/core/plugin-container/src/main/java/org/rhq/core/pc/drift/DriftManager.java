@@ -35,6 +35,9 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
@@ -43,6 +46,7 @@ import java.util.zip.ZipOutputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.rhq.common.drift.ChangeSetReader;
 import org.rhq.common.drift.ChangeSetWriter;
 import org.rhq.common.drift.Headers;
 import org.rhq.core.clientapi.agent.drift.DriftAgentService;
@@ -60,6 +64,7 @@ import org.rhq.core.pc.agent.AgentService;
 import org.rhq.core.pc.agent.AgentServiceStreamRemoter;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pc.util.LoggingThreadFactory;
 import org.rhq.core.util.file.FileUtil;
 import org.rhq.core.util.stream.StreamUtil;
 
@@ -73,6 +78,11 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
 
     private final ScheduledThreadPoolExecutor driftThreadPool;
 
+    /**
+     * Computes file digests for the drift detector, null if digests are computed on the detection thread.
+     */
+    private final ExecutorService digestThreadPool;
+
     private final ScheduleQueue schedulesQueue = new ScheduleQueueImpl();
 
     /**
@@ -97,13 +107,22 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
                 log.warn("Could not create change sets directory " + changeSetsDir);
                 initialized = false;
                 driftThreadPool = null;
+                digestThreadPool = null;
                 changeSetMgr = null;
                 return;
             }
         }
         changeSetMgr = new ChangeSetManagerImpl(changeSetsDir);
 
-        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this);
+        int digestThreads = pluginContainerConfiguration.getDriftDetectionThreadPoolSize();
+        if (digestThreads > 1) {
+            digestThreadPool = Executors.newFixedThreadPool(digestThreads,
+                new LoggingThreadFactory("DriftDetector.digest", true));
+        } else {
+            digestThreadPool = null;
+        }
+        DriftDetector driftDetector = new DriftDetector(schedulesQueue, changeSetMgr, this, digestThreadPool,
+            digestThreads);
 
         long startTime = System.currentTimeMillis();
         initSchedules(inventoryManager.getPlatform(), inventoryManager);
@@ -289,6 +308,9 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
             // TODO (ips, 04/30/12): Is it safe to pass true here to interrupt executing threads?
             PluginContainer.shutdownExecutorService(driftThreadPool, false);
         }
+        if (digestThreadPool != null) {
+            PluginContainer.shutdownExecutorService(digestThreadPool, false);
+        }
 
         schedulesQueue.clear();
         changeSetMgr = null;
@@ -358,14 +380,25 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
             String token = contentZipFile.getName().substring(startIndex, endIndex);
 
             DriftServerService driftServer = pluginContainerConfiguration.getServerServices().getDriftServerService();
-            driftServer.sendFilesZip(resourceId, driftDefName, token, contentZipFile.length(),
-                remoteInputStream(new BufferedInputStream(new FileInputStream(contentZipFile))));
+            if (contentZipFile.getName().endsWith(DriftFilesSender.CHUNKED_CONTENT_SUFFIX)) {
+                driftServer.sendChunkedFilesZip(resourceId, driftDefName, token, contentZipFile.length(),
+                    remoteInputStream(new BufferedInputStream(new FileInputStream(contentZipFile))));
+            } else {
+                driftServer.sendFilesZip(resourceId, driftDefName, token, contentZipFile.length(),
+                    remoteInputStream(new BufferedInputStream(new FileInputStream(contentZipFile))));
+            }
         } catch (FileNotFoundException e) {
             log.error("An error occurred while trying to send change set content zip file " + contentZipFile.getPath()
                 + " to server.", e);
         }
     }
 
+    @Override
+    public Set<String> findMissingContentChunks(Set<String> chunkDigests) {
+        DriftServerService driftServer = pluginContainerConfiguration.getServerServices().getDriftServerService();
+        return driftServer.findMissingContentChunks(chunkDigests);
+    }
+
     @Override
     public void repeatChangeSet(int resourceId, String driftDefName, int version) {
         DriftServerService driftServer = pluginContainerConfiguration.getServerServices().getDriftServerService();
@@ -433,12 +466,49 @@ public class DriftManager extends AgentService implements DriftAgentService, Dri
         sender.setDriftFiles(driftFiles);
         sender.setHeaders(headers);
         sender.setChangeSetManager(changeSetMgr);
+        sender.setChunkedTransfer(pluginContainerConfiguration.isDriftChunkedTransfer());
 
         driftThreadPool.execute(sender);
 
         return true;
     }
 
+    @Override
+    public void resendDriftFiles(int resourceId, String driftDefName, String token,
+        List<? extends DriftFile> driftFiles) {
+        log.info("Server is requesting files it could not rebuild from chunks for [resourceId: " + resourceId
+            + ", driftDefinitionName: " + driftDefName + "]");
+
+        Headers headers;
+        try {
+            ChangeSetReader reader = changeSetMgr.getChangeSetReader(resourceId, driftDefName);
+            if (reader == null) {
+                log.warn("Cannot resend drift files. No snapshot found for [resourceId: " + resourceId
+                    + ", driftDefinitionName: " + driftDefName + "]");
+                return;
+            }
+            try {
+                headers = reader.getHeaders();
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot resend drift files for [resourceId: " + resourceId + ", driftDefinitionName: "
+                + driftDefName + "]: " + e.getMessage());
+            return;
+        }
+
+        DriftFilesSender sender = new DriftFilesSender();
+        sender.setResourceId(resourceId);
+        sender.setDriftClient(this);
+        sender.setDriftFiles(driftFiles);
+        sender.setHeaders(headers);
+        sender.setChangeSetManager(changeSetMgr);
+        sender.setSupersededToken(token);
+
+        driftThreadPool.execute(sender);
+    }
+
     @Override
     public void unscheduleDriftDetection(final int resourceId, final DriftDefinition driftDefinition) {
         log.info("Received request to unschedule drift detection for [resourceId:" + resourceId
@@ -0,0 +1,194 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.drift;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Remembers the SHA-256 of each file of a drift definition together with the size and last modification time the file
+ * had when it was hashed. As long as neither changes, the digest is taken from the index instead of reading the file
+ * again. This matters where the snapshot cannot provide the digest: for added files, for files that drifted from a
+ * pinned snapshot (which keeps the pinned size and time) and for files whose modification time changed although their
+ * content did not.
+ * <p/>
+ * The index is stored next to the change sets of the definition. Only the entries that were looked up or added since
+ * the index was loaded are stored again, so files that are gone drop out of the index. The index is discarded if the
+ * base directory changes.
+ * <p/>
+ * This class is not thread-safe.
+ */
+class FileDigestIndex {
+    private static final Log log = LogFactory.getLog(FileDigestIndex.class);
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Files modified less than this many milliseconds before they were hashed are not indexed. Some file systems
+     * only keep the modification time in seconds, so such a file could be modified again without its time changing.
+     */
+    static final long RACY_INTERVAL = 2000L;
+
+    private final String basedir;
+
+    private final Map<String, Entry> loaded;
+
+    private final Map<String, Entry> current;
+
+    private int hits;
+
+    private FileDigestIndex(String basedir, Map<String, Entry> loaded) {
+        this.basedir = basedir;
+        this.loaded = loaded;
+        this.current = new HashMap<String, Entry>((int) (loaded.size() / 0.75f) + 1);
+    }
+
+    /**
+     * Loads the index from the file. If the file does not exist, cannot be read or was written for a different base
+     * directory, an empty index is returned.
+     *
+     * @param indexFile the file the index is stored in
+     * @param basedir the absolute path of the base directory of the drift definition
+     */
+    static FileDigestIndex load(File indexFile, String basedir) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        if (indexFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE));
+                if (in.readInt() == VERSION && basedir.equals(in.readUTF())) {
+                    int count = in.readInt();
+                    entries = new HashMap<String, Entry>((int) (count / 0.75f) + 1);
+                    for (int i = 0; i < count; ++i) {
+                        String path = in.readUTF();
+                        long size = in.readLong();
+                        long lastModified = in.readLong();
+                        entries.put(path, new Entry(size, lastModified, in.readUTF()));
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable digest index " + indexFile.getPath() + ": " + e.getMessage());
+                entries.clear();
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+        }
+        return new FileDigestIndex(basedir, entries);
+    }
+
+    /**
+     * @return the indexed digest of the file or null if the file is not indexed or has been modified since it was
+     * hashed
+     */
+    String get(String path, long size, long lastModified) {
+        Entry entry = current.get(path);
+        if (entry == null) {
+            entry = loaded.get(path);
+        }
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            current.put(path, entry);
+            ++hits;
+            return entry.sha;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the digest of a file. The size and modification time must have been read before the file was hashed.
+     *
+     * @param now the time the file was hashed, used to leave out files that were modified too recently
+     */
+    void put(String path, long size, long lastModified, String sha, long now) {
+        if (size < 0 || lastModified <= 0 || now - lastModified < RACY_INTERVAL) {
+            current.remove(path);
+            return;
+        }
+        current.put(path, new Entry(size, lastModified, sha));
+    }
+
+    /**
+     * @return the number of digests that were taken from the index since it was loaded
+     */
+    int getHits() {
+        return hits;
+    }
+
+    int size() {
+        return current.size();
+    }
+
+    /**
+     * Stores the entries that were looked up or added since the index was loaded.
+     */
+    void store(File indexFile) throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile),
+            BUFFER_SIZE));
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(basedir);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> entry : current.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeUTF(entry.getValue().sha);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Failed to rename " + tempFile.getPath() + " to " + indexFile.getPath());
+            }
+        }
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String sha;
+
+        Entry(long size, long lastModified, String sha) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha = sha;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.util.LoggingThreadFactory;
+
+/**
+ * The binary format of the agent's inventory file. Unlike plain Java serialization of the whole platform tree, the
+ * tree structure is stored explicitly and the resources and containers are serialized in independent blocks, so that
+ * the file is compact and the blocks can be decoded in parallel on startup:
+ *
+ * <ul>
+ * <li>resource types are not serialized at all. They are written as references into a type table that only holds the
+ * type and plugin names. The reader puts placeholder types in, which {@link InventoryFile} replaces with the types
+ * from the plugin metadata, just like it does for the types read from the old format.</li>
+ * <li>class descriptors are written as references into a class table instead of being repeated in every block. The
+ * class table holds the full descriptors, field names and types included, just like a serialization stream would, so
+ * classes that gained or lost fields since the file was written are read the same way plain serialization reads
+ * them. Incompatible changes fail the read, and the agent then resyncs its inventory with the server.</li>
+ * <li>the parent and children of each resource are part of the record headers. Containers refer to their resources
+ * by record index.</li>
+ * <li>type names and plugin names are kept in a string table and all counts and indexes are varints.</li>
+ * </ul>
+ *
+ * The layout is: magic, version, string table, type table, class table, resource headers, platform index, container
+ * headers, resource blocks and container blocks.
+ */
+class BinaryInventoryFormat {
+
+    /**
+     * The first four bytes of a binary inventory file ("RHQI"). Files written with plain Java serialization start with
+     * the serialization stream magic instead.
+     */
+    static final int MAGIC = 0x52485149;
+
+    /**
+     * Version 1 only stored the names and serialVersionUIDs of the classes. Such files are not read, the agent resyncs
+     * its inventory instead.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * The number of resources or containers serialized into one block. Each block is decoded by a single thread.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    private static final String DECODER_THREAD_POOL_NAME = "InventoryFile.decoder";
+
+    private BinaryInventoryFormat() {
+    }
+
+    /**
+     * The platform and containers read from a binary inventory file.
+     */
+    static class Inventory {
+        final Resource platform;
+        final Map<String, ResourceContainer> resourceContainers;
+
+        Inventory(Resource platform, Map<String, ResourceContainer> resourceContainers) {
+            this.platform = platform;
+            this.resourceContainers = resourceContainers;
+        }
+    }
+
+    /**
+     * Writes the inventory to the stream, including the magic. The stream is not closed.
+     */
+    static void write(OutputStream out, Resource platform, Map<String, ResourceContainer> containers)
+        throws IOException {
+        Encoder encoder = new Encoder();
+
+        // Collect every resource that is reachable from the platform or a container, so that all references between
+        // resources can be written as record indexes.
+        LinkedList<Resource> pending = new LinkedList<Resource>();
+        if (platform != null) {
+            pending.add(platform);
+        }
+        for (ResourceContainer container : containers.values()) {
+            if (container.getResource() != null) {
+                pending.add(container.getResource());
+            }
+        }
+        while (!pending.isEmpty()) {
+            Resource resource = pending.removeFirst();
+            if (encoder.addResource(resource)) {
+                if (resource.getParentResource() != null) {
+                    pending.add(resource.getParentResource());
+                }
+                pending.addAll(resource.getChildResources());
+            }
+        }
+
+        // The blocks are encoded first, since that fills the tables that have to precede them.
+        List<Map.Entry<String, ResourceContainer>> entries = new ArrayList<Map.Entry<String, ResourceContainer>>(
+            containers.entrySet());
+        List<ResourceContainer> values = new ArrayList<ResourceContainer>(entries.size());
+        for (Map.Entry<String, ResourceContainer> entry : entries) {
+            values.add(entry.getValue());
+        }
+        List<byte[]> resourceBlocks = encoder.encodeBlocks(encoder.resources, true);
+        List<byte[]> containerBlocks = encoder.encodeBlocks(values, false);
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+        writeVarint(dataOut, encoder.strings.size());
+        for (String string : encoder.strings) {
+            dataOut.writeUTF(string);
+        }
+        writeVarint(dataOut, encoder.types.size());
+        for (ResourceType type : encoder.types) {
+            writeVarint(dataOut, encoder.stringIndex(type.getName()));
+            writeVarint(dataOut, encoder.stringIndex(type.getPlugin()));
+        }
+        ByteArrayOutputStream classTable = new ByteArrayOutputStream();
+        ClassTableOutputStream classTableOut = new ClassTableOutputStream(classTable);
+        for (ObjectStreamClass desc : encoder.classes) {
+            classTableOut.writeDescriptor(desc);
+        }
+        classTableOut.close();
+        writeVarint(dataOut, encoder.classes.size());
+        writeVarint(dataOut, classTable.size());
+        classTable.writeTo(dataOut);
+
+        writeVarint(dataOut, encoder.resources.size());
+        for (Resource resource : encoder.resources) {
+            writeVarint(dataOut, encoder.indexOf(resource.getParentResource()) + 1);
+            writeVarint(dataOut, resource.getChildResources().size());
+            for (Resource child : resource.getChildResources()) {
+                writeVarint(dataOut, encoder.indexOf(child));
+            }
+        }
+        writeVarint(dataOut, encoder.indexOf(platform) + 1);
+
+        // containers are normally keyed on the UUID of their resource, in which case the key is not repeated
+        writeVarint(dataOut, entries.size());
+        for (Map.Entry<String, ResourceContainer> entry : entries) {
+            Resource resource = entry.getValue().getResource();
+            if (resource != null && entry.getKey().equals(resource.getUuid())) {
+                writeVarint(dataOut, encoder.indexOf(resource) + 1);
+            } else {
+                writeVarint(dataOut, 0);
+                dataOut.writeUTF(entry.getKey());
+            }
+        }
+
+        for (byte[] block : resourceBlocks) {
+            writeVarint(dataOut, block.length);
+            dataOut.write(block);
+        }
+        for (byte[] block : containerBlocks) {
+            writeVarint(dataOut, block.length);
+            dataOut.write(block);
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Reads an inventory from the stream. The {@link #MAGIC} must already have been consumed.
+     */
+    static Inventory read(DataInputStream in) throws Exception {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported inventory file format version [" + version + "]");
+        }
+
+        String[] strings = new String[readVarint(in)];
+        for (int i = 0; i < strings.length; ++i) {
+            strings[i] = in.readUTF();
+        }
+        Decoder decoder = new Decoder();
+        decoder.types = new ResourceType[readVarint(in)];
+        for (int i = 0; i < decoder.types.length; ++i) {
+            String name = strings[readVarint(in)];
+            String plugin = strings[readVarint(in)];
+            decoder.types[i] = new ResourceType(name, plugin, null, null);
+        }
+        decoder.classes = new ObjectStreamClass[readVarint(in)];
+        byte[] classTable = new byte[readVarint(in)];
+        in.readFully(classTable);
+        ClassTableInputStream classTableIn = new ClassTableInputStream(new ByteArrayInputStream(classTable));
+        for (int i = 0; i < decoder.classes.length; ++i) {
+            decoder.classes[i] = classTableIn.readDescriptor();
+        }
+        classTableIn.close();
+
+        int resourceCount = readVarint(in);
+        int[] parents = new int[resourceCount];
+        int[][] children = new int[resourceCount][];
+        for (int i = 0; i < resourceCount; ++i) {
+            parents[i] = readVarint(in) - 1;
+            children[i] = new int[readVarint(in)];
+            for (int j = 0; j < children[i].length; ++j) {
+                children[i][j] = readVarint(in);
+            }
+        }
+        int platformIndex = readVarint(in) - 1;
+
+        int containerCount = readVarint(in);
+        int[] keyResources = new int[containerCount];
+        String[] keys = new String[containerCount];
+        for (int i = 0; i < containerCount; ++i) {
+            keyResources[i] = readVarint(in) - 1;
+            if (keyResources[i] < 0) {
+                keys[i] = in.readUTF();
+            }
+        }
+
+        byte[][] resourceBlocks = readBlocks(in, resourceCount);
+        byte[][] containerBlocks = readBlocks(in, containerCount);
+
+        ExecutorService executor = null;
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), resourceBlocks.length
+            + containerBlocks.length);
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new LoggingThreadFactory(DECODER_THREAD_POOL_NAME, true));
+        }
+        try {
+            // Resource blocks do not refer to other resources, so they can be decoded before the tree is linked.
+            decoder.resources = new Resource[resourceCount];
+            decoder.decodeBlocks(executor, resourceBlocks, decoder.resources);
+            for (int i = 0; i < resourceCount; ++i) {
+                Resource resource = decoder.resources[i];
+                for (int child : children[i]) {
+                    resource.addChildResourceWithoutAncestry(decoder.resources[child]);
+                }
+            }
+            for (int i = 0; i < resourceCount; ++i) {
+                Resource parent = (parents[i] >= 0) ? decoder.resources[parents[i]] : null;
+                decoder.resources[i].setParentResourceWithoutAncestry(parent);
+            }
+
+            Object[] containers = new Object[containerCount];
+            decoder.decodeBlocks(executor, containerBlocks, containers);
+            Map<String, ResourceContainer> resourceContainers = new HashMap<String, ResourceContainer>(
+                (int) (containerCount / 0.75f) + 1);
+            for (int i = 0; i < containerCount; ++i) {
+                String key = (keyResources[i] >= 0) ? decoder.resources[keyResources[i]].getUuid() : keys[i];
+                resourceContainers.put(key, (ResourceContainer) containers[i]);
+            }
+
+            Resource platform = (platformIndex >= 0) ? decoder.resources[platformIndex] : null;
+            return new Inventory(platform, resourceContainers);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static byte[][] readBlocks(DataInput in, int count) throws IOException {
+        byte[][] blocks = new byte[(count + BLOCK_SIZE - 1) / BLOCK_SIZE][];
+        for (int i = 0; i < blocks.length; ++i) {
+            blocks[i] = new byte[readVarint(in)];
+            in.readFully(blocks[i]);
+        }
+        return blocks;
+    }
+
+    static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in inventory file");
+    }
+
+    /**
+     * Writes the class table. The descriptors are written in the format of a serialization stream, so that the
+     * blocks can be read against them like against the descriptors of a regular stream.
+     */
+    private static class ClassTableOutputStream extends ObjectOutputStream {
+
+        ClassTableOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        void writeDescriptor(ObjectStreamClass desc) throws IOException {
+            writeClassDescriptor(desc);
+        }
+
+        @Override
+        protected void writeStreamHeader() {
+        }
+    }
+
+    /**
+     * Reads the class table. The descriptors are the ones the file was written with, not the ones of the local
+     * classes; the block streams match the two up when a class is first used.
+     */
+    private static class ClassTableInputStream extends ObjectInputStream {
+
+        ClassTableInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        ObjectStreamClass readDescriptor() throws IOException, ClassNotFoundException {
+            return readClassDescriptor();
+        }
+
+        @Override
+        protected void readStreamHeader() {
+        }
+    }
+
+    /**
+     * Stands in for a resource type in a block.
+     */
+    private static class TypeRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+
+        TypeRef(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Stands in for a resource in a container block.
+     */
+    private static class ResourceRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+
+        ResourceRef(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Collects the string, type, class and resource tables while the blocks are being encoded. Not thread-safe.
+     */
+    private static class Encoder {
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        private final List<ResourceType> types = new ArrayList<ResourceType>();
+        private final Map<ResourceType, Integer> typeIndexes = new IdentityHashMap<ResourceType, Integer>();
+        private final List<ObjectStreamClass> classes = new ArrayList<ObjectStreamClass>();
+        private final Map<String, Integer> classIndexes = new HashMap<String, Integer>();
+        private final List<Resource> resources = new ArrayList<Resource>();
+        private final Map<Resource, Integer> resourceIndexes = new IdentityHashMap<Resource, Integer>();
+
+        boolean addResource(Resource resource) {
+            if (resourceIndexes.containsKey(resource)) {
+                return false;
+            }
+            resourceIndexes.put(resource, resources.size());
+            resources.add(resource);
+            return true;
+        }
+
+        int indexOf(Resource resource) {
+            Integer index = (resource != null) ? resourceIndexes.get(resource) : null;
+            return (index != null) ? index : -1;
+        }
+
+        int stringIndex(String string) {
+            Integer index = stringIndexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                stringIndexes.put(string, index);
+            }
+            return index;
+        }
+
+        int typeIndex(ResourceType type) {
+            Integer index = typeIndexes.get(type);
+            if (index == null) {
+                index = types.size();
+                types.add(type);
+                typeIndexes.put(type, index);
+                stringIndex(type.getName());
+                stringIndex(type.getPlugin());
+            }
+            return index;
+        }
+
+        int classIndex(ObjectStreamClass desc) {
+            Integer index = classIndexes.get(desc.getName());
+            if (index == null) {
+                index = classes.size();
+                classes.add(desc);
+                classIndexes.put(desc.getName(), index);
+            }
+            return index;
+        }
+
+        /**
+         * Serializes the objects into blocks of {@link #BLOCK_SIZE}. Each block is a separate object stream, so blocks
+         * can be decoded independently of each other.
+         */
+        List<byte[]> encodeBlocks(List<?> objects, boolean records) throws IOException {
+            List<byte[]> blocks = new ArrayList<byte[]>((objects.size() + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+            for (int start = 0; start < objects.size(); start += BLOCK_SIZE) {
+                buffer.reset();
+                BlockOutputStream out = new BlockOutputStream(buffer);
+                for (Object object : objects.subList(start, Math.min(start + BLOCK_SIZE, objects.size()))) {
+                    if (records) {
+                        out.writeRecord((Resource) object);
+                    } else {
+                        out.writeObject(object);
+                    }
+                }
+                out.close();
+                blocks.add(buffer.toByteArray());
+            }
+            return blocks;
+        }
+
+        private class BlockOutputStream extends ObjectOutputStream {
+            private Resource record;
+            private Set<Resource> recordChildren;
+            private final Map<Resource, Boolean> leftOut = new IdentityHashMap<Resource, Boolean>();
+
+            BlockOutputStream(OutputStream out) throws IOException {
+                super(out);
+                enableReplaceObject(true);
+            }
+
+            /**
+             * Writes the record of a resource. Other resources it refers to are left out, since the tree is rebuilt
+             * from the record headers, unless they are already part of the block. The resource's own child set is
+             * left out as well. An empty set is kept, since it may be a shared singleton that other fields refer to.
+             */
+            void writeRecord(Resource resource) throws IOException {
+                if (leftOut.containsKey(resource)) {
+                    // the stream remembers replacements, the resource would be left out again unless we reset it
+                    reset();
+                    leftOut.clear();
+                }
+                record = resource;
+                recordChildren = resource.getChildResources().isEmpty() ? null : resource.getChildResources();
+                try {
+                    writeObject(resource);
+                } finally {
+                    record = null;
+                    recordChildren = null;
+                }
+            }
+
+            @Override
+            protected void writeStreamHeader() {
+            }
+
+            @Override
+            protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+                writeVarint(this, classIndex(desc));
+            }
+
+            @Override
+            protected Object replaceObject(Object obj) {
+                if (obj instanceof ResourceType) {
+                    return new TypeRef(typeIndex((ResourceType) obj));
+                }
+                if (obj instanceof Resource && obj != record) {
+                    if (record != null) {
+                        leftOut.put((Resource) obj, Boolean.TRUE);
+                        return null;
+                    }
+                    // containers refer to resources by record index
+                    int index = indexOf((Resource) obj);
+                    return (index >= 0) ? new ResourceRef(index) : obj;
+                }
+                if (obj != null && obj == recordChildren) {
+                    return null;
+                }
+                return obj;
+            }
+        }
+    }
+
+    /**
+     * Holds the tables needed to decode blocks. The tables are filled before decoding starts and only read
+     * afterwards, so blocks can be decoded concurrently.
+     */
+    private static class Decoder {
+        private ResourceType[] types;
+        private ObjectStreamClass[] classes;
+        private Resource[] resources;
+
+        void decodeBlocks(ExecutorService executor, final byte[][] blocks, final Object[] results) throws Exception {
+            if (executor == null || blocks.length < 2) {
+                for (int i = 0; i < blocks.length; ++i) {
+                    decodeBlock(blocks, i, results);
+                }
+                return;
+            }
+
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(blocks.length);
+            for (int i = 0; i < blocks.length; ++i) {
+                final int block = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        decodeBlock(blocks, block, results);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
+                }
+            }
+        }
+
+        private void decodeBlock(byte[][] blocks, int block, Object[] results) throws Exception {
+            ObjectInputStream in = new BlockInputStream(new ByteArrayInputStream(blocks[block]));
+            try {
+                int end = Math.min((block + 1) * BLOCK_SIZE, results.length);
+                for (int i = block * BLOCK_SIZE; i < end; ++i) {
+                    results[i] = in.readObject();
+                }
+            } finally {
+                in.close();
+            }
+            blocks[block] = null;
+        }
+
+        private class BlockInputStream extends ObjectInputStream {
+
+            BlockInputStream(InputStream in) throws IOException {
+                super(in);
+                enableResolveObject(true);
+            }
+
+            @Override
+            protected void readStreamHeader() {
+            }
+
+            @Override
+            protected ObjectStreamClass readClassDescriptor() throws IOException {
+                return classes[readVarint(this)];
+            }
+
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName(desc.getName(), false, BinaryInventoryFormat.class.getClassLoader());
+                } catch (ClassNotFoundException e) {
+                    // primitive types
+                    return super.resolveClass(desc);
+                }
+            }
+
+            @Override
+            protected Object resolveObject(Object obj) {
+                if (obj instanceof TypeRef) {
+                    return types[((TypeRef) obj).index];
+                }
+                if (obj instanceof ResourceRef) {
+                    return resources[((ResourceRef) obj).index];
+                }
+                return obj;
+            }
+        }
+    }
+}
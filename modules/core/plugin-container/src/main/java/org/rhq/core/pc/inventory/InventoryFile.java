@@ -19,12 +19,14 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
@@ -42,11 +44,16 @@ import org.rhq.core.pc.PluginContainer;
 /**
  * Provides methods to read and write inventory data to a file.
  *
+ * <p>Inventory is written in the {@link BinaryInventoryFormat binary format}. Files written by older agents, which
+ * contain the serialized platform and containers, can still be read.</p>
+ *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File inventoryFile;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
@@ -115,14 +122,26 @@ public class InventoryFile {
         FileInputStream fis = null;
         try {
             fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            BufferedInputStream bis = new BufferedInputStream(fis, BUFFER_SIZE);
+
+            // files written by older agents are plain serialized object streams, which never start with our magic
+            bis.mark(4);
+            DataInputStream dis = new DataInputStream(bis);
+            if (dis.readInt() == BinaryInventoryFormat.MAGIC) {
+                BinaryInventoryFormat.Inventory inventory = BinaryInventoryFormat.read(dis);
+                this.platform = inventory.platform;
+                this.resourceContainers = inventory.resourceContainers;
+            } else {
+                bis.reset();
+                ObjectInputStream ois = new ObjectInputStream(bis);
+                this.platform = (Resource) ois.readObject();
+                this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
+            }
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
-            this.platform = (Resource) ois.readObject();
             connectTypes(this.platform, uuidsToIgnore);
-            this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
                 connectTypes(resourceContainer.getResource(), uuidsToIgnore);
             }
@@ -209,20 +228,26 @@ public class InventoryFile {
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
+        // write to a temporary file first so a failure half way through does not destroy the previous inventory
+        File tempFile = new File(inventoryFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tempFile);
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            try {
-                oos.writeObject(platformResource);
-                oos.writeObject(containers);
-
-                this.platform = platformResource;
-                this.resourceContainers = containers;
-            } finally {
-                oos.close();
-            }
+            BufferedOutputStream bos = new BufferedOutputStream(fos, BUFFER_SIZE);
+            BinaryInventoryFormat.write(bos, platformResource, containers);
+            bos.flush();
         } finally {
             fos.close();
         }
+
+        if (!tempFile.renameTo(inventoryFile)) {
+            // some platforms do not allow renaming onto an existing file
+            inventoryFile.delete();
+            if (!tempFile.renameTo(inventoryFile)) {
+                throw new IOException("Failed to rename [" + tempFile + "] to [" + inventoryFile + "]");
+            }
+        }
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
     }
 }
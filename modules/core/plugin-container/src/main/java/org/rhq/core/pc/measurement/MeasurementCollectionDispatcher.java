@@ -0,0 +1,253 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.inventory.InventoryManager;
+import org.rhq.core.pc.inventory.ResourceContainer;
+
+/**
+ * Hands the measurement collections that are due to a pool of collector threads, so that a slow resource component
+ * does not hold up the collections of all other resources.
+ * <p/>
+ * At most <code>maxCollections</code> collections run at the same time, and at most
+ * <code>maxCollectionsPerType</code> of them for resources of the same type. Collections for a type that is already
+ * at its limit are queued and picked up by the threads collecting for that type as soon as they are done, so a
+ * type of slow components can only ever occupy its share of the pool. Collections of the same resource never run at
+ * the same time, since components are not required to be thread-safe; a collection for a resource that is being
+ * collected is queued and run by the same thread afterwards. Collections that have been queued for too long are
+ * detected as late by the {@link MeasurementCollectorRunner} and rescheduled.
+ */
+class MeasurementCollectionDispatcher {
+    private static final Log LOG = LogFactory.getLog(MeasurementCollectionDispatcher.class);
+
+    private final MeasurementManager measurementManager;
+    private final MeasurementCollectorRunner collectorRunner;
+    private final Executor executor;
+    private final Semaphore collectionPermits;
+    private final int maxCollectionsPerType;
+
+    // guarded by collectionsByType
+    private final Map<ResourceType, TypeCollections> collectionsByType = new HashMap<ResourceType, TypeCollections>();
+    // key: the id of a resource that is being collected, value: its collections that are due meanwhile
+    private final Map<Integer, Queue<Set<ScheduledMeasurementInfo>>> collectionsByResource =
+        new HashMap<Integer, Queue<Set<ScheduledMeasurementInfo>>>();
+
+    MeasurementCollectionDispatcher(MeasurementManager measurementManager, MeasurementCollectorRunner collectorRunner,
+        Executor executor, int maxCollections, int maxCollectionsPerType) {
+        this.measurementManager = measurementManager;
+        this.collectorRunner = collectorRunner;
+        this.executor = executor;
+        this.collectionPermits = new Semaphore(Math.max(1, maxCollections));
+        this.maxCollectionsPerType = Math.max(1, maxCollectionsPerType);
+    }
+
+    /**
+     * Waits for a collector thread to become available and hands it the next set of measurements that is due, if any.
+     *
+     * @return true if a collection was dispatched, false if there was nothing due
+     *
+     * @throws InterruptedException if interrupted while waiting for a collector thread
+     */
+    boolean dispatchNext() throws InterruptedException {
+        collectionPermits.acquire();
+
+        Set<ScheduledMeasurementInfo> requests = null;
+        try {
+            requests = measurementManager.getNextScheduledSet();
+        } finally {
+            if (requests == null) {
+                collectionPermits.release();
+            }
+        }
+        if (requests == null) {
+            return false;
+        }
+
+        int resourceId = getResourceId(requests);
+        ResourceType resourceType = getResourceType(resourceId);
+        TypeCollections typeCollections;
+        synchronized (collectionsByType) {
+            Queue<Set<ScheduledMeasurementInfo>> resourceCollections = collectionsByResource.get(resourceId);
+            if (resourceCollections != null) {
+                // the thread collecting for this resource will pick it up
+                resourceCollections.add(requests);
+                collectionPermits.release();
+                return true;
+            }
+            typeCollections = collectionsByType.get(resourceType);
+            if (typeCollections == null) {
+                typeCollections = new TypeCollections();
+                collectionsByType.put(resourceType, typeCollections);
+            }
+            if (typeCollections.running >= maxCollectionsPerType) {
+                // one of the threads collecting for this type will pick it up
+                typeCollections.queued.add(requests);
+                collectionPermits.release();
+                return true;
+            }
+            typeCollections.running++;
+            collectionsByResource.put(resourceId, new ArrayDeque<Set<ScheduledMeasurementInfo>>());
+        }
+
+        try {
+            executor.execute(new Collector(resourceType, typeCollections, resourceId, requests));
+        } catch (RejectedExecutionException e) {
+            // the plugin container is shutting down
+            synchronized (collectionsByType) {
+                collectionsByResource.remove(resourceId);
+                if (--typeCollections.running == 0) {
+                    collectionsByType.remove(resourceType);
+                }
+            }
+            collectionPermits.release();
+            LOG.debug("Measurement collection not dispatched, collector thread pool has been shut down");
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of collections that are waiting because their resource type is at its limit or because
+     * their resource is being collected
+     */
+    int getQueuedCollections() {
+        int queued = 0;
+        synchronized (collectionsByType) {
+            for (TypeCollections typeCollections : collectionsByType.values()) {
+                queued += typeCollections.queued.size();
+            }
+            for (Queue<Set<ScheduledMeasurementInfo>> resourceCollections : collectionsByResource.values()) {
+                queued += resourceCollections.size();
+            }
+        }
+        return queued;
+    }
+
+    private static int getResourceId(Set<ScheduledMeasurementInfo> requests) {
+        return requests.iterator().next().getResourceId();
+    }
+
+    private ResourceType getResourceType(int resourceId) {
+        InventoryManager inventoryManager = measurementManager.getInventoryManager();
+        ResourceContainer container = inventoryManager.getResourceContainer(resourceId);
+        // the runner deals with resources that have gone away, they just all share the null key until then
+        return (container != null) ? container.getResource().getResourceType() : null;
+    }
+
+    private static class TypeCollections {
+        int running;
+        final Queue<Set<ScheduledMeasurementInfo>> queued = new ArrayDeque<Set<ScheduledMeasurementInfo>>();
+    }
+
+    private class Collector implements Runnable {
+        private final ResourceType resourceType;
+        private final TypeCollections typeCollections;
+        private int resourceId;
+        private final Set<ScheduledMeasurementInfo> requests;
+
+        Collector(ResourceType resourceType, TypeCollections typeCollections, int resourceId,
+            Set<ScheduledMeasurementInfo> requests) {
+            this.resourceType = resourceType;
+            this.typeCollections = typeCollections;
+            this.resourceId = resourceId;
+            this.requests = requests;
+        }
+
+        @Override
+        public void run() {
+            Set<ScheduledMeasurementInfo> next = requests;
+            try {
+                while (next != null && !Thread.currentThread().isInterrupted()) {
+                    collectorRunner.collect(next);
+                    next = pollQueued();
+                }
+            } finally {
+                if (next != null) {
+                    // interrupted or failed, make sure the queued collections of this type do not get stuck
+                    abandon(next);
+                }
+                collectionPermits.release();
+            }
+        }
+
+        /**
+         * @return the next queued collection for the resource or, if there is none, for the type; null if there is
+         * none either, in which case this collector is done
+         */
+        private Set<ScheduledMeasurementInfo> pollQueued() {
+            synchronized (collectionsByType) {
+                Set<ScheduledMeasurementInfo> queued = collectionsByResource.get(resourceId).poll();
+                if (queued != null) {
+                    return queued;
+                }
+                collectionsByResource.remove(resourceId);
+
+                while ((queued = typeCollections.queued.poll()) != null) {
+                    int queuedResourceId = getResourceId(queued);
+                    Queue<Set<ScheduledMeasurementInfo>> resourceCollections = collectionsByResource
+                        .get(queuedResourceId);
+                    if (resourceCollections == null) {
+                        resourceId = queuedResourceId;
+                        collectionsByResource.put(resourceId, new ArrayDeque<Set<ScheduledMeasurementInfo>>());
+                        return queued;
+                    }
+                    // another thread of this type is collecting for the resource
+                    resourceCollections.add(queued);
+                }
+
+                if (--typeCollections.running == 0) {
+                    collectionsByType.remove(resourceType);
+                }
+                return null;
+            }
+        }
+
+        private void abandon(Set<ScheduledMeasurementInfo> current) {
+            Queue<Set<ScheduledMeasurementInfo>> orphans = new ArrayDeque<Set<ScheduledMeasurementInfo>>();
+            orphans.add(current);
+            synchronized (collectionsByType) {
+                Queue<Set<ScheduledMeasurementInfo>> resourceCollections = collectionsByResource.remove(resourceId);
+                if (resourceCollections != null) {
+                    orphans.addAll(resourceCollections);
+                }
+                if (--typeCollections.running == 0) {
+                    collectionsByType.remove(resourceType);
+                    orphans.addAll(typeCollections.queued);
+                }
+            }
+            for (Set<ScheduledMeasurementInfo> orphan : orphans) {
+                measurementManager.rescheduleLateCollections(orphan);
+            }
+        }
+    }
+}
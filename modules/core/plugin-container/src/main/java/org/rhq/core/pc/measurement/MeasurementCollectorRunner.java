@@ -41,7 +41,8 @@ import org.rhq.core.util.exception.ThrowableUtil;
 
 /**
 * Executes the collection of measurements. Every call results in one new batch of measurements collected. Each batch is
-* limited to a single resource and the measurements that are due to be collected at that time.
+* limited to a single resource and the measurements that are due to be collected at that time. Batches for different
+* resources are collected concurrently, see {@link MeasurementCollectionDispatcher}.
 *
 * @author Greg Hinkle
 */
@@ -57,71 +58,83 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
         this.measurementManager = measurementManager;
     }
 
+    /**
+     * Collects the next set of measurements that is due, if any.
+     *
+     * @return the active report, which the collected data has been added to
+     */
     public MeasurementReport call() {
-        MeasurementReport report = null;
-        try {
-            this.measurementManager.getLock().readLock().lock();
+        Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
+        if (requests != null) {
+            collect(requests);
+        }
+        return this.measurementManager.getActiveReport();
+    }
 
-            report = this.measurementManager.getActiveReport();
+    /**
+     * Collects the given measurements, which must all be for the same resource, and adds the data to the active
+     * report. This is called concurrently by the collector threads, for different resources.
+     *
+     * @param requests the measurements due to be collected, taken off the schedule
+     */
+    void collect(Set<ScheduledMeasurementInfo> requests) {
+        try {
             long start = System.currentTimeMillis();
 
             InventoryManager im = this.measurementManager.getInventoryManager();
 
-            Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
-
-            if (requests != null) {
-                ScheduledMeasurementInfo next = requests.iterator().next();
+            ScheduledMeasurementInfo next = requests.iterator().next();
+            this.measurementManager.recordCollectionLateness(start - next.getNextCollection(), requests.size());
 
-                if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
-                    this.measurementManager.incrementLateCollections(requests.size());
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurement collection is falling behind... Missed requested time by ["
-                            + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
+            if ((System.currentTimeMillis() - 30000L) > next.getNextCollection()) {
+                this.measurementManager.incrementLateCollections(requests.size());
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurement collection is falling behind... Missed requested time by ["
+                        + (System.currentTimeMillis() - next.getNextCollection()) + "ms]");
 
-                        if (!scheduleHistory.isEmpty()) {
-                            log.debug("The most recent measurement requests prior to this detected delay: "
-                                + scheduleHistory);
-                        }
+                    if (!scheduleHistory.isEmpty()) {
+                        log.debug("The most recent measurement requests prior to this detected delay: "
+                            + scheduleHistory);
                     }
-
-                    // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
-                    this.measurementManager.rescheduleLateCollections(requests);
-                    return report;
                 }
 
-                Integer resourceId = next.getResourceId();
-                ResourceContainer container = im.getResourceContainer(resourceId);
-                if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
-                    || container.getAvailability() == null
-                    || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
-                    // Don't collect metrics for resources that are down
-                    if (log.isDebugEnabled()) {
-                        log.debug("Measurements not collected for inactive resource component: "
-                            + container.getResource());
-                    }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
+                // BZ 834019 - reschedule these requests for the future, and away from the set of requests on this schedule
+                this.measurementManager.rescheduleLateCollections(requests);
+                return;
+            }
 
-                    if (log.isDebugEnabled()) {
-                        scheduleHistory.addRequests(requests);
-                    }
+            // collect into a report of our own, other threads are adding to the active report at the same time
+            MeasurementReport report = new MeasurementReport();
 
-                    getValues(measurementComponent, report, requests, container.getResource());
+            Integer resourceId = next.getResourceId();
+            ResourceContainer container = im.getResourceContainer(resourceId);
+            if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
+                || container.getAvailability() == null
+                || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
+                // Don't collect metrics for resources that are down
+                if (log.isDebugEnabled()) {
+                    log.debug("Measurements not collected for inactive resource component: "
+                        + container.getResource());
                 }
+            } else {
+                MeasurementFacet measurementComponent = ComponentUtil.getComponent(resourceId,
+                    MeasurementFacet.class, FacetLockType.READ, this.measurementManager.getCollectionTimeout(), true,
+                    true, true);
 
-                this.measurementManager.reschedule(requests);
+                if (log.isDebugEnabled()) {
+                    scheduleHistory.addRequests(requests);
+                }
 
-                report.incrementCollectionTime(System.currentTimeMillis() - start);
+                getValues(measurementComponent, report, requests, container.getResource());
             }
+
+            this.measurementManager.reschedule(requests);
+
+            report.setCollectionTime(System.currentTimeMillis() - start);
+            this.measurementManager.addToActiveReport(report);
         } catch (Throwable t) {
             log.error("Failed to run measurement collection", t);
-        } finally {
-            this.measurementManager.getLock().readLock().unlock();
         }
-
-        return report;
     }
 
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
@@ -178,7 +191,7 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
             }
         }
 
-        public void addRequests(Set<ScheduledMeasurementInfo> requests) {
+        public synchronized void addRequests(Set<ScheduledMeasurementInfo> requests) {
             String now = new Date().toString() + " ";
 
             for (ScheduledMeasurementInfo request : requests) {
@@ -186,7 +199,7 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
             }
         }
 
-        public String toString() {
+        public synchronized String toString() {
             StringBuilder sb = new StringBuilder();
             while (!isEmpty()) {
                 sb.append("\n  ");
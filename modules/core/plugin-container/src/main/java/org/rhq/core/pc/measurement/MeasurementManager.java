@@ -19,6 +19,12 @@
 
 package org.rhq.core.pc.measurement;
 
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntLongMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+
 import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Date;
@@ -26,12 +32,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.JMException;
@@ -45,11 +51,13 @@ import org.rhq.core.clientapi.agent.measurement.MeasurementAgentService;
 import org.rhq.core.domain.measurement.DataType;
 import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
 import org.rhq.core.domain.measurement.MeasurementReport;
 import org.rhq.core.domain.measurement.MeasurementSchedule;
 import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.measurement.NumericType;
 import org.rhq.core.domain.measurement.ResourceMeasurementScheduleRequest;
+import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.pc.ContainerService;
@@ -92,17 +100,23 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     private final MeasurementSenderRunner measurementSenderRunner;
     MeasurementCollectorRunner measurementCollectorRunner;
+    private final MeasurementCollectionDispatcher collectionDispatcher;
 
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleWheel scheduledRequests = new MeasurementScheduleWheel(System.currentTimeMillis());
 
     private final InventoryManager inventoryManager;
 
-    private final Map<Integer, String> traitCache = new HashMap<Integer, String>();
+    private final long collectionTimeout;
+
+    private final TraitValueCache traitCache = new TraitValueCache();
 
-    private final Map<Integer, CachedValue> perMinuteCache = new HashMap<Integer, CachedValue>();
+    // the last raw value of each per-minute schedule, keyed by schedule id, both guarded by perMinuteTimestamps
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private final TIntLongMap perMinuteTimestamps = new TIntLongHashMap(Constants.DEFAULT_CAPACITY,
+        Constants.DEFAULT_LOAD_FACTOR, Constants.DEFAULT_INT_NO_ENTRY_VALUE, NO_TIMESTAMP);
+    private final TIntDoubleMap perMinuteValues = new TIntDoubleHashMap();
 
     private volatile MeasurementReport activeReport = new MeasurementReport();
 
@@ -117,6 +131,10 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     private final AtomicLong lateCollections = new AtomicLong(0);
     private final AtomicLong failedCollection = new AtomicLong(0);
 
+    // upper bounds, in ms, of the collection lateness histogram buckets; the last bucket has no upper bound
+    static final long[] LATENESS_BUCKET_BOUNDS = { 1000L, 5000L, 15000L, 30000L, 60000L };
+    private final AtomicLongArray collectionLateness = new AtomicLongArray(LATENESS_BUCKET_BOUNDS.length + 1);
+
     public MeasurementManager(PluginContainerConfiguration configuration, AgentServiceStreamRemoter streamRemoter, InventoryManager inventoryManager) {
         super(MeasurementAgentService.class, streamRemoter);
         this.configuration = configuration;
@@ -135,9 +153,11 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
         int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
         long collectionInitialDelaySecs = configuration.getMeasurementCollectionInitialDelay();
+        this.collectionTimeout = configuration.getMeasurementCollectionTimeout() * 1000L;
 
         if (configuration.isInsideAgent()) {
-            this.collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize, new LoggingThreadFactory(
+            // one more thread than collections can run in parallel, for the MeasurementCollectionRequester
+            this.collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize + 1, new LoggingThreadFactory(
                 COLLECTOR_THREAD_POOL_NAME, true));
 
             this.senderThreadPool = new ScheduledThreadPoolExecutor(2, new LoggingThreadFactory(
@@ -145,6 +165,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             this.measurementSenderRunner = new MeasurementSenderRunner(this);
             this.measurementCollectorRunner = new MeasurementCollectorRunner(this);
+            this.collectionDispatcher = new MeasurementCollectionDispatcher(this, measurementCollectorRunner,
+                collectorThreadPool, threadPoolSize, configuration.getMeasurementCollectionThreadPoolSizePerType());
 
             // Schedule the measurement sender to send measurement reports periodically.
             this.senderThreadPool.scheduleAtFixedRate(measurementSenderRunner, collectionInitialDelaySecs, 30,
@@ -164,6 +186,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             collectorThreadPool = null;
             measurementSenderRunner = null;
             measurementCollectorRunner = null;
+            collectionDispatcher = null;
         }
 
 
@@ -181,8 +204,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                     } else {
                         long delay = next - System.currentTimeMillis();
                         if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
+                            // blocks until a collector thread is available
+                            collectionDispatcher.dispatchNext();
                         } else {
                             if (!collectorThreadPool.isShutdown()) {
                                 Thread.sleep(delay);
@@ -234,6 +257,40 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return measurementLock;
     }
 
+    /**
+     * Adds the data collected by one of the collector threads to the active report.
+     *
+     * @param report the data collected for one resource
+     */
+    void addToActiveReport(MeasurementReport report) {
+        this.measurementLock.readLock().lock();
+        try {
+            // the read lock only keeps the report from being swapped, other collector threads may hold it too
+            MeasurementReport active = this.activeReport;
+            synchronized (active) {
+                for (MeasurementDataNumeric numeric : report.getNumericData()) {
+                    active.addData(numeric);
+                }
+                for (MeasurementDataTrait trait : report.getTraitData()) {
+                    active.addData(trait);
+                }
+                for (CallTimeData callTime : report.getCallTimeData()) {
+                    active.addData(callTime);
+                }
+                active.incrementCollectionTime(report.getCollectionTime());
+            }
+        } finally {
+            this.measurementLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the time, in milliseconds, a resource component has to return the values of a collection
+     */
+    long getCollectionTimeout() {
+        return collectionTimeout;
+    }
+
     /**
      * Check if the passed trait is new or has changed
      * @param  scheduleId
@@ -242,19 +299,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      * @return true if the value is new or changed and should be included in the report
      */
     public boolean checkTrait(int scheduleId, String traitValue) {
-
-        if (traitCache.containsKey(scheduleId)) {
-            String historic = traitCache.get(scheduleId);
-            if (((historic == null) && (traitValue != null)) || ((historic != null) && !historic.equals(traitValue))) {
-                traitCache.put(scheduleId, traitValue);
-                return true;
-            } else {
-                return false;
-            }
-        } else {
-            traitCache.put(scheduleId, traitValue);
-            return true;
-        }
+        return traitCache.update(scheduleId, traitValue);
     }
 
     /**
@@ -347,8 +392,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
-
     }
 
     /**
@@ -384,7 +427,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
     }
 
     /**
@@ -409,37 +451,32 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             info.setNextCollection(firstCollection);
 
-            this.scheduledRequests.remove(info);
-
-            // Don't add it if collection is disabled for this resource
+            // Don't add it if collection is disabled for this resource. Schedule ids are unique, so this replaces
+            // any existing schedule with the same id.
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                this.scheduledRequests.schedule(info);
+            } else {
+                this.scheduledRequests.remove(info.getScheduleId());
             }
         }
     }
 
     @Override
     public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
-            if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
+        for (Integer resourceId : resourceIds) {
+            // the cached values of the schedules go with them, the resources are not coming back
+            for (ScheduledMeasurementInfo info : this.scheduledRequests.getResourceSchedules(resourceId)) {
+                evictCachedValues(info.getScheduleId());
             }
+            this.scheduledRequests.removeResource(resourceId);
         }
     }
 
-    private void clearDuplicateSchedules() {
-        HashSet<Integer> set = new HashSet<Integer>(this.scheduledRequests.size());
-        Iterator<ScheduledMeasurementInfo> iter = this.scheduledRequests.iterator();
-        while (iter.hasNext()) {
-            ScheduledMeasurementInfo info = iter.next();
-            if (set.contains(info.getScheduleId())) {
-                LOG.debug("Found duplicate schedule - will remove it: " + info);
-                iter.remove();
-            } else {
-                set.add(info.getScheduleId());
-            }
+    private void evictCachedValues(int scheduleId) {
+        this.traitCache.remove(scheduleId);
+        synchronized (perMinuteTimestamps) {
+            this.perMinuteTimestamps.remove(scheduleId);
+            this.perMinuteValues.remove(scheduleId);
         }
     }
 
@@ -486,11 +523,18 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         while (iterator.hasNext()) {
             MeasurementDataNumeric numeric = iterator.next();
             if (numeric.isPerMinuteCollection()) {
-                CachedValue currentValue = perMinuteCache.get(numeric.getScheduleId());
-                if (currentValue == null) {
+                Double perMinuteValue = null;
+                synchronized (perMinuteTimestamps) {
+                    long timestamp = perMinuteTimestamps.get(numeric.getScheduleId());
+                    if (timestamp != NO_TIMESTAMP) {
+                        perMinuteValue = calculatePerMinuteValue(numeric, timestamp,
+                            perMinuteValues.get(numeric.getScheduleId()));
+                    }
+                }
+                if (perMinuteValue == null) {
                     iterator.remove();
                 } else {
-                    numeric.setValue(calculatePerMinuteValue(numeric, currentValue));
+                    numeric.setValue(perMinuteValue);
                 }
             }
         }
@@ -502,36 +546,18 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     @Override
-    public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+    public synchronized long getNextExpectedCollectionTime() {
+        return this.scheduledRequests.peekNextCollection(System.currentTimeMillis());
     }
 
     /**
-     * Returns the complete set of scheduled measurement collections.
+     * Takes the next set of measurement collections that is due off the schedule. All of them are for the same
+     * resource.
      *
-     * @return all measurement schedules
+     * @return the schedules that are due or null if nothing is due yet
      */
     public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
-        }
-
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
-        }
-
-        return nextScheduledSet;
+        return this.scheduledRequests.pollDue(System.currentTimeMillis());
     }
 
     /**
@@ -546,7 +572,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            // a schedule updated or removed by the server while this one was being collected takes precedence
+            this.scheduledRequests.rearm(scheduledMeasurement);
         }
     }
 
@@ -589,7 +616,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.rearm(scheduledMeasurement);
         }
     }
 
@@ -613,16 +640,21 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     private Double updatePerMinuteMetric(MeasurementDataNumeric numeric) {
-        CachedValue previousValue = this.perMinuteCache.get(numeric.getScheduleId());
-        this.perMinuteCache.put(numeric.getScheduleId(), new CachedValue(numeric.getTimestamp(), numeric.getValue()));
-        return calculatePerMinuteValue(numeric, previousValue);
+        int scheduleId = numeric.getScheduleId();
+        long previousTimestamp;
+        double previousValue;
+        synchronized (perMinuteTimestamps) {
+            previousTimestamp = this.perMinuteTimestamps.put(scheduleId, numeric.getTimestamp());
+            previousValue = this.perMinuteValues.put(scheduleId, numeric.getValue());
+        }
+        return calculatePerMinuteValue(numeric, previousTimestamp, previousValue);
     }
 
-    private Double calculatePerMinuteValue(MeasurementDataNumeric numeric, CachedValue currentValue) {
+    private Double calculatePerMinuteValue(MeasurementDataNumeric numeric, long timestamp, double value) {
         Double perMinuteValue = null;
-        if (currentValue != null) {
-            long timeDifference = numeric.getTimestamp() - currentValue.timestamp;
-            perMinuteValue = (60000D / timeDifference) * (numeric.getValue() - currentValue.value);
+        if (timestamp != NO_TIMESTAMP) {
+            long timeDifference = numeric.getTimestamp() - timestamp;
+            perMinuteValue = (60000D / timeDifference) * (numeric.getValue() - value);
             if (numeric.getRawNumericType() == NumericType.TRENDSDOWN)
                 perMinuteValue *= -1D; // Multiply by -1, so per-minute value is positive.
             if (perMinuteValue < 0)
@@ -637,15 +669,17 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
-            if (info.getResourceId() == resourceId) {
-                if (results == null) {
-                    results = new HashMap<String, Object>();
-                }
-                String scheduleId = String.valueOf(info.getScheduleId());
-                String interval = String.valueOf(info.getInterval()) + "ms";
-                results.put(scheduleId, interval);
+        Set<ScheduledMeasurementInfo> infos;
+        synchronized (this) {
+            infos = this.scheduledRequests.getResourceSchedules(resourceId);
+        }
+        for (ScheduledMeasurementInfo info : infos) {
+            if (results == null) {
+                results = new HashMap<String, Object>();
             }
+            String scheduleId = String.valueOf(info.getScheduleId());
+            String interval = String.valueOf(info.getInterval()) + "ms";
+            results.put(scheduleId, interval);
         }
 
         return results;
@@ -726,10 +760,46 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     @Override
-    public long getCurrentlyScheduleMeasurements() {
+    public synchronized long getCurrentlyScheduleMeasurements() {
         return this.scheduledRequests.size();
     }
 
+    @Override
+    public synchronized long getDueMeasurements() {
+        return this.scheduledRequests.countDue(System.currentTimeMillis());
+    }
+
+    @Override
+    public long getCachedTraits() {
+        return this.traitCache.size();
+    }
+
+    @Override
+    public long getCachedTraitDistinctValues() {
+        return this.traitCache.getDistinctValues();
+    }
+
+    @Override
+    public long getCachedTraitCharacters() {
+        return this.traitCache.getCharacters();
+    }
+
+    @Override
+    public long getCachedPerMinuteValues() {
+        synchronized (perMinuteTimestamps) {
+            return this.perMinuteTimestamps.size();
+        }
+    }
+
+    @Override
+    public long[] getCollectionLatenessHistogram() {
+        long[] histogram = new long[collectionLateness.length()];
+        for (int i = 0; i < histogram.length; ++i) {
+            histogram[i] = collectionLateness.get(i);
+        }
+        return histogram;
+    }
+
     @Override
     public long getTotalTimeCollectingMeasurements() {
         return this.totalTimeCollecting.get();
@@ -757,6 +827,17 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         this.lateCollections.addAndGet(count);
     }
 
+    /**
+     * Records how late the collection of the given number of schedules started, compared to when it was due.
+     */
+    void recordCollectionLateness(long lateness, int count) {
+        int bucket = 0;
+        while (bucket < LATENESS_BUCKET_BOUNDS.length && lateness >= LATENESS_BUCKET_BOUNDS[bucket]) {
+            ++bucket;
+        }
+        this.collectionLateness.addAndGet(bucket, count);
+    }
+
     void incrementFailedCollections(int count) {
         this.failedCollection.addAndGet(count);
     }
@@ -766,16 +847,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return failedCollection.get();
     }
 
-    private static class CachedValue {
-        CachedValue(long timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
-
-        long timestamp;
-        double value;
-    }
-
     public InventoryManager getInventoryManager() {
         return inventoryManager;
     }
@@ -39,4 +39,35 @@ public interface MeasurementManagerMBean {
     long getLateCollections();
 
     long getFailedCollections();
+
+    /**
+     * @return the number of scheduled measurements that are due for collection but have not been collected yet
+     */
+    long getDueMeasurements();
+
+    /**
+     * @return the number of trait schedules whose last value is cached
+     */
+    long getCachedTraits();
+
+    /**
+     * @return the number of distinct cached trait values, which are shared between schedules
+     */
+    long getCachedTraitDistinctValues();
+
+    /**
+     * @return the total length of the distinct cached trait values
+     */
+    long getCachedTraitCharacters();
+
+    /**
+     * @return the number of per-minute schedules whose last raw value is cached
+     */
+    long getCachedPerMinuteValues();
+
+    /**
+     * @return the number of measurements whose collection started less than 1s, 5s, 15s, 30s, 60s and 60s or more
+     * after it was due, in that order
+     */
+    long[] getCollectionLatenessHistogram();
 }
\ No newline at end of file
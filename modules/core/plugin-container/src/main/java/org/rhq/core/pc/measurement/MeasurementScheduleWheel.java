@@ -0,0 +1,380 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The measurement schedules of the plugin container, ordered by their next collection time in a hashed timing wheel.
+ * <p/>
+ * The wheel has a slot for each second of the next {@link #WHEEL_SIZE} seconds. Schedules that are due further out
+ * are kept in an overflow map keyed by the second they are due in, and are moved into the wheel as it turns. Adding
+ * and removing a schedule therefore takes constant time for the large majority of schedules, unlike a priority queue
+ * where removing an arbitrary schedule means scanning the whole queue.
+ * <p/>
+ * Within a slot, schedules are grouped by resource and next collection time, which is what
+ * {@link #pollDue(long)} hands out. The order of the groups within the same second is the order they were added in,
+ * i.e. collections are dispatched with a resolution of one second.
+ * <p/>
+ * Schedules are also indexed by their schedule id, which is unique within the wheel, and by their resource id.
+ * <p/>
+ * This class is not thread-safe.
+ */
+class MeasurementScheduleWheel {
+    static final long TICK_MILLIS = 1000L;
+    static final int WHEEL_SIZE = 1024; // a little over 17 minutes
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final Slot[] wheel = new Slot[WHEEL_SIZE];
+    private final TreeMap<Long, Slot> overflow = new TreeMap<Long, Slot>();
+
+    // the tick of the first slot that can contain schedules, never ahead of the current time; all schedules in the
+    // wheel are due in [cursor, cursor + WHEEL_SIZE), with overdue schedules added to the cursor's slot
+    private long cursor;
+    private int wheelCount;
+
+    private final Map<Integer, ScheduledMeasurementInfo> schedules = new HashMap<Integer, ScheduledMeasurementInfo>();
+    private final Map<Integer, Set<ScheduledMeasurementInfo>> resourceSchedules = new HashMap<Integer, Set<ScheduledMeasurementInfo>>();
+    // the schedules handed out by pollDue that have not been re-armed yet; replacing or removing a schedule while it
+    // is being collected takes it out of here, which turns its rearm into a no-op
+    private final Map<Integer, ScheduledMeasurementInfo> collecting = new HashMap<Integer, ScheduledMeasurementInfo>();
+
+    /**
+     * @param now the current time, where the wheel starts turning
+     */
+    MeasurementScheduleWheel(long now) {
+        this.cursor = now / TICK_MILLIS;
+    }
+
+    /**
+     * Adds the schedule, replacing any schedule with the same schedule id.
+     */
+    void schedule(ScheduledMeasurementInfo info) {
+        remove(info.getScheduleId());
+        collecting.remove(info.getScheduleId());
+        add(info);
+    }
+
+    /**
+     * Adds a schedule that has been collected and is due again, unless a schedule with the same schedule id has been
+     * added or removed while the collection was going on. The more recent change wins.
+     *
+     * @return true if the schedule was added
+     */
+    boolean rearm(ScheduledMeasurementInfo info) {
+        if (collecting.remove(info.getScheduleId()) == null) {
+            return false;
+        }
+        add(info);
+        return true;
+    }
+
+    /**
+     * @return the removed schedule or null if there was no schedule with that id
+     */
+    ScheduledMeasurementInfo remove(int scheduleId) {
+        collecting.remove(scheduleId);
+        ScheduledMeasurementInfo info = schedules.remove(scheduleId);
+        if (info == null) {
+            return null;
+        }
+
+        Set<ScheduledMeasurementInfo> resourceInfos = resourceSchedules.get(info.getResourceId());
+        resourceInfos.remove(info);
+        if (resourceInfos.isEmpty()) {
+            resourceSchedules.remove(info.getResourceId());
+        }
+
+        long tick = Math.max(info.getNextCollection() / TICK_MILLIS, cursor);
+        if (tick < cursor + WHEEL_SIZE) {
+            wheel[index(tick)].remove(info);
+            wheelCount--;
+        } else {
+            Slot slot = overflow.get(tick);
+            slot.remove(info);
+            if (slot.count == 0) {
+                overflow.remove(tick);
+            }
+        }
+
+        return info;
+    }
+
+    void removeResource(int resourceId) {
+        for (Iterator<ScheduledMeasurementInfo> iter = collecting.values().iterator(); iter.hasNext();) {
+            if (iter.next().getResourceId() == resourceId) {
+                iter.remove();
+            }
+        }
+
+        Set<ScheduledMeasurementInfo> resourceInfos = resourceSchedules.get(resourceId);
+        if (resourceInfos != null) {
+            for (ScheduledMeasurementInfo info : resourceInfos.toArray(new ScheduledMeasurementInfo[resourceInfos
+                .size()])) {
+                remove(info.getScheduleId());
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the schedules of the resource
+     */
+    Set<ScheduledMeasurementInfo> getResourceSchedules(int resourceId) {
+        Set<ScheduledMeasurementInfo> resourceInfos = resourceSchedules.get(resourceId);
+        if (resourceInfos == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<ScheduledMeasurementInfo>(resourceInfos);
+    }
+
+    int size() {
+        return schedules.size();
+    }
+
+    /**
+     * @return the next collection time of the schedules that are handed out next, or Long.MIN_VALUE if there are no
+     * schedules
+     */
+    long peekNextCollection(long now) {
+        advance(now);
+        if (wheelCount > 0) {
+            for (long tick = cursor; tick < cursor + WHEEL_SIZE; ++tick) {
+                Slot slot = wheel[index(tick)];
+                if (slot != null && slot.count > 0) {
+                    return slot.firstCollection();
+                }
+            }
+        }
+        return overflow.isEmpty() ? Long.MIN_VALUE : overflow.firstEntry().getValue().firstCollection();
+    }
+
+    /**
+     * Removes and returns the next group of schedules, all for the same resource and with the same next collection
+     * time, if that time has come. They are expected to be {@link #rearm(ScheduledMeasurementInfo) re-armed} once
+     * collected.
+     *
+     * @return the schedules or null if no schedules are due
+     */
+    Set<ScheduledMeasurementInfo> pollDue(long now) {
+        advance(now);
+        Slot slot = wheel[index(cursor)];
+        if (slot == null || slot.count == 0 || slot.firstCollection() > now) {
+            return null;
+        }
+
+        Set<ScheduledMeasurementInfo> due = slot.pollFirst();
+        wheelCount -= due.size();
+        for (ScheduledMeasurementInfo info : due) {
+            schedules.remove(info.getScheduleId());
+            collecting.put(info.getScheduleId(), info);
+            Set<ScheduledMeasurementInfo> resourceInfos = resourceSchedules.get(info.getResourceId());
+            resourceInfos.remove(info);
+            if (resourceInfos.isEmpty()) {
+                resourceSchedules.remove(info.getResourceId());
+            }
+        }
+        return due;
+    }
+
+    /**
+     * @return the number of schedules that are due for collection
+     */
+    int countDue(long now) {
+        advance(now);
+        int due = 0;
+        long nowTick = now / TICK_MILLIS;
+        for (long tick = cursor; tick <= nowTick && tick < cursor + WHEEL_SIZE; ++tick) {
+            Slot slot = wheel[index(tick)];
+            if (slot != null) {
+                due += (tick < nowTick) ? slot.count : slot.countDue(now);
+            }
+        }
+        return due;
+    }
+
+    private void add(ScheduledMeasurementInfo info) {
+        schedules.put(info.getScheduleId(), info);
+        Set<ScheduledMeasurementInfo> resourceInfos = resourceSchedules.get(info.getResourceId());
+        if (resourceInfos == null) {
+            resourceInfos = new HashSet<ScheduledMeasurementInfo>();
+            resourceSchedules.put(info.getResourceId(), resourceInfos);
+        }
+        resourceInfos.add(info);
+
+        long tick = Math.max(info.getNextCollection() / TICK_MILLIS, cursor);
+        Slot slot;
+        if (tick < cursor + WHEEL_SIZE) {
+            int index = index(tick);
+            slot = wheel[index];
+            if (slot == null) {
+                slot = wheel[index] = new Slot();
+            }
+            wheelCount++;
+        } else {
+            slot = overflow.get(tick);
+            if (slot == null) {
+                slot = new Slot();
+                overflow.put(tick, slot);
+            }
+        }
+        slot.add(info);
+    }
+
+    /**
+     * Turns the wheel up to the current time, skipping the empty slots.
+     */
+    private void advance(long now) {
+        long nowTick = now / TICK_MILLIS;
+        while (cursor < nowTick) {
+            if (wheelCount == 0) {
+                // nothing in the wheel, jump to the current time or the first overflow slot, whichever is first
+                cursor = overflow.isEmpty() ? nowTick : Math.min(nowTick, overflow.firstKey());
+                cascade();
+                if (wheelCount == 0) {
+                    return;
+                }
+            } else {
+                Slot slot = wheel[index(cursor)];
+                if (slot != null && slot.count > 0) {
+                    return;
+                }
+                cursor++;
+                cascade();
+            }
+        }
+    }
+
+    /**
+     * Moves the overflow slots that are now within the span of the wheel into the wheel.
+     */
+    private void cascade() {
+        while (!overflow.isEmpty() && overflow.firstKey() < cursor + WHEEL_SIZE) {
+            Map.Entry<Long, Slot> entry = overflow.pollFirstEntry();
+            int index = index(entry.getKey());
+            Slot slot = wheel[index];
+            if (slot == null || slot.count == 0) {
+                wheel[index] = entry.getValue();
+            } else {
+                slot.addAll(entry.getValue());
+            }
+            wheelCount += entry.getValue().count;
+        }
+    }
+
+    private static int index(long tick) {
+        return (int) (tick & WHEEL_MASK);
+    }
+
+    /**
+     * The schedules due within the same second, grouped by resource and next collection time.
+     */
+    private static class Slot {
+        private final LinkedHashMap<CollectionKey, Set<ScheduledMeasurementInfo>> groups = new LinkedHashMap<CollectionKey, Set<ScheduledMeasurementInfo>>();
+        int count;
+
+        void add(ScheduledMeasurementInfo info) {
+            CollectionKey key = new CollectionKey(info.getResourceId(), info.getNextCollection());
+            Set<ScheduledMeasurementInfo> group = groups.get(key);
+            if (group == null) {
+                group = new LinkedHashSet<ScheduledMeasurementInfo>();
+                groups.put(key, group);
+            }
+            if (group.add(info)) {
+                count++;
+            }
+        }
+
+        void addAll(Slot other) {
+            for (Set<ScheduledMeasurementInfo> group : other.groups.values()) {
+                for (ScheduledMeasurementInfo info : group) {
+                    add(info);
+                }
+            }
+        }
+
+        void remove(ScheduledMeasurementInfo info) {
+            CollectionKey key = new CollectionKey(info.getResourceId(), info.getNextCollection());
+            Set<ScheduledMeasurementInfo> group = groups.get(key);
+            if (group != null && group.remove(info)) {
+                count--;
+                if (group.isEmpty()) {
+                    groups.remove(key);
+                }
+            }
+        }
+
+        long firstCollection() {
+            return groups.keySet().iterator().next().nextCollection;
+        }
+
+        Set<ScheduledMeasurementInfo> pollFirst() {
+            Iterator<Set<ScheduledMeasurementInfo>> iter = groups.values().iterator();
+            Set<ScheduledMeasurementInfo> group = iter.next();
+            iter.remove();
+            count -= group.size();
+            return group;
+        }
+
+        int countDue(long now) {
+            int due = 0;
+            for (Map.Entry<CollectionKey, Set<ScheduledMeasurementInfo>> entry : groups.entrySet()) {
+                if (entry.getKey().nextCollection <= now) {
+                    due += entry.getValue().size();
+                }
+            }
+            return due;
+        }
+    }
+
+    private static class CollectionKey {
+        final int resourceId;
+        final long nextCollection;
+
+        CollectionKey(int resourceId, long nextCollection) {
+            this.resourceId = resourceId;
+            this.nextCollection = nextCollection;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CollectionKey)) {
+                return false;
+            }
+            CollectionKey that = (CollectionKey) o;
+            return resourceId == that.resourceId && nextCollection == that.nextCollection;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * resourceId + (int) (nextCollection ^ (nextCollection >>> 32));
+        }
+    }
+}
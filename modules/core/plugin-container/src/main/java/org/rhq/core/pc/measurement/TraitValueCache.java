@@ -0,0 +1,126 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * The last known value of each trait schedule, used to only send traits to the server when they change.
+ * <p/>
+ * Schedule ids are kept unboxed. Many traits of different resources share the same value, e.g. an OS name or a
+ * version, so all schedules with equal values share one String instance, which is dropped once no schedule refers to
+ * it anymore.
+ * <p/>
+ * This class is thread-safe.
+ */
+class TraitValueCache {
+    // both guarded by this
+    private final TIntObjectMap<String> values = new TIntObjectHashMap<String>();
+    private final THashMap<String, SharedValue> sharedValues = new THashMap<String, SharedValue>();
+
+    /**
+     * Caches the value if it is new or has changed.
+     *
+     * @return true if the value is new or changed and should be included in the report
+     */
+    synchronized boolean update(int scheduleId, String value) {
+        if (values.containsKey(scheduleId)) {
+            String historic = values.get(scheduleId);
+            if ((historic == null) ? (value == null) : historic.equals(value)) {
+                return false;
+            }
+            release(historic);
+        }
+        values.put(scheduleId, share(value));
+        return true;
+    }
+
+    /**
+     * @return the cached value or null if the trait has not been collected yet
+     */
+    synchronized String get(int scheduleId) {
+        return values.get(scheduleId);
+    }
+
+    synchronized void remove(int scheduleId) {
+        if (values.containsKey(scheduleId)) {
+            release(values.remove(scheduleId));
+        }
+    }
+
+    /**
+     * @return the number of schedules with a cached value
+     */
+    synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    synchronized int getDistinctValues() {
+        return sharedValues.size();
+    }
+
+    /**
+     * @return the number of characters of the distinct values, which is what most of the memory is used for
+     */
+    synchronized long getCharacters() {
+        long characters = 0L;
+        for (String value : sharedValues.keySet()) {
+            characters += value.length();
+        }
+        return characters;
+    }
+
+    private String share(String value) {
+        if (value == null) {
+            return null;
+        }
+        SharedValue shared = sharedValues.get(value);
+        if (shared == null) {
+            shared = new SharedValue(value);
+            sharedValues.put(value, shared);
+        }
+        shared.references++;
+        return shared.value;
+    }
+
+    private void release(String value) {
+        if (value == null) {
+            return;
+        }
+        SharedValue shared = sharedValues.get(value);
+        if (shared != null && --shared.references == 0) {
+            sharedValues.remove(value);
+        }
+    }
+
+    private static class SharedValue {
+        final String value;
+        int references;
+
+        SharedValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.rhq.core.pc.drift;
 import org.rhq.core.domain.drift.DriftDefinition;
 
 import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
 
 class DriftClientTestStub implements DriftClient {
 
@@ -16,6 +18,10 @@ class DriftClientTestStub implements DriftClient {
 
     private int sendChangeSetContentInvocationCount;
 
+    private boolean supportingChunkedTransfer = true;
+
+    private Set<String> serverChunks = new HashSet<String>();
+
     @Override
     public void sendChangeSetToServer(DriftDetectionSummary detectionSummary) {
         ++sendChangeSetInvocationCount;
@@ -37,6 +43,24 @@ class DriftClientTestStub implements DriftClient {
         return sendChangeSetContentInvocationCount;
     }
 
+    @Override
+    public Set<String> findMissingContentChunks(Set<String> chunkDigests) {
+        if (!supportingChunkedTransfer) {
+            throw new RuntimeException("Chunked transfer is not supported");
+        }
+        Set<String> missingChunks = new HashSet<String>(chunkDigests);
+        missingChunks.removeAll(serverChunks);
+        return missingChunks;
+    }
+
+    public void setSupportingChunkedTransfer(boolean supporting) {
+        supportingChunkedTransfer = supporting;
+    }
+
+    public void setServerChunks(Set<String> chunks) {
+        serverChunks = chunks;
+    }
+
     @Override
     public void repeatChangeSet(int resourceId, String driftDefName, int version) {
     }
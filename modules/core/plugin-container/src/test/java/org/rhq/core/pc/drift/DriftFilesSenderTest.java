@@ -22,14 +22,20 @@ package org.rhq.core.pc.drift;
 import static org.rhq.common.drift.FileEntry.addedFileEntry;
 import static org.rhq.core.domain.drift.DriftChangeSetCategory.COVERAGE;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -37,11 +43,15 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.rhq.common.drift.ChangeSetWriter;
+import org.rhq.common.drift.ChunkedContent;
+import org.rhq.common.drift.ContentChunker;
 import org.rhq.common.drift.Headers;
 import org.rhq.core.domain.drift.DriftChangeSetCategory;
 import org.rhq.core.domain.drift.DriftFile;
 import org.rhq.core.domain.drift.JPADriftFile;
+import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.ZipUtil;
+import org.rhq.core.util.stream.StreamUtil;
 import org.rhq.test.AssertUtils;
 
 public class DriftFilesSenderTest extends DriftTest {
@@ -213,6 +223,167 @@ public class DriftFilesSenderTest extends DriftTest {
         assertContentFileExists(changeSetDir(driftDefName));
     }
 
+    @Test
+    public void sendChunksOfFiles() throws Exception {
+        String driftDefName = "chunked-transfer-test";
+
+        File libDir = mkdir(resourceDir, "lib");
+        File serverJar = createRandomFile(libDir, "server.jar", 300 * 1024);
+        File serverConf = createRandomFile(resourceDir, "server.conf");
+
+        String serverJarHash = sha256(serverJar);
+        String serverConfHash = sha256(serverConf);
+
+        Headers headers = createHeaders(driftDefName, COVERAGE);
+
+        ChangeSetWriter writer = changeSetMgr.getChangeSetWriter(resourceId(), headers);
+        writer.write(addedFileEntry("lib/server.jar", serverJarHash, serverJar.lastModified(), serverJar.length()));
+        writer.write(addedFileEntry("server.conf", serverConfHash, serverConf.lastModified(), serverConf.length()));
+        writer.close();
+
+        sender.setChunkedTransfer(true);
+        sender.setDriftFiles(driftFiles(serverJarHash, serverConfHash));
+        sender.setHeaders(headers);
+        sender.run();
+
+        File changeSetDir = changeSetDir(driftDefName);
+        assertContentFileExists(changeSetDir);
+        File contentFile = getContentFiles(changeSetDir)[0];
+        assertTrue(contentFile.getName().endsWith(DriftFilesSender.CHUNKED_CONTENT_SUFFIX),
+            "Expected content zip file in the chunked format but found " + contentFile.getName());
+
+        Map<String, byte[]> files = assembleChunkedContent(contentFile);
+        assertEquals(files.keySet(), new HashSet<String>(Arrays.asList(serverJarHash, serverConfHash)),
+            "The manifest should list all requested files");
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertEquals(new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(file
+                .getValue()), file.getKey(), "The chunks do not add up to the content of the file");
+        }
+    }
+
+    @Test
+    public void doNotSendChunksTheServerAlreadyHas() throws Exception {
+        String driftDefName = "chunked-transfer-dedup-test";
+
+        File serverJar = createRandomFile(resourceDir, "server.jar", 300 * 1024);
+        String serverJarHash = sha256(serverJar);
+
+        Headers headers = createHeaders(driftDefName, COVERAGE);
+
+        ChangeSetWriter writer = changeSetMgr.getChangeSetWriter(resourceId(), headers);
+        writer.write(addedFileEntry("server.jar", serverJarHash, serverJar.lastModified(), serverJar.length()));
+        writer.close();
+
+        final List<String> chunks = new ArrayList<String>();
+        FileInputStream fis = new FileInputStream(serverJar);
+        new ContentChunker().chunk(fis, new ContentChunker.ChunkVisitor() {
+            @Override
+            public void visit(String digest, byte[] chunk, int length) {
+                chunks.add(digest);
+            }
+        });
+        fis.close();
+        assertTrue(chunks.size() > 1, "Expected the file to be split into several chunks");
+
+        // The server has all but the last chunk
+        driftClient.setServerChunks(new HashSet<String>(chunks.subList(0, chunks.size() - 1)));
+
+        sender.setChunkedTransfer(true);
+        sender.setDriftFiles(driftFiles(serverJarHash));
+        sender.setHeaders(headers);
+        sender.run();
+
+        File changeSetDir = changeSetDir(driftDefName);
+        assertContentFileMatches(changeSetDir, ChunkedContent.CHUNK_ENTRY_PREFIX + chunks.get(chunks.size() - 1),
+            ChunkedContent.MANIFEST_ENTRY);
+    }
+
+    @Test
+    public void sendWholeFilesWhenServerDoesNotSupportChunks() throws Exception {
+        String driftDefName = "chunked-transfer-fallback-test";
+
+        File serverConf = createRandomFile(resourceDir, "server.conf");
+        String serverConfHash = sha256(serverConf);
+
+        Headers headers = createHeaders(driftDefName, COVERAGE);
+
+        ChangeSetWriter writer = changeSetMgr.getChangeSetWriter(resourceId(), headers);
+        writer.write(addedFileEntry("server.conf", serverConfHash, serverConf.lastModified(), serverConf.length()));
+        writer.close();
+
+        driftClient.setSupportingChunkedTransfer(false);
+
+        sender.setChunkedTransfer(true);
+        sender.setDriftFiles(driftFiles(serverConfHash));
+        sender.setHeaders(headers);
+        sender.run();
+
+        File changeSetDir = changeSetDir(driftDefName);
+        assertContentFileExists(changeSetDir);
+        assertContentFileMatches(changeSetDir, serverConfHash);
+    }
+
+    @Test
+    public void replaceContentTheServerCouldNotRebuild() throws Exception {
+        String driftDefName = "chunked-transfer-resend-test";
+
+        File serverConf = createRandomFile(resourceDir, "server.conf");
+        String serverConfHash = sha256(serverConf);
+
+        Headers headers = createHeaders(driftDefName, COVERAGE);
+
+        ChangeSetWriter writer = changeSetMgr.getChangeSetWriter(resourceId(), headers);
+        writer.write(addedFileEntry("server.conf", serverConfHash, serverConf.lastModified(), serverConf.length()));
+        writer.close();
+
+        File changeSetDir = changeSetDir(driftDefName);
+        File chunkedContent = createRandomFile(changeSetDir, "content_123" + DriftFilesSender.CHUNKED_CONTENT_SUFFIX);
+
+        sender.setSupersededToken("123");
+        sender.setDriftFiles(driftFiles(serverConfHash));
+        sender.setHeaders(headers);
+        sender.run();
+
+        assertFalse(chunkedContent.exists(), "The content that was requested again should have been deleted");
+        assertContentFileExists(changeSetDir);
+        assertContentFileMatches(changeSetDir, serverConfHash);
+    }
+
+    /**
+     * Rebuilds the files of a chunked content zip file, assuming it holds all of their chunks.
+     *
+     * @return maps the hash of each file to its content
+     */
+    Map<String, byte[]> assembleChunkedContent(File contentFile) throws Exception {
+        final Map<String, byte[]> chunks = new HashMap<String, byte[]>();
+        final Map<String, List<String>> manifest = new HashMap<String, List<String>>();
+
+        ZipUtil.walkZipFile(contentFile, new ZipUtil.ZipEntryVisitor() {
+            @Override
+            public boolean visit(ZipEntry entry, ZipInputStream stream) throws Exception {
+                if (entry.getName().equals(ChunkedContent.MANIFEST_ENTRY)) {
+                    manifest.putAll(ChunkedContent.readManifest(stream));
+                } else {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    StreamUtil.copy(stream, bytes, false);
+                    chunks.put(entry.getName().substring(ChunkedContent.CHUNK_ENTRY_PREFIX.length()), bytes
+                        .toByteArray());
+                }
+                return true;
+            }
+        });
+
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        for (Map.Entry<String, List<String>> file : manifest.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (String digest : file.getValue()) {
+                bytes.write(chunks.get(digest));
+            }
+            files.put(file.getKey(), bytes.toByteArray());
+        }
+        return files;
+    }
+
     void assertContentFileExists(File changeSetDir) {
         File[] files = getContentFiles(changeSetDir);
         assertEquals(files.length, 1, "Expected to find a single content zip file but found " + Arrays.toString(files));
@@ -352,6 +352,17 @@ public class DriftManagerTest extends DriftTest {
             }
         }
 
+        @Override
+        public Set<String> findMissingContentChunks(Set<String> chunkDigests) {
+            return chunkDigests;
+        }
+
+        @Override
+        public void sendChunkedFilesZip(int resourceId, String driftDefName, String token, long zipSize,
+            InputStream zipStream) {
+            sendFilesZip(resourceId, driftDefName, token, zipSize, zipStream);
+        }
+
         @Override
         public void repeatChangeSet(int resourceId, String driftDefName, int version) {
         }
@@ -0,0 +1,111 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2011 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.core.pc.drift;
+
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.toFile;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileDigestIndexTest {
+
+    private static final String BASEDIR = "/opt/server";
+
+    private static final long NOW = 1400000000000L;
+
+    private static final long OLD = NOW - 60000L;
+
+    private File indexFile;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        File root = toFile(getClass().getResource("."));
+        File dir = new File(root, "digest-index");
+        deleteDirectory(dir);
+        dir.mkdirs();
+        indexFile = new File(dir, DriftDetector.FILE_DIGEST_INDEX);
+    }
+
+    @Test
+    public void lookupDigestsAfterStoreAndLoad() throws Exception {
+        FileDigestIndex index = FileDigestIndex.load(indexFile, BASEDIR);
+        index.put("conf/server.conf", 100L, OLD, "a1b2", NOW);
+        index.put("lib/server.jar", 2000L, OLD, "c3d4", NOW);
+        index.store(indexFile);
+
+        FileDigestIndex loaded = FileDigestIndex.load(indexFile, BASEDIR);
+
+        assertEquals(loaded.get("conf/server.conf", 100L, OLD), "a1b2");
+        assertEquals(loaded.get("lib/server.jar", 2000L, OLD), "c3d4");
+        assertEquals(loaded.getHits(), 2);
+    }
+
+    @Test
+    public void missDigestWhenSizeOrTimeChanged() throws Exception {
+        FileDigestIndex index = FileDigestIndex.load(indexFile, BASEDIR);
+        index.put("conf/server.conf", 100L, OLD, "a1b2", NOW);
+
+        assertNull(index.get("conf/server.conf", 101L, OLD), "Size change should not be matched");
+        assertNull(index.get("conf/server.conf", 100L, OLD + 1000L), "Time change should not be matched");
+        assertEquals(index.getHits(), 0);
+    }
+
+    @Test
+    public void doNotIndexRecentlyModifiedFiles() throws Exception {
+        FileDigestIndex index = FileDigestIndex.load(indexFile, BASEDIR);
+        index.put("conf/server.conf", 100L, NOW - 500L, "a1b2", NOW);
+
+        assertNull(index.get("conf/server.conf", 100L, NOW - 500L),
+            "A file modified within the racy interval should not be indexed");
+    }
+
+    @Test
+    public void discardIndexOfDifferentBasedir() throws Exception {
+        FileDigestIndex index = FileDigestIndex.load(indexFile, BASEDIR);
+        index.put("conf/server.conf", 100L, OLD, "a1b2", NOW);
+        index.store(indexFile);
+
+        FileDigestIndex loaded = FileDigestIndex.load(indexFile, "/opt/other-server");
+
+        assertNull(loaded.get("conf/server.conf", 100L, OLD));
+    }
+
+    @Test
+    public void storeOnlyEntriesUsedSinceLoad() throws Exception {
+        FileDigestIndex index = FileDigestIndex.load(indexFile, BASEDIR);
+        index.put("conf/server.conf", 100L, OLD, "a1b2", NOW);
+        index.put("conf/deleted.conf", 50L, OLD, "e5f6", NOW);
+        index.store(indexFile);
+
+        FileDigestIndex loaded = FileDigestIndex.load(indexFile, BASEDIR);
+        loaded.get("conf/server.conf", 100L, OLD);
+        loaded.store(indexFile);
+
+        FileDigestIndex reloaded = FileDigestIndex.load(indexFile, BASEDIR);
+        assertEquals(reloaded.get("conf/server.conf", 100L, OLD), "a1b2");
+        assertNull(reloaded.get("conf/deleted.conf", 50L, OLD), "Entries not used since the index was loaded "
+            + "should be dropped");
+    }
+}
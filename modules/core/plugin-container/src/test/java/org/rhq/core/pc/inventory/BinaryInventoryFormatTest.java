@@ -0,0 +1,252 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+@Test
+public class BinaryInventoryFormatTest {
+
+    private final ResourceType platformType = new ResourceType("Linux", "Platforms", ResourceCategory.PLATFORM, null);
+    private final ResourceType serverType = new ResourceType("JBossAS", "JBossAS", ResourceCategory.SERVER,
+        platformType);
+
+    public void roundTrip() throws Exception {
+        Resource platform = createResource(1, platformType);
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        containers.put(platform.getUuid(), new ResourceContainer(platform, null));
+        // enough servers for several blocks
+        for (int i = 2; i < 1000; ++i) {
+            Resource server = createResource(i, serverType);
+            platform.addChildResourceWithoutAncestry(server);
+            ResourceContainer container = new ResourceContainer(server, null);
+            container.setMeasurementSchedule(Collections.singleton(new MeasurementScheduleRequest(i, "metric", 60000L,
+                true, DataType.MEASUREMENT)));
+            containers.put(server.getUuid(), container);
+        }
+
+        BinaryInventoryFormat.Inventory inventory = roundTrip(platform, containers);
+
+        assertEquals(inventory.platform.getId(), 1);
+        assertNull(inventory.platform.getParentResource());
+        assertEquals(inventory.platform.getChildResources().size(), 998);
+        assertEquals(inventory.resourceContainers.size(), 999);
+        for (Resource server : inventory.platform.getChildResources()) {
+            assertSame(server.getParentResource(), inventory.platform);
+            assertEquals(server.getName(), "resource-" + server.getId());
+            assertEquals(server.getPluginConfiguration().getSimpleValue("index"), String.valueOf(server.getId()));
+            assertTrue(server.getChildResources().isEmpty());
+
+            ResourceContainer container = inventory.resourceContainers.get(server.getUuid());
+            assertSame(container.getResource(), server, "container must share the resource of the tree");
+            assertEquals(container.getMeasurementSchedule().iterator().next().getScheduleId(), server.getId());
+        }
+    }
+
+    public void typesAreReplacedByPlaceholders() throws Exception {
+        Resource platform = createResource(1, platformType);
+        Resource server = createResource(2, serverType);
+        platform.addChildResourceWithoutAncestry(server);
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+
+        BinaryInventoryFormat.Inventory inventory = roundTrip(platform, containers);
+
+        ResourceType type = inventory.platform.getChildResources().iterator().next().getResourceType();
+        assertNotSame(type, serverType);
+        assertEquals(type.getName(), "JBossAS");
+        assertEquals(type.getPlugin(), "JBossAS");
+        assertTrue(type.getParentResourceTypes().isEmpty(), "type metadata must not be stored");
+    }
+
+    public void containerNotInTree() throws Exception {
+        Resource platform = createResource(1, platformType);
+        Resource orphan = createResource(2, serverType);
+        orphan.setParentResourceWithoutAncestry(platform);
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        containers.put("some-key", new ResourceContainer(orphan, null));
+
+        BinaryInventoryFormat.Inventory inventory = roundTrip(platform, containers);
+
+        Resource resource = inventory.resourceContainers.get("some-key").getResource();
+        assertEquals(resource.getId(), 2);
+        assertSame(resource.getParentResource(), inventory.platform);
+        assertTrue(inventory.platform.getChildResources().isEmpty());
+    }
+
+    public void classesChangedSinceTheFileWasWritten() throws Exception {
+        Resource platform = createResource(1, platformType);
+        OldShapeContainer container = new OldShapeContainer(platform);
+        container.count = 42;
+        container.removed = "removed";
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        containers.put(platform.getUuid(), container);
+
+        // as if the agent had been upgraded to a version where the class has different fields
+        byte[] file = renameClass(write(platform, containers), OldShapeContainer.class, NewShapeContainer.class);
+        BinaryInventoryFormat.Inventory inventory = read(file);
+
+        NewShapeContainer upgraded = (NewShapeContainer) inventory.resourceContainers.get(platform.getUuid());
+        assertEquals(upgraded.count, 42);
+        assertNull(upgraded.added);
+        assertSame(upgraded.getResource(), inventory.platform);
+    }
+
+    @Test(expectedExceptions = InvalidClassException.class)
+    public void incompatibleClassChangeFailsTheRead() throws Exception {
+        Resource platform = createResource(1, platformType);
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        containers.put(platform.getUuid(), new OldShapeContainer(platform));
+
+        read(renameClass(write(platform, containers), OldShapeContainer.class, BadShapeContainer.class));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void previousVersionIsNotRead() throws Exception {
+        Resource platform = createResource(1, platformType);
+        byte[] file = write(platform, new HashMap<String, ResourceContainer>());
+        // the version follows the magic
+        file[4] = 1;
+
+        read(file);
+    }
+
+    public void varints() throws Exception {
+        int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1 };
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) {
+            BinaryInventoryFormat.writeVarint(out, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) {
+            assertEquals(BinaryInventoryFormat.readVarint(in), value);
+        }
+        assertEquals(in.available(), 0);
+    }
+
+    private BinaryInventoryFormat.Inventory roundTrip(Resource platform, Map<String, ResourceContainer> containers)
+        throws Exception {
+        return read(write(platform, containers));
+    }
+
+    private byte[] write(Resource platform, Map<String, ResourceContainer> containers) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryInventoryFormat.write(bytes, platform, containers);
+        return bytes.toByteArray();
+    }
+
+    private BinaryInventoryFormat.Inventory read(byte[] file) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(file));
+        assertEquals(in.readInt(), BinaryInventoryFormat.MAGIC);
+        BinaryInventoryFormat.Inventory inventory = BinaryInventoryFormat.read(in);
+        assertEquals(in.available(), 0);
+        return inventory;
+    }
+
+    /**
+     * Replaces the name of a class in the class table by the name of another class of the same length.
+     */
+    private byte[] renameClass(byte[] file, Class<?> from, Class<?> to) throws Exception {
+        byte[] fromName = from.getName().getBytes("UTF-8");
+        byte[] toName = to.getName().getBytes("UTF-8");
+        assertEquals(toName.length, fromName.length);
+        int renamed = 0;
+        for (int i = 0; i + fromName.length <= file.length; ++i) {
+            int j = 0;
+            while (j < fromName.length && file[i + j] == fromName[j]) {
+                ++j;
+            }
+            if (j == fromName.length) {
+                System.arraycopy(toName, 0, file, i, toName.length);
+                ++renamed;
+            }
+        }
+        assertEquals(renamed, 1);
+        return file;
+    }
+
+    private Resource createResource(int id, ResourceType type) {
+        Resource resource = new Resource("key-" + id, "resource-" + id, type);
+        resource.setId(id);
+        resource.setUuid(UUID.randomUUID().toString());
+        Configuration pluginConfiguration = new Configuration();
+        pluginConfiguration.put(new PropertySimple("index", id));
+        resource.setPluginConfiguration(pluginConfiguration);
+        return resource;
+    }
+
+    private static class OldShapeContainer extends ResourceContainer {
+        private static final long serialVersionUID = 1L;
+
+        int count;
+        String removed;
+
+        OldShapeContainer(Resource resource) {
+            super(resource, null);
+        }
+    }
+
+    private static class NewShapeContainer extends ResourceContainer {
+        private static final long serialVersionUID = 1L;
+
+        int count;
+        List<String> added;
+
+        NewShapeContainer(Resource resource) {
+            super(resource, null);
+        }
+    }
+
+    private static class BadShapeContainer extends ResourceContainer {
+        private static final long serialVersionUID = 1L;
+
+        String count;
+
+        BadShapeContainer(Resource resource) {
+            super(resource, null);
+        }
+    }
+}
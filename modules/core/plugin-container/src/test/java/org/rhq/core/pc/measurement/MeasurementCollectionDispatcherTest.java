@@ -0,0 +1,302 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.pc.inventory.InventoryManager;
+import org.rhq.core.pc.inventory.ResourceContainer;
+
+@Test
+public class MeasurementCollectionDispatcherTest {
+
+    private static final ResourceType TYPE_A = new ResourceType("A", "test", ResourceCategory.SERVER, null);
+
+    private static final ResourceType TYPE_B = new ResourceType("B", "test", ResourceCategory.SERVER, null);
+
+    private final Queue<Set<ScheduledMeasurementInfo>> due = new ConcurrentLinkedQueue<Set<ScheduledMeasurementInfo>>();
+
+    private MeasurementManager measurementManager;
+
+    private InventoryManager inventoryManager;
+
+    private BlockingCollectorRunner collectorRunner;
+
+    private ExecutorService collectorThreads;
+
+    private ExecutorService testThreads;
+
+    private int scheduleId;
+
+    @BeforeMethod
+    public void init() {
+        due.clear();
+        inventoryManager = mock(InventoryManager.class);
+        measurementManager = mock(MeasurementManager.class);
+        when(measurementManager.getInventoryManager()).thenReturn(inventoryManager);
+        when(measurementManager.getNextScheduledSet()).thenAnswer(new Answer<Set<ScheduledMeasurementInfo>>() {
+            @Override
+            public Set<ScheduledMeasurementInfo> answer(InvocationOnMock invocation) {
+                return due.poll();
+            }
+        });
+        collectorRunner = new BlockingCollectorRunner(measurementManager);
+        collectorThreads = Executors.newCachedThreadPool();
+        testThreads = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        collectorRunner.release.countDown();
+        collectorThreads.shutdownNow();
+        testThreads.shutdownNow();
+    }
+
+    public void collectionsOfTheSameResourceAreSerialized() throws Exception {
+        MeasurementCollectionDispatcher dispatcher = new MeasurementCollectionDispatcher(measurementManager,
+            collectorRunner, collectorThreads, 4, 4);
+        Set<ScheduledMeasurementInfo> first = due(10, TYPE_A);
+        Set<ScheduledMeasurementInfo> second = due(10, TYPE_A);
+        Set<ScheduledMeasurementInfo> other = due(11, TYPE_A);
+
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        assertFalse(dispatcher.dispatchNext(), "Nothing should be due anymore");
+
+        collectorRunner.awaitStarted(2);
+        assertFalse(collectorRunner.started.tryAcquire(200, TimeUnit.MILLISECONDS),
+            "The second collection of the resource must wait for the first one");
+        assertEquals(dispatcher.getQueuedCollections(), 1);
+
+        collectorRunner.release.countDown();
+        collectorRunner.awaitCollected(3);
+        assertEquals(collectorRunner.maxConcurrentPerResource, 1);
+        assertTrue(collectorRunner.collected.indexOf(first) < collectorRunner.collected.indexOf(second));
+        assertTrue(collectorRunner.collected.contains(other));
+        assertEquals(dispatcher.getQueuedCollections(), 0);
+    }
+
+    public void concurrentCollectionsAreLimited() throws Exception {
+        final MeasurementCollectionDispatcher dispatcher = new MeasurementCollectionDispatcher(measurementManager,
+            collectorRunner, collectorThreads, 2, 2);
+        due(10, TYPE_A);
+        due(11, TYPE_A);
+        due(12, TYPE_A);
+
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        collectorRunner.awaitStarted(2);
+
+        Future<Boolean> third = testThreads.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return dispatcher.dispatchNext();
+            }
+        });
+        try {
+            third.get(200, TimeUnit.MILLISECONDS);
+            assertTrue(false, "The dispatcher should wait for a collector thread");
+        } catch (TimeoutException expected) {
+        }
+
+        collectorRunner.release.countDown();
+        assertTrue(third.get(10, TimeUnit.SECONDS));
+        collectorRunner.awaitCollected(3);
+        assertEquals(collectorRunner.maxConcurrent, 2);
+    }
+
+    public void concurrentCollectionsPerTypeAreLimited() throws Exception {
+        MeasurementCollectionDispatcher dispatcher = new MeasurementCollectionDispatcher(measurementManager,
+            collectorRunner, collectorThreads, 4, 1);
+        Set<ScheduledMeasurementInfo> slow = due(10, TYPE_A);
+        Set<ScheduledMeasurementInfo> queued = due(11, TYPE_A);
+        Set<ScheduledMeasurementInfo> other = due(20, TYPE_B);
+
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+
+        collectorRunner.awaitStarted(2);
+        assertEquals(dispatcher.getQueuedCollections(), 1);
+        assertFalse(collectorRunner.startedCollections.contains(queued));
+
+        collectorRunner.release.countDown();
+        collectorRunner.awaitCollected(3);
+        assertTrue(collectorRunner.collected.containsAll(Arrays.asList(slow, queued, other)));
+    }
+
+    public void nothingIsCollectedAfterShutdown() throws Exception {
+        final MeasurementCollectionDispatcher dispatcher = new MeasurementCollectionDispatcher(measurementManager,
+            collectorRunner, collectorThreads, 1, 1);
+        collectorThreads.shutdown();
+        due(10, TYPE_A);
+        due(11, TYPE_A);
+
+        // the second call would block if the first one did not return its collector thread
+        Future<Boolean> dispatched = testThreads.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return dispatcher.dispatchNext() && dispatcher.dispatchNext();
+            }
+        });
+        assertTrue(dispatched.get(10, TimeUnit.SECONDS));
+        assertTrue(collectorRunner.startedCollections.isEmpty());
+        assertEquals(dispatcher.getQueuedCollections(), 0);
+    }
+
+    public void queuedCollectionsAreRescheduledWhenInterrupted() throws Exception {
+        MeasurementCollectionDispatcher dispatcher = new MeasurementCollectionDispatcher(measurementManager,
+            collectorRunner, collectorThreads, 4, 1);
+        due(10, TYPE_A);
+        Set<ScheduledMeasurementInfo> sameResource = due(10, TYPE_A);
+        Set<ScheduledMeasurementInfo> sameType = due(11, TYPE_A);
+
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        assertTrue(dispatcher.dispatchNext());
+        collectorRunner.awaitStarted(1);
+        assertEquals(dispatcher.getQueuedCollections(), 2);
+
+        collectorThreads.shutdownNow();
+
+        verify(measurementManager, timeout(10000)).rescheduleLateCollections(sameResource);
+        verify(measurementManager, timeout(10000)).rescheduleLateCollections(sameType);
+        assertEquals(dispatcher.getQueuedCollections(), 0);
+        assertEquals(collectorRunner.startedCollections.size(), 1);
+    }
+
+    private Set<ScheduledMeasurementInfo> due(int resourceId, ResourceType resourceType) {
+        Resource resource = new Resource(resourceId);
+        resource.setResourceType(resourceType);
+        ResourceContainer container = mock(ResourceContainer.class);
+        when(container.getResource()).thenReturn(resource);
+        when(inventoryManager.getResourceContainer(resourceId)).thenReturn(container);
+
+        ++scheduleId;
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, 30000L, true, DataType.MEASUREMENT), resourceId);
+        Set<ScheduledMeasurementInfo> requests = new HashSet<ScheduledMeasurementInfo>();
+        requests.add(info);
+        due.add(requests);
+        return requests;
+    }
+
+    /**
+     * Blocks all collections until released and keeps track of how many run at the same time.
+     */
+    private static class BlockingCollectorRunner extends MeasurementCollectorRunner {
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Semaphore started = new Semaphore(0);
+
+        final List<Set<ScheduledMeasurementInfo>> startedCollections = Collections
+            .synchronizedList(new ArrayList<Set<ScheduledMeasurementInfo>>());
+
+        final List<Set<ScheduledMeasurementInfo>> collected = Collections
+            .synchronizedList(new ArrayList<Set<ScheduledMeasurementInfo>>());
+
+        private final Set<Integer> runningResources = new HashSet<Integer>();
+
+        private int running;
+
+        int maxConcurrent;
+
+        int maxConcurrentPerResource;
+
+        BlockingCollectorRunner(MeasurementManager measurementManager) {
+            super(measurementManager);
+        }
+
+        @Override
+        void collect(Set<ScheduledMeasurementInfo> requests) {
+            int resourceId = requests.iterator().next().getResourceId();
+            synchronized (this) {
+                maxConcurrentPerResource = Math.max(maxConcurrentPerResource, runningResources.add(resourceId) ? 1
+                    : 2);
+                maxConcurrent = Math.max(maxConcurrent, ++running);
+            }
+            startedCollections.add(requests);
+            started.release();
+            try {
+                release.await();
+                collected.add(requests);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    runningResources.remove(resourceId);
+                    --running;
+                }
+            }
+        }
+
+        void awaitStarted(int collections) throws InterruptedException {
+            assertTrue(started.tryAcquire(collections, 10, TimeUnit.SECONDS), "Collections did not start");
+        }
+
+        void awaitCollected(int collections) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (collected.size() < collections && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(collected.size(), collections);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleWheelTest {
+
+    private static final long NOW = 1400000000000L;
+
+    public void dueSchedulesAreGroupedByResourceAndTime() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW + 5000L));
+        wheel.schedule(info(2, 10, NOW + 5000L));
+        wheel.schedule(info(3, 11, NOW + 5000L));
+        wheel.schedule(info(4, 10, NOW + 65000L));
+
+        assertEquals(wheel.size(), 4);
+        assertEquals(wheel.peekNextCollection(NOW), NOW + 5000L);
+        assertNull(wheel.pollDue(NOW + 4999L));
+
+        assertEquals(scheduleIds(wheel.pollDue(NOW + 5000L)), ids(1, 2));
+        assertEquals(scheduleIds(wheel.pollDue(NOW + 5000L)), ids(3));
+        assertNull(wheel.pollDue(NOW + 5000L));
+
+        assertEquals(wheel.peekNextCollection(NOW + 5000L), NOW + 65000L);
+        assertEquals(scheduleIds(wheel.pollDue(NOW + 70000L)), ids(4));
+        assertEquals(wheel.size(), 0);
+        assertEquals(wheel.peekNextCollection(NOW + 70000L), Long.MIN_VALUE);
+    }
+
+    public void scheduleReplacesScheduleWithSameId() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW + 5000L));
+        wheel.schedule(info(1, 10, NOW + 20000L));
+
+        assertEquals(wheel.size(), 1);
+        assertEquals(wheel.peekNextCollection(NOW), NOW + 20000L);
+        assertNull(wheel.pollDue(NOW + 10000L));
+    }
+
+    public void rearmDoesNotReplaceNewerSchedule() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW));
+        ScheduledMeasurementInfo collected = wheel.pollDue(NOW).iterator().next();
+
+        // the schedule gets updated while it is being collected
+        wheel.schedule(info(1, 10, NOW + 60000L));
+        collected.setNextCollection(NOW + 30000L);
+        assertFalse(wheel.rearm(collected));
+        assertEquals(wheel.peekNextCollection(NOW), NOW + 60000L);
+
+        wheel.remove(1);
+        assertFalse(wheel.rearm(collected));
+        assertEquals(wheel.size(), 0);
+    }
+
+    public void rearmDoesNotAddScheduleRemovedDuringCollection() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW));
+        wheel.schedule(info(2, 11, NOW));
+        wheel.schedule(info(3, 11, NOW + 60000L));
+        ScheduledMeasurementInfo removed = wheel.pollDue(NOW).iterator().next();
+        ScheduledMeasurementInfo resourceRemoved = wheel.pollDue(NOW).iterator().next();
+
+        // the schedule and the other resource go away while they are being collected
+        wheel.remove(1);
+        wheel.removeResource(11);
+        removed.setNextCollection(NOW + 30000L);
+        resourceRemoved.setNextCollection(NOW + 30000L);
+        assertFalse(wheel.rearm(removed));
+        assertFalse(wheel.rearm(resourceRemoved));
+        assertEquals(wheel.size(), 0);
+        assertEquals(wheel.peekNextCollection(NOW), Long.MIN_VALUE);
+
+        // a schedule that is added again after its removal is not affected by the old collection either
+        wheel.schedule(info(1, 10, NOW + 60000L));
+        assertFalse(wheel.rearm(removed));
+        assertEquals(wheel.peekNextCollection(NOW), NOW + 60000L);
+
+        // once collected, it is re-armed as usual
+        ScheduledMeasurementInfo collected = wheel.pollDue(NOW + 60000L).iterator().next();
+        collected.setNextCollection(NOW + 90000L);
+        assertTrue(wheel.rearm(collected));
+        assertFalse(wheel.rearm(collected));
+        assertEquals(wheel.size(), 1);
+    }
+
+    public void removeResource() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW + 5000L));
+        wheel.schedule(info(2, 10, NOW + 24L * 3600L * 1000L));
+        wheel.schedule(info(3, 11, NOW + 5000L));
+
+        assertEquals(scheduleIds(wheel.getResourceSchedules(10)), ids(1, 2));
+        wheel.removeResource(10);
+
+        assertEquals(wheel.size(), 1);
+        assertTrue(wheel.getResourceSchedules(10).isEmpty());
+        assertEquals(scheduleIds(wheel.pollDue(NOW + 5000L)), ids(3));
+        assertEquals(wheel.peekNextCollection(NOW), Long.MIN_VALUE);
+    }
+
+    public void overdueSchedulesAreDueImmediately() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        wheel.schedule(info(1, 10, NOW + 3000L));
+        assertNull(wheel.pollDue(NOW + 2000L));
+
+        wheel.schedule(info(2, 11, NOW - 60000L));
+        assertEquals(wheel.countDue(NOW + 2000L), 1);
+        assertEquals(scheduleIds(wheel.pollDue(NOW + 2000L)), ids(2));
+        assertEquals(wheel.countDue(NOW + 3000L), 1);
+    }
+
+    public void schedulesBeyondTheWheelAreMovedIn() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        long span = MeasurementScheduleWheel.WHEEL_SIZE * MeasurementScheduleWheel.TICK_MILLIS;
+        wheel.schedule(info(1, 10, NOW + 3 * span + 1500L));
+        wheel.schedule(info(2, 11, NOW + span / 2));
+
+        assertEquals(scheduleIds(wheel.pollDue(NOW + span)), ids(2));
+        assertNull(wheel.pollDue(NOW + 3 * span));
+        assertEquals(wheel.peekNextCollection(NOW + 3 * span), NOW + 3 * span + 1500L);
+
+        // removing works the same before and after the schedule has been moved into the wheel
+        wheel.remove(1);
+        assertEquals(wheel.size(), 0);
+        assertNull(wheel.pollDue(NOW + 4 * span));
+    }
+
+    public void matchesPriorityQueueOrder() {
+        Random random = new Random(42L);
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel(NOW);
+        TreeMap<Integer, Long> expected = new TreeMap<Integer, Long>();
+
+        for (int i = 0; i < 5000; i++) {
+            long interval = 30000L * (1 + random.nextInt(120));
+            ScheduledMeasurementInfo info = info(i, i / 10, NOW + random.nextInt(3600) * 1000L);
+            info.setInterval(interval);
+            wheel.schedule(info);
+            expected.put(i, info.getNextCollection());
+        }
+
+        // turn the wheel for two hours, re-arming everything that is collected
+        for (long now = NOW; now < NOW + 2 * 3600L * 1000L; now += 700L) {
+            for (Set<ScheduledMeasurementInfo> due = wheel.pollDue(now); due != null; due = wheel.pollDue(now)) {
+                for (ScheduledMeasurementInfo info : due) {
+                    long nextCollection = expected.get(info.getScheduleId());
+                    assertTrue(nextCollection <= now, info.toString());
+                    assertTrue(now - nextCollection < 1000L, info + " is late by " + (now - nextCollection));
+
+                    info.setNextCollection(nextCollection + info.getInterval());
+                    expected.put(info.getScheduleId(), info.getNextCollection());
+                    assertTrue(wheel.rearm(info));
+                }
+            }
+            assertEquals(wheel.size(), expected.size());
+        }
+    }
+
+    private static ScheduledMeasurementInfo info(int scheduleId, int resourceId, long nextCollection) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, 30000L, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+
+    private static Set<Integer> scheduleIds(Set<ScheduledMeasurementInfo> infos) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ScheduledMeasurementInfo info : infos) {
+            ids.add(info.getScheduleId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (Integer id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class TraitValueCacheTest {
+
+    public void onlyChangedValuesAreReported() {
+        TraitValueCache cache = new TraitValueCache();
+        assertTrue(cache.update(1, "a"));
+        assertFalse(cache.update(1, new String("a")));
+        assertTrue(cache.update(1, "b"));
+        assertTrue(cache.update(1, null));
+        assertFalse(cache.update(1, null));
+        assertNull(cache.get(1));
+        assertTrue(cache.update(1, "c"));
+        assertEquals(cache.get(1), "c");
+
+        assertTrue(cache.update(2, null));
+        assertFalse(cache.update(2, null));
+    }
+
+    public void equalValuesAreShared() {
+        TraitValueCache cache = new TraitValueCache();
+        cache.update(1, new String("Linux"));
+        cache.update(2, new String("Linux"));
+        cache.update(3, "2.6");
+
+        assertSame(cache.get(1), cache.get(2));
+        assertEquals(cache.size(), 3);
+        assertEquals(cache.getDistinctValues(), 2);
+        assertEquals(cache.getCharacters(), 8L);
+
+        cache.update(1, "3.10");
+        cache.remove(2);
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getDistinctValues(), 2);
+        assertEquals(cache.getCharacters(), 7L);
+
+        cache.remove(1);
+        cache.remove(3);
+        assertEquals(cache.size(), 0);
+        assertEquals(cache.getDistinctValues(), 0);
+    }
+}
@@ -1,6 +1,6 @@
 /*
  * RHQ Management Platform
- * Copyright (C) 2005-2010 Red Hat, Inc.
+ * Copyright (C) 2005-2014 Red Hat, Inc.
  * All rights reserved.
  *
  * This program is free software; you can redistribute it and/or modify
@@ -22,8 +22,6 @@
  */
 package org.rhq.core.util;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -31,6 +29,13 @@ import java.io.InputStream;
 import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * An object that generates a message digest or hash for algorithms such as MD5 or SHA. This class is basically a
@@ -41,6 +46,12 @@ import java.security.NoSuchAlgorithmException;
  * algorithm, instantiate an instance of this object and use its instance methods.
  */
 public class MessageDigestGenerator {
+    /** the size of the buffer used to read streams; large enough that reads are not dominated by per-call overhead */
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /** the largest buffer used to read a file; smaller files are read with a buffer the size of the file */
+    private static final int FILE_BUFFER_SIZE = 256 * 1024;
+
     /** you can pass this to the constructor to indicate you want to generate MD5 message digests */
     public static final String MD5 = "MD5";
 
@@ -94,14 +105,33 @@ public class MessageDigestGenerator {
      * @throws IOException if there was a problem reading from the stream
      */
     public void add(InputStream is) throws IOException {
-        byte[] bytes = new byte[1024];
+        add(is, new byte[BUFFER_SIZE]);
+    }
+
+    /**
+     * Use this to add the content of a file to the set of data used to calculate the digest. The file is read
+     * directly into a buffer sized for the file, without an intermediate buffered stream.
+     *
+     * @param  file the file whose content is to be part of the set of data from which the digest is to be calculated
+     *
+     * @throws IOException if there was a problem reading the file
+     */
+    public void add(File file) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            long length = file.length();
+            add(is, new byte[(int) Math.min(Math.max(length, 1024L), FILE_BUFFER_SIZE)]);
+        } finally {
+            is.close();
+        }
+    }
+
+    private void add(InputStream is, byte[] bytes) throws IOException {
         int len;
 
         while ((len = is.read(bytes, 0, bytes.length)) != -1) {
             messageDigest.update(bytes, 0, len);
         }
-
-        return;
     }
 
     /**
@@ -210,12 +240,8 @@ public class MessageDigestGenerator {
     }
 
     public byte[] calcDigest(String source_str) {
-        try {
-            ByteArrayInputStream bs = new ByteArrayInputStream(source_str.getBytes());
-            return calcDigest(bs);
-        } catch (IOException e) {
-            throw new RuntimeException("IOException reading a byte array input stream, this should never happen", e);
-        }
+        add(source_str.getBytes());
+        return getDigest();
     }
 
     /**
@@ -249,23 +275,15 @@ public class MessageDigestGenerator {
     }
 
     public byte[] calcDigest(File file) throws IOException {
-        FileInputStream is = null;
-
-        try {
-            is = new FileInputStream(file);
-            return calcDigest(new BufferedInputStream(is, 1024 * 32));
-        } finally {
-            if (is != null) {
-                is.close();
-            }
-        }
+        add(file);
+        return getDigest();
     }
 
     public byte[] calcDigest(URL url) throws IOException {
         InputStream is = null;
         try {
             is = url.openStream();
-            return calcDigest(new BufferedInputStream(is, 1024 * 32));
+            return calcDigest(is);
         } finally {
             if (is != null) {
                 is.close();
@@ -292,12 +310,8 @@ public class MessageDigestGenerator {
     }
 
     public String calcDigestString(byte[] bytes) throws IOException {
-        try {
-            ByteArrayInputStream bs = new ByteArrayInputStream(bytes);
-            return calcDigestString(bs);
-        } catch (IOException e) {
-            throw new RuntimeException("IOException reading a byte array input stream, this should never happen", e);
-        }
+        add(bytes);
+        return getDigestString();
     }
 
     /**
@@ -318,6 +332,51 @@ public class MessageDigestGenerator {
         return calculateDigestStringFromBytes(calcDigest(url));
     }
 
+    /**
+     * Calculates the digest of a file using the given executor. Since a {@link MessageDigest} is not thread-safe,
+     * the digest is calculated by a generator of its own.
+     *
+     * @param  algorithm the algorithm to use (e.g., MD5, SHA-256)
+     * @param  file the file whose contents are to be used to calculate the digest
+     * @param  executor calculates the digest; if <code>null</code>, it is calculated by the calling thread before
+     *                  this method returns
+     *
+     * @return the future digest of the file content as a String; if the file could not be read, getting the value
+     *         throws an ExecutionException caused by the IOException
+     */
+    public static Future<String> calcDigestString(final String algorithm, final File file, ExecutorService executor) {
+        FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() throws IOException {
+                return new MessageDigestGenerator(algorithm).calcDigestString(file);
+            }
+        });
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Calculates the digests of several files concurrently using the given executor. See
+     * {@link #calcDigestString(String, File, ExecutorService)}.
+     *
+     * @param  algorithm the algorithm to use (e.g., MD5, SHA-256)
+     * @param  files the files whose digests are to be calculated
+     * @param  executor calculates the digests; if <code>null</code>, the calling thread calculates them one by one
+     *
+     * @return the future digests of the files, in the order of the given collection
+     */
+    public static Map<File, Future<String>> calcDigestStrings(String algorithm, Collection<File> files,
+        ExecutorService executor) {
+        Map<File, Future<String>> digests = new LinkedHashMap<File, Future<String>>();
+        for (File file : files) {
+            digests.put(file, calcDigestString(algorithm, file, executor));
+        }
+        return digests;
+    }
+
     /**
      * Given a digest byte array, this will return its String representation.
      *
@@ -29,6 +29,8 @@ package org.rhq.core.util.progresswatch;
  * based on the finished work divided by the work remaining.
  * 
  * Possible additions to the future could add ability to track timing (current, remaining estimate).
+ *
+ * The methods are synchronized, so work can be finished by several threads while another thread reports the progress.
  *  
  * @author mmccune
  *
@@ -42,7 +44,7 @@ public class ProgressWatcher {
     /**
      * Start watching the progress of a given amount of work.
      */
-    public void start() {
+    public synchronized void start() {
         totalWork = 0;
         finishedWork = 0;
         started = true;
@@ -53,7 +55,7 @@ public class ProgressWatcher {
      * @return float 0-100% of the amount of work copleted.  integer so no decimal points.
      * @throws IllegalStateException if this ProgressWatcher has not been started yet.
      */
-    public int getPercentComplete() throws IllegalStateException {
+    public synchronized int getPercentComplete() throws IllegalStateException {
         if (!started) {
             throw new IllegalStateException(this.getClass().getSimpleName()
                 + " not started yet. call start() to set progress to 0 and start watching.");
@@ -72,7 +74,7 @@ public class ProgressWatcher {
      * 
      * @param totalWorkIn to set.
      */
-    public void setTotalWork(int totalWorkIn) {
+    public synchronized void setTotalWork(int totalWorkIn) {
         this.totalWork = totalWorkIn;
     }
 
@@ -81,7 +83,7 @@ public class ProgressWatcher {
      * 
      * @param workToAdd 
      */
-    public void addWork(int workToAdd) {
+    public synchronized void addWork(int workToAdd) {
         totalWork = totalWork + workToAdd;
     }
 
@@ -90,7 +92,7 @@ public class ProgressWatcher {
      * 
      * @param workToRemove
      */
-    public void finishWork(int workToRemove) {
+    public synchronized void finishWork(int workToRemove) {
         if (!started) {
             throw new IllegalStateException(this.getClass().getSimpleName()
                 + " not started yet. call start() to set progress to 0 and start watching.");
@@ -98,17 +100,31 @@ public class ProgressWatcher {
         finishedWork += workToRemove;
     }
 
+    /**
+     * @return the total amount of work to be completed
+     */
+    public synchronized int getTotalWork() {
+        return totalWork;
+    }
+
+    /**
+     * @return the amount of work completed so far
+     */
+    public synchronized int getFinishedWork() {
+        return finishedWork;
+    }
+
     /**
      * Indicate this ProgressWatcher is finished watching.
      */
-    public void stop() {
+    public synchronized void stop() {
         this.started = false;
     }
 
     /**
      * Reset the ProgressWatcher to zero.
      */
-    public void resetToZero() {
+    public synchronized void resetToZero() {
         stop();
         start();
     }
@@ -0,0 +1,346 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.util.updater;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.rhq.core.template.TemplateEngine;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.core.util.progresswatch.ProgressWatcher;
+import org.rhq.core.util.stream.StreamUtil;
+
+/**
+ * Extracts the entries of a zip file like {@link ExtractorZipFileVisitor} does, except that the entries are
+ * read through random access to the zip file so that they can be inflated, hashed and written concurrently.
+ * Entries that need to be realized are handled by the calling thread since the template engine and the
+ * {@link DeployDifferences} are not thread-safe; they are assumed to be small.
+ *
+ * In a dry run, nothing is written and the extractor only computes the hashcodes the entries would have.
+ */
+class ConcurrentZipExtractor {
+    private static final int BUFFER_SIZE = 32768;
+
+    private final File rootDir;
+    private final Pattern filesToRealizeRegex;
+    private final TemplateEngine templateEngine;
+    private final Set<String> filesToNotExtract;
+    private final DeployDifferences diff;
+    private final boolean dryRun;
+    private final ExecutorService executor;
+
+    private Map<String, String> filesInPlace;
+    private FileHashcodeIndex fileHashcodeIndex;
+    private ProgressWatcher progressWatcher;
+
+    /**
+     * @param rootDir the top level directory where all zip file entries will be extracted to
+     * @param filesToRealizeRegex pattern of files that are to be realized prior to hashcodes being computed
+     * @param templateEngine the template engine that replaces replacement variables in files to be realized
+     * @param filesToNotExtract set of files that are not to be extracted from the zip and stored; these are to be skipped
+     * @param diff optional object that is told when files are realized
+     * @param dryRun if <code>true</code>, this won't actually write files to the filesystem
+     * @param executor extracts the entries; if <code>null</code>, the calling thread extracts them
+     */
+    ConcurrentZipExtractor(File rootDir, Pattern filesToRealizeRegex, TemplateEngine templateEngine,
+        Set<String> filesToNotExtract, DeployDifferences diff, boolean dryRun, ExecutorService executor) {
+
+        this.rootDir = rootDir;
+
+        if (filesToRealizeRegex == null || templateEngine == null) {
+            filesToRealizeRegex = null;
+            templateEngine = null;
+        }
+        this.filesToRealizeRegex = filesToRealizeRegex;
+        this.templateEngine = templateEngine;
+
+        if (filesToNotExtract != null && filesToNotExtract.size() == 0) {
+            filesToNotExtract = null;
+        }
+        this.filesToNotExtract = filesToNotExtract;
+        this.diff = diff;
+        this.dryRun = dryRun;
+        this.executor = executor;
+    }
+
+    /**
+     * @param filesInPlace files that already exist with the content of the zip entry, mapped to their hashcodes.
+     *                     Unless they have to be realized, these are not extracted again.
+     */
+    void setFilesInPlace(Map<String, String> filesInPlace) {
+        this.filesInPlace = filesInPlace;
+    }
+
+    /**
+     * @param fileHashcodeIndex told about the hashcodes of the extracted files
+     */
+    void setFileHashcodeIndex(FileHashcodeIndex fileHashcodeIndex) {
+        this.fileHashcodeIndex = fileHashcodeIndex;
+    }
+
+    /**
+     * @param progressWatcher told about each entry as work to do and finishes that work when the entry is extracted
+     */
+    void setProgressWatcher(ProgressWatcher progressWatcher) {
+        this.progressWatcher = progressWatcher;
+    }
+
+    /**
+     * Extracts the entries of the given zip file.
+     *
+     * @param zipFile the zip file to extract
+     * @return map containing filenames (zip file entry names) and their hashcodes
+     * @throws Exception if an entry could not be extracted; all other entries will have been processed
+     */
+    FileHashcodeMap extract(File zipFile) throws Exception {
+        FileHashcodeMap fileHashcodeMap = new FileHashcodeMap();
+
+        final ZipFile zip = new ZipFile(zipFile);
+        final AtomicBoolean aborted = new AtomicBoolean();
+        Map<String, Future<String>> extractions = new LinkedHashMap<String, Future<String>>();
+        try {
+            // when a zip has several entries with the same name, the last one wins just like when walking the zip stream
+            Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                entries.put(entry.getName(), entry);
+            }
+
+            if (this.progressWatcher != null) {
+                this.progressWatcher.addWork(entries.size());
+            }
+
+            for (final ZipEntry entry : entries.values()) {
+                String pathname = entry.getName();
+
+                if (this.filesToNotExtract != null && this.filesToNotExtract.contains(pathname)) {
+                    finishWork();
+                    continue;
+                }
+
+                final File entryFile = new File(this.rootDir, pathname);
+
+                if (entry.isDirectory()) {
+                    if (!dryRun) {
+                        entryFile.mkdirs();
+                    }
+                    finishWork();
+                    continue;
+                }
+
+                // make sure all parent directories are created before the entries are extracted concurrently
+                if (!dryRun) {
+                    entryFile.getParentFile().mkdirs();
+                }
+
+                if (this.filesToRealizeRegex != null && this.filesToRealizeRegex.matcher(pathname).matches()) {
+                    fileHashcodeMap.put(pathname, realize(zip, entry, entryFile));
+                    finishWork();
+                    continue;
+                }
+
+                if (this.filesInPlace != null && this.filesInPlace.containsKey(pathname)) {
+                    fileHashcodeMap.put(pathname, this.filesInPlace.get(pathname));
+                    finishWork();
+                    continue;
+                }
+
+                FutureTask<String> extraction = new FutureTask<String>(new Callable<String>() {
+                    public String call() throws Exception {
+                        if (aborted.get()) {
+                            return null;
+                        }
+                        String hashcode;
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            if (dryRun) {
+                                hashcode = new MessageDigestGenerator().calcDigestString(in);
+                            } else {
+                                hashcode = copyAndCalculateHashcode(in, entryFile, entry.getSize());
+                            }
+                        } finally {
+                            in.close();
+                        }
+                        finishWork();
+                        return hashcode;
+                    }
+                });
+                if (this.executor != null) {
+                    this.executor.execute(extraction);
+                } else {
+                    extraction.run();
+                }
+                extractions.put(pathname, extraction);
+            }
+
+            // wait for all extractions, even if one fails, so no file is still being written when we return
+            Exception failure = null;
+            for (Map.Entry<String, Future<String>> extraction : extractions.entrySet()) {
+                String pathname = extraction.getKey();
+                try {
+                    String hashcode = extraction.getValue().get();
+                    fileHashcodeMap.put(pathname, hashcode);
+                    if (!dryRun && this.fileHashcodeIndex != null) {
+                        this.fileHashcodeIndex.put(pathname, new File(this.rootDir, pathname), hashcode);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = (cause instanceof Exception) ? (Exception) cause : new Exception(cause);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            // if the calling thread failed, skip the extractions that have not started yet and wait for the running
+            // ones, so that no entry is still being read when the zip is closed
+            aborted.set(true);
+            awaitQuietly(extractions.values());
+            zip.close();
+        }
+
+        return fileHashcodeMap;
+    }
+
+    private String realize(ZipFile zip, ZipEntry entry, File entryFile) throws Exception {
+        String pathname = entry.getName();
+
+        // note: tempateEngine will never be null if we got here
+        int contentSize = (int) entry.getSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((contentSize > 0) ? contentSize : 32768);
+        StreamUtil.copy(zip.getInputStream(entry), baos, true);
+        String content = this.templateEngine.replaceTokens(baos.toString());
+        baos = null;
+        if (this.diff != null) {
+            this.diff.addRealizedFile(pathname, content);
+        }
+
+        // now write the realized content to the filesystem
+        byte[] bytes = content.getBytes();
+
+        if (!dryRun) {
+            FileOutputStream fos = new FileOutputStream(entryFile);
+            try {
+                fos.write(bytes);
+            } finally {
+                fos.close();
+            }
+        }
+
+        String hashcode = new MessageDigestGenerator().calcDigestString(bytes);
+        if (!dryRun && this.fileHashcodeIndex != null) {
+            this.fileHashcodeIndex.put(pathname, entryFile, hashcode);
+        }
+        return hashcode;
+    }
+
+    private void finishWork() {
+        if (this.progressWatcher != null) {
+            this.progressWatcher.finishWork(1);
+        }
+    }
+
+    private static void awaitQuietly(Collection<Future<String>> extractions) {
+        boolean interrupted = false;
+        for (Future<String> extraction : extractions) {
+            while (!extraction.isDone()) {
+                try {
+                    extraction.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // already reported or superseded by the failure of the calling thread
+                } catch (CancellationException e) {
+                    // nothing is running
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the stream to the file through a file channel and returns the hashcode of the content. When the size
+     * of the content is known, the file is given its final length before the content is written so the file system
+     * does not have to grow it a buffer at a time.
+     *
+     * @param in the content, which is not closed
+     * @param file the file to write, which is overwritten if it exists
+     * @param size the size of the content or -1 if it is not known
+     * @return the hashcode of the content
+     * @throws IOException if the content could not be read or written
+     */
+    static String copyAndCalculateHashcode(InputStream in, File file, long size) throws IOException {
+        MessageDigestGenerator generator = new MessageDigestGenerator();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (size > 0) {
+                raf.setLength(size);
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long written = 0L;
+            for (int bytesRead = in.read(buffer); bytesRead != -1; bytesRead = in.read(buffer)) {
+                generator.add(buffer, 0, bytesRead);
+                byteBuffer.clear();
+                byteBuffer.limit(bytesRead);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                written += bytesRead;
+            }
+
+            // the file may have existed with more content or the entry size may have been wrong
+            channel.truncate(written);
+        } finally {
+            raf.close();
+        }
+        return generator.getDigestString();
+    }
+}
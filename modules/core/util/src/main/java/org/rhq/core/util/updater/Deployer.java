@@ -30,6 +30,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -37,18 +38,21 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.util.MessageDigestGenerator;
-import org.rhq.core.util.ZipUtil;
-import org.rhq.core.util.ZipUtil.ZipEntryVisitor;
 import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.progresswatch.ProgressWatcher;
 import org.rhq.core.util.stream.StreamCopyDigest;
 import org.rhq.core.util.stream.StreamUtil;
 
@@ -70,9 +74,10 @@ import org.rhq.core.util.stream.StreamUtil;
  * <tr><td>X</td><td>none</td><td>?</td><td>New file is installed</td></tr>
  * <tr><td>?</td><td>?</td><td>none</td><td>Current file is backed up and deleted</td></tr>
  * </table>
- * (*) denotes that the current file could have been left as-is. If, in the future, we can
- * provide Java with a way to change file permissions or ownership, we would want to
- * copy the new file over the current file and perform the chown/chmod.
+ * (*) denotes that the current file is left as-is, since it already has the new content, unless the
+ * deployment is to be cleaned. If, in the future, we can provide Java with a way to change file
+ * permissions or ownership, we would want to copy the new file over the current file and perform
+ * the chown/chmod.
  * 
  * Here you can see that there is only one non-trivial case where the new file is <b>not</b> installed, and that
  * is when the original file and the new file have the same hashcode (i.e. was not changed) but
@@ -93,6 +98,10 @@ import org.rhq.core.util.stream.StreamUtil;
  * directory), it will be copied to the {@link DeploymentsMetadata#EXT_BACKUP_DIR} directory found
  * in the metadata directory. 
  * 
+ * Zip entries are extracted and files are hashed concurrently, see {@link #setConcurrency(int)}. When
+ * rescanning the current deployment, files whose size and last modified time did not change since the
+ * previous deployment are not hashed again, see {@link FileHashcodeIndex}.
+ * 
  * @author John Mazzitelli
  */
 public class Deployer {
@@ -101,6 +110,13 @@ public class Deployer {
     private final DeploymentData deploymentData;
     private final DeploymentsMetadata deploymentsMetadata;
 
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private ProgressWatcher progressWatcher;
+
+    // only set while a deployment is being performed
+    private ExecutorService executor;
+    private FileHashcodeIndex fileHashcodeIndex;
+
     /**
      * Constructors that prepares this object to deploy content to a destination on the local file system.
      *  
@@ -132,6 +148,36 @@ public class Deployer {
         return deploymentsMetadata.isManaged();
     }
 
+    /**
+     * @return the number of threads that extract and hash files during a deployment
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the number of threads that extract and hash files during a deployment. The default is the
+     * number of available processors.
+     *
+     * @param concurrency the number of threads, 1 to do all the work in a single thread
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency < 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets a watcher that is told about the files to be written as the deployment progresses. Each zip entry and
+     * raw file is one unit of work. The watcher must be {@link ProgressWatcher#start() started} by the caller.
+     *
+     * @param progressWatcher the watcher or <code>null</code> to not track the progress
+     */
+    public void setProgressWatcher(ProgressWatcher progressWatcher) {
+        this.progressWatcher = progressWatcher;
+    }
+
     /**
      * Convienence method that is equivalent to {@link #deploy(DeployDifferences, boolean) deploy(diff, false)}.
      * @see #deploy(DeployDifferences, boolean) 
@@ -178,12 +224,17 @@ public class Deployer {
         // fail-fast if we don't have enough disk space
         checkDiskUsage();
 
-        if (!this.deploymentsMetadata.isManaged()) {
-            // the destination dir has not been used to deploy a bundle yet, therefore, this is the first deployment
-            map = performInitialDeployment(diff, dryRun);
-        } else {
-            // we have metadata in the destination directory, therefore, this deployment is updating a current one
-            map = performUpdateDeployment(diff, clean, dryRun);
+        startDeployment();
+        try {
+            if (!this.deploymentsMetadata.isManaged()) {
+                // the destination dir has not been used to deploy a bundle yet, therefore, this is the first deployment
+                map = performInitialDeployment(diff, dryRun);
+            } else {
+                // we have metadata in the destination directory, therefore, this deployment is updating a current one
+                map = performUpdateDeployment(diff, clean, dryRun);
+            }
+        } finally {
+            finishDeployment();
         }
 
         return map;
@@ -221,28 +272,55 @@ public class Deployer {
         // fail-fast if we don't have enough disk space
         checkDiskUsage();
 
-        if (!this.deploymentsMetadata.isManaged()) {
-            // the destination dir has not been used to deploy a bundle yet, therefore, this is the first deployment
-            map = performInitialDeployment(diff, dryRun);
-        } else {
-            // we have metadata in the destination directory, therefore, this deployment is updating a current one.
-            // First get the ID of the currently existing deployment - this is where our backup files exist.
-            // Then we update the current deployment with the new deployment (which actually should be restoring to the previous one).
-            // Finally, we restore the backup files into the new deployment, overlaying them over top the new deployment.
-            int id = this.deploymentsMetadata.getCurrentDeploymentProperties().getDeploymentId();
-            map = performUpdateDeployment(diff, clean, dryRun);
-            restoreBackupFiles(id, map, diff, dryRun);
-            if (!dryRun) {
-                // if we restored one or more files, we need to persist the new deployment hashcode data with the restored hashcodes
-                if (!diff.getRestoredFiles().isEmpty()) {
-                    this.deploymentsMetadata.setCurrentDeployment(this.deploymentData.getDeploymentProps(), map, false);
+        startDeployment();
+        try {
+            if (!this.deploymentsMetadata.isManaged()) {
+                // the destination dir has not been used to deploy a bundle yet, therefore, this is the first deployment
+                map = performInitialDeployment(diff, dryRun);
+            } else {
+                // we have metadata in the destination directory, therefore, this deployment is updating a current one.
+                // First get the ID of the currently existing deployment - this is where our backup files exist.
+                // Then we update the current deployment with the new deployment (which actually should be restoring to the previous one).
+                // Finally, we restore the backup files into the new deployment, overlaying them over top the new deployment.
+                int id = this.deploymentsMetadata.getCurrentDeploymentProperties().getDeploymentId();
+                map = performUpdateDeployment(diff, clean, dryRun);
+                restoreBackupFiles(id, map, diff, dryRun);
+                if (!dryRun) {
+                    // if we restored one or more files, we need to persist the new deployment hashcode data with the restored hashcodes
+                    if (!diff.getRestoredFiles().isEmpty()) {
+                        this.deploymentsMetadata.setCurrentDeployment(this.deploymentData.getDeploymentProps(), map,
+                            false);
+                        this.deploymentsMetadata.setFileHashcodeIndex(this.fileHashcodeIndex);
+                    }
                 }
             }
+        } finally {
+            finishDeployment();
         }
 
         return map;
     }
 
+    private void startDeployment() {
+        final String threadNamePrefix = "Deployer-" + this.deploymentData.getDeploymentProps().getDeploymentId() + "-";
+        this.executor = Executors.newFixedThreadPool(this.concurrency, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadNamePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.fileHashcodeIndex = this.deploymentsMetadata.getFileHashcodeIndex();
+    }
+
+    private void finishDeployment() {
+        this.executor.shutdownNow();
+        this.executor = null;
+        this.fileHashcodeIndex = null;
+    }
+
     /**
      * Returns an estimated amount of disk space the deployment will need if it gets installed.
      * @return information on the estimated disk usage
@@ -262,18 +340,22 @@ public class Deployer {
 
         diskUsage.setMaxDiskUsable(usableSpace);
 
+        // the zip file's central directory has the sizes, there is no need to inflate the entries
         Set<File> zipFiles = this.deploymentData.getZipFiles();
         for (File zipFile : zipFiles) {
-            ZipUtil.walkZipFile(zipFile, new ZipEntryVisitor() {
-                public boolean visit(ZipEntry entry, ZipInputStream stream) throws Exception {
+            ZipFile zip = new ZipFile(zipFile);
+            try {
+                for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                    ZipEntry entry = entries.nextElement();
                     if (!entry.isDirectory()) {
                         final long size = entry.getSize();
                         diskUsage.increaseDiskUsage(size > 0 ? size : 0);
                         diskUsage.incrementFileCount();
                     }
-                    return true;
                 }
-            });
+            } finally {
+                zip.close();
+            }
         }
 
         Map<File, File> rawFiles = this.deploymentData.getRawFiles();
@@ -346,7 +428,8 @@ public class Deployer {
             throw new IllegalStateException("Unsupported destination compliance mode.");
         }
 
-        FileHashcodeMap newFileHashcodeMap = extractZipAndRawFiles(new HashMap<String, String>(0), diff, dryRun);
+        FileHashcodeMap newFileHashcodeMap = extractZipAndRawFiles(new HashMap<String, String>(0),
+            new HashMap<String, String>(0), diff, dryRun);
 
         // this is an initial deployment, so we know every file is new - tell our diff about them all
         if (diff != null) {
@@ -379,7 +462,7 @@ public class Deployer {
         putDirectoryEntries(original);
 
         ChangesFileHashcodeMap current = original.rescan(this.deploymentData.getDestinationDir(),
-            this.deploymentData.getIgnoreRegex(), reportNewRootFilesAsNew);
+            this.deploymentData.getIgnoreRegex(), reportNewRootFilesAsNew, this.fileHashcodeIndex, this.executor);
         FileHashcodeMap newFiles = getNewDeploymentFileHashcodeMap();
 
         if (current.getUnknownContent() != null) {
@@ -423,6 +506,19 @@ public class Deployer {
         Map<String, String> currentFilesToLeaveAlone = new HashMap<String, String>();
         NavigableSet<String> currentFilesToDelete;
 
+        // current files that already have the content of the new files do not need to be written again,
+        // unless everything is to be cleaned first
+        Map<String, String> currentFilesInPlace = new HashMap<String, String>();
+        if (!clean) {
+            for (Map.Entry<String, String> entry : newFiles.entrySet()) {
+                String newHashcode = entry.getValue();
+                if (!newHashcode.equals(FileHashcodeMap.DIRECTORY_HASHCODE)
+                    && newHashcode.equals(current.get(entry.getKey()))) {
+                    currentFilesInPlace.put(entry.getKey(), newHashcode);
+                }
+            }
+        }
+
         for (Map.Entry<String, String> changed : current.getChanges().entrySet()) {
             String changedFilePath = changed.getKey();
             String newHashcode = newFiles.get(changedFilePath);
@@ -547,7 +643,8 @@ public class Deployer {
         diff.setCleaned(clean);
 
         debug("Copying new files as part of update deployment. dryRun=", dryRun);
-        FileHashcodeMap newFileHashCodeMap = extractZipAndRawFiles(currentFilesToLeaveAlone, diff, dryRun);
+        FileHashcodeMap newFileHashCodeMap = extractZipAndRawFiles(currentFilesToLeaveAlone, currentFilesInPlace,
+            diff, dryRun);
 
         debug("Update deployment finished. dryRun=", dryRun);
         return newFileHashCodeMap;
@@ -597,18 +694,19 @@ public class Deployer {
             }
         }
         for (File zipFileToAnalyze : zipFilesToAnalyze) {
-            ZipUtil.walkZipFile(zipFileToAnalyze, new ZipEntryVisitor() {
-                @Override
-                public boolean visit(ZipEntry entry, ZipInputStream stream) throws Exception {
-                    String relativePath = entry.getName();
+            ZipFile zip = new ZipFile(zipFileToAnalyze);
+            try {
+                for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                    String relativePath = entries.nextElement().getName();
                     int firstPathSep = relativePath.indexOf('/'); // regardless of platform, zip always uses /
                     if (firstPathSep != -1) {
                         String topParentDir = relativePath.substring(0, firstPathSep);
                         managedSubdirs.add(new File(topParentDir));
                     }
-                    return true;
                 }
-            });
+            } finally {
+                zip.close();
+            }
         }
 
         return managedSubdirs;
@@ -780,8 +878,8 @@ public class Deployer {
         }
     }
 
-    private FileHashcodeMap extractZipAndRawFiles(Map<String, String> currentFilesToLeaveAlone, DeployDifferences diff,
-        boolean dryRun) throws Exception {
+    private FileHashcodeMap extractZipAndRawFiles(Map<String, String> currentFilesToLeaveAlone,
+        Map<String, String> currentFilesInPlace, DeployDifferences diff, boolean dryRun) throws Exception {
 
         // NOTE: right now, this only adds to the "realized" set of files is diff, no need to track "added" or "changed" here
         FileHashcodeMap newFileHashCodeMap = new FileHashcodeMap();
@@ -791,7 +889,7 @@ public class Deployer {
         int sourceDirLength = sourceDirAbsPath.length();
 
         // extract all zip files
-        ExtractorZipFileVisitor visitor;
+        ConcurrentZipExtractor extractor;
         for (File zipFile : this.deploymentData.getZipFiles()) {
             Boolean exploded = this.deploymentData.getZipsExploded().get(zipFile);
             if (exploded == null) {
@@ -807,10 +905,13 @@ public class Deployer {
 
             if (exploded.booleanValue()) {
                 // EXPLODED
-                visitor = new ExtractorZipFileVisitor(this.deploymentData.getDestinationDir(), realizeRegex,
-                    this.deploymentData.getTemplateEngine(), currentFilesToLeaveAlone.keySet(), diff, dryRun);
-                ZipUtil.walkZipFile(zipFile, visitor);
-                newFileHashCodeMap.putAll(visitor.getFileHashcodeMap()); // exploded into individual files
+                extractor = new ConcurrentZipExtractor(this.deploymentData.getDestinationDir(), realizeRegex,
+                    this.deploymentData.getTemplateEngine(), currentFilesToLeaveAlone.keySet(), diff, dryRun,
+                    this.executor);
+                extractor.setFilesInPlace(currentFilesInPlace);
+                extractor.setFileHashcodeIndex(this.fileHashcodeIndex);
+                extractor.setProgressWatcher(this.progressWatcher);
+                newFileHashCodeMap.putAll(extractor.extract(zipFile)); // exploded into individual files
             } else {
                 // COMPRESSED
 
@@ -827,13 +928,13 @@ public class Deployer {
                 if (this.deploymentData.getTemplateEngine() != null && realizeRegex != null) {
                     // we need to explode it to perform the realization of templatized variables
                     // TODO: can we do this in another tmp location and build the zip in the dest dir?
-                    visitor = new ExtractorZipFileVisitor(this.deploymentData.getDestinationDir(), realizeRegex,
-                        this.deploymentData.getTemplateEngine(), currentFilesToLeaveAlone.keySet(), diff, dryRun);
-                    ZipUtil.walkZipFile(zipFile, visitor);
+                    extractor = new ConcurrentZipExtractor(this.deploymentData.getDestinationDir(), realizeRegex,
+                        this.deploymentData.getTemplateEngine(), currentFilesToLeaveAlone.keySet(), diff, dryRun,
+                        this.executor);
+                    FileHashcodeMap extractedFiles = extractor.extract(zipFile);
                     // we have to compress the file again - our new compressed file will have the new realized files in them
                     if (!dryRun) {
-                        createZipFile(compressedFile, this.deploymentData.getDestinationDir(),
-                            visitor.getFileHashcodeMap());
+                        createZipFile(compressedFile, this.deploymentData.getDestinationDir(), extractedFiles);
                     }
                 }
 
@@ -848,6 +949,7 @@ public class Deployer {
                         FileUtil.copyFile(zipFile, compressedFile);
                     }
                     compressedFileHashcode = hashcodeGenerator.calcDigestString(compressedFile);
+                    this.fileHashcodeIndex.put(zipRelativePath, compressedFile, compressedFileHashcode);
                 } else {
                     // use source zip for hash - should be the same as the would-be compressed file since we aren't realizing files in it
                     compressedFileHashcode = hashcodeGenerator.calcDigestString(zipFile);
@@ -858,6 +960,9 @@ public class Deployer {
 
         // copy all raw files
         StreamCopyDigest copyDigester = new StreamCopyDigest();
+        if (this.progressWatcher != null) {
+            this.progressWatcher.addWork(this.deploymentData.getRawFiles().size());
+        }
         for (Map.Entry<File, File> rawFile : this.deploymentData.getRawFiles().entrySet()) {
             // determine where the original file is and where it needs to go
             File currentLocationFile = rawFile.getKey();
@@ -865,11 +970,15 @@ public class Deployer {
             String newLocationPath = rawFile.getValue().getPath();
             newLocationPath = newFileHashCodeMap.convertPath(newLocationPath);
             if (currentFilesToLeaveAlone != null && currentFilesToLeaveAlone.containsKey(newLocationPath)) {
+                finishWork();
                 continue;
             }
             if (!newLocationFile.isAbsolute()) {
                 newLocationFile = new File(this.deploymentData.getDestinationDir(), newLocationFile.getPath());
             }
+            // the key to the file in the hashcode maps
+            String newLocationKey = rawFile.getValue().isAbsolute() ? newLocationFile.getAbsolutePath()
+                : newLocationPath;
 
             if (!dryRun) {
                 File newLocationParentDir = newLocationFile.getParentFile();
@@ -886,7 +995,10 @@ public class Deployer {
                 realize = this.deploymentData.getRawFilesToRealize().contains(currentLocationFile);
             }
 
-            if (realize) {
+            if (!realize && currentFilesInPlace.containsKey(newFileHashCodeMap.convertPath(newLocationKey))) {
+                debug("Raw file [", newLocationFile, "] is already in place. dryRun=", dryRun);
+                hashcode = currentFilesInPlace.get(newFileHashCodeMap.convertPath(newLocationKey));
+            } else if (realize) {
                 debug("Realizing file [", currentLocationFile, "] to [", newLocationFile, "]. dryRun=", dryRun);
 
                 // this entry needs to be realized, do it now in-memory (we assume realizable files will not be large)
@@ -914,18 +1026,18 @@ public class Deployer {
                 MessageDigestGenerator hashcodeGenerator = copyDigester.getMessageDigestGenerator();
                 hashcodeGenerator.add(bytes);
                 hashcode = hashcodeGenerator.getDigestString();
+                if (!dryRun) {
+                    this.fileHashcodeIndex.put(newLocationKey, newLocationFile, hashcode);
+                }
             } else {
                 debug("Copying raw file [", currentLocationFile, "] to [", newLocationFile, "]. dryRun=", dryRun);
 
                 FileInputStream in = new FileInputStream(currentLocationFile);
                 try {
                     if (!dryRun) {
-                        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(newLocationFile));
-                        try {
-                            hashcode = copyDigester.copyAndCalculateHashcode(in, out);
-                        } finally {
-                            out.close();
-                        }
+                        hashcode = ConcurrentZipExtractor.copyAndCalculateHashcode(in, newLocationFile,
+                            currentLocationFile.length());
+                        this.fileHashcodeIndex.put(newLocationKey, newLocationFile, hashcode);
                     } else {
                         hashcode = MessageDigestGenerator.getDigestString(in);
                     }
@@ -935,16 +1047,16 @@ public class Deployer {
             }
 
             // remember where the file is now and what its hashcode is
-            if (rawFile.getValue().isAbsolute()) {
-                newFileHashCodeMap.put(newLocationFile.getAbsolutePath(), hashcode);
-            } else {
-                newFileHashCodeMap.put(newLocationPath, hashcode);
-            }
+            newFileHashCodeMap.put(newLocationKey, hashcode);
+            finishWork();
         }
 
         newFileHashCodeMap.putAll(currentFilesToLeaveAlone); // remember that these are still there
 
         if (!dryRun) {
+            // forget about files that are no longer part of the deployment
+            this.fileHashcodeIndex.retainAll(newFileHashCodeMap.keySet());
+            this.deploymentsMetadata.setFileHashcodeIndex(this.fileHashcodeIndex);
             this.deploymentsMetadata.setCurrentDeployment(this.deploymentData.getDeploymentProps(), newFileHashCodeMap,
                 true);
         }
@@ -952,6 +1064,12 @@ public class Deployer {
         return newFileHashCodeMap;
     }
 
+    private void finishWork() {
+        if (this.progressWatcher != null) {
+            this.progressWatcher.finishWork(1);
+        }
+    }
+
     /**
      * Create a zip file by adding all the files found in the file hashcode map. The
      * relative paths found in the map's key set are relative to the rootDir directory.
@@ -1029,17 +1147,17 @@ public class Deployer {
     private FileHashcodeMap getNewDeploymentFileHashcodeMap() throws Exception {
         FileHashcodeMap fileHashcodeMap = new FileHashcodeMap();
 
-        // perform in-memory extraction and calculate hashcodes for all zip files 
-        InMemoryZipFileVisitor visitor;
+        // perform in-memory extraction and calculate hashcodes for all zip files; this is a dry run of the extraction
+        ConcurrentZipExtractor extractor;
         for (File zipFile : this.deploymentData.getZipFiles()) {
             debug("Extracting zip [", zipFile, "] in-memory to determine hashcodes for all entries");
             Pattern realizeRegex = null;
             if (this.deploymentData.getZipEntriesToRealizeRegex() != null) {
                 realizeRegex = this.deploymentData.getZipEntriesToRealizeRegex().get(zipFile);
             }
-            visitor = new InMemoryZipFileVisitor(realizeRegex, this.deploymentData.getTemplateEngine());
-            ZipUtil.walkZipFile(zipFile, visitor);
-            fileHashcodeMap.putAll(visitor.getFileHashcodeMap());
+            extractor = new ConcurrentZipExtractor(null, realizeRegex, this.deploymentData.getTemplateEngine(), null,
+                null, true, this.executor);
+            fileHashcodeMap.putAll(extractor.extract(zipFile));
         }
 
         MessageDigestGenerator generator = new MessageDigestGenerator();
@@ -1165,6 +1283,7 @@ public class Deployer {
                         restoredFile.getParentFile().mkdirs();
                         String hashcode = copyFileAndCalcHashcode(child, restoredFile);
                         map.put(childRelativePath, hashcode);
+                        this.fileHashcodeIndex.put(childRelativePath, restoredFile, hashcode);
                     } else {
                         map.put(childRelativePath, MessageDigestGenerator.getDigestString(child));
                     }
@@ -1196,6 +1315,7 @@ public class Deployer {
                         restoredFile.getParentFile().mkdirs();
                         String hashcode = copyFileAndCalcHashcode(child, restoredFile);
                         map.put(restoredFile.getAbsolutePath(), hashcode);
+                        this.fileHashcodeIndex.put(restoredFile.getAbsolutePath(), restoredFile, hashcode);
                     } else {
                         map.put(restoredFile.getAbsolutePath(), MessageDigestGenerator.getDigestString(child));
                     }
@@ -43,6 +43,7 @@ public class DeploymentsMetadata {
     public static final String PREVIOUS_DEPLOYMENT_FILE = "previous-deployment.properties";
     public static final String DEPLOYMENT_FILE = "deployment.properties";
     public static final String HASHCODES_FILE = "file-hashcodes.dat";
+    public static final String HASHCODES_INDEX_FILE = "file-hashcodes-index.dat";
     public static final String BACKUP_DIR = "backup";
     public static final String EXT_BACKUP_DIR = "ext-backup";
 
@@ -377,6 +378,37 @@ public class DeploymentsMetadata {
         return;
     }
 
+    /**
+     * Returns the sizes and last modified times the live files had when their hashcodes were last computed.
+     * Since this is only used to avoid computing hashcodes again, an empty index is returned if there
+     * is none or if it cannot be read.
+     *
+     * @return the index of the live files
+     */
+    public FileHashcodeIndex getFileHashcodeIndex() {
+        File indexFile = new File(getMetadataDirectory(), HASHCODES_INDEX_FILE);
+        if (indexFile.exists()) {
+            try {
+                return FileHashcodeIndex.loadFromFile(indexFile);
+            } catch (Exception e) {
+                // the hashcodes will simply be computed again
+            }
+        }
+        return new FileHashcodeIndex();
+    }
+
+    /**
+     * Stores the sizes and last modified times the live files had when their hashcodes were last computed.
+     *
+     * @param index the index of the live files
+     * @throws Exception if failed to store the index
+     */
+    public void setFileHashcodeIndex(FileHashcodeIndex index) throws Exception {
+        File metadataDir = getMetadataDirectory();
+        metadataDir.mkdirs();
+        index.storeToFile(new File(metadataDir, HASHCODES_INDEX_FILE));
+    }
+
     /**
      * Looks at the live deployment and takes a snapshot of it and stores its metadata in its appropriate
      * deployment metadata directory. The "live deployment" means the actual files in the root directory.
@@ -0,0 +1,171 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.util.updater;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the size and last modified time a file had when its hashcode was computed. As long as
+ * a file still has that size and last modified time, its hashcode is assumed to be unchanged and does
+ * not need to be computed again. This is the same trade-off tools like rsync make by default.
+ *
+ * The keys are the same (relative or absolute) paths used by {@link FileHashcodeMap}.
+ */
+public class FileHashcodeIndex {
+    private static final String COLUMN_SEPARATOR = "\t";
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Loads in the file that contains the index data. Since the index is only an optimization, lines
+     * that cannot be parsed are skipped rather than failing the load.
+     *
+     * @param file the file to load
+     * @return the index found in the file
+     * @throws Exception if the file could not be read
+     */
+    public static FileHashcodeIndex loadFromFile(File file) throws Exception {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            FileHashcodeIndex index = new FileHashcodeIndex();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] columns = line.split(COLUMN_SEPARATOR);
+                if (columns.length == 4) {
+                    try {
+                        index.put(columns[0], Long.parseLong(columns[1]), Long.parseLong(columns[2]), columns[3]);
+                    } catch (NumberFormatException ignore) {
+                    }
+                }
+            }
+            return index;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes all index entries to the given file such that they can later be loaded in via
+     * {@link #loadFromFile(File)}.
+     *
+     * @param file the file to store the entries to
+     * @throws Exception if failed to store the entries to the given file
+     */
+    public void storeToFile(File file) throws Exception {
+        PrintWriter writer = new PrintWriter(file);
+        try {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                writer.println(entry.getKey() + COLUMN_SEPARATOR + value.size + COLUMN_SEPARATOR + value.lastModified
+                    + COLUMN_SEPARATOR + value.hashcode);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the hashcode that was computed for the given file if the file has not been touched since.
+     *
+     * @param path the path of the file, as used as the key in a {@link FileHashcodeMap}
+     * @param file the file itself
+     * @return the hashcode of the file or <code>null</code> if it has to be computed
+     */
+    public String getHashcode(String path, File file) {
+        Entry entry = entries.get(convertPath(path));
+        if (entry == null) {
+            return null;
+        }
+        long lastModified = file.lastModified();
+        if (lastModified == 0L || lastModified != entry.lastModified || file.length() != entry.size) {
+            return null;
+        }
+        return entry.hashcode;
+    }
+
+    /**
+     * Remembers the hashcode of a file along with the size and last modified time the file had
+     * before its hashcode was computed.
+     */
+    public void put(String path, long size, long lastModified, String hashcode) {
+        if (lastModified == 0L || FileHashcodeMap.UNKNOWN_FILE_HASHCODE.equals(hashcode)) {
+            remove(path);
+        } else {
+            entries.put(convertPath(path), new Entry(size, lastModified, hashcode));
+        }
+    }
+
+    /**
+     * Remembers the hashcode of a file as it is now.
+     */
+    public void put(String path, File file, String hashcode) {
+        put(path, file.length(), file.lastModified(), hashcode);
+    }
+
+    public void remove(String path) {
+        entries.remove(convertPath(path));
+    }
+
+    /**
+     * Forgets about all files whose paths are not in the given collection.
+     *
+     * @param paths the paths of the files to keep
+     */
+    public void retainAll(Collection<String> paths) {
+        Set<String> converted = new HashSet<String>(paths.size());
+        for (String path : paths) {
+            converted.add(convertPath(path));
+        }
+        entries.keySet().retainAll(converted);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private String convertPath(String path) {
+        if (File.separatorChar != '/' && path != null) {
+            path = path.replace(File.separatorChar, '/');
+        }
+        return path;
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String hashcode;
+
+        private Entry(long size, long lastModified, String hashcode) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hashcode = hashcode;
+        }
+    }
+}
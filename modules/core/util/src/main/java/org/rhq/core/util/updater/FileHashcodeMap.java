@@ -28,9 +28,13 @@ import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.rhq.core.util.MessageDigestGenerator;
@@ -221,7 +225,27 @@ public class FileHashcodeMap extends TreeMap<String, String> {
      */
     public ChangesFileHashcodeMap rescan(File rootDir, Pattern ignoreRegex, boolean reportNewRootFilesAsNew)
         throws Exception {
+        return rescan(rootDir, ignoreRegex, reportNewRootFilesAsNew, null, null);
+    }
+
+    /**
+     * Same as {@link #rescan(File, Pattern, boolean)} except that hashcodes of files that have not been touched
+     * since they were put in the given index are taken from the index rather than computed again, and that the
+     * remaining hashcodes are computed concurrently by the given executor.
+     *
+     * @param rootDir directory where the relative paths are expected to be
+     * @param ignoreRegex see {@link #rescan(File, Pattern, boolean)}
+     * @param reportNewRootFilesAsNew see {@link #rescan(File, Pattern, boolean)}
+     * @param index if not <code>null</code>, used to look up hashcodes of untouched files; the hashcodes computed
+     *              during the rescan are added to it
+     * @param executor if not <code>null</code>, computes the hashcodes; otherwise they are computed by the calling thread
+     * @return see {@link #rescan(File, Pattern, boolean)}
+     * @throws Exception
+     */
+    public ChangesFileHashcodeMap rescan(File rootDir, Pattern ignoreRegex, boolean reportNewRootFilesAsNew,
+        FileHashcodeIndex index, ExecutorService executor) throws Exception {
         ChangesFileHashcodeMap current = new ChangesFileHashcodeMap(this);
+        Map<String, File> originalFilesToHash = new LinkedHashMap<String, File>();
 
         // go through our original files and recalculate their hashcodes
         for (Map.Entry<String, String> entry : entrySet()) {
@@ -240,17 +264,10 @@ public class FileHashcodeMap extends TreeMap<String, String> {
             }
 
             if (originalFile.exists()) {
-                String currentHashcode = FileHashcodeMap.DIRECTORY_HASHCODE;
-                if (!originalFile.isDirectory()) {
-                    currentHashcode = MessageDigestGenerator.getDigestString(originalFile);
-                }
-
-                current.put(originalFileString, currentHashcode);
-
-                // if file has been changed, mark it as such in our return map
-                String originalHashcode = entry.getValue();
-                if (!currentHashcode.equals(originalHashcode)) {
-                    current.getChanges().put(originalFileString, currentHashcode);
+                if (originalFile.isDirectory()) {
+                    putCurrentHashcode(current, originalFileString, FileHashcodeMap.DIRECTORY_HASHCODE);
+                } else {
+                    originalFilesToHash.put(originalFileString, originalFile);
                 }
             } else {
                 // file has been deleted! still put an entry in our returned map but mark it as deleted
@@ -259,12 +276,19 @@ public class FileHashcodeMap extends TreeMap<String, String> {
             }
         }
 
+        Map<String, String> currentHashcodes = hashFiles(originalFilesToHash, index, executor, true);
+        for (Map.Entry<String, String> entry : currentHashcodes.entrySet()) {
+            putCurrentHashcode(current, entry.getKey(), entry.getValue());
+        }
+
         // now recursively traverse the root directory and look for new files that aren't in our original map
         // files that have been added need to be put into our returned map and also marked as added
         FileHashcodeMap newFiles = new FileHashcodeMap();
+        Map<String, File> newFilesToHash = new LinkedHashMap<String, File>();
         Set<String> skippedFiles = new HashSet<String>();
-        lookForNewFilesRecursive(newFiles, skippedFiles, rootDir.getAbsolutePath(), 0, rootDir, ignoreRegex, current
-            .getIgnored(), reportNewRootFilesAsNew);
+        lookForNewFilesRecursive(newFiles, newFilesToHash, skippedFiles, rootDir.getAbsolutePath(), 0, rootDir,
+            ignoreRegex, current.getIgnored(), reportNewRootFilesAsNew);
+        newFiles.putAll(hashFiles(newFilesToHash, index, executor, false));
         current.putAll(newFiles);
         current.getAdditions().putAll(newFiles);
         current.getSkipped().addAll(skippedFiles);
@@ -272,10 +296,96 @@ public class FileHashcodeMap extends TreeMap<String, String> {
         return current;
     }
 
+    private void putCurrentHashcode(ChangesFileHashcodeMap current, String originalFileString, String currentHashcode) {
+        current.put(originalFileString, currentHashcode);
+
+        // if file has been changed, mark it as such in our return map
+        String originalHashcode = get(originalFileString);
+        if (!currentHashcode.equals(originalHashcode)) {
+            current.getChanges().put(originalFileString, currentHashcode);
+        }
+    }
+
     /**
-     * This looks for new files under the given fileOrDir and adds them to <code>newFiles</code>.
+     * Computes the hashcodes of the given files, unless the index already knows them.
+     *
+     * @param files the files to hash, keyed on their paths
+     * @param index optional index to look up and store the hashcodes
+     * @param executor optional executor to compute the hashcodes concurrently
+     * @param failOnError if <code>true</code>, a file that cannot be read fails the whole operation; otherwise its
+     *                    hashcode will be {@link #UNKNOWN_FILE_HASHCODE}
+     * @return the hashcodes keyed on the paths of the files
+     * @throws Exception if <code>failOnError</code> is <code>true</code> and a hashcode could not be computed
+     */
+    private static Map<String, String> hashFiles(Map<String, File> files, FileHashcodeIndex index,
+        ExecutorService executor, boolean failOnError) throws Exception {
+
+        Map<String, String> hashcodes = new HashMap<String, String>(files.size());
+        Map<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+        Map<String, long[]> stats = new HashMap<String, long[]>();
+
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            final String path = entry.getKey();
+            final File file = entry.getValue();
+
+            String hashcode = (index != null) ? index.getHashcode(path, file) : null;
+            if (hashcode != null) {
+                hashcodes.put(path, hashcode);
+                continue;
+            }
+
+            // remember the file as it was before hashing it; if it changes while being hashed, the index will not match
+            stats.put(path, new long[] { file.length(), file.lastModified() });
+            if (executor != null) {
+                futures.put(path, MessageDigestGenerator.calcDigestString(MessageDigestGenerator.MD5, file, executor));
+            } else {
+                try {
+                    hashcodes.put(path, MessageDigestGenerator.getDigestString(file));
+                } catch (Exception e) {
+                    if (failOnError) {
+                        throw e;
+                    }
+                    hashcodes.put(path, UNKNOWN_FILE_HASHCODE);
+                }
+            }
+        }
+
+        Exception failure = null;
+        for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+            try {
+                hashcodes.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException e) {
+                if (failOnError && failure == null) {
+                    failure = new Exception("Failed to generate hashcode for [" + files.get(future.getKey()) + "]",
+                        e.getCause());
+                }
+                hashcodes.put(future.getKey(), UNKNOWN_FILE_HASHCODE);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        if (index != null) {
+            for (Map.Entry<String, long[]> stat : stats.entrySet()) {
+                String path = stat.getKey();
+                String hashcode = hashcodes.get(path);
+                // files that could not be hashed are hashed again the next time
+                if (!UNKNOWN_FILE_HASHCODE.equals(hashcode)) {
+                    index.put(path, stat.getValue()[0], stat.getValue()[1], hashcode);
+                }
+            }
+        }
+
+        return hashcodes;
+    }
+
+    /**
+     * This looks for new files under the given fileOrDir and adds them to <code>newFiles</code>, or to
+     * <code>newFilesToHash</code> if their hashcodes still have to be computed.
      * 
      * @param newFiles    the map where the new, current file/hashcode data will be stored
+     * @param newFilesToHash the map where the new files whose hashcodes have to be computed will be stored
      * @param skippedFiles a set where names of unrelated files/directories are stored. The names
      *                     found here after this method returns are those files/dirs that were found
      *                     in the top level root dir, but were skipped over and not processed. This will not
@@ -291,9 +401,9 @@ public class FileHashcodeMap extends TreeMap<String, String> {
      *
      * @throws Exception 
      */
-    private void lookForNewFilesRecursive(FileHashcodeMap newFiles, Set<String> skippedFiles, String rootPath,
-        int level, File fileOrDir, Pattern ignoreRegex, Set<String> ignored, boolean reportNewRootFilesAsNew)
-        throws Exception {
+    private void lookForNewFilesRecursive(FileHashcodeMap newFiles, Map<String, File> newFilesToHash,
+        Set<String> skippedFiles, String rootPath, int level, File fileOrDir, Pattern ignoreRegex, Set<String> ignored,
+        boolean reportNewRootFilesAsNew) throws Exception {
 
         if (fileOrDir == null || !fileOrDir.exists()) {
             throw new Exception("Non-existent file/directory provided: " + fileOrDir);
@@ -359,8 +469,8 @@ public class FileHashcodeMap extends TreeMap<String, String> {
                 for (File child : children) {
                     // skip this child if we are at the top root dir and it is not related to our fileset
                     if (relatedTopLevelFiles == null || relatedTopLevelFiles.contains(child.getName())) {
-                        lookForNewFilesRecursive(newFiles, skippedFiles, rootPath, level + 1, child, ignoreRegex,
-                            ignored, reportNewRootFilesAsNew);
+                        lookForNewFilesRecursive(newFiles, newFilesToHash, skippedFiles, rootPath, level + 1, child,
+                            ignoreRegex, ignored, reportNewRootFilesAsNew);
                     } else {
                         skippedFiles.add(child.getName());
                     }
@@ -369,13 +479,7 @@ public class FileHashcodeMap extends TreeMap<String, String> {
         } else {
             // if the file is not yet known to us, add it to the map of new files
             if (!containsKey(path)) {
-                String hashcode;
-                try {
-                    hashcode = MessageDigestGenerator.getDigestString(fileOrDir);
-                } catch (Exception e) {
-                    hashcode = UNKNOWN_FILE_HASHCODE;
-                }
-                newFiles.put(path, hashcode);
+                newFilesToHash.put(path, fileOrDir);
             }
         }
 
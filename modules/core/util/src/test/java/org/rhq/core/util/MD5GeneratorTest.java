@@ -22,8 +22,22 @@
  */
 package org.rhq.core.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.testng.annotations.Test;
 
+import org.rhq.core.util.file.FileUtil;
+
 /**
  * Tests MD5 generation.
  *
@@ -52,4 +66,78 @@ public class MD5GeneratorTest {
         MessageDigestGenerator md5 = new MessageDigestGenerator();
         assert md5.getDigestString().equals("d41d8cd98f00b204e9800998ecf8427e"); // empty data results in this MD5
     }
-}
\ No newline at end of file
+
+    public void testFile() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("MD5GeneratorTest", ".dir", null);
+        try {
+            // sizes around the buffer sizes used to read streams and files
+            int[] sizes = { 0, 1, 1023, 1024, 32 * 1024 + 1, 256 * 1024, 256 * 1024 + 1, 1024 * 1024 + 7 };
+            Random random = new Random(sizes.length);
+            for (int size : sizes) {
+                byte[] content = new byte[size];
+                random.nextBytes(content);
+                File file = writeFile(tmpDir, "file" + size, content);
+
+                for (String algorithm : new String[] { MessageDigestGenerator.MD5, MessageDigestGenerator.SHA_256 }) {
+                    String expected = new MessageDigestGenerator(algorithm).calcDigestString(content);
+                    String fromFile = new MessageDigestGenerator(algorithm).calcDigestString(file);
+                    String fromStream = new MessageDigestGenerator(algorithm)
+                        .calcDigestString(new ByteArrayInputStream(content));
+                    String fromUrl = new MessageDigestGenerator(algorithm).calcDigestString(file.toURI().toURL());
+                    assert expected.equals(fromFile) : algorithm + " of file of size " + size + " was " + fromFile;
+                    assert expected.equals(fromStream) : algorithm + " of stream of size " + size + " was " + fromStream;
+                    assert expected.equals(fromUrl) : algorithm + " of URL of size " + size + " was " + fromUrl;
+                }
+            }
+        } finally {
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
+    public void testConcurrentFiles() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("MD5GeneratorTest", ".dir", null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<File> files = new ArrayList<File>();
+            for (int i = 0; i < 20; i++) {
+                files.add(writeFile(tmpDir, "file" + i, ("content of file " + i).getBytes()));
+            }
+            File missing = new File(tmpDir, "missing");
+            files.add(missing);
+
+            for (ExecutorService service : new ExecutorService[] { executor, null }) {
+                Map<File, Future<String>> digests = MessageDigestGenerator.calcDigestStrings(
+                    MessageDigestGenerator.SHA_256, files, service);
+                assert digests.size() == files.size() : digests;
+                assert new ArrayList<File>(digests.keySet()).equals(files) : "digests must keep the order of the files";
+
+                for (int i = 0; i < 20; i++) {
+                    String expected = new MessageDigestGenerator(MessageDigestGenerator.SHA_256)
+                        .calcDigestString("content of file " + i);
+                    String digest = digests.get(files.get(i)).get();
+                    assert expected.equals(digest) : "Invalid SHA256 of file " + i + " was " + digest;
+                }
+
+                try {
+                    digests.get(missing).get();
+                    assert false : "a missing file should fail its future";
+                } catch (ExecutionException expected) {
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
+    private File writeFile(File dir, String name, byte[] content) throws Exception {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.core.util.updater;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.template.TemplateEngine;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.stream.StreamUtil;
+
+@Test
+public class ConcurrentZipExtractorTest {
+
+    public void testExtract() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("concurrentZipExtractorTest", ".dir", null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File zipFile = createZip(tmpDir);
+            File destDir = new File(tmpDir, "dest");
+
+            ConcurrentZipExtractor extractor = new ConcurrentZipExtractor(destDir, Pattern.compile(".*\\.txt"),
+                createTemplateEngine(), null, null, false, executor);
+            FileHashcodeMap map = extractor.extract(zipFile);
+
+            assert map.size() == 2 : map;
+            File binFile = new File(destDir, "dir/a.bin");
+            assert binFile.length() == 100000L : binFile.length();
+            assert map.get("dir/a.bin").equals(MessageDigestGenerator.getDigestString(binFile)) : map;
+            File txtFile = new File(destDir, "b.txt");
+            assert new String(StreamUtil.slurp(new FileInputStream(txtFile))).equals("hello world") : txtFile;
+            assert map.get("b.txt").equals(MessageDigestGenerator.getDigestString(txtFile)) : map;
+        } finally {
+            executor.shutdownNow();
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
+    public void testFailedRealizationSkipsPendingExtractions() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("concurrentZipExtractorTest", ".dir", null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            File zipFile = createZip(tmpDir);
+            File destDir = new File(tmpDir, "dest");
+            // the realized file cannot be written over a directory
+            assert new File(destDir, "b.txt").mkdirs();
+
+            // keep the only thread busy so the extraction of dir/a.bin is still pending when the realization fails
+            final CountDownLatch busy = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(500L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    busy.countDown();
+                }
+            });
+
+            ConcurrentZipExtractor extractor = new ConcurrentZipExtractor(destDir, Pattern.compile(".*\\.txt"),
+                createTemplateEngine(), null, null, false, executor);
+            try {
+                extractor.extract(zipFile);
+                assert false : "should have failed to realize b.txt";
+            } catch (Exception ok) {
+                // expected and ok
+            }
+
+            // the zip must not have been closed while the extraction was still pending
+            assert busy.getCount() == 0 : "extract returned before the pending extraction was done";
+            executor.shutdown();
+            assert executor.awaitTermination(10L, TimeUnit.SECONDS);
+            assert !new File(destDir, "dir/a.bin").exists() : "pending extraction should have been skipped";
+        } finally {
+            executor.shutdownNow();
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
+    private static File createZip(File dir) throws Exception {
+        File zipFile = new File(dir, "test.zip");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile));
+        try {
+            zip.putNextEntry(new ZipEntry("dir/a.bin"));
+            byte[] bytes = new byte[100000];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            zip.write(bytes);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("b.txt"));
+            zip.write("hello @@who@@".getBytes());
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+        return zipFile;
+    }
+
+    private static TemplateEngine createTemplateEngine() {
+        HashMap<String, String> tokens = new HashMap<String, String>();
+        tokens.put("who", "world");
+        return new TemplateEngine(tokens);
+    }
+}
@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
 
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
@@ -40,6 +41,7 @@ import org.testng.annotations.Test;
 import org.rhq.core.template.TemplateEngine;
 import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.progresswatch.ProgressWatcher;
 import org.rhq.core.util.stream.StreamUtil;
 
 @Test
@@ -737,4 +739,83 @@ public class DeployerTest {
             FileUtil.purge(tmpDir, true);
         }
     }
-}
\ No newline at end of file
+
+    public void testProgressWatcher() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("testDeployerTest", ".dir", null);
+        try {
+            File testZipFile1 = new File("target/test-classes/updater-test2.zip");
+            File testRawFileA = new File("target/test-classes/updater-testA.txt");
+            Set<File> zipFiles = new HashSet<File>(1);
+            zipFiles.add(testZipFile1);
+            Map<File, File> rawFiles = new HashMap<File, File>(1);
+            rawFiles.put(testRawFileA, new File("raw" + fileSeparator + "updater-testA.txt"));
+
+            DeploymentProperties deploymentProps = new DeploymentProperties(0, "testbundle", "1.0.test", null);
+            DeploymentData dd = new DeploymentData(deploymentProps, zipFiles, rawFiles, tmpDir, tmpDir, null, null,
+                templateEngine, null, true, null);
+            Deployer deployer = new Deployer(dd);
+            deployer.setConcurrency(2);
+            ProgressWatcher progressWatcher = new ProgressWatcher();
+            progressWatcher.start();
+            deployer.setProgressWatcher(progressWatcher);
+            deployer.deploy(new DeployDifferences());
+
+            // one unit of work per zip entry, including the directories, and per raw file
+            ZipFile zip = new ZipFile(testZipFile1);
+            int zipEntries = zip.size();
+            zip.close();
+            assert progressWatcher.getTotalWork() == zipEntries + 1 : progressWatcher.getTotalWork();
+            assert progressWatcher.getFinishedWork() == zipEntries + 1 : progressWatcher.getFinishedWork();
+            assert progressWatcher.getPercentComplete() == 100 : progressWatcher.getPercentComplete();
+        } finally {
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
+    public void testRedeployLeavesFilesInPlace() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("testDeployerTest", ".dir", null);
+        try {
+            File testZipFile1 = new File("target/test-classes/updater-test2.zip");
+            Set<File> zipFiles = new HashSet<File>(1);
+            zipFiles.add(testZipFile1);
+            File destDir = tmpDir;
+
+            DeploymentProperties deploymentProps = new DeploymentProperties(0, "testbundle", "1.0.test", null);
+            DeploymentData dd = new DeploymentData(deploymentProps, zipFiles, null, tmpDir, destDir, null, null,
+                templateEngine, null, true, null);
+            Deployer deployer = new Deployer(dd);
+            deployer.setConcurrency(2);
+            FileHashcodeMap originalMap = deployer.deploy(new DeployDifferences());
+            assert new File(new DeploymentsMetadata(destDir).getMetadataDirectory(),
+                DeploymentsMetadata.HASHCODES_INDEX_FILE).exists();
+
+            // make the files look old, so we can tell if they are written again
+            File unchangedFile = new File(tmpDir, "dir1" + fileSeparator + "file1");
+            long lastModified = 1000000000L;
+            assert unchangedFile.setLastModified(lastModified);
+
+            deploymentProps = new DeploymentProperties(1, "testbundle", "2.0.test", null);
+            dd = new DeploymentData(deploymentProps, zipFiles, null, tmpDir, destDir, null, null, templateEngine,
+                null, true, null);
+            deployer = new Deployer(dd);
+            DeployDifferences listener = new DeployDifferences();
+            FileHashcodeMap newMap = deployer.deploy(listener);
+
+            assert newMap.equals(originalMap) : newMap + ":" + originalMap;
+            assert listener.getAddedFiles().isEmpty() : listener;
+            assert listener.getChangedFiles().isEmpty() : listener;
+            assert unchangedFile.lastModified() == lastModified : "file should not have been written again";
+            assert MessageDigestGenerator.getDigestString(unchangedFile).equals(newMap.get("dir1/file1"));
+
+            // a clean deployment writes all files again
+            deploymentProps = new DeploymentProperties(2, "testbundle", "3.0.test", null);
+            dd = new DeploymentData(deploymentProps, zipFiles, null, tmpDir, destDir, null, null, templateEngine,
+                null, true, null);
+            deployer = new Deployer(dd);
+            deployer.deploy(new DeployDifferences(), true, false);
+            assert unchangedFile.lastModified() != lastModified : "file should have been written again";
+        } finally {
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+}
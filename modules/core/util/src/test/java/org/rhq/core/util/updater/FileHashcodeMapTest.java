@@ -30,6 +30,8 @@ import java.io.PrintWriter;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import org.testng.annotations.Test;
@@ -374,6 +376,59 @@ public class FileHashcodeMapTest {
         }
     }
 
+    public void testRescanWithIndex() throws Exception {
+        File tmpDir = FileUtil.createTempDirectory("fileHashcodeMapTest", ".dir", null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            File testFile1 = new File(tmpDir, "test1.txt");
+            File testFile2 = new File(tmpDir, "test2.txt");
+
+            StreamUtil.copy(new ByteArrayInputStream("test1".getBytes()), new FileOutputStream(testFile1));
+            StreamUtil.copy(new ByteArrayInputStream("test2".getBytes()), new FileOutputStream(testFile2));
+
+            FileHashcodeMap originalMap = FileHashcodeMap.generateFileHashcodeMap(tmpDir, null, null);
+
+            // the rescan fills the index with the hashcodes it computed
+            FileHashcodeIndex index = new FileHashcodeIndex();
+            ChangesFileHashcodeMap currentMap = originalMap.rescan(tmpDir, null, true, index, executor);
+            assertSameMap(originalMap, currentMap);
+            assert currentMap.getChanges().isEmpty() : currentMap.getChanges();
+            assert index.size() == 2 : index.size();
+            assert originalMap.get("test1.txt").equals(index.getHashcode("test1.txt", testFile1));
+
+            // untouched files are not hashed again - prove it by faking the hashcode found in the index
+            index.put("test1.txt", testFile1, "fake");
+            currentMap = originalMap.rescan(tmpDir, null, true, index, executor);
+            assert currentMap.get("test1.txt").equals("fake") : currentMap;
+            assert currentMap.getChanges().size() == 1 : currentMap.getChanges();
+            assert currentMap.get("test2.txt").equals(originalMap.get("test2.txt")) : currentMap;
+
+            // touched files are hashed again
+            StreamUtil.copy(new ByteArrayInputStream("test1-change".getBytes()), new FileOutputStream(testFile1));
+            currentMap = originalMap.rescan(tmpDir, null, true, index, executor);
+            assert currentMap.get("test1.txt").equals(MessageDigestGenerator.getDigestString(testFile1)) : currentMap;
+            assert currentMap.getChanges().size() == 1 : currentMap.getChanges();
+
+            // new files are hashed and indexed too
+            File testFile3 = new File(tmpDir, "test3.txt");
+            StreamUtil.copy(new ByteArrayInputStream("test3".getBytes()), new FileOutputStream(testFile3));
+            currentMap = originalMap.rescan(tmpDir, null, true, index, executor);
+            assert currentMap.getAdditions().size() == 1 : currentMap.getAdditions();
+            assert currentMap.get("test3.txt").equals(MessageDigestGenerator.getDigestString(testFile3)) : currentMap;
+            assert currentMap.get("test3.txt").equals(index.getHashcode("test3.txt", testFile3)) : currentMap;
+
+            // the index survives being stored and loaded
+            File indexFile = new File(tmpDir, "index.dat");
+            index.storeToFile(indexFile);
+            FileHashcodeIndex loadedIndex = FileHashcodeIndex.loadFromFile(indexFile);
+            assert loadedIndex.size() == 3 : loadedIndex.size();
+            assert currentMap.get("test1.txt").equals(loadedIndex.getHashcode("test1.txt", testFile1));
+        } finally {
+            executor.shutdownNow();
+            FileUtil.purge(tmpDir, true);
+        }
+    }
+
     public void testFileSeparator() throws Exception {
         // today the hashcode files allow either unix or windows file separators (/ or \)
         File tmpFile = File.createTempFile("fileHashcodeMapTest", ".test");
@@ -34,7 +34,7 @@ import org.rhq.enterprise.agent.i18n.AgentI18NFactory;
 import org.rhq.enterprise.agent.i18n.AgentI18NResourceKeys;
 import org.rhq.enterprise.communications.ServiceContainerConfiguration;
 import org.rhq.enterprise.communications.command.client.ClientCommandSenderConfiguration;
-import org.rhq.enterprise.communications.command.client.PersistentFifo;
+import org.rhq.enterprise.communications.command.client.SegmentedPersistentFifo;
 import org.rhq.enterprise.communications.util.SecurityUtil;
 
 /**
@@ -658,8 +658,8 @@ public class AgentConfiguration {
 
     /**
      * Returns an array of command spool file parameters. The first element of the array is the maximum file size
-     * threshold. The second element is the purge percentage. See {@link PersistentFifo} for the meanings of these
-     * settings.
+     * threshold. The second element is the purge percentage. See {@link SegmentedPersistentFifo} for the meanings of
+     * these settings.
      *
      * <p>Because this is a weakly typed method (i.e. you have to know what the elements in the returned array
      * represent), it is recommended that you call {@link #getClientCommandSenderConfiguration()} because it will return
@@ -740,6 +740,19 @@ public class AgentConfiguration {
         return flag;
     }
 
+    /**
+     * Returns the number of commands spooled after which the command spool file is forced to disk. 0 means that this
+     * is left to the operating system.
+     *
+     * @return the command spool file sync interval
+     */
+    public int getClientSenderCommandSpoolFileSyncInterval() {
+        int value = m_preferences.getInt(AgentConfigurationConstants.CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL,
+            AgentConfigurationConstants.DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL);
+
+        return (value < 0) ? 0 : value;
+    }
+
     /**
      * Returns an array of send throttling parameters or <code>null</code> if send throttling is to be disabled. The
      * first element of the array is the maximum number of commands that can be sent before the quiet period must start.
@@ -905,6 +918,7 @@ public class AgentConfiguration {
         config.dataDirectory = getDataDirectory();
         config.serverPollingIntervalMillis = getClientSenderServerPollingInterval();
         config.commandSpoolFileCompressData = isClientSenderCommandSpoolFileCompressed();
+        config.commandSpoolFileSyncInterval = getClientSenderCommandSpoolFileSyncInterval();
         config.retryInterval = getClientSenderRetryInterval();
         config.maxRetries = getClientSenderMaxRetries();
         config.commandSpoolFileName = getClientSenderCommandSpoolFileName();
@@ -1160,6 +1174,10 @@ public class AgentConfiguration {
         int meas_threadpool_size = m_preferences.getInt(
             AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE,
             AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE);
+        int meas_threadpool_size_per_type = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE_PER_TYPE, -1);
+        long meas_timeout = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT);
 
         // get the drift settings
         long drift_period = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_PERIOD,
@@ -1167,6 +1185,12 @@ public class AgentConfiguration {
         long drift_initial_delay = m_preferences.getLong(
             AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_INITIAL_DELAY,
             AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_INITIAL_DELAY);
+        int drift_threadpool_size = m_preferences.getInt(
+            AgentConfigurationConstants.PLUGINS_DRIFT_DETECTION_THREADPOOL_SIZE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_DETECTION_THREADPOOL_SIZE);
+        boolean drift_chunked_transfer = m_preferences.getBoolean(
+            AgentConfigurationConstants.PLUGINS_DRIFT_CHUNKED_TRANSFER,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_DRIFT_CHUNKED_TRANSFER);
 
         // determine how many operation invoker threads should be in the threadpool that is used to execute operations
         int op_threadpool_size = m_preferences.getInt(
@@ -1266,9 +1290,15 @@ public class AgentConfiguration {
         config.setAvailabilityScanPeriod(avail_scan_period);
         config.setAvailabilityScanThreadPoolSize(avail_scan_threadpool_size);
         config.setMeasurementCollectionThreadPoolSize(meas_threadpool_size);
+        if (meas_threadpool_size_per_type > 0) {
+            config.setMeasurementCollectionThreadPoolSizePerType(meas_threadpool_size_per_type);
+        }
+        config.setMeasurementCollectionTimeout(meas_timeout);
         config.setMeasurementCollectionInitialDelay(meas_scan_initial_delay);
         config.setDriftDetectionInitialDelay(drift_initial_delay);
         config.setDriftDetectionPeriod(drift_period);
+        config.setDriftDetectionThreadPoolSize(drift_threadpool_size);
+        config.setDriftChunkedTransfer(drift_chunked_transfer);
         config.setOperationInvokerThreadPoolSize(op_threadpool_size);
         config.setOperationInvocationTimeout(op_timeout);
         config.setContentDiscoveryThreadPoolSize(con_threadpool_size);
@@ -337,6 +337,18 @@ public interface AgentConfigurationConstants {
      */
     boolean DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_COMPRESSED = false;
 
+    /**
+     * Property that provides the number of spooled commands after which the spool file's data is forced to disk.
+     */
+    String CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL = PROPERTY_NAME_PREFIX
+        + "client.command-spool-file.sync-interval";
+
+    /**
+     * If the client sender command spool file sync interval is not specified, this is the default, which leaves
+     * writing the data to disk to the operating system.
+     */
+    int DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL = 0;
+
     /**
      * Property that provides the amount of time, in milliseconds, that the sender will pause before attempting to retry
      * a failed command whose delivery is to be guaranteed.
@@ -667,6 +679,24 @@ public interface AgentConfigurationConstants {
      */
     int DEFAULT_PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE = PluginContainerConfiguration.MEASUREMENT_COLLECTION_THREADCOUNT_DEFAULT;
 
+    /**
+     * If defined, this is the number of measurement collection threads that can collect for resources of the same
+     * type at the same time. If not defined, all threads but one can be used for the same type.
+     */
+    String PLUGINS_MEASUREMENT_COLL_THREADPOOL_SIZE_PER_TYPE = PROPERTY_NAME_PREFIX
+        + "plugins.measurement-collection.threadpool-size-per-type";
+
+    /**
+     * If defined, this is the number of seconds a resource component has to return the values of a measurement
+     * collection before the collection is aborted.
+     */
+    String PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT = PROPERTY_NAME_PREFIX + "plugins.measurement-collection.timeout-secs";
+
+    /**
+     * The default number of seconds a measurement collection has to complete until it is aborted.
+     */
+    long DEFAULT_PLUGINS_MEASUREMENT_COLLECTION_TIMEOUT = PluginContainerConfiguration.MEASUREMENT_COLLECTION_TIMEOUT_DEFAULT;
+
     /**
      * Defines, in seconds, the initial delay before the first measurement collection is run.
      */
@@ -698,6 +728,27 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_DRIFT_DETECTION_PERIOD = PluginContainerConfiguration.DRIFT_DETECTION_PERIOD_DEFAULT;
 
+    /**
+     * Defines the number of threads that compute file digests during drift detection scans.
+     */
+    String PLUGINS_DRIFT_DETECTION_THREADPOOL_SIZE = PROPERTY_NAME_PREFIX + "plugins.drift-detection.threadpool-size";
+
+    /**
+     * The default number of threads that compute file digests during drift detection scans.
+     */
+    int DEFAULT_PLUGINS_DRIFT_DETECTION_THREADPOOL_SIZE = PluginContainerConfiguration.DRIFT_DETECTION_THREADCOUNT_DEFAULT;
+
+    /**
+     * If true, drift file content is sent to the server in content-defined chunks and only the chunks the server
+     * does not have yet are transferred.
+     */
+    String PLUGINS_DRIFT_CHUNKED_TRANSFER = PROPERTY_NAME_PREFIX + "plugins.drift-detection.chunked-transfer";
+
+    /**
+     * The default for whether drift file content is sent to the server in chunks.
+     */
+    boolean DEFAULT_PLUGINS_DRIFT_CHUNKED_TRANSFER = PluginContainerConfiguration.DRIFT_CHUNKED_TRANSFER_DEFAULT;
+
     /**
      * If defined, this is to be the size of the content discovery thread pool. If not defined, the plugin container
      * should default to something it considers appropriate.
@@ -187,7 +187,7 @@ public class ClientCommandSender {
      * {@link #isDeliveryGuaranteed(Command) guaranteed commands}. The actual objects that will be stored in this object
      * will be {@link CommandAndCallback} objects.
      */
-    private PersistentFifo m_commandStore;
+    private SegmentedPersistentFifo m_commandStore;
 
     /**
      * The configuration for this sender.
@@ -255,8 +255,9 @@ public class ClientCommandSender {
             File cmd_spool_file = new File(config.dataDirectory, config.commandSpoolFileName);
 
             try {
-                m_commandStore = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
-                    config.commandSpoolFilePurgePercentage, config.commandSpoolFileCompressData);
+                m_commandStore = new SegmentedPersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
+                    config.commandSpoolFilePurgePercentage, config.commandSpoolFileCompressData,
+                    config.commandSpoolFileSyncInterval);
             } catch (Exception e) {
                 m_commandStore = null;
                 LOG.warn(CommI18NResourceKeys.CLIENT_COMMAND_SENDER_COMMAND_SPOOL_ACCESS_ERROR, cmd_spool_file,
@@ -130,7 +130,8 @@ public class ClientCommandSenderConfiguration implements Serializable {
     /**
      * The name of the command spool file (to be located in the {@link #dataDirectory }}. If this value is <code>
      * null</code>, it will be assumed that commands should not be persisted (this means guaranteed delivery will be
-     * implicitly unsupported).
+     * implicitly unsupported). The spooled commands are kept in a directory next to it whose name is this file name
+     * with a <code>.segments</code> suffix.
      */
     public String commandSpoolFileName;
 
@@ -143,7 +144,7 @@ public class ClientCommandSenderConfiguration implements Serializable {
     /**
      * If the command spool file crosses its max size threshold and a purge is initiated, this is the percentage of
      * bytes the command spool file will be allowed to be after the purge completes. This is a percentage of
-     * {@link #commandSpoolFileMaxSize}. See {@link PersistentFifo} for more info on this parameter.
+     * {@link #commandSpoolFileMaxSize}. See {@link SegmentedPersistentFifo} for more info on this parameter.
      */
     public int commandSpoolFilePurgePercentage = 75;
 
@@ -158,6 +159,13 @@ public class ClientCommandSenderConfiguration implements Serializable {
      */
     public boolean commandSpoolFileCompressData = false;
 
+    /**
+     * The number of commands spooled after which the command spool is forced to disk. If this is 0, writing the
+     * spooled commands to disk is left to the operating system, which is fast but may lose the most recently spooled
+     * commands if the machine (not just the process) goes down. See {@link SegmentedPersistentFifo}.
+     */
+    public int commandSpoolFileSyncInterval = 0;
+
     /**
      * A fully qualified class name of a {@link CommandPreprocessor} implementation that will be used to preprocess all
      * commands that are to be queued and sent by the client command sender. May be <code>null</code> or empty string in
@@ -253,6 +261,7 @@ public class ClientCommandSenderConfiguration implements Serializable {
         config_copy.commandSpoolFileMaxSize = this.commandSpoolFileMaxSize;
         config_copy.commandSpoolFilePurgePercentage = this.commandSpoolFilePurgePercentage;
         config_copy.commandSpoolFileCompressData = this.commandSpoolFileCompressData;
+        config_copy.commandSpoolFileSyncInterval = this.commandSpoolFileSyncInterval;
         config_copy.commandPreprocessors = this.commandPreprocessors;
         config_copy.securityServerAuthMode = this.securityServerAuthMode;
         config_copy.securityKeystoreFile = this.securityKeystoreFile;
@@ -473,6 +473,21 @@ public class PersistentFifo {
         return;
     }
 
+    /**
+     * Closes the file. This object must not be used after this.
+     */
+    void close() {
+        synchronized (m_fileLock) {
+            if (m_randomAccessFile != null) {
+                try {
+                    m_randomAccessFile.close();
+                } catch (IOException ignore) {
+                }
+                m_randomAccessFile = null;
+            }
+        }
+    }
+
     /**
      * This purges the file by compressing the old entries that have already been taken and, if that isn't possible,
      * will remove head entries (i.e. the oldest entries) and moves all items down in the file, thus shrinking the file.
@@ -0,0 +1,1037 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import mazz.i18n.Logger;
+
+import org.rhq.core.util.stream.StreamUtil;
+import org.rhq.enterprise.communications.i18n.CommI18NFactory;
+import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+import org.rhq.enterprise.communications.util.DumpBytes;
+
+/**
+ * Persists byte arrays in a FIFO queue that is spread over a directory of append-only segment files. This is the
+ * replacement of {@link PersistentFifo} for the command spool; it keeps the same public API and the same size limits.
+ *
+ * <p>New entries are appended to the last (tail) segment. Once that segment reaches its maximum size, a new one is
+ * started. Entries are taken from the first (head) segment and once all of its entries have been taken, the segment
+ * file is simply deleted. If the total size of all segments grows beyond the maximum size, the oldest segments are
+ * deleted until the total size is under the purge percentage of the maximum size - this drops the oldest entries just
+ * like {@link PersistentFifo} does, but without copying any of the remaining data.</p>
+ *
+ * <p>Each entry in a segment consists of its length (an <code>int</code>), a flags byte that tells if the entry is
+ * compressed, and the entry's data. The position of the head and tail are kept in a small, memory-mapped index file,
+ * so moving them does not require any seeks or writes through the file API. When the spool is opened, the segments
+ * are scanned once to count the entries and to cut off an incomplete entry that may have been left behind if the
+ * process died while writing it.</p>
+ *
+ * <pre>
+ * spool-file.segments/index                 magic | version | head segment | head position | tail segment | ...
+ * spool-file.segments/0000000000000001.seg  length | flags | data | length | flags | data | ...
+ * spool-file.segments/0000000000000002.seg  length | flags | data | ...
+ * </pre>
+ *
+ * <p>Putting and taking entries is guarded by separate locks, so senders that spool commands are not blocked by the
+ * thread that unspools them and vice versa. All {@link SegmentedPersistentFifo} objects that are created for the same
+ * file share the same underlying spool, so, as with {@link PersistentFifo}, more than one object may be used to
+ * access the same spool within a VM. Data is left to the operating system to write out unless a sync interval is
+ * specified, in which case the tail segment and the index are forced to disk after that many entries were put.</p>
+ *
+ * <p>If an old {@link PersistentFifo} file exists with the given file name, its entries are moved into the segmented
+ * spool and the old file is deleted.</p>
+ */
+public class SegmentedPersistentFifo {
+    /**
+     * Logger
+     */
+    private static final Logger LOG = CommI18NFactory.getLogger(SegmentedPersistentFifo.class);
+
+    private static final Map<File, Spool> SPOOLS = new HashMap<File, Spool>();
+
+    private static final String SEGMENTS_DIRECTORY_SUFFIX = ".segments";
+
+    /**
+     * The smallest size of a single segment file.
+     */
+    private static final long MIN_SEGMENT_SIZE = 4096L;
+
+    /**
+     * The total size is divided into this many segments, which means that a purge deletes around this many segments
+     * less the purge percentage.
+     */
+    private static final int SEGMENTS_PER_MAX_SIZE = 16;
+
+    private final Spool m_spool;
+    private final boolean m_compress;
+
+    /**
+     * A simple utility that dumps all the data found in the persistent FIFO to stdout.
+     *
+     * @param  args "filename [objects|bytes [compressed]]"
+     *
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        boolean compressed = false;
+        int raw_bytes_base = -1;
+
+        if (args.length > 1) {
+            raw_bytes_base = ("objects".equals(args[1])) ? 0 : DumpBytes.BASE_HEX;
+            compressed = ((args.length == 3) && "compressed".equals(args[2]));
+        }
+
+        dumpContents(new PrintWriter(System.out), file, compressed, raw_bytes_base);
+
+        return;
+    }
+
+    /**
+     * A simple utility that dumps all the data found in the persistent FIFO to the given stream. See
+     * {@link PersistentFifo#dumpContents(PrintWriter, File, boolean, int)} for the meaning of <code>
+     * raw_byte_base</code>. Whether an entry is compressed or not is recorded with each entry, so the <code>
+     * compressed</code> flag is only needed for a spool file in the old {@link PersistentFifo} format.
+     *
+     * @param  out           the stream to dump the output
+     * @param  fifo_file     the FIFO file that contains 0 or more persisted entries
+     * @param  compressed    if <code>true</code>, the entries of an old format spool file are assumed to be compressed
+     * @param  raw_byte_base if greater than 0, the raw entry data is dumped in this base, 0 means dump entries as
+     *                       objects, -1 means do not dump any entry data
+     *
+     * @throws IOException
+     */
+    public static void dumpContents(PrintWriter out, File fifo_file, boolean compressed, int raw_byte_base)
+        throws IOException {
+        // the old file is not migrated while dumping, it is only dumped if nothing has been migrated yet
+        if (fifo_file.isFile() && !getSegmentsDirectory(fifo_file).exists()) {
+            PersistentFifo.dumpContents(out, fifo_file, compressed, raw_byte_base);
+            return;
+        }
+
+        Spool spool = getSpool(fifo_file);
+
+        out.println(fifo_file);
+        out.println(spool.count());
+        out.flush();
+
+        // don't bother to continue, return immediately if caller only wanted to see the number of entries
+        if (raw_byte_base < 0) {
+            return;
+        }
+
+        List<byte[]> entries = spool.peekAll();
+        for (int entry_num = 0; entry_num < entries.size(); entry_num++) {
+            byte[] entry = entries.get(entry_num);
+            String entry_string;
+
+            out.print("[" + entry_num + "] ");
+
+            if (raw_byte_base == 0) {
+                Object obj = StreamUtil.deserialize(entry);
+                entry_string = obj.toString();
+            } else {
+                out.println();
+
+                switch (raw_byte_base) {
+                case DumpBytes.BASE_HEX: {
+                    entry_string = DumpBytes.dumpHexData(entry);
+                    break;
+                }
+
+                case DumpBytes.BASE_DEC: {
+                    entry_string = DumpBytes.dumpDecData(entry);
+                    break;
+                }
+
+                case DumpBytes.BASE_OCT: {
+                    entry_string = DumpBytes.dumpOctData(entry);
+                    break;
+                }
+
+                case DumpBytes.BASE_BIN: {
+                    entry_string = DumpBytes.dumpBinData(entry);
+                    break;
+                }
+
+                default: {
+                    entry_string = DumpBytes.dumpData(entry, 7, raw_byte_base);
+                }
+                }
+            }
+
+            out.println(entry_string);
+        }
+
+        out.flush();
+
+        return;
+    }
+
+    /**
+     * Creates a new {@link SegmentedPersistentFifo} object whose data is never explicitly forced to disk. See
+     * {@link #SegmentedPersistentFifo(File, long, int, boolean, int)}.
+     *
+     * @param  file             the file name of the FIFO; the segments are stored in a directory next to it
+     * @param  max_size_bytes   the maximum size, in bytes, all segments are allowed to grow before a purge is triggered
+     * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
+     *                          space down to this percentage of the total max space
+     * @param  compress         if <code>true</code>, the data spooled to the file should be compressed
+     *
+     * @throws IOException              if the spool cannot be opened or created
+     * @throws IllegalArgumentException if purge_percentage is not between 0 and 99 or max_size_bytes is less than 1000
+     */
+    public SegmentedPersistentFifo(File file, long max_size_bytes, int purge_percentage, boolean compress)
+        throws IOException {
+        this(file, max_size_bytes, purge_percentage, compress, 0);
+    }
+
+    /**
+     * Creates a new {@link SegmentedPersistentFifo} object. The size limits have the same meaning as they have for
+     * {@link PersistentFifo}. If there already is an object for the same file in this VM, the limits given here
+     * replace the limits of that object.
+     *
+     * @param  file             the file name of the FIFO; the segments are stored in a directory next to it
+     * @param  max_size_bytes   the maximum size, in bytes, all segments are allowed to grow before a purge is triggered
+     * @param  purge_percentage when a purge is triggered, it will free up enough space to lower the amount of used
+     *                          space down to this percentage of the total max space
+     * @param  compress         if <code>true</code>, the data spooled to the file should be compressed
+     * @param  sync_interval    the number of entries after which the data is forced to disk; 0 leaves this to the
+     *                          operating system
+     *
+     * @throws IOException              if the spool cannot be opened or created
+     * @throws IllegalArgumentException if purge_percentage is not between 0 and 99 or max_size_bytes is less than 1000
+     */
+    public SegmentedPersistentFifo(File file, long max_size_bytes, int purge_percentage, boolean compress,
+        int sync_interval) throws IOException {
+        if ((purge_percentage < 0) || (purge_percentage > 99)) {
+            throw new IllegalArgumentException(LOG.getMsgString(CommI18NResourceKeys.INVALID_PURGE_PERCENTAGE,
+                purge_percentage));
+        }
+
+        if (max_size_bytes < 1000L) {
+            throw new IllegalArgumentException(LOG.getMsgString(CommI18NResourceKeys.INVALID_MAX_SIZE, max_size_bytes,
+                1000));
+        }
+
+        m_compress = compress;
+
+        synchronized (SPOOLS) {
+            m_spool = getSpool(file);
+            m_spool.setLimits(max_size_bytes, (long) (max_size_bytes * (purge_percentage / 100.0f)), sync_interval);
+            migrate(file, m_spool, compress);
+        }
+    }
+
+    /**
+     * Puts the given Object in the FIFO queue. This method will attempt to serialize the object and store the
+     * serialized bytes via {@link #put(byte[])}. An exception will occur if the serialization fails.
+     *
+     * @param  o the object to serialize and put in the FIFO queue
+     *
+     * @throws IOException      if failed to put the data in the file
+     * @throws RuntimeException if failed to serialize the data
+     */
+    public void putObject(Serializable o) throws IOException, RuntimeException {
+        put(StreamUtil.serialize(o));
+    }
+
+    /**
+     * Takes an object from the FIFO, deserializes it and returns it.
+     *
+     * @return the object that was taken from the FIFO and deserialized
+     *
+     * @throws IOException      if failed to access the file
+     * @throws RuntimeException if failed to deserialize the object after taking its serialized bytes off the FIFO queue
+     */
+    public Object takeObject() throws IOException, RuntimeException {
+        byte[] serialized_bytes = take();
+        return (serialized_bytes != null) ? StreamUtil.deserialize(serialized_bytes) : null;
+    }
+
+    /**
+     * Puts an array of bytes on the FIFO queue
+     *
+     * @param  bytes the data to put in the queue
+     *
+     * @throws IOException if failed to access the file
+     */
+    public void put(byte[] bytes) throws IOException {
+        m_spool.put(bytes, m_compress);
+    }
+
+    /**
+     * Takes the next entry from the queue and returns it.
+     *
+     * @return the next entry from the queue, or <code>null</code> if the queue is empty
+     *
+     * @throws IOException
+     */
+    public byte[] take() throws IOException {
+        return m_spool.take();
+    }
+
+    /**
+     * Returns <code>true</code> if the spool does not contain any entries.
+     *
+     * @return <code>true</code> if the queue is empty, <code>false</code> if at least one entry can be taken from the
+     *         queue.
+     *
+     * @throws IOException declared for compatibility with {@link PersistentFifo}, never thrown
+     */
+    public boolean isEmpty() throws IOException {
+        return m_spool.count() == 0L;
+    }
+
+    /**
+     * Returns the number of entries currently in the FIFO.
+     *
+     * @return the number of entries
+     *
+     * @throws IOException declared for compatibility with {@link PersistentFifo}, never thrown
+     */
+    public long count() throws IOException {
+        return m_spool.count();
+    }
+
+    /**
+     * Removes all entries by deleting all segments.
+     *
+     * @throws IOException
+     */
+    public void initializeEmptyFile() throws IOException {
+        m_spool.clear();
+    }
+
+    /**
+     * Deletes the spool of the given file along with all of its entries, including a spool file in the old
+     * {@link PersistentFifo} format. Any existing object for the file fails with an {@link IOException} after this.
+     *
+     * @param  file the file name of the FIFO
+     *
+     * @throws IOException if not all files of the spool could be deleted
+     */
+    public static void deleteSpool(File file) throws IOException {
+        File dir = getSegmentsDirectory(file).getCanonicalFile();
+
+        synchronized (SPOOLS) {
+            Spool spool = SPOOLS.remove(dir);
+            if (spool != null) {
+                spool.close();
+            }
+
+            boolean deleted = true;
+            File[] files = dir.listFiles();
+            for (File segment_file : (files != null) ? files : new File[0]) {
+                deleted &= segment_file.delete() || !segment_file.exists();
+            }
+            deleted &= dir.delete() || !dir.exists();
+            deleted &= file.delete() || !file.exists();
+            if (!deleted) {
+                throw new IOException("Cannot delete command spool [" + dir + "]");
+            }
+        }
+    }
+
+    /**
+     * Closes the spool of the given file so that the next object created for it reads the spool from disk again. Any
+     * existing object for the file fails with an {@link IOException} after this. Only meant for tests.
+     */
+    static void release(File file) throws IOException {
+        File dir = getSegmentsDirectory(file).getCanonicalFile();
+
+        synchronized (SPOOLS) {
+            Spool spool = SPOOLS.remove(dir);
+            if (spool != null) {
+                spool.close();
+            }
+        }
+    }
+
+    private static File getSegmentsDirectory(File file) {
+        return new File(file.getParentFile(), file.getName() + SEGMENTS_DIRECTORY_SUFFIX);
+    }
+
+    private static Spool getSpool(File file) throws IOException {
+        File dir = getSegmentsDirectory(file).getCanonicalFile();
+
+        synchronized (SPOOLS) {
+            Spool spool = SPOOLS.get(dir);
+            if (spool == null) {
+                spool = new Spool(dir);
+                SPOOLS.put(dir, spool);
+            }
+            return spool;
+        }
+    }
+
+    /**
+     * Moves the entries of an old {@link PersistentFifo} file into the spool, then deletes the old file.
+     */
+    private static void migrate(File file, Spool spool, boolean compress) {
+        if (!file.isFile()) {
+            return;
+        }
+
+        long migrated = 0L;
+        PersistentFifo old_fifo = null;
+        try {
+            old_fifo = new PersistentFifo(file, Long.MAX_VALUE, 99, compress);
+            for (byte[] entry = old_fifo.take(); entry != null; entry = old_fifo.take()) {
+                spool.put(entry, compress);
+                migrated++;
+            }
+            spool.sync();
+        } catch (Exception e) {
+            LOG.warn(e, CommI18NResourceKeys.SEGMENTED_FIFO_MIGRATION_FAILURE, file, spool.m_dir, migrated);
+            return;
+        } finally {
+            if (old_fifo != null) {
+                old_fifo.close();
+            }
+        }
+
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+
+        LOG.info(CommI18NResourceKeys.SEGMENTED_FIFO_MIGRATED, migrated, file, spool.m_dir);
+    }
+
+    /**
+     * A segment file. Its size and entry count are guarded by the spool's state lock.
+     */
+    private static class Segment {
+        final long id;
+        final File file;
+        long size; // the number of valid bytes in the file
+        long taken; // the number of bytes of the entries already taken
+        long entries; // the number of entries not yet taken
+
+        Segment(File dir, long id) {
+            this.id = id;
+            this.file = new File(dir, String.format("%016x.seg", id));
+        }
+    }
+
+    /**
+     * The state of a segmented spool directory. Lock order is put lock, take lock, state lock.
+     */
+    private static class Spool {
+        private static final int MAGIC = 0x52485153; // "RHQS"
+        private static final int VERSION = 1;
+        private static final int INDEX_SIZE = 64;
+        private static final int INDEX_HEAD_SEGMENT = 8;
+        private static final int INDEX_HEAD_POSITION = 16;
+        private static final int INDEX_TAIL_SEGMENT = 24;
+        private static final int INDEX_TAIL_POSITION = 32;
+        private static final int INDEX_COUNT = 40;
+
+        private static final int ENTRY_HEADER_SIZE = 5; // the length (int) followed by the flags (byte)
+        private static final byte FLAG_COMPRESSED = 1;
+
+        private final File m_dir;
+
+        private final Object m_putLock = new Object();
+        private final Object m_takeLock = new Object();
+        private final Object m_stateLock = new Object();
+
+        // guarded by the state lock
+        private final LinkedList<Segment> m_segments = new LinkedList<Segment>();
+        private final MappedByteBuffer m_index;
+        private long m_count;
+        private long m_totalSize; // the size of the entries not yet taken
+
+        private volatile boolean m_closed;
+
+        private volatile long m_maxSizeBytes;
+        private volatile long m_purgeResultMaxBytes;
+        private volatile long m_segmentSize;
+        private volatile int m_syncInterval;
+
+        // guarded by the put lock
+        private Segment m_tail;
+        private FileChannel m_tailChannel;
+        private final ByteBuffer m_putHeader = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        private final Deflater m_deflater = new Deflater();
+        private final byte[] m_deflateBuffer = new byte[8192];
+        private int m_unsyncedPuts;
+
+        // guarded by the take lock
+        private Segment m_head;
+        private FileChannel m_headChannel;
+        private long m_headPosition;
+        private final ByteBuffer m_takeHeader = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        private final Inflater m_inflater = new Inflater();
+        private final byte[] m_inflateBuffer = new byte[8192];
+
+
+        Spool(File dir) throws IOException {
+            m_dir = dir;
+            if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+                throw new IOException("Cannot create command spool directory [" + m_dir + "]");
+            }
+
+            RandomAccessFile index_file = new RandomAccessFile(new File(m_dir, "index"), "rw");
+            try {
+                boolean existing = index_file.length() >= INDEX_SIZE;
+                m_index = index_file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, INDEX_SIZE);
+                // the mapping stays valid after the channel is closed
+                recover(existing && (m_index.getInt(0) == MAGIC) && (m_index.getInt(4) == VERSION));
+            } finally {
+                index_file.close();
+            }
+        }
+
+        void setLimits(long max_size_bytes, long purge_result_max_bytes, int sync_interval) {
+            m_maxSizeBytes = max_size_bytes;
+            m_purgeResultMaxBytes = purge_result_max_bytes;
+            m_segmentSize = Math.max(MIN_SEGMENT_SIZE, max_size_bytes / SEGMENTS_PER_MAX_SIZE);
+            m_syncInterval = sync_interval;
+        }
+
+        long count() {
+            synchronized (m_stateLock) {
+                return m_count;
+            }
+        }
+
+        void put(byte[] bytes, boolean compress) throws IOException {
+            synchronized (m_putLock) {
+                ensureOpen();
+                byte flags = 0;
+                if (compress) {
+                    bytes = deflate(bytes);
+                    flags = FLAG_COMPRESSED;
+                }
+
+                if ((m_tailChannel == null) || (m_tail.size >= m_segmentSize)) {
+                    openTail();
+                }
+
+                m_putHeader.clear();
+                m_putHeader.putInt(bytes.length).put(flags).flip();
+                ByteBuffer[] buffers = new ByteBuffer[] { m_putHeader, ByteBuffer.wrap(bytes) };
+                long written = 0L;
+                long entry_size = ENTRY_HEADER_SIZE + bytes.length;
+                m_tailChannel.position(m_tail.size);
+                while (written < entry_size) {
+                    written += m_tailChannel.write(buffers);
+                }
+
+                synchronized (m_stateLock) {
+                    m_tail.size += entry_size;
+                    m_tail.entries++;
+                    m_totalSize += entry_size;
+                    m_count++;
+                    writeTail();
+                }
+
+                if ((m_syncInterval > 0) && (++m_unsyncedPuts >= m_syncInterval)) {
+                    sync();
+                }
+
+                boolean purge;
+                synchronized (m_stateLock) {
+                    purge = (m_totalSize > m_maxSizeBytes);
+                }
+                if (purge) {
+                    purge();
+                }
+            }
+        }
+
+        byte[] take() throws IOException {
+            synchronized (m_takeLock) {
+                ensureOpen();
+                while (true) {
+                    Segment head;
+                    long limit;
+                    boolean is_tail;
+
+                    synchronized (m_stateLock) {
+                        if (m_count == 0L) {
+                            return null;
+                        }
+                        head = m_segments.getFirst();
+                        limit = head.size;
+                        is_tail = (head == m_segments.getLast());
+                    }
+
+                    if (head != m_head) {
+                        closeHead();
+                        m_head = head;
+                        m_headPosition = 0L;
+                    }
+
+                    if (m_headPosition >= limit) {
+                        if (is_tail) {
+                            return null; // can't happen since the count is not 0, but don't spin if it does
+                        }
+                        removeHead();
+                        continue;
+                    }
+
+                    if (m_headChannel == null) {
+                        m_headChannel = new RandomAccessFile(m_head.file, "r").getChannel();
+                    }
+
+                    m_takeHeader.clear();
+                    readFully(m_headChannel, m_takeHeader, m_headPosition);
+                    m_takeHeader.flip();
+                    int length = m_takeHeader.getInt();
+                    byte flags = m_takeHeader.get();
+
+                    ByteBuffer entry = ByteBuffer.allocate(length);
+                    readFully(m_headChannel, entry, m_headPosition + ENTRY_HEADER_SIZE);
+                    m_headPosition += ENTRY_HEADER_SIZE + length;
+
+                    synchronized (m_stateLock) {
+                        m_head.entries--;
+                        m_head.taken += ENTRY_HEADER_SIZE + length;
+                        m_totalSize -= ENTRY_HEADER_SIZE + length;
+                        m_count--;
+                        writeHead();
+                    }
+
+                    // once a finished segment is used up, it is no longer needed
+                    if ((m_headPosition >= limit) && !is_tail) {
+                        removeHead();
+                    }
+
+                    byte[] bytes = entry.array();
+                    return ((flags & FLAG_COMPRESSED) != 0) ? inflate(bytes) : bytes;
+                }
+            }
+        }
+
+        /**
+         * @return all entries without removing them
+         */
+        List<byte[]> peekAll() throws IOException {
+            synchronized (m_putLock) {
+                synchronized (m_takeLock) {
+                    ensureOpen();
+                    List<Segment> segments;
+                    synchronized (m_stateLock) {
+                        segments = new ArrayList<Segment>(m_segments);
+                    }
+
+                    List<byte[]> entries = new ArrayList<byte[]>();
+                    for (Segment segment : segments) {
+                        long position = (segment == m_head) ? m_headPosition : 0L;
+                        DataInputStream in = openSegment(segment, position);
+                        try {
+                            while (position < segment.size) {
+                                int length = in.readInt();
+                                byte flags = in.readByte();
+                                byte[] bytes = new byte[length];
+                                in.readFully(bytes);
+                                entries.add(((flags & FLAG_COMPRESSED) != 0) ? inflate(bytes) : bytes);
+                                position += ENTRY_HEADER_SIZE + length;
+                            }
+                        } finally {
+                            in.close();
+                        }
+                    }
+                    return entries;
+                }
+            }
+        }
+
+        void clear() throws IOException {
+            synchronized (m_putLock) {
+                synchronized (m_takeLock) {
+                    ensureOpen();
+                    closeTail();
+                    closeHead();
+                    synchronized (m_stateLock) {
+                        for (Segment segment : m_segments) {
+                            segment.file.delete();
+                        }
+                        m_segments.clear();
+                        m_count = 0L;
+                        m_totalSize = 0L;
+                        writeHead();
+                        writeTail();
+                    }
+                }
+            }
+        }
+
+        void close() throws IOException {
+            synchronized (m_putLock) {
+                synchronized (m_takeLock) {
+                    if (m_closed) {
+                        return;
+                    }
+                    m_closed = true;
+                    closeTail();
+                    closeHead();
+                    m_index.force();
+                    // every access to the index is guarded by the put or take lock, which both are held here
+                    unmap(m_index);
+                }
+            }
+        }
+
+        void sync() throws IOException {
+            synchronized (m_putLock) {
+                ensureOpen();
+                if (m_tailChannel != null) {
+                    m_tailChannel.force(false);
+                }
+                m_index.force();
+                m_unsyncedPuts = 0;
+            }
+        }
+
+        /**
+         * Deletes the oldest segments until the total size is under the purge limit. Called with the put lock held.
+         */
+        private void purge() throws IOException {
+            synchronized (m_takeLock) {
+                if (m_segments.size() == 1) {
+                    // all data is in the tail, start a new one so that the old tail can be dropped
+                    openTail();
+                }
+
+                while (true) {
+                    Segment segment;
+                    synchronized (m_stateLock) {
+                        if ((m_totalSize <= m_purgeResultMaxBytes) || (m_segments.size() <= 1)) {
+                            return;
+                        }
+                        segment = m_segments.getFirst();
+                    }
+
+                    LOG.warn(CommI18NResourceKeys.SEGMENTED_FIFO_PURGED, m_dir, m_maxSizeBytes, segment.entries);
+                    if (segment == m_head) {
+                        closeHead();
+                        m_head = null;
+                        m_headPosition = 0L;
+                    }
+                    removeSegment(segment);
+                }
+            }
+        }
+
+        /**
+         * Deletes the head segment once it has been used up. Called with the take lock held.
+         */
+        private void removeHead() {
+            Segment segment = m_head;
+            closeHead();
+            m_head = null;
+            m_headPosition = 0L;
+            removeSegment(segment);
+        }
+
+        private void ensureOpen() throws IOException {
+            if (m_closed) {
+                throw new IOException("Command spool [" + m_dir + "] is closed");
+            }
+        }
+
+        private void removeSegment(Segment segment) {
+            synchronized (m_stateLock) {
+                m_segments.remove(segment);
+                m_count -= segment.entries;
+                m_totalSize -= segment.size - segment.taken;
+                writeHead();
+            }
+            segment.file.delete();
+        }
+
+        /**
+         * Starts a new tail segment, or continues the last segment after the spool was opened if it has room left.
+         * Called with the put lock held.
+         */
+        private void openTail() throws IOException {
+            Segment tail;
+            synchronized (m_stateLock) {
+                tail = m_segments.isEmpty() ? null : m_segments.getLast();
+            }
+
+            if ((m_tailChannel != null) || (tail == null) || (tail.size >= m_segmentSize)) {
+                closeTail();
+                tail = new Segment(m_dir, (tail == null) ? nextSegmentId() : (tail.id + 1));
+                synchronized (m_stateLock) {
+                    m_segments.addLast(tail);
+                }
+            }
+
+            RandomAccessFile file = new RandomAccessFile(tail.file, "rw");
+            file.setLength(tail.size);
+            m_tailChannel = file.getChannel();
+            m_tail = tail;
+            synchronized (m_stateLock) {
+                writeTail();
+            }
+        }
+
+        private long nextSegmentId() {
+            // ids keep growing even after the spool was emptied, so that no segment name is ever reused
+            synchronized (m_stateLock) {
+                return Math.max(m_index.getLong(INDEX_HEAD_SEGMENT), m_index.getLong(INDEX_TAIL_SEGMENT)) + 1;
+            }
+        }
+
+        private void closeTail() throws IOException {
+            if (m_tailChannel != null) {
+                if (m_syncInterval > 0) {
+                    m_tailChannel.force(false);
+                }
+                m_tailChannel.close();
+                m_tailChannel = null;
+            }
+            m_tail = null;
+        }
+
+        private void closeHead() {
+            if (m_headChannel != null) {
+                try {
+                    m_headChannel.close();
+                } catch (IOException ignore) {
+                }
+                m_headChannel = null;
+            }
+        }
+
+        /**
+         * Called with the state lock held.
+         */
+        private void writeHead() {
+            Segment first = m_segments.isEmpty() ? null : m_segments.getFirst();
+            if (first != null) {
+                m_index.putLong(INDEX_HEAD_SEGMENT, first.id);
+                m_index.putLong(INDEX_HEAD_POSITION, (first == m_head) ? m_headPosition : 0L);
+            }
+            m_index.putLong(INDEX_COUNT, m_count);
+        }
+
+        /**
+         * Called with the state lock held.
+         */
+        private void writeTail() {
+            Segment last = m_segments.isEmpty() ? null : m_segments.getLast();
+            if (last != null) {
+                m_index.putLong(INDEX_TAIL_SEGMENT, last.id);
+                m_index.putLong(INDEX_TAIL_POSITION, last.size);
+            }
+            m_index.putLong(INDEX_COUNT, m_count);
+        }
+
+        /**
+         * Rebuilds the in-memory state from the index and the segment files.
+         */
+        private void recover(boolean valid_index) throws IOException {
+            long head_id = valid_index ? m_index.getLong(INDEX_HEAD_SEGMENT) : 0L;
+            long head_position = valid_index ? m_index.getLong(INDEX_HEAD_POSITION) : 0L;
+            long last_id = valid_index ? Math.max(head_id, m_index.getLong(INDEX_TAIL_SEGMENT)) : 0L;
+
+            List<Long> ids = new ArrayList<Long>();
+            File[] files = m_dir.listFiles();
+            for (File file : (files != null) ? files : new File[0]) {
+                String name = file.getName();
+                if (name.endsWith(".seg")) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - 4), 16));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+            Collections.sort(ids);
+
+            for (long id : ids) {
+                Segment segment = new Segment(m_dir, id);
+                last_id = Math.max(last_id, id);
+
+                if (id < head_id) {
+                    segment.file.delete(); // used up, but not deleted before the spool was closed
+                    continue;
+                }
+
+                long start = (id == head_id) ? head_position : 0L;
+                scan(segment, start);
+                if (start > 0L) {
+                    m_head = segment;
+                    m_headPosition = start;
+                    segment.taken = Math.min(start, segment.size);
+                }
+                m_segments.add(segment);
+                m_count += segment.entries;
+                m_totalSize += segment.size - segment.taken;
+            }
+
+            m_index.putInt(0, MAGIC);
+            m_index.putInt(4, VERSION);
+            m_index.putLong(INDEX_HEAD_SEGMENT, last_id);
+            m_index.putLong(INDEX_HEAD_POSITION, 0L);
+            m_index.putLong(INDEX_TAIL_SEGMENT, last_id);
+            m_index.putLong(INDEX_TAIL_POSITION, 0L);
+            writeHead();
+            writeTail();
+        }
+
+        /**
+         * Counts the entries of the segment, starting at the given position, and cuts off an incomplete last entry.
+         */
+        private void scan(Segment segment, long start) throws IOException {
+            long length = segment.file.length();
+            long position = Math.min(start, length);
+            DataInputStream in = openSegment(segment, position);
+            try {
+                while (position + ENTRY_HEADER_SIZE <= length) {
+                    int entry_length = in.readInt();
+                    in.readByte();
+                    if ((entry_length < 0) || (position + ENTRY_HEADER_SIZE + entry_length > length)) {
+                        break;
+                    }
+                    skipFully(in, entry_length);
+                    position += ENTRY_HEADER_SIZE + entry_length;
+                    segment.entries++;
+                }
+            } finally {
+                in.close();
+            }
+
+            if (position < length) {
+                LOG.warn(CommI18NResourceKeys.SEGMENTED_FIFO_TRUNCATED, segment.file, length, position);
+                RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+                try {
+                    file.setLength(position);
+                } finally {
+                    file.close();
+                }
+            }
+            segment.size = position;
+        }
+
+        private DataInputStream openSegment(Segment segment, long position) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 65536));
+            try {
+                skipFully(in, position);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+
+        /**
+         * Releases the mapping right away rather than when the buffer is garbage collected, so that the index file
+         * can be deleted, which Windows does not allow while it is mapped. There is no public API for this, so if the
+         * VM does not support it, the mapping is released by the garbage collector as usual.
+         */
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                Method cleaner_method = buffer.getClass().getMethod("cleaner");
+                cleaner_method.setAccessible(true);
+                Object cleaner = cleaner_method.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Throwable ignore) {
+            }
+        }
+
+        private static void skipFully(DataInputStream in, long bytes) throws IOException {
+            while (bytes > 0L) {
+                long skipped = in.skip(bytes);
+                if (skipped <= 0L) {
+                    throw new EOFException();
+                }
+                bytes -= skipped;
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+            }
+        }
+
+        /**
+         * Called with the put lock held.
+         */
+        private byte[] deflate(byte[] bytes) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+            m_deflater.reset();
+            m_deflater.setInput(bytes);
+            m_deflater.finish();
+            while (!m_deflater.finished()) {
+                int n = m_deflater.deflate(m_deflateBuffer);
+                out.write(m_deflateBuffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Called with the take lock held.
+         */
+        private byte[] inflate(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+            m_inflater.reset();
+            m_inflater.setInput(bytes);
+            try {
+                while (!m_inflater.finished()) {
+                    int n = m_inflater.inflate(m_inflateBuffer);
+                    if ((n == 0) && (m_inflater.needsInput() || m_inflater.needsDictionary())) {
+                        throw new IOException("Command spool entry in [" + m_dir + "] is corrupt");
+                    }
+                    out.write(m_inflateBuffer, 0, n);
+                }
+            } catch (DataFormatException e) {
+                IOException ioe = new IOException("Command spool entry in [" + m_dir + "] is corrupt");
+                ioe.initCause(e);
+                throw ioe;
+            }
+            return out.toByteArray();
+        }
+    }
+}
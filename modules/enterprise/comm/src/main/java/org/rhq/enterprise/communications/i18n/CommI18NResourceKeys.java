@@ -237,6 +237,18 @@ public interface CommI18NResourceKeys {
         @I18NMessage(value = "Die Maximalgrüße [{0}] muss größer oder gleich [{1}] sein", locale = "de") })
     String INVALID_MAX_SIZE = "PersistentFifo.invalid-max-size";
 
+    @I18NMessages( { @I18NMessage("Moved [{0}] entries from the old command spool file [{1}] to [{2}]") })
+    String SEGMENTED_FIFO_MIGRATED = "SegmentedPersistentFifo.migrated";
+
+    @I18NMessages( { @I18NMessage("Failed to move the entries of the old command spool file [{0}] to [{1}] after [{2}] entries; the old file was left in place") })
+    String SEGMENTED_FIFO_MIGRATION_FAILURE = "SegmentedPersistentFifo.migration-failure";
+
+    @I18NMessages( { @I18NMessage("Command spool segment [{0}] ends with an incomplete entry; it was truncated from [{1}] to [{2}] bytes") })
+    String SEGMENTED_FIFO_TRUNCATED = "SegmentedPersistentFifo.truncated";
+
+    @I18NMessages( { @I18NMessage("Command spool [{0}] has grown beyond [{1}] bytes; dropping the oldest segment with [{2}] entries") })
+    String SEGMENTED_FIFO_PURGED = "SegmentedPersistentFifo.purged";
+
     @I18NMessages( { @I18NMessage("Failed to execute remote POJO method [{0}]. Cause: {1}") })
     String CLIENT_REMOTE_POJO_INVOKER_EXECUTION_FAILURE = "ClientRemotePojoFactory.execution-failure";
 
@@ -94,7 +94,7 @@ public class ClientCommandSenderTest {
 
         File cmd_spool_file = getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
-        PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
             config.commandSpoolFilePurgePercentage, false);
 
         // sent 500 guaranteed and 500 volatile commands, ensure we send all of them
@@ -158,7 +158,7 @@ public class ClientCommandSenderTest {
 
         File cmd_spool_file = getPersistentFifoFile(true);
         ClientCommandSender sender = new ClientCommandSender(comm, config);
-        PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
             config.commandSpoolFilePurgePercentage, false);
 
         try {
@@ -283,7 +283,7 @@ public class ClientCommandSenderTest {
 
             sender.sendAsynchGuaranteed(command, null);
 
-            PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
+            SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
                 config.commandSpoolFilePurgePercentage, false);
             assert fifo.count() == 1 : "not sending so we should have spooled that guaranteed command to disk";
             assert comm.getSentCount() == 0 : "should not have sent any command yet";
@@ -329,7 +329,7 @@ public class ClientCommandSenderTest {
                 }
             });
 
-            PersistentFifo fifo = new PersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
+            SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(cmd_spool_file, config.commandSpoolFileMaxSize,
                 config.commandSpoolFilePurgePercentage, false);
             assert fifo.count() == 1 : "not sending so we should have spooled that guaranteed command to disk";
             assert comm.getSentCount() == 0 : "should not have sent any command yet";
@@ -403,7 +403,7 @@ public class ClientCommandSenderTest {
         if (delete_it) {
             // in case we can't outright delete it, let's first empty it
             try {
-                new PersistentFifo(ret_file, 10000L, 0, false).initializeEmptyFile();
+                new SegmentedPersistentFifo(ret_file, 10000L, 0, false).initializeEmptyFile();
             } catch (IOException ignore) {
             }
 
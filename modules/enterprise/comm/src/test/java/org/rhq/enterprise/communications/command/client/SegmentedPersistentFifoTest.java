@@ -0,0 +1,223 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.command.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the segmented persistent fifo.
+ */
+@Test(groups = "comm.client")
+public class SegmentedPersistentFifoTest {
+    private File fifoFile;
+
+    @BeforeMethod
+    public void createFifoFile() throws Exception {
+        fifoFile = File.createTempFile("SegmentedPersistentFifoTest", ".dat");
+        fifoFile.delete();
+    }
+
+    @AfterMethod
+    public void deleteFifoFile() throws Exception {
+        SegmentedPersistentFifo.release(fifoFile);
+        File dir = new File(fifoFile.getParentFile(), fifoFile.getName() + ".segments");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        fifoFile.delete();
+    }
+
+    public void testFifo() throws Exception {
+        doFifoTests(false);
+    }
+
+    public void testFifoCompressed() throws Exception {
+        doFifoTests(true);
+    }
+
+    public void testSharedBetweenObjects() throws Exception {
+        SegmentedPersistentFifo fifo1 = new SegmentedPersistentFifo(fifoFile, 10000L, 75, false);
+        SegmentedPersistentFifo fifo2 = new SegmentedPersistentFifo(fifoFile, 10000L, 75, true);
+
+        fifo1.put("one".getBytes());
+        fifo2.put("two".getBytes());
+        assert fifo1.count() == 2 : fifo1.count();
+        assert "one".equals(new String(fifo2.take()));
+        assert "two".equals(new String(fifo1.take()));
+        assert fifo2.isEmpty();
+    }
+
+    public void testReopen() throws Exception {
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        for (int i = 0; i < 1000; i++) {
+            fifo.put(("entry-" + i).getBytes());
+        }
+        for (int i = 0; i < 400; i++) {
+            assert ("entry-" + i).equals(new String(fifo.take()));
+        }
+
+        SegmentedPersistentFifo.release(fifoFile);
+        fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+
+        assert fifo.count() == 600 : fifo.count();
+        for (int i = 400; i < 1000; i++) {
+            assert ("entry-" + i).equals(new String(fifo.take()));
+        }
+        assert fifo.take() == null;
+    }
+
+    public void testIncompleteEntryIsDropped() throws Exception {
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        fifo.put("complete".getBytes());
+        fifo.put("incomplete".getBytes());
+        SegmentedPersistentFifo.release(fifoFile);
+
+        // simulate a crash in the middle of writing the last entry
+        File dir = new File(fifoFile.getParentFile(), fifoFile.getName() + ".segments");
+        File segment = new File(dir, "0000000000000001.seg");
+        assert segment.exists() : segment;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        assert fifo.count() == 1 : fifo.count();
+        assert "complete".equals(new String(fifo.take()));
+        assert fifo.take() == null;
+
+        fifo.put("next".getBytes());
+        assert "next".equals(new String(fifo.take()));
+    }
+
+    public void testPurgeDropsOldestEntries() throws Exception {
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        int total = 10000;
+        for (int i = 0; i < total; i++) {
+            fifo.put(("0123456789012345678901234567890123456789x-" + i).getBytes());
+        }
+
+        long count = fifo.count();
+        assert count < total : "should have purged the oldest entries";
+        assert count > 0;
+
+        // the newest entries survive, in order
+        for (long i = total - count; i < total; i++) {
+            assert ("0123456789012345678901234567890123456789x-" + i).equals(new String(fifo.take()));
+        }
+        assert fifo.take() == null;
+    }
+
+    public void testTakenEntriesDoNotCountTowardsTheMaxSize() throws Exception {
+        // every entry takes 55 bytes, the segments are 6250 bytes
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        for (int i = 0; i < 1800; i++) {
+            fifo.put(String.format("%050d", i).getBytes());
+        }
+        for (int i = 0; i < 100; i++) {
+            fifo.take();
+        }
+        // the 100 entries taken from the head segment make room for 100 new entries
+        for (int i = 1800; i < 1900; i++) {
+            fifo.put(String.format("%050d", i).getBytes());
+        }
+
+        assert fifo.count() == 1800 : fifo.count();
+        assert String.format("%050d", 100).equals(new String(fifo.take()));
+    }
+
+    public void testDeleteSpool() throws Exception {
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        for (int i = 0; i < 1000; i++) {
+            fifo.put(("entry-" + i).getBytes());
+        }
+
+        SegmentedPersistentFifo.deleteSpool(fifoFile);
+
+        File dir = new File(fifoFile.getParentFile(), fifoFile.getName() + ".segments");
+        assert !dir.exists() : "the segments should have been deleted";
+        try {
+            fifo.take();
+            assert false : "the spool should have been closed";
+        } catch (IOException expected) {
+        }
+
+        fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, false);
+        assert fifo.isEmpty() : fifo.count();
+    }
+
+    public void testMigrateOldFile() throws Exception {
+        PersistentFifo old_fifo = new PersistentFifo(fifoFile, 100000L, 75, true);
+        for (int i = 0; i < 10; i++) {
+            old_fifo.putObject("old-" + i);
+        }
+        old_fifo.close();
+
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 100000L, 75, true);
+        assert !fifoFile.exists() : "the old file should have been deleted";
+        assert fifo.count() == 10 : fifo.count();
+        for (int i = 0; i < 10; i++) {
+            assert ("old-" + i).equals(fifo.takeObject());
+        }
+    }
+
+    private void doFifoTests(boolean compress) throws Exception {
+        SegmentedPersistentFifo fifo = new SegmentedPersistentFifo(fifoFile, 1000L, 0, compress);
+
+        assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert fifo.isEmpty() : "SHOULD BE EMPTY";
+
+        fifo.put("entry 1".getBytes());
+        assert !fifo.isEmpty() : "SHOULD NOT BE EMPTY";
+        assert fifo.count() == 1 : "count should be 1";
+        assert "entry 1".equals(new String(fifo.take()));
+        assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+
+        fifo.put("entry 2".getBytes());
+        fifo.put("entry 3".getBytes());
+        fifo.initializeEmptyFile();
+        assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert fifo.count() == 0 : "count should be 0";
+
+        // spans many segments
+        fifo = new SegmentedPersistentFifo(fifoFile, 10000000L, 75, compress);
+        for (int i = 0; i < 50000; i++) {
+            fifo.put(("0123456789012345678901234567890123456789x-" + i).getBytes());
+        }
+        assert fifo.count() == 50000 : fifo.count();
+        for (int i = 0; i < 50000; i++) {
+            assert ("0123456789012345678901234567890123456789x-" + i).equals(new String(fifo.take()));
+        }
+        assert fifo.take() == null : "SHOULD NOT BE ABLE TO TAKE";
+        assert fifo.isEmpty() : "SHOULD BE EMPTY";
+
+        fifo.putObject(new float[] { 0.0f, 1.1f, 2.2f });
+        float[] floats = (float[]) fifo.takeObject();
+        assert floats.length == 3 && floats[2] == 2.2f;
+    }
+}
@@ -366,6 +366,12 @@ public class SystemSettingsView extends EnhancedVLayout implements PropertyValue
                 pd.setPropertyGroupDefinition(generalGroup);
                 pd.setDefaultValue("false");
                 break;
+            case DYNAGROUP_INCREMENTAL_RECALCULATION_ENABLED:
+                pd.setDescription(MSG.view_admin_systemSettings_EnableDynaGroupIncrementalRecalculation_desc());
+                pd.setDisplayName(MSG.view_admin_systemSettings_EnableDynaGroupIncrementalRecalculation_name());
+                pd.setPropertyGroupDefinition(generalGroup);
+                pd.setDefaultValue("false");
+                break;
 
             ////////////////////////////////////////
             // Data Manager Configuration Properties
@@ -20,7 +20,11 @@
 
 package org.rhq.enterprise.server.alert.test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,6 +53,7 @@ import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.test.TransactionCallback;
 import org.rhq.enterprise.server.test.TransactionCallbackReturnable;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
 import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.enterprise.server.util.ResourceTreeHelper;
 import org.rhq.enterprise.server.util.SessionTestHelper;
@@ -349,6 +354,66 @@ public class AlertManagerTest extends AbstractEJB3Test {
         });
     }
 
+    @Test
+    public void testStreamAlertsByCriteria() {
+        executeInTransaction(new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                int resourceAlertDefinitionId = createResourceAlertDefinitionAndGetId("fake resource alertdef");
+                alertManager.fireAlert(resourceAlertDefinitionId);
+                alertManager.fireAlert(resourceAlertDefinitionId);
+                alertManager.fireAlert(resourceAlertDefinitionId);
+
+                Set<Integer> expectedIds = new HashSet<Integer>();
+                for (Alert alert : findAlertsByDefinitionIds(resourceAlertDefinitionId)) {
+                    expectedIds.add(alert.getId());
+                }
+                assertEquals(3, expectedIds.size());
+
+                AlertCriteria criteria = new AlertCriteria();
+                criteria.addFilterAlertDefinitionIds(resourceAlertDefinitionId);
+                criteria.clearPaging();
+                String projection = "alert.id, alert.alertDefinition.name, alert.alertDefinition.resource.id";
+
+                // all rows, with the projected values
+                RowCollector rows = new RowCollector(-1);
+                int count = alertManager.streamAlertsByCriteria(testData.getSubject(), criteria, projection, rows);
+                assertEquals(3, count);
+                Set<Integer> streamedIds = new HashSet<Integer>();
+                for (Object[] row : rows.rows) {
+                    streamedIds.add((Integer) row[0]);
+                    assertEquals("fake resource alertdef", row[1]);
+                    assertEquals(testData.getResource().getId(), row[2]);
+                }
+                assertEquals(expectedIds, streamedIds);
+
+                // paging still applies
+                criteria.setPaging(0, 2);
+                rows = new RowCollector(-1);
+                count = alertManager.streamAlertsByCriteria(testData.getSubject(), criteria, projection, rows);
+                assertEquals(2, count);
+                assertEquals(2, rows.rows.size());
+                criteria.clearPaging();
+
+                // a failing handler stops the query
+                rows = new RowCollector(1);
+                try {
+                    alertManager.streamAlertsByCriteria(testData.getSubject(), criteria, projection, rows);
+                    fail("The failure of the handler should have been thrown");
+                } catch (IOException expected) {
+                }
+                assertEquals(1, rows.rows.size());
+
+                // only alerts of viewable resources are streamed
+                Subject otherSubject = SessionTestHelper.createNewSubject(em, "other subject");
+                rows = new RowCollector(-1);
+                count = alertManager.streamAlertsByCriteria(otherSubject, criteria, projection, rows);
+                assertEquals(0, count);
+                assertTrue(rows.rows.isEmpty());
+            }
+        });
+    }
+
     private PageList<Alert> findAlertsByDefinitionIds(Integer... alertDefinitionIds) {
         AlertCriteria criteria = new AlertCriteria();
         criteria.addFilterAlertDefinitionIds(alertDefinitionIds);
@@ -369,6 +434,28 @@ public class AlertManagerTest extends AbstractEJB3Test {
         return alertDefinition.getId();
     }
 
+    /**
+     * Keeps the streamed rows, and fails on the row after the given number of rows if that is not negative.
+     */
+    private static final class RowCollector implements CriteriaQueryRowHandler {
+
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+
+        private final int failAfter;
+
+        RowCollector(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void handleRow(Object[] row) throws IOException {
+            if (failAfter >= 0 && rows.size() == failAfter) {
+                throw new IOException("fake handler failure");
+            }
+            rows.add(row.clone());
+        }
+    }
+
     private static final class TestData {
 
         private Subject subject;
@@ -812,6 +812,60 @@ public class AuthorizationManagerBeanTest extends AbstractEJB3Test {
         }
     }
 
+    /*
+     * Test methods:   the cached forms of canViewResource(Subject, Resource)   canViewResources(Subject, Collection)
+     *  getExplicitResourcePermissions(Subject, Resource)   hasResourcePermission(Subject, Permission, Resource)
+     *  hasResourcePermission(Subject, Permission, Collection<Resource>) after roles change
+     */
+    @Test(groups = "integration.session")
+    public void testCachedResourcePermissionsFollowRoleChanges() throws Exception {
+        getTransactionManager().begin();
+        EntityManager em = getEntityManager();
+        try {
+            /* bootstrap */
+            Subject testSubject = SessionTestHelper.createNewSubject(em, "testSubject");
+            Role testRole1 = SessionTestHelper.createNewRoleForSubject(em, testSubject, "testRole1");
+            Role testRole2 = SessionTestHelper.createNewRoleForSubject(em, testSubject, "testRole2");
+            ResourceGroup testGroup1 = SessionTestHelper.createNewCompatibleGroupForRole(em, testRole1, "testGroup1");
+            ResourceGroup testGroup2 = SessionTestHelper.createNewCompatibleGroupForRole(em, testRole2, "testGroup2");
+            Resource resource1 = SessionTestHelper.createNewResourceForGroup(em, testGroup1, "testResource1");
+            Resource resource2 = SessionTestHelper.createNewResourceForGroup(em, testGroup2, "testResource2");
+            Collection<Integer> allResources = SessionTestHelper.getResourceList(resource1, resource2);
+
+            /* setup permissions, testRole2 has none */
+            testRole1.getPermissions().add(Permission.CONTROL);
+            em.merge(testRole1);
+            em.flush();
+
+            RoleManagerLocal roleManager = LookupUtil.getRoleManager();
+            Subject superuser = LookupUtil.getSubjectManager().getOverlord();
+
+            /* verify access through a role without permissions, each check twice to also get it from the cache */
+            for (int i = 0; i < 2; i++) {
+                assert authorizationManager.canViewResource(testSubject, resource2.getId()) : "Failed to view resource through a role without permissions";
+                assert authorizationManager.getExplicitResourcePermissions(testSubject, resource2.getId()).isEmpty() : "Failed by getting permissions of a role without permissions";
+                assert authorizationManager.canViewResources(testSubject, allResources) : "Failed to view all resources";
+                assert authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, resource1.getId()) : "Failed to get permission of 1-role, 1-group, 1-resource";
+                assert !authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, allResources) : "Failed by getting permission on a resource of a role without permissions";
+            }
+
+            /* verify a granted permission is seen right away */
+            roleManager.setPermissions(superuser, testRole2.getId(), EnumSet.of(Permission.CONTROL));
+            assert authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, resource2.getId()) : "Failed to get granted permission";
+            assert authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, allResources) : "Failed to get granted permission on all resources";
+
+            /* verify a revoked group is seen right away */
+            roleManager.removeResourceGroupsFromRole(superuser, testRole1.getId(), new int[] { testGroup1.getId() });
+            assert !authorizationManager.canViewResource(testSubject, resource1.getId()) : "Failed by viewing resource of revoked group";
+            assert !authorizationManager.canViewResources(testSubject, allResources) : "Failed by viewing all resources after revoking a group";
+            assert authorizationManager.getExplicitResourcePermissions(testSubject, resource1.getId()).isEmpty() : "Failed by getting permissions of revoked group";
+            assert !authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, resource1.getId()) : "Failed by getting permission of revoked group";
+            assert authorizationManager.hasResourcePermission(testSubject, Permission.CONTROL, resource2.getId()) : "Failed to keep permission of other group";
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
     @Test(groups = "integration.session")
     public void testSetPermission() throws Exception {
         getTransactionManager().begin();
@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.configuration;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -63,6 +64,7 @@ import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.test.TestServerCommunicationsService;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
 import org.rhq.enterprise.server.util.LookupUtil;
 import org.rhq.enterprise.server.util.SessionTestHelper;
 
@@ -1019,6 +1021,65 @@ public class ConfigurationManagerBeanTest extends AbstractEJB3Test {
         assert mybool.getErrorMessage().indexOf("Not a valid boolean") > 0;
     }
 
+    @Test(enabled = ENABLE_TESTS)
+    public void testStreamResourceConfigurationUpdatesByCriteria() throws Exception {
+        Resource resource = newResource1;
+
+        Configuration configuration1 = new Configuration();
+        configuration1.put(new PropertySimple("myboolean", "true"));
+
+        Configuration configuration2 = new Configuration();
+        configuration2.put(new PropertySimple("myboolean", "false"));
+
+        configurationManager.updateResourceConfiguration(overlord, resource.getId(), configuration1);
+        Thread.sleep(2000); // wait for the test agent to complete the request
+        configurationManager.updateResourceConfiguration(overlord, resource.getId(), configuration2);
+        Thread.sleep(2000); // wait for the test agent to complete the request
+
+        List<ResourceConfigurationUpdate> updates = configurationManager.findResourceConfigurationUpdates(overlord,
+            resource.getId(), null, null, false, configUpdatesPageControl);
+        assert updates.size() == 2 : "Got " + updates.size() + " config update requests - expected 2.";
+
+        ResourceConfigurationUpdateCriteria criteria = new ResourceConfigurationUpdateCriteria();
+        criteria.addFilterResourceIds(resource.getId());
+        criteria.addSortCreatedTime(PageOrdering.ASC);
+        criteria.clearPaging();
+        String projection = "resourceconfigurationupdate.id, resourceconfigurationupdate.status, "
+            + "resourceconfigurationupdate.resource.name";
+
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        CriteriaQueryRowHandler collector = new CriteriaQueryRowHandler() {
+            public void handleRow(Object[] row) throws IOException {
+                rows.add(row.clone());
+            }
+        };
+
+        int count = configurationManager.streamResourceConfigurationUpdatesByCriteria(overlord, criteria, projection,
+            collector);
+        assert count == 2 : "Streamed " + count + " config updates - expected 2.";
+        assert rows.size() == 2;
+        for (int i = 0; i < 2; ++i) {
+            assert rows.get(i)[0].equals(updates.get(i).getId()) : "Unexpected config update " + rows.get(i)[0];
+            assert rows.get(i)[1] == updates.get(i).getStatus();
+            assert rows.get(i)[2].equals(resource.getName());
+        }
+
+        // a user who cannot view the resource does not get its updates
+        Subject noPermSubject = new Subject("userWithNoPermissions", true, false);
+        try {
+            noPermSubject = LookupUtil.getSubjectManager().createSubject(overlord, noPermSubject);
+            noPermSubject = createSession(noPermSubject);
+
+            rows.clear();
+            count = configurationManager.streamResourceConfigurationUpdatesByCriteria(noPermSubject, criteria,
+                projection, collector);
+            assert count == 0 : "Streamed config updates of a resource the user cannot view";
+            assert rows.isEmpty();
+        } finally {
+            LookupUtil.getSubjectManager().deleteUsers(overlord, new int[] { noPermSubject.getId() });
+        }
+    }
+
     @Test(enabled = ENABLE_TESTS)
     public void testNoPermissionCallback() throws Exception {
         Subject superuser = LookupUtil.getSubjectManager().getOverlord();
@@ -63,6 +63,7 @@ import org.rhq.core.clientapi.agent.discovery.DiscoveryAgentService;
 import org.rhq.core.clientapi.server.discovery.InventoryReport;
 import org.rhq.core.domain.cloud.StorageNode;
 import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
 import org.rhq.core.domain.criteria.ResourceCriteria;
 import org.rhq.core.domain.discovery.MergeInventoryReportResults;
 import org.rhq.core.domain.discovery.MergeInventoryReportResults.ResourceTypeFlyweight;
@@ -233,6 +234,133 @@ public class DiscoveryBossBeanTest extends AbstractEJB3Test {
         assertNotNull(results.getPlatformSyncInfo());
     }
 
+    @Test(groups = "integration.ejb3")
+    public void testMergeSkipsUnchangedResources() throws Exception {
+        InventoryReport inventoryReport = new InventoryReport(agent);
+        Resource platform = new Resource(prefix("alpha"), prefix("platform"), platformType);
+        Resource server1 = new Resource(prefix("bravo"), prefix("server 1"), serverType);
+        Resource server2 = new Resource(prefix("charlie"), prefix("server 2"), serverType);
+        platform.addChildResource(server1);
+        platform.addChildResource(server2);
+        platform.setUuid(String.valueOf(new Random().nextInt()));
+        server1.setUuid(String.valueOf(new Random().nextInt()));
+        server2.setUuid(String.valueOf(new Random().nextInt()));
+        inventoryReport.addAddedRoot(platform);
+
+        MergeInventoryReportResults results = discoveryBoss.mergeInventoryReport(serialize(inventoryReport));
+        assertNotNull(results);
+        assert checkIgnoredTypes(results) : "nothing should have been ignored in this test";
+
+        final int platformId = findResourceId(platform.getUuid());
+        final int server1Id = findResourceId(server1.getUuid());
+        final int server2Id = findResourceId(server2.getUuid());
+        platform.setId(platformId);
+        server1.setId(server1Id);
+        server2.setId(server2Id);
+
+        // the agent reports the platform again with every batch, it must always be skipped
+        Resource reportedServer = reported(platform, server1);
+        assertEquals("identical resources", 2, mergeAgain(platform, reportedServer));
+
+        // names and plugin configurations of resources in inventory are never merged
+        reportedServer = reported(platform, server1);
+        reportedServer.setName(prefix("renamed server 1"));
+        assertEquals("renamed resource", 2, mergeAgain(platform, reportedServer));
+        assertEquals(server1.getName(), getEntityManager().find(Resource.class, server1Id).getName());
+
+        reportedServer = reported(platform, server1);
+        reportedServer.setPluginConfiguration(createPluginConfiguration("changed"));
+        assertEquals("reconfigured resource", 2, mergeAgain(platform, reportedServer));
+        assertNull(LookupUtil.getConfigurationManager().getPluginConfiguration(server1Id).getSimple("test"));
+
+        reportedServer = reported(platform, server1);
+        reportedServer.setVersion("2.0");
+        assertEquals("new version", 1, mergeAgain(platform, reportedServer));
+        assertEquals("2.0", getEntityManager().find(Resource.class, server1Id).getVersion());
+        server1.setVersion("2.0");
+
+        // the description is filled in if the resource has none
+        reportedServer = reported(platform, server1);
+        reportedServer.setDescription(prefix("described server 1"));
+        assertEquals("new description", 1, mergeAgain(platform, reportedServer));
+        assertEquals(prefix("described server 1"), getEntityManager().find(Resource.class, server1Id)
+            .getDescription());
+        server1.setDescription(prefix("described server 1"));
+
+        // a deleted resource is reactivated with the reported plugin configuration
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                em.find(Resource.class, server1Id).setInventoryStatus(InventoryStatus.DELETED);
+            }
+        });
+        reportedServer = reported(platform, server1);
+        reportedServer.setPluginConfiguration(createPluginConfiguration("reactivated"));
+        assertEquals("deleted resource", 1, mergeAgain(platform, reportedServer));
+        assertEquals(InventoryStatus.COMMITTED, getEntityManager().find(Resource.class, server1Id)
+            .getInventoryStatus());
+        assertEquals("reactivated",
+            LookupUtil.getConfigurationManager().getPluginConfiguration(server1Id).getSimpleValue("test"));
+
+        // a resource under a parent of an invalid type is moved to the reported parent
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                Resource resource = em.find(Resource.class, server1Id);
+                resource.getParentResource().removeChildResource(resource);
+                em.find(Resource.class, server2Id).addChildResource(resource);
+            }
+        });
+        reportedServer = reported(platform, server1);
+        assertEquals("moved resource", 1, mergeAgain(platform, reportedServer));
+        assertEquals(Integer.valueOf(platformId),
+            getEntityManager().createQuery("SELECT r.parentResource.id FROM Resource r WHERE r.id = :id")
+                .setParameter("id", server1Id).getSingleResult());
+
+        // and once merged, the resource is skipped again
+        reportedServer = reported(platform, server1);
+        assertEquals("merged resource", 2, mergeAgain(platform, reportedServer));
+    }
+
+    private int findResourceId(String uuid) {
+        return (Integer) getEntityManager().createQuery("SELECT r.id FROM Resource r WHERE r.uuid = :uuid")
+            .setParameter("uuid", uuid).getSingleResult();
+    }
+
+    /*
+     * a copy of the resource as the agent reports it, with the reported platform as its parent
+     */
+    private Resource reported(Resource platform, Resource resource) {
+        Resource reported = new Resource(resource.getResourceKey(), resource.getName(), resource.getResourceType());
+        reported.setId(resource.getId());
+        reported.setUuid(resource.getUuid());
+        reported.setVersion(resource.getVersion());
+        reported.setDescription(resource.getDescription());
+        reported.setParentResource(platform);
+        return reported;
+    }
+
+    /*
+     * merges the reported platform and resource as one batch, returns the number of them the merge skipped
+     */
+    private int mergeAgain(Resource platform, Resource resource) throws Exception {
+        Resource reportedPlatform = new Resource(platform.getResourceKey(), platform.getName(),
+            platform.getResourceType());
+        reportedPlatform.setId(platform.getId());
+        reportedPlatform.setUuid(platform.getUuid());
+
+        List<Resource> resourceBatch = new ArrayList<Resource>();
+        resourceBatch.add(reportedPlatform);
+        resourceBatch.add(resource);
+        return discoveryBoss.mergeResourceInNewTransaction(resourceBatch, agent);
+    }
+
+    private static Configuration createPluginConfiguration(String value) {
+        Configuration pluginConfiguration = new Configuration();
+        pluginConfiguration.put(new PropertySimple("test", value));
+        return pluginConfiguration;
+    }
+
     // given test interaction there could be ignored types, make sure they are not relevant to these tests
     private boolean checkIgnoredTypes(MergeInventoryReportResults results) {
         return checkIgnoredTypes(results, 0);
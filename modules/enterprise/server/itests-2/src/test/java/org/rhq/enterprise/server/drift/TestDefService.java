@@ -66,6 +66,11 @@ class TestDefService implements DriftAgentService {
     public void ackChangeSetContent(int resourceId, String driftDefName, String token) {
     }
 
+    @Override
+    public void resendDriftFiles(int resourceId, String driftDefName, String token,
+        List<? extends DriftFile> driftFiles) {
+    }
+
     @Override
     public void pinSnapshot(int resourceId, String configName, DriftSnapshot snapshot) {
     }
@@ -26,6 +26,7 @@ import org.testng.annotations.Test;
 
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
+import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionDependencies;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
 import org.rhq.enterprise.server.test.AbstractEJB3Test;
 import org.rhq.enterprise.server.util.QueryUtility;
@@ -266,6 +267,48 @@ public class ExpressionEvaluatorTest extends AbstractEJB3Test {
         }
     }
 
+    @Test(groups = "integration.session")
+    public void testDependencies() throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        evaluator.setTestMode(true); // to prevent actual query from happening
+        evaluator.addExpression("resource.type.plugin = JBossAS");
+        evaluator.addExpression("resource.trait[partitionName] = DefaultPartition");
+        evaluator.addExpression("resource.pluginConfiguration[bindAddress] = 127.0.0.1");
+        evaluator.addExpression("groupby resource.version");
+
+        ExpressionDependencies dependencies = evaluator.getDependencies();
+        assert dependencies.isIncremental();
+        assert dependencies.dependsOnTrait("partitionName");
+        assert !dependencies.dependsOnTrait("vendor");
+        assert dependencies.dependsOnPluginConfiguration();
+
+        String[] notIncrementalExpressions = { "resource.parent.name = joseph", //
+            "resource.child.trait[partitionName] = DefaultPartition", //
+            "resource.availability = UP", //
+            "resource.resourceConfiguration[partition] = cluster-1", //
+            "memberof = Group Name" };
+        for (String expression : notIncrementalExpressions) {
+            evaluator = new ExpressionEvaluator();
+            evaluator.setTestMode(true);
+            evaluator.addExpression("resource.type.plugin = JBossAS");
+            evaluator.addExpression(expression);
+            assert !evaluator.getDependencies().isIncremental() : expression;
+        }
+    }
+
+    @Test(groups = "integration.session")
+    public void testRestrictToResources() throws Exception {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        evaluator.setTestMode(true); // to prevent actual query from happening
+        evaluator.addExpression("resource.name = joseph");
+        evaluator.restrictToResources(Arrays.asList(1, 2, 3));
+        evaluator.execute();
+
+        String expected = "SELECT res.id FROM Resource res WHERE res.name = :arg1 AND res.id IN (1, 2, 3)";
+        assert cleanUp(expected).equalsIgnoreCase(cleanUp(evaluator.getComputedJPQLStatement())) : evaluator
+            .getComputedJPQLStatement();
+    }
+
     private static interface ExpressionGenerator {
         String[] getExpressions();
     }
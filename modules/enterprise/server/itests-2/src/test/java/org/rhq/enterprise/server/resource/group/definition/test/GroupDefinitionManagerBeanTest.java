@@ -0,0 +1,177 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.resource.group.definition.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.Query;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
+import org.rhq.enterprise.server.test.AbstractEJB3Test;
+import org.rhq.enterprise.server.test.TransactionCallback;
+import org.rhq.enterprise.server.util.LookupUtil;
+import org.rhq.enterprise.server.util.ResourceTreeHelper;
+import org.rhq.enterprise.server.util.SessionTestHelper;
+
+@Test
+public class GroupDefinitionManagerBeanTest extends AbstractEJB3Test {
+
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+    private ResourceManagerLocal resourceManager;
+    private Subject overlord;
+
+    private String prefix;
+    private ResourceType resourceType;
+    private List<Resource> resources;
+    private Integer groupDefinitionId;
+
+    @Override
+    protected void beforeMethod() throws Exception {
+        groupDefinitionManager = LookupUtil.getGroupDefinitionManager();
+        resourceManager = LookupUtil.getResourceManager();
+        overlord = LookupUtil.getSubjectManager().getOverlord();
+        prefix = getClass().getSimpleName() + System.currentTimeMillis() + "-";
+        resources = new ArrayList<Resource>();
+        groupDefinitionId = null;
+    }
+
+    @Override
+    protected void afterMethod() throws Exception {
+        if (groupDefinitionId != null) {
+            groupDefinitionManager.removeGroupDefinition(overlord, groupDefinitionId);
+        }
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                for (Resource resource : resources) {
+                    ResourceTreeHelper.deleteResource(em, em.find(Resource.class, resource.getId()));
+                }
+                if (resourceType != null) {
+                    em.remove(em.find(ResourceType.class, resourceType.getId()));
+                }
+                em.flush();
+            }
+        });
+    }
+
+    public void testCalculateGroupMembershipIncrementally() throws Exception {
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                resourceType = SessionTestHelper.createNewResourceType(em);
+            }
+        });
+        int r1 = createResource("a", "1");
+        int r2 = createResource("b", "1");
+        int r3 = createResource("c", "2");
+
+        GroupDefinition groupDefinition = new GroupDefinition(prefix + "definition");
+        groupDefinition.setExpression("resource.name.startswith = " + prefix + "\ngroupby resource.version");
+        groupDefinitionId = groupDefinitionManager.createGroupDefinition(overlord, groupDefinition).getId();
+        groupDefinitionManager.calculateGroupMembership(overlord, groupDefinitionId);
+        assertMembership(members(r1, r2), members(r3));
+
+        // a new resource is added to the group of its version
+        int r4 = createResource("d", "2");
+        calculateIncrementally(r4);
+        assertMembership(members(r1, r2), members(r3, r4));
+
+        // a resource that changed its version moves to the group of the new version
+        updateResource(r3, null, "1");
+        calculateIncrementally(r3);
+        assertMembership(members(r1, r2, r3), members(r4));
+
+        // a resource that does not match anymore is removed, unchanged members stay
+        updateResource(r1, "other-" + prefix + "a", null);
+        calculateIncrementally(r1, r2);
+        assertMembership(members(r2, r3), members(r4));
+
+        // the group that loses its last member is deleted
+        updateResource(r4, null, "1");
+        calculateIncrementally(r4);
+        assertMembership(members(r2, r3, r4));
+    }
+
+    private int createResource(final String name, final String version) {
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                Resource resource = SessionTestHelper.createNewResource(em, name, resourceType);
+                resource.setName(prefix + name);
+                resource.setVersion(version);
+                resources.add(resource);
+            }
+        });
+        return resources.get(resources.size() - 1).getId();
+    }
+
+    private void updateResource(final int resourceId, final String name, final String version) {
+        executeInTransaction(false, new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                Resource resource = em.find(Resource.class, resourceId);
+                if (name != null) {
+                    resource.setName(name);
+                }
+                if (version != null) {
+                    resource.setVersion(version);
+                }
+            }
+        });
+    }
+
+    private void calculateIncrementally(Integer... resourceIds) throws Exception {
+        groupDefinitionManager.calculateGroupMembershipIncrementally(overlord, groupDefinitionId,
+            Arrays.asList(resourceIds));
+    }
+
+    private static Set<Integer> members(Integer... resourceIds) {
+        return new HashSet<Integer>(Arrays.asList(resourceIds));
+    }
+
+    /*
+     * the explicit members of the managed groups of the definition, in any order
+     */
+    private void assertMembership(Set<Integer>... expectedGroups) {
+        Query query = getEntityManager().createNamedQuery(GroupDefinition.QUERY_FIND_MANAGED_RESOURCE_GROUP_IDS_ADMIN);
+        query.setParameter("groupDefinitionId", groupDefinitionId);
+        @SuppressWarnings("unchecked")
+        List<Integer> resourceGroupIds = query.getResultList();
+
+        Set<Set<Integer>> groups = new HashSet<Set<Integer>>();
+        for (Integer resourceGroupId : resourceGroupIds) {
+            groups.add(new HashSet<Integer>(resourceManager.findExplicitResourceIdsByResourceGroup(resourceGroupId)));
+        }
+        Set<Set<Integer>> expected = new HashSet<Set<Integer>>();
+        Collections.addAll(expected, expectedGroups);
+        assertEquals("managed groups " + resourceGroupIds, expected, groups);
+    }
+}
@@ -63,6 +63,7 @@ import org.rhq.core.domain.resource.ResourceType;
 import org.rhq.core.domain.resource.group.GroupCategory;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.core.domain.util.PageList;
+import org.rhq.core.domain.util.PageOrdering;
 import org.rhq.enterprise.communications.ServiceContainer;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics;
 import org.rhq.enterprise.server.agentclient.AgentClient;
@@ -179,6 +180,25 @@ public class ResourceManagerBeanTest extends UpdatePluginMetadataTestBase {
         }
         System.err.println(stringBuilder.toString());
 
+        assertEquals("host.dev.corp", resourceLineage.get(0).getName());
+        assertEquals(leafResourceId, resourceLineage.get(3).getId());
+
+        // the id lineage starts with the parent and does not include the resource itself
+        List<Integer> resourceIdLineage = resourceManager.getResourceIdLineage(leafResourceId);
+        assertEquals(3, resourceIdLineage.size());
+        assertEquals(resourceLineage.get(2).getId(), resourceIdLineage.get(0).intValue());
+        assertEquals(resourceLineage.get(0).getId(), resourceIdLineage.get(2).intValue());
+
+        // the subtree below the app server, at any depth
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addFilterInventoryStatus(null);
+        criteria.addFilterAncestorResourceId(resourceLineage.get(1).getId());
+        criteria.addSortName(PageOrdering.ASC);
+        List<Resource> descendants = resourceManager.findResourcesByCriteria(getOverlord(), criteria);
+        assertEquals(2, descendants.size());
+        assertEquals(resourceLineage.get(2).getId(), descendants.get(0).getId());
+        assertEquals(leafResourceId, descendants.get(1).getId());
+
         // cleanup the DB
         for (int i = resourceLineage.size() - 1; i >= 0; i--) {
             deleteNewResourceAgentResourceType(resourceLineage.get(i));
@@ -407,6 +407,11 @@ public class TestAgentClient implements AgentClient, BundleAgentService, DriftAg
     public void ackChangeSetContent(int resourceId, String driftDefName, String token) {
     }
 
+    @Override
+    public void resendDriftFiles(int resourceId, String driftDefName, String token,
+        List<? extends DriftFile> driftFiles) {
+    }
+
     @Override
     public void pinSnapshot(int resourceId, String configName, DriftSnapshot snapshot) {
     }
@@ -34,6 +34,8 @@ public class RHQConstants {
     public static final String NO_TX_DATASOURCE_JNDI_NAME = "java:jboss/datasources/NoTxRHQDS";
     public static final String PERSISTENCE_UNIT_NAME = "rhqpu";
     public static final String TRANSACTION_MANAGER_JNDI_NAME = "java:jboss/TransactionManager";
+    public static final String TRANSACTION_SYNCHRONIZATION_REGISTRY_JNDI_NAME =
+        "java:jboss/TransactionSynchronizationRegistry";
 
     // JAAS settings      
     @Deprecated public static final String JAASProvider = SystemSetting.LDAP_BASED_JAAS_PROVIDER.getInternalName();
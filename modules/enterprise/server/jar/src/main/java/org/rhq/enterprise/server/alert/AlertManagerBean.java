@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.alert;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +87,7 @@ import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.BatchIterator;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -1281,4 +1283,20 @@ public class AlertManagerBean implements AlertManagerLocal, AlertManagerRemote {
 
         return alerts;
     }
+
+    @Override
+    @TransactionTimeout(6 * 60 * 60)
+    public int streamAlertsByCriteria(Subject subject, AlertCriteria criteria, String projection,
+        CriteriaQueryRowHandler handler) throws IOException {
+        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(subject, criteria);
+        if (!authorizationManager.isInventoryManager(subject)) {
+            generator.setAuthorizationResourceFragment(CriteriaQueryGenerator.AuthorizationTokenType.RESOURCE,
+                "alertDefinition.resource", subject.getId());
+        }
+        generator.alterProjection(projection);
+
+        CriteriaQueryRunner<Object[]> queryRunner = new CriteriaQueryRunner<Object[]>(criteria, generator,
+            entityManager, false);
+        return queryRunner.scroll(handler);
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.rhq.enterprise.server.alert;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,8 @@ import org.rhq.core.domain.common.EntityContext;
 import org.rhq.core.domain.criteria.AlertCriteria;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.plugin.pc.alert.AlertSenderPluginManager;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
+import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 
 /**
  * @author Joseph Marques
@@ -79,6 +82,24 @@ public interface AlertManagerLocal {
      */
     boolean willDefinitionBeDisabled(Alert alert);
 
+    /**
+     * Streams the alerts matching the criteria to the handler, as rows of the given projection read through a
+     * forward-only database cursor, for exporting more of them than fit in memory.
+     * See {@link CriteriaQueryRunner#scroll(CriteriaQueryRowHandler)}.
+     * <p/>
+     * The transaction, and with it a database connection and the cursor, stays open until the handler has handled
+     * all rows, for up to six hours. A handler that writes to a slow client holds them for as long as the client takes.
+     *
+     * @param subject the user, who only gets to see alerts of resources the user can view
+     * @param criteria the filters and sorting; paging is applied too
+     * @param projection the JPQL select list, using the criteria alias <code>alert</code>
+     * @param handler receives the rows
+     * @return the number of rows
+     * @throws IOException if the handler failed
+     */
+    int streamAlertsByCriteria(Subject subject, AlertCriteria criteria, String projection,
+        CriteriaQueryRowHandler handler) throws IOException;
+
     Collection<String> sendAlertNotificationEmails(Alert alert, Collection<String> emailAddresses);
 
     String prettyPrintAlertURL(Alert alert);
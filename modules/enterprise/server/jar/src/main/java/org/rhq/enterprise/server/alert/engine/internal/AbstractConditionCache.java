@@ -43,7 +43,11 @@ abstract class AbstractConditionCache {
     private CachedConditionProducerLocal cachedConditionProducer;
 
     public AbstractConditionCache() {
-        cachedConditionProducer = LookupUtil.getCachedConditionProducerLocal();
+        this(LookupUtil.getCachedConditionProducerLocal());
+    }
+
+    AbstractConditionCache(CachedConditionProducerLocal cachedConditionProducer) {
+        this.cachedConditionProducer = cachedConditionProducer;
     }
 
     <T extends AbstractCacheElement<S>, S> void processCacheElements(List<T> cacheElements, S providedValue,
@@ -59,20 +63,7 @@ abstract class AbstractConditionCache {
 
             if (matched) // send positive event in case of a match
             {
-                try {
-                    /*
-                     * Set the active property for alertCondition-based cache elements, and send it on its way;
-                     * Thus, even if the element is already active, we're going to send another message with the new
-                     * value
-                     */
-                    cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
-                    cachedConditionProducer.sendActivateAlertConditionMessage(
-                        cacheElement.getAlertConditionTriggerId(), timestamp,
-                        cacheElement.convertValueToString(providedValue), extraParams);
-
-                    stats.matched++;
-                } catch (Exception e) {
-                    log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
+                if (!activate(cacheElement, providedValue, timestamp, stats, extraParams)) {
                     errors++;
                 }
             } else // no match, negative event
@@ -82,15 +73,7 @@ abstract class AbstractConditionCache {
                  * 2) currently active
                  */
                 if (cacheElement.isType(AlertConditionOperator.Type.STATEFUL) && cacheElement.getActivity().maybeActive()) {
-                    cacheElement.setActivity(CacheElementActivity.INACTIVE);
-
-                    try {
-                        // send negative message
-                        cachedConditionProducer.sendDeactivateAlertConditionMessage(
-                            cacheElement.getAlertConditionTriggerId(), timestamp);
-                    } catch (Exception e) {
-                        log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
-                            + e.getMessage());
+                    if (!deactivate(cacheElement, timestamp)) {
                         errors++;
                     }
                 } else {
@@ -112,6 +95,51 @@ abstract class AbstractConditionCache {
         }
     }
 
+    /**
+     * Marks the matched cache element active and sends the activation message for it.
+     *
+     * @return false if the message could not be sent
+     */
+    <S> boolean activate(AbstractCacheElement<S> cacheElement, S providedValue, long timestamp,
+        AlertConditionCacheStats stats, Object... extraParams) {
+        try {
+            /*
+             * Set the active property for alertCondition-based cache elements, and send it on its way;
+             * Thus, even if the element is already active, we're going to send another message with the new
+             * value
+             */
+            cacheElement.setActivity(CacheElementActivity.ACTIVE); // no harm to always set active (though, technically, STATELESS operators don't need it)
+            cachedConditionProducer.sendActivateAlertConditionMessage(cacheElement.getAlertConditionTriggerId(),
+                timestamp, cacheElement.convertValueToString(providedValue), extraParams);
+
+            stats.matched++;
+            return true;
+        } catch (Exception e) {
+            log.error("Error processing matched cache element '" + cacheElement + "': " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Marks the cache element inactive and sends the deactivation message for it.
+     *
+     * @return false if the message could not be sent
+     */
+    boolean deactivate(AbstractCacheElement<?> cacheElement, long timestamp) {
+        cacheElement.setActivity(CacheElementActivity.INACTIVE);
+
+        try {
+            // send negative message
+            cachedConditionProducer.sendDeactivateAlertConditionMessage(cacheElement.getAlertConditionTriggerId(),
+                timestamp);
+            return true;
+        } catch (Exception e) {
+            log.error("Error sending deactivation message for cache element '" + cacheElement + "': "
+                + e.getMessage());
+            return false;
+        }
+    }
+
     <T extends AbstractCacheElement<?>> boolean addTo(String mapName, Map<Integer, List<T>> cache, Integer key,
         T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
         List<T> cacheElements = cache.get(key);
@@ -141,5 +169,29 @@ abstract class AbstractConditionCache {
         return success;
     }
 
+    <T extends AbstractCacheElement<?>> boolean addTo(String mapName, IntObjectMap<List<T>> cache, int key,
+        T cacheElement, int alertConditionId, AlertConditionCacheStats stats) {
+        List<T> cacheElements = cache.get(key);
+
+        if (cacheElements == null) {
+            cacheElements = new ArrayList<T>();
+            cache.put(key, cacheElements);
+        }
+
+        if (cacheElement == null) {
+            log.warn("Cannot insert null cache element in '" + mapName + "' element: " + "key=" + key);
+            return false;
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Inserting '" + mapName + "' element: " + "key=" + key + ", " + "value=" + cacheElement);
+        }
+        boolean success = cacheElements.add(cacheElement);
+        if (success) {
+            stats.created++;
+        }
+        return success;
+    }
+
     public abstract int getCacheSize(AlertConditionCacheCoordinator.Cache cache);
 }
@@ -25,7 +25,6 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.rhq.core.domain.alert.AlertCondition;
@@ -76,11 +75,18 @@ import org.rhq.enterprise.server.util.LookupUtil;
  */
 class AgentConditionCache extends AbstractConditionCache {
 
-    private Map<Integer, List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
-    private Map<Integer, List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
-    private Map<Integer, List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
-    private Map<Integer, List<EventCacheElement>> eventsCache; // key: resource ID
-    private Map<Integer, List<DriftCacheElement>> driftCache; // key: resource ID
+    /*
+     * The caches are only modified while this object is being constructed. The coordinator publishes the fully
+     * loaded cache, after which it is only read, so lookups never need to lock.
+     */
+    private final IntObjectMap<List<NumericDoubleCacheElement>> measurementDataCache; // key: schedule ID
+    private final IntObjectMap<List<MeasurementTraitCacheElement>> measurementTraitCache; // key: schedule ID
+    private final IntObjectMap<List<CallTimeDataCacheElement>> callTimeCache; // key: schedule ID
+    private final IntObjectMap<List<EventCacheElement>> eventsCache; // key: resource ID
+    private final IntObjectMap<List<DriftCacheElement>> driftCache; // key: resource ID
+
+    // flattened copy of the measurementDataCache, see checkConditions(MeasurementData...)
+    private final NumericConditionEvaluator numericConditionEvaluator;
 
     private AlertConditionManagerLocal alertConditionManager;
     private MeasurementDataManagerLocal measurementDataManager;
@@ -93,17 +99,19 @@ class AgentConditionCache extends AbstractConditionCache {
 
         this.agentId = agentId;
 
-        measurementDataCache = new HashMap<Integer, List<NumericDoubleCacheElement>>();
-        measurementTraitCache = new HashMap<Integer, List<MeasurementTraitCacheElement>>();
-        callTimeCache = new HashMap<Integer, List<CallTimeDataCacheElement>>();
-        eventsCache = new HashMap<Integer, List<EventCacheElement>>();
-        driftCache = new HashMap<Integer, List<DriftCacheElement>>();
+        measurementDataCache = new IntObjectMap<List<NumericDoubleCacheElement>>();
+        measurementTraitCache = new IntObjectMap<List<MeasurementTraitCacheElement>>();
+        callTimeCache = new IntObjectMap<List<CallTimeDataCacheElement>>();
+        eventsCache = new IntObjectMap<List<EventCacheElement>>();
+        driftCache = new IntObjectMap<List<DriftCacheElement>>();
 
         alertConditionManager = LookupUtil.getAlertConditionManager();
         measurementDataManager = LookupUtil.getMeasurementDataManager();
         subjectManager = LookupUtil.getSubjectManager();
 
         loadCachesForAgent(agentId);
+
+        numericConditionEvaluator = new NumericConditionEvaluator(measurementDataCache);
     }
 
     /**
@@ -380,15 +388,17 @@ class AgentConditionCache extends AbstractConditionCache {
 
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         try {
+            int errors = 0;
             for (MeasurementData datum : measurementData) {
                 int scheduleId = datum.getScheduleId();
 
                 if (datum instanceof MeasurementDataNumeric) {
-                    List<? extends NumericDoubleCacheElement> conditionCacheElements = lookupMeasurementDataCacheElements(scheduleId);
-
-                    Double providedValue = ((MeasurementDataNumeric) datum).getValue();
-
-                    processCacheElements(conditionCacheElements, providedValue, datum.getTimestamp(), stats);
+                    /*
+                     * numeric data is by far the most common, so rather than walking the cache elements for every
+                     * datum, the thresholds are compared in one pass over the flattened numeric conditions
+                     */
+                    errors += numericConditionEvaluator.evaluate(this, scheduleId,
+                        ((MeasurementDataNumeric) datum).getValue(), datum.getTimestamp(), stats);
                 } else if (datum instanceof MeasurementDataTrait) {
                     List<MeasurementTraitCacheElement> cacheElements = lookupMeasurementTraitCacheElements(scheduleId);
 
@@ -400,6 +410,11 @@ class AgentConditionCache extends AbstractConditionCache {
                 }
             }
 
+            if (errors != 0) {
+                log.error("There were " + errors + " alert conditions that did not fire. "
+                    + "Please check the configuration of the JMS subsystem and try again. ");
+            }
+
             AlertConditionCacheMonitor.getMBean().incrementMeasurementCacheElementMatches(stats.matched);
             AlertConditionCacheMonitor.getMBean().incrementMeasurementProcessingTime(stats.getAge());
             if (log.isDebugEnabled())
@@ -566,8 +581,20 @@ class AgentConditionCache extends AbstractConditionCache {
         return stats;
     }
 
-    private List<? extends NumericDoubleCacheElement> lookupMeasurementDataCacheElements(int scheduleId) {
-        return measurementDataCache.get(scheduleId); // yup, might be null
+    /**
+     * @return the ids of the alert conditions that events of the resource are checked against
+     */
+    int[] getEventConditionIds(int resourceId) {
+        List<EventCacheElement> cacheElements = lookupEventCacheElements(resourceId);
+        if (cacheElements == null) {
+            return new int[0];
+        }
+
+        int[] conditionIds = new int[cacheElements.size()];
+        for (int i = 0; i < conditionIds.length; ++i) {
+            conditionIds[i] = cacheElements.get(i).getAlertConditionTriggerId();
+        }
+        return conditionIds;
     }
 
     private List<? extends CallTimeDataCacheElement> lookupCallTimeDataCacheElements(int scheduleId) {
@@ -23,7 +23,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.EntityNotFoundException;
 
@@ -38,6 +39,7 @@ import org.rhq.core.domain.measurement.MeasurementData;
 import org.rhq.core.domain.measurement.calltime.CallTimeData;
 import org.rhq.core.domain.operation.OperationHistory;
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.jms.ConditionMessageTracker;
 import org.rhq.enterprise.server.alert.engine.model.AbstractCacheElement;
 import org.rhq.enterprise.server.alert.engine.model.AvailabilityDurationComposite;
 import org.rhq.enterprise.server.cloud.StatusManagerLocal;
@@ -63,22 +65,23 @@ public final class AlertConditionCacheCoordinator {
     private static final AlertConditionCacheCoordinator instance = new AlertConditionCacheCoordinator();
 
     /**
-     * When processing EventReport, we may hit an event that triggers problem alert and event that triggers recovery alert within the same report. Firing alert 
+     * When processing EventReport, we may hit an event that triggers problem alert and event that triggers recovery alert within the same report. Firing alert
      * is asynchronous task, so if processing events too fast, problem alert is fired after we process recovery event, so we miss recovery alert at all.
-     * To workaround that, we slow down event processing in case we hit any event that triggers alert. When such event exists, we sleep given amount of milis 
-     * to wait for alert to get fired. There is no performance impact on processing events without alert fired, and this delay is set to 500 by default.
-     * Recommended value is from 500 to 1500milis, 500 was tested as reliable enough for low server load cases.
+     * To prevent that, once an event matches a condition we wait until the condition messages for the resource's event conditions have been processed,
+     * i.e. until a fired alert is committed and the caches are reloaded, before checking the remaining events. This is the maximum amount of millis to wait.
+     * There is no performance impact on processing events without alert fired.
      */
-    private static final long ALERTED_EVENT_PROCESSING_DELAY;
+    private static final long ALERTED_EVENT_PROCESSING_TIMEOUT;
 
     static {
-        long alertedEventProcessingDelay = 500L;
+        long alertedEventProcessingTimeout = 5000L;
         try {
-            alertedEventProcessingDelay = Long.parseLong(System.getProperty("rhq.server.alerted.event.process.delay", "500"));
+            alertedEventProcessingTimeout = Long.parseLong(System.getProperty(
+                "rhq.server.alerted.event.process.timeout", "5000"));
         } catch (Throwable t) {
             //
         }
-        ALERTED_EVENT_PROCESSING_DELAY = alertedEventProcessingDelay;
+        ALERTED_EVENT_PROCESSING_TIMEOUT = alertedEventProcessingTimeout;
     }
 
     public enum Cache {
@@ -105,9 +108,12 @@ public final class AlertConditionCacheCoordinator {
     }
 
     private volatile GlobalConditionCache globalCache;
-    private Map<Integer, AgentConditionCache> agentCaches;
 
-    private ReentrantReadWriteLock agentReadWriteLock;
+    /*
+     * Agent caches are never modified once they have been published. A reload builds a complete new cache and then
+     * swaps it in, so evaluating conditions for one agent is never blocked by a reload of the same or any other agent.
+     */
+    private final ConcurrentMap<Integer, AgentConditionCache> agentCaches;
 
     private AgentManagerLocal agentManager;
     private StatusManagerLocal statusManager;
@@ -119,8 +125,7 @@ public final class AlertConditionCacheCoordinator {
         globalCache = new GlobalConditionCache();
 
         // create the collections ahead of time
-        agentCaches = new HashMap<Integer, AgentConditionCache>();
-        agentReadWriteLock = new ReentrantReadWriteLock();
+        agentCaches = new ConcurrentHashMap<Integer, AgentConditionCache>();
     }
 
     public static AlertConditionCacheCoordinator getInstance() {
@@ -192,16 +197,9 @@ public final class AlertConditionCacheCoordinator {
         }
 
         if (agentCache != null) {
-            agentReadWriteLock.writeLock().lock();
-            try {
-                // simply "forget" about the old cache, let the JVM release the memory in time
-                agentCaches.put(agentId, agentCache);
-                log.debug("Reloaded agent[id=" + agentId + "] cache");
-            } catch (Throwable t) {
-                log.error("Error reloading cache for agent[id=" + agentId + "]", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.writeLock().unlock();
-            }
+            // simply "forget" about the old cache, let the JVM release the memory in time
+            agentCaches.put(agentId, agentCache);
+            log.debug("Reloaded agent[id=" + agentId + "] cache");
         }
     }
 
@@ -218,15 +216,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(measurementData);
         } else {
@@ -249,15 +239,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(callTimeData);
         } else {
@@ -307,24 +289,17 @@ public final class AlertConditionCacheCoordinator {
         AlertConditionCacheStats stats = new AlertConditionCacheStats();
         List<Event> unprocessedEvents = new ArrayList(Arrays.asList(events)); // need a List that supports iterator remove
         while (!unprocessedEvents.isEmpty()) {
-            AgentConditionCache agentCache = null;
-            agentReadWriteLock.readLock().lock();
-            try {
-                agentCache = agentCaches.get(agentId);
-            } catch (Throwable t) {
-                log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.readLock().unlock();
-            }
+            AgentConditionCache agentCache = agentCaches.get(agentId);
             if (agentCache != null) {
                 stats.add(agentCache.checkConditions(source, unprocessedEvents));
                 if (!unprocessedEvents.isEmpty()) {
-                    // delay for a brief time to allow for the matched conditions to potentially fire an alert and
-                    // activate recovery alerts, in case the remaining events match the pending recovery conditions
-                    try {
-                        Thread.sleep(ALERTED_EVENT_PROCESSING_DELAY);
-                    } catch (InterruptedException e) {
-                        // just continue as a best effort
+                    // wait for the matched conditions to potentially fire an alert and activate recovery alerts, in
+                    // case the remaining events match the pending recovery conditions
+                    int[] conditionIds = agentCache.getEventConditionIds(source.getResource().getId());
+                    if (!ConditionMessageTracker.getInstance().awaitProcessed(conditionIds,
+                        ALERTED_EVENT_PROCESSING_TIMEOUT)) {
+                        log.warn("Timed out waiting for alert conditions " + Arrays.toString(conditionIds)
+                            + " to be processed, continuing with the remaining events of " + source);
                     }
                 }
             } else {
@@ -346,15 +321,7 @@ public final class AlertConditionCacheCoordinator {
         }
 
         AlertConditionCacheStats stats = null;
-        AgentConditionCache agentCache = null;
-        agentReadWriteLock.readLock().lock();
-        try {
-            agentCache = agentCaches.get(agentId);
-        } catch (Throwable t) {
-            log.error("Error during checkConditions", t); // don't let any exceptions bubble up to the calling SLSB layer
-        } finally {
-            agentReadWriteLock.readLock().unlock();
-        }
+        AgentConditionCache agentCache = agentCaches.get(agentId);
         if (agentCache != null) {
             stats = agentCache.checkConditions(driftChangeSetSummary);
         } else {
@@ -438,17 +405,7 @@ public final class AlertConditionCacheCoordinator {
         if (cache.type == Cache.Type.Global) {
             result += globalCache.getCacheSize(cache);
         } else if (cache.type == Cache.Type.Agent) {
-            List<AgentConditionCache> cachesCopy = null;
-            agentReadWriteLock.readLock().lock();
-            try {
-                cachesCopy = new ArrayList<AgentConditionCache>(agentCaches.values());
-            } catch (Throwable t) {
-                log.error("Error during getCacheSize", t); // don't let any exceptions bubble up to the calling SLSB layer
-            } finally {
-                agentReadWriteLock.readLock().unlock();
-            }
-
-            for (AgentConditionCache agentCache : cachesCopy) {
+            for (AgentConditionCache agentCache : agentCaches.values()) {
                 result += agentCache.getCacheSize(cache);
             }
         } else {
@@ -0,0 +1,261 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.model.CacheElementActivity;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+/**
+ * Evaluates numeric measurement data against the measurement conditions of one agent. The cache elements are
+ * flattened into primitive arrays, grouped by schedule id and, within a schedule, by operator, so that checking a datum
+ * is a binary search followed by a scan over a contiguous range of thresholds. No objects are created unless a
+ * condition matches or a stateful condition has to be deactivated; only then the cache element itself is consulted
+ * to send the message.
+ * <p>
+ * The comparisons are the same as {@link NumericDoubleCacheElement#matches(Double, Object...)} and
+ * {@link MeasurementRangeNumericCacheElement#matches(Double, Object...)}. Cache elements of any other type are
+ * evaluated by calling their <code>matches</code> method. Like the cache elements, this class is not thread-safe
+ * with respect to the CHANGES operator and the activity state.
+ */
+class NumericConditionEvaluator {
+
+    private static final byte NEVER = 0;
+    private static final byte GREATER_THAN = 1;
+    private static final byte LESS_THAN = 2;
+    private static final byte EQUALS = 3;
+    private static final byte CHANGES = 4;
+    private static final byte INSIDE_RANGE = 5;
+    private static final byte OUTSIDE_RANGE = 6;
+    private static final byte INSIDE_RANGE_INCLUSIVE = 7;
+    private static final byte OUTSIDE_RANGE_INCLUSIVE = 8;
+    private static final byte DELEGATE = 9;
+
+    private static final Object[] NO_EXTRA_PARAMS = new Object[0];
+
+    private static final Comparator<NumericDoubleCacheElement> BY_OPERATOR = new Comparator<NumericDoubleCacheElement>() {
+        @Override
+        public int compare(NumericDoubleCacheElement e1, NumericDoubleCacheElement e2) {
+            return encode(e1) - encode(e2);
+        }
+    };
+
+    // sorted, the elements for scheduleIds[i] are at [offsets[i], offsets[i + 1])
+    private final int[] scheduleIds;
+    private final int[] offsets;
+
+    private final byte[] operators;
+    private final double[] thresholds; // the lower bound for ranges, the last seen value for CHANGES
+    private final double[] upperThresholds; // only used by ranges
+    private final boolean[] stateful;
+    private final boolean[] inactive;
+    private final NumericDoubleCacheElement[] elements;
+
+    NumericConditionEvaluator(IntObjectMap<List<NumericDoubleCacheElement>> cache) {
+        scheduleIds = cache.keys();
+        Arrays.sort(scheduleIds);
+
+        int count = 0;
+        for (int scheduleId : scheduleIds) {
+            count += cache.get(scheduleId).size();
+        }
+
+        offsets = new int[scheduleIds.length + 1];
+        operators = new byte[count];
+        thresholds = new double[count];
+        upperThresholds = new double[count];
+        stateful = new boolean[count];
+        inactive = new boolean[count];
+        elements = new NumericDoubleCacheElement[count];
+
+        int next = 0;
+        for (int i = 0; i < scheduleIds.length; ++i) {
+            offsets[i] = next;
+            List<NumericDoubleCacheElement> cacheElements = new ArrayList<NumericDoubleCacheElement>(
+                cache.get(scheduleIds[i]));
+            Collections.sort(cacheElements, BY_OPERATOR);
+            for (NumericDoubleCacheElement cacheElement : cacheElements) {
+                set(next++, cacheElement);
+            }
+        }
+        offsets[scheduleIds.length] = next;
+    }
+
+    private void set(int i, NumericDoubleCacheElement cacheElement) {
+        Double value = cacheElement.getAlertConditionValue();
+        byte operator = encode(cacheElement);
+
+        // an invalid threshold, e.g. a baseline that has not been calculated yet, never matches; for CHANGES the
+        // element will not even start tracking values in that case
+        if (operator != DELEGATE && !isValid(value)) {
+            operator = NEVER;
+        }
+        if (operator >= INSIDE_RANGE && operator <= OUTSIDE_RANGE_INCLUSIVE) {
+            Object upper = cacheElement.getAlertConditionOperatorOption();
+            if (upper instanceof Double) {
+                upperThresholds[i] = (Double) upper;
+            } else {
+                operator = NEVER;
+            }
+        }
+
+        operators[i] = operator;
+        thresholds[i] = (value == null) ? Double.NaN : value;
+        stateful[i] = cacheElement.isType(AlertConditionOperator.Type.STATEFUL);
+        inactive[i] = cacheElement.getActivity() == CacheElementActivity.INACTIVE;
+        elements[i] = cacheElement;
+    }
+
+    private static byte encode(NumericDoubleCacheElement cacheElement) {
+        AlertConditionOperator operator = cacheElement.getAlertConditionOperator();
+        Class<?> type = cacheElement.getClass();
+
+        if (type == MeasurementRangeNumericCacheElement.class) {
+            switch (operator) {
+            case LESS_THAN:
+                return INSIDE_RANGE;
+            case GREATER_THAN:
+                return OUTSIDE_RANGE;
+            case LESS_THAN_OR_EQUAL_TO:
+                return INSIDE_RANGE_INCLUSIVE;
+            case GREATER_THAN_OR_EQUAL_TO:
+                return OUTSIDE_RANGE_INCLUSIVE;
+            default:
+                return NEVER;
+            }
+        }
+
+        if (type == MeasurementNumericCacheElement.class || type == MeasurementBaselineCacheElement.class) {
+            switch (operator) {
+            case GREATER_THAN:
+                return GREATER_THAN;
+            case LESS_THAN:
+                return LESS_THAN;
+            case EQUALS:
+                return EQUALS;
+            case CHANGES:
+                return CHANGES;
+            default:
+                // let the element report the unsupported operator
+                return DELEGATE;
+            }
+        }
+
+        return DELEGATE;
+    }
+
+    /**
+     * Checks a single numeric datum against all conditions for its schedule and sends the activation and
+     * deactivation messages through the owning cache.
+     *
+     * @return the number of messages that could not be sent
+     */
+    int evaluate(AbstractConditionCache cache, int scheduleId, Double providedValue, long timestamp,
+        AlertConditionCacheStats stats) {
+        int index = Arrays.binarySearch(scheduleIds, scheduleId);
+        if (index < 0) {
+            return 0;
+        }
+
+        boolean valid = isValid(providedValue);
+        double value = valid ? providedValue : Double.NaN;
+        int errors = 0;
+
+        for (int i = offsets[index], end = offsets[index + 1]; i < end; ++i) {
+            boolean matched;
+            if (operators[i] == DELEGATE) {
+                matched = elements[i].matches(providedValue, NO_EXTRA_PARAMS);
+            } else {
+                matched = valid && matches(i, value, providedValue);
+            }
+
+            if (AbstractConditionCache.log.isDebugEnabled()) {
+                AbstractConditionCache.log.debug("comparing " + providedValue + " against " + elements[i]
+                    + (matched ? " match" : ""));
+            }
+
+            if (matched) {
+                inactive[i] = false;
+                if (!cache.activate(elements[i], providedValue, timestamp, stats, NO_EXTRA_PARAMS)) {
+                    errors++;
+                }
+            } else if (stateful[i] && !inactive[i]) {
+                inactive[i] = true;
+                if (!cache.deactivate(elements[i], timestamp)) {
+                    errors++;
+                }
+            }
+        }
+
+        return errors;
+    }
+
+    private boolean matches(int i, double value, Double providedValue) {
+        // Double.compare rather than the primitive operators to keep the semantics of Double.compareTo
+        double threshold = thresholds[i];
+        switch (operators[i]) {
+        case GREATER_THAN:
+            return Double.compare(value, threshold) > 0;
+        case LESS_THAN:
+            return Double.compare(value, threshold) < 0;
+        case EQUALS:
+            return Double.compare(value, threshold) == 0;
+        case CHANGES:
+            thresholds[i] = value;
+            elements[i].setAlertConditionValue(providedValue);
+            return Double.compare(threshold, value) != 0;
+        case INSIDE_RANGE:
+            return isInside(value, threshold, upperThresholds[i]);
+        case OUTSIDE_RANGE:
+            return !isInside(value, threshold, upperThresholds[i]);
+        case INSIDE_RANGE_INCLUSIVE:
+            return isInsideInclusive(value, threshold, upperThresholds[i]);
+        case OUTSIDE_RANGE_INCLUSIVE:
+            return !isInsideInclusive(value, threshold, upperThresholds[i]);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isInside(double value, double low, double high) {
+        return Double.compare(value, low) > 0 && Double.compare(value, high) < 0;
+    }
+
+    private static boolean isInsideInclusive(double value, double low, double high) {
+        return Double.compare(value, low) >= 0 && Double.compare(value, high) <= 0;
+    }
+
+    private static boolean isValid(Double value) {
+        return value != null && !value.isNaN() && !value.isInfinite();
+    }
+}
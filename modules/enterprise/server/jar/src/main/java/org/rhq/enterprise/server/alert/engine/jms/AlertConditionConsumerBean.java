@@ -69,10 +69,17 @@ public class AlertConditionConsumerBean implements MessageListener {
             conditionMessage = (AbstractAlertConditionMessage) objectMessage.getObject();
         } catch (Throwable t) {
             log.error("Error getting content of jms message", t);
+            processedUnreadable(message);
+            return;
+        }
+        if (conditionMessage == null) {
+            log.error("Received jms message without content");
+            processedUnreadable(message);
             return;
         }
 
         Integer definitionId = null;
+        boolean processed = false;
         try {
             if (log.isDebugEnabled()) {
                 log.debug("Received message: " + conditionMessage);
@@ -124,6 +131,10 @@ public class AlertConditionConsumerBean implements MessageListener {
                 log.debug("Checking for cache reload due to alert firing");
                 cacheConsistencyManager.reloadServerCacheIfNeeded();
 
+                // recovery conditions are in effect now, no need to hold up the producer during notifications
+                ConditionMessageTracker.getInstance().processed(conditionMessage.getAlertConditionId());
+                processed = true;
+
                 //  the alert is already persisted, now process notifications
                 alertManager.sendAlertNotifications(newAlert);
             }
@@ -137,6 +148,21 @@ public class AlertConditionConsumerBean implements MessageListener {
                 }
             } catch (Throwable t) {
             }
+            if (!processed) {
+                ConditionMessageTracker.getInstance().processed(conditionMessage.getAlertConditionId());
+            }
+        }
+    }
+
+    private void processedUnreadable(Message message) {
+        try {
+            if (message.propertyExists(ConditionMessageTracker.ALERT_CONDITION_ID_PROPERTY)) {
+                ConditionMessageTracker.getInstance().processed(
+                    message.getIntProperty(ConditionMessageTracker.ALERT_CONDITION_ID_PROPERTY));
+            }
+        } catch (Throwable t) {
+            // the tracker expires the message eventually
+            log.debug("Could not read the alert condition id of the jms message", t);
         }
     }
-}
\ No newline at end of file
+}
@@ -55,6 +55,20 @@ public class CachedConditionProducerBean implements CachedConditionProducerLocal
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public <S> void sendActivateAlertConditionMessage(int alertConditionId,
         long timestamp, S value, Object... extraParams) throws JMSException {
+        ConditionMessageTracker.getInstance().sent(alertConditionId);
+        try {
+            sendActivateMessage(alertConditionId, timestamp, value, extraParams);
+        } catch (JMSException e) {
+            ConditionMessageTracker.getInstance().processed(alertConditionId);
+            throw e;
+        } catch (RuntimeException e) {
+            ConditionMessageTracker.getInstance().processed(alertConditionId);
+            throw e;
+        }
+    }
+
+    private <S> void sendActivateMessage(int alertConditionId, long timestamp, S value, Object... extraParams)
+        throws JMSException {
         Connection connection = factory.createConnection();
         Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
         MessageProducer sender = session.createProducer(alertConditionQueue);
@@ -67,6 +81,7 @@ public class CachedConditionProducerBean implements CachedConditionProducerLocal
             value.toString(), extraParams);
 
         ObjectMessage message = session.createObjectMessage(conditionMessage);
+        message.setIntProperty(ConditionMessageTracker.ALERT_CONDITION_ID_PROPERTY, alertConditionId);
 
         sender.send(message);
 
@@ -75,6 +90,19 @@ public class CachedConditionProducerBean implements CachedConditionProducerLocal
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void sendDeactivateAlertConditionMessage(int alertConditionId, long timestamp) throws JMSException {
+        ConditionMessageTracker.getInstance().sent(alertConditionId);
+        try {
+            sendDeactivateMessage(alertConditionId, timestamp);
+        } catch (JMSException e) {
+            ConditionMessageTracker.getInstance().processed(alertConditionId);
+            throw e;
+        } catch (RuntimeException e) {
+            ConditionMessageTracker.getInstance().processed(alertConditionId);
+            throw e;
+        }
+    }
+
+    private void sendDeactivateMessage(int alertConditionId, long timestamp) throws JMSException {
         Connection connection = factory.createConnection();
         Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
         MessageProducer sender = session.createProducer(alertConditionQueue);
@@ -83,6 +111,7 @@ public class CachedConditionProducerBean implements CachedConditionProducerLocal
         InactiveAlertConditionMessage conditionMessage = new InactiveAlertConditionMessage(alertConditionId, timestamp);
 
         ObjectMessage message = session.createObjectMessage(conditionMessage);
+        message.setIntProperty(ConditionMessageTracker.ALERT_CONDITION_ID_PROPERTY, alertConditionId);
 
         sender.send(message);
 
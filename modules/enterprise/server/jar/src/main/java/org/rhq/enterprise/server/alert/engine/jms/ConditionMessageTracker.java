@@ -0,0 +1,253 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.jms;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps track of the condition messages that were sent to the AlertConditionQueue but not yet processed by the
+ * {@link AlertConditionConsumerBean}. A message counts as processed once the alert it may have fired is committed and
+ * the caches have been reloaded, i.e., once recovery conditions that were enabled by the alert are in effect.
+ * <p>
+ * This allows the producer of a problem condition to wait until exactly that point before it checks further data
+ * that may match the recovery condition, instead of waiting for a fixed amount of time.
+ * <p>
+ * The queue is not durable, so a message can be lost without ever reaching the consumer. Conditions for which no
+ * message was sent within the expiry time are therefore no longer considered pending.
+ */
+public final class ConditionMessageTracker {
+
+    /**
+     * The int property of the JMS message that holds the alert condition id, so that the consumer can account for
+     * messages whose content cannot be read.
+     */
+    public static final String ALERT_CONDITION_ID_PROPERTY = "alertConditionId";
+
+    private static final long MESSAGE_EXPIRY;
+
+    static {
+        long messageExpiry = 5 * 60 * 1000L;
+        try {
+            messageExpiry = Long.parseLong(System.getProperty("rhq.server.alert.condition.message.expiry", "300000"));
+        } catch (Throwable t) {
+            //
+        }
+        MESSAGE_EXPIRY = messageExpiry;
+    }
+
+    private static final ConditionMessageTracker instance = new ConditionMessageTracker(MESSAGE_EXPIRY);
+
+    private final Object lock = new Object();
+
+    private final long expiry;
+
+    // key: alert condition id
+    private final Map<Integer, Pending> pendingMessages = new HashMap<Integer, Pending>();
+
+    private int pendingCount;
+
+    private long nextPurge;
+
+    private long expired;
+
+    private long waits;
+
+    private long waitTime;
+
+    private long waitTimeouts;
+
+    /**
+     * @param expiry the number of milliseconds after the last message for a condition was sent after which messages
+     * that are still not processed are considered lost
+     */
+    ConditionMessageTracker(long expiry) {
+        this.expiry = expiry;
+    }
+
+    public static ConditionMessageTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Must be called before the message for the condition is sent.
+     */
+    public void sent(int alertConditionId) {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            purgeExpired(now);
+            Pending pending = pendingMessages.get(alertConditionId);
+            if (pending == null) {
+                pending = new Pending();
+                pendingMessages.put(alertConditionId, pending);
+            }
+            ++pending.count;
+            pending.lastSent = now;
+            ++pendingCount;
+        }
+    }
+
+    /**
+     * Must be called once for every call to {@link #sent(int)}, either when the message was processed or when it
+     * could not be sent.
+     */
+    public void processed(int alertConditionId) {
+        synchronized (lock) {
+            Pending pending = pendingMessages.get(alertConditionId);
+            if (pending == null) {
+                // sent before a restart of this server, expired, or already accounted for
+                return;
+            }
+            if (--pending.count == 0) {
+                pendingMessages.remove(alertConditionId);
+            }
+            --pendingCount;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all messages that were sent for the specified conditions have been processed or have expired.
+     *
+     * @return false if the timeout elapsed (or the thread was interrupted) before that happened
+     */
+    public boolean awaitProcessed(int[] alertConditionIds, long timeout) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        boolean waited = false;
+        try {
+            synchronized (lock) {
+                for (int alertConditionId : alertConditionIds) {
+                    while (isPending(alertConditionId, System.currentTimeMillis())) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            ++waitTimeouts;
+                            return false;
+                        }
+                        waited = true;
+                        lock.wait(remaining);
+                    }
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (waited) {
+                synchronized (lock) {
+                    ++waits;
+                    waitTime += System.currentTimeMillis() - start;
+                }
+            }
+        }
+    }
+
+    // must hold the lock
+    private boolean isPending(int alertConditionId, long now) {
+        Pending pending = pendingMessages.get(alertConditionId);
+        if (pending == null) {
+            return false;
+        }
+        if (now - pending.lastSent > expiry) {
+            pendingMessages.remove(alertConditionId);
+            expire(pending);
+            return false;
+        }
+        return true;
+    }
+
+    // must hold the lock
+    private void purgeExpired(long now) {
+        if (now < nextPurge) {
+            return;
+        }
+        nextPurge = now + expiry;
+        for (Iterator<Pending> i = pendingMessages.values().iterator(); i.hasNext();) {
+            Pending pending = i.next();
+            if (now - pending.lastSent > expiry) {
+                i.remove();
+                expire(pending);
+            }
+        }
+    }
+
+    // must hold the lock
+    private void expire(Pending pending) {
+        pendingCount -= pending.count;
+        expired += pending.count;
+    }
+
+    /**
+     * @return the number of condition messages that are sent but not yet processed
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            purgeExpired(System.currentTimeMillis());
+            return pendingCount;
+        }
+    }
+
+    /**
+     * @return the number of condition messages that were never processed within the expiry time
+     */
+    public long getExpiredCount() {
+        synchronized (lock) {
+            return expired;
+        }
+    }
+    /**
+     * @return the number of times a caller had to wait for condition messages to be processed
+     */
+    public long getWaits() {
+        synchronized (lock) {
+            return waits;
+        }
+    }
+
+    /**
+     * @return the total time in milliseconds callers spent waiting for condition messages to be processed
+     */
+    public long getWaitTime() {
+        synchronized (lock) {
+            return waitTime;
+        }
+    }
+
+    /**
+     * @return the number of waits that timed out
+     */
+    public long getWaitTimeouts() {
+        synchronized (lock) {
+            return waitTimeouts;
+        }
+    }
+
+    private static final class Pending {
+
+        private int count;
+
+        private long lastSent;
+    }
+}
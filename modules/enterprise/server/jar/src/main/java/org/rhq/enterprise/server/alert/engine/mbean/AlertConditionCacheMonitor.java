@@ -38,6 +38,7 @@ import javax.management.ObjectName;
 
 import org.rhq.core.util.ObjectNameFactory;
 import org.rhq.enterprise.server.alert.engine.internal.AlertConditionCacheCoordinator;
+import org.rhq.enterprise.server.alert.engine.jms.ConditionMessageTracker;
 import org.rhq.enterprise.server.util.JMXUtil;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -299,6 +300,26 @@ public class AlertConditionCacheMonitor implements AlertConditionCacheMonitorMBe
         totalProcessingTime.addAndGet(moreMillis);
     }
 
+    public int getPendingConditionMessageCount() {
+        return ConditionMessageTracker.getInstance().getPendingCount();
+    }
+
+    public long getExpiredConditionMessageCount() {
+        return ConditionMessageTracker.getInstance().getExpiredCount();
+    }
+
+    public long getEventOrderingWaits() {
+        return ConditionMessageTracker.getInstance().getWaits();
+    }
+
+    public long getEventOrderingWaitTime() {
+        return ConditionMessageTracker.getInstance().getWaitTime();
+    }
+
+    public long getEventOrderingWaitTimeouts() {
+        return ConditionMessageTracker.getInstance().getWaitTimeouts();
+    }
+
     public void reloadCaches() {
         LookupUtil.getAlertConditionCacheManager().reloadAllCaches();
     }
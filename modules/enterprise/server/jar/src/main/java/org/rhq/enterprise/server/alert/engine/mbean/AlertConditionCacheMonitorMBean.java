@@ -122,6 +122,19 @@ public interface AlertConditionCacheMonitorMBean {
 
     public void incrementDriftCacheElementMatches(int matches);
 
+    /*
+     * for condition messages waiting to be processed
+     */
+    public int getPendingConditionMessageCount();
+
+    public long getExpiredConditionMessageCount();
+
+    public long getEventOrderingWaits();
+
+    public long getEventOrderingWaitTime();
+
+    public long getEventOrderingWaitTimeouts();
+
     /*
      * cache contents
      */
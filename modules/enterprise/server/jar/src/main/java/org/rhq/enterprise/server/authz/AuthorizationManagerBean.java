@@ -1,6 +1,6 @@
 /*
  * RHQ Management Platform
- * Copyright (C) 2005-2011 Red Hat, Inc.
+ * Copyright (C) 2005-2014 Red Hat, Inc.
  * All rights reserved.
  *
  * This program is free software; you can redistribute it and/or modify
@@ -18,9 +18,15 @@
  */
 package org.rhq.enterprise.server.authz;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.Stateless;
@@ -35,8 +41,12 @@ import org.rhq.core.domain.authz.Permission.Target;
 import org.rhq.core.domain.content.Repo;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.enterprise.server.RHQConstants;
+import org.rhq.enterprise.server.util.BatchIterator;
 
 /**
+ * The permissions of a subject's roles and the subject's access to resources and groups are cached in the
+ * {@link PermissionCache}.
+ *
  * @author Joseph Marques
  */
 // we exclude the default interceptors because the required permissions interceptor calls into some of these
@@ -52,13 +62,9 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
     private EntityManager entityManager;
 
     @Override
-    @SuppressWarnings("unchecked")
     public Set<Permission> getExplicitGlobalPermissions(Subject subject) {
-        Query query = entityManager.createNamedQuery(Subject.QUERY_GET_GLOBAL_PERMISSIONS);
-        query.setParameter("subject", subject);
-        List<Permission> intermediate = query.getResultList();
         Set<Permission> results = new HashSet<Permission>();
-        for (Permission permission : intermediate) {
+        for (Permission permission : getRolePermissions(subject)) {
             if (permission.getTarget() == Target.GLOBAL) {
                 results.add(permission);
             }
@@ -67,9 +73,41 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
         return results;
     }
 
-    @Override
+    /**
+     * @return the permissions of all the roles of the subject, global or not
+     */
     @SuppressWarnings("unchecked")
+    private Set<Permission> getRolePermissions(Subject subject) {
+        PermissionCache cache = PermissionCache.getInstance();
+        Set<Permission> permissions = cache.getRolePermissions(subject.getId());
+        if (null == permissions) {
+            long generation = cache.getGeneration();
+            Query query = entityManager.createNamedQuery(Subject.QUERY_GET_GLOBAL_PERMISSIONS);
+            query.setParameter("subject", subject);
+            permissions = PermissionCache.toEnumSet(query.getResultList());
+            cache.putRolePermissions(subject.getId(), permissions, generation);
+        }
+        return permissions;
+    }
+
+    @Override
     public Set<Permission> getExplicitGroupPermissions(Subject subject, int groupId) {
+        return new HashSet<Permission>(getGroupPermissions(subject, groupId));
+    }
+
+    private Set<Permission> getGroupPermissions(Subject subject, int groupId) {
+        PermissionCache cache = PermissionCache.getInstance();
+        Set<Permission> permissions = cache.getGroupPermissions(subject.getId(), groupId);
+        if (null == permissions) {
+            long generation = cache.getGeneration();
+            permissions = PermissionCache.toEnumSet(loadGroupPermissions(subject, groupId));
+            cache.putGroupPermissions(subject.getId(), groupId, permissions, generation);
+        }
+        return permissions;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Permission> loadGroupPermissions(Subject subject, int groupId) {
         Set<Permission> result = new HashSet<Permission>();
 
         ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
@@ -109,18 +147,67 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Set<Permission> getExplicitResourcePermissions(Subject subject, int resourceId) {
-        Query query = entityManager.createNamedQuery(Subject.QUERY_GET_PERMISSIONS_BY_RESOURCE_ID);
-        query.setParameter("subject", subject);
-        query.setParameter("resourceId", resourceId);
-        List<Permission> intermediate = query.getResultList();
-        Set<Permission> results = new HashSet<Permission>();
-        for (Permission permission : intermediate) {
-            results.add(permission);
+        return new HashSet<Permission>(getResourceAccess(subject, resourceId).getPermissions());
+    }
+
+    private PermissionCache.Access getResourceAccess(Subject subject, int resourceId) {
+        return getResourceAccess(subject, Collections.singletonList(resourceId)).get(resourceId);
+    }
+
+    /**
+     * Resolves the subject's access to the given resources. Whatever is not cached yet is loaded with one query per
+     * batch of resources.
+     *
+     * @return the access to each of the resources
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Integer, PermissionCache.Access> getResourceAccess(Subject subject, Collection<Integer> resourceIds) {
+        PermissionCache cache = PermissionCache.getInstance();
+        Map<Integer, PermissionCache.Access> result = new HashMap<Integer, PermissionCache.Access>(resourceIds.size());
+        Set<Integer> missingIds = new LinkedHashSet<Integer>();
+        for (Integer resourceId : resourceIds) {
+            PermissionCache.Access access = cache.getResourceAccess(subject.getId(), resourceId);
+            if (null != access) {
+                result.put(resourceId, access);
+            } else {
+                missingIds.add(resourceId);
+            }
+        }
+        if (missingIds.isEmpty()) {
+            return result;
         }
 
-        return results;
+        long generation = cache.getGeneration();
+        Map<Integer, EnumSet<Permission>> loaded = new HashMap<Integer, EnumSet<Permission>>(missingIds.size());
+        for (List<Integer> batch : new BatchIterator<Integer>(new ArrayList<Integer>(missingIds))) {
+            Query query = entityManager.createNamedQuery(Subject.QUERY_GET_ACCESS_BY_RESOURCE_IDS);
+            query.setParameter("subject", subject);
+            query.setParameter("resourceIds", batch);
+            List<Object[]> rows = query.getResultList();
+            for (Object[] row : rows) {
+                Integer resourceId = (Integer) row[0];
+                EnumSet<Permission> permissions = loaded.get(resourceId);
+                if (null == permissions) {
+                    permissions = EnumSet.noneOf(Permission.class);
+                    loaded.put(resourceId, permissions);
+                }
+                if (null != row[1]) {
+                    permissions.add((Permission) row[1]);
+                }
+            }
+        }
+
+        for (Integer resourceId : missingIds) {
+            EnumSet<Permission> permissions = loaded.get(resourceId);
+            // a resource is viewable if the subject has a role for one of its groups, even without any permission
+            PermissionCache.Access access = (null != permissions) ? new PermissionCache.Access(permissions, true)
+                : PermissionCache.Access.NONE;
+            cache.putResourceAccess(subject.getId(), resourceId, access, generation);
+            result.put(resourceId, access);
+        }
+
+        return result;
     }
 
     @Override
@@ -136,45 +223,16 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_GLOBAL_PERMISSION);
-        query.setParameter("subject", subject);
-        query.setParameter("permission", permission);
-        long count = (Long) query.getSingleResult();
-        return (count != 0);
+        return getRolePermissions(subject).contains(permission);
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean hasGroupPermission(Subject subject, Permission permission, int groupId) {
         if (isInventoryManager(subject)) {
             return true;
         }
 
-        ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
-        Subject owner = group.getSubject();
-
-        if (null == owner) {
-            // role-owned group
-            Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_GROUP_PERMISSION);
-            query.setParameter("subject", subject);
-            query.setParameter("permission", permission);
-            query.setParameter("groupId", groupId);
-            long count = (Long) query.getSingleResult();
-            return (count != 0);
-
-        } else {
-            // don't let a user other than the owner do anything with this group
-            if (!subject.equals(owner)) {
-                return false;
-            }
-
-            Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_PRIVATE_GROUP_PERMISSION);
-            query.setParameter("subjectId", subject.getId());
-            query.setParameter("permission", permission);
-            query.setParameter("privateGroupId", groupId);
-            List<Object[]> resultList = query.getResultList();
-            return (!resultList.isEmpty());
-        }
+        return getGroupPermissions(subject, groupId).contains(permission);
     }
 
     @Override
@@ -183,12 +241,7 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_HAS_RESOURCE_PERMISSION);
-        query.setParameter("subject", subject);
-        query.setParameter("permission", permission);
-        query.setParameter("resourceId", resourceId);
-        long count = (Long) query.getSingleResult();
-        return (count != 0);
+        return getResourceAccess(subject, resourceId).getPermissions().contains(permission);
     }
 
     @SuppressWarnings("unchecked")
@@ -291,11 +344,7 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_RESOURCE);
-        query.setParameter("subject", subject);
-        query.setParameter("resourceId", resourceId);
-        long count = (Long) query.getSingleResult();
-        return (count != 0);
+        return getResourceAccess(subject, resourceId).isViewable();
     }
 
     @Override
@@ -304,12 +353,12 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_CAN_VIEW_RESOURCES);
-        query.setParameter("subject", subject);
-        query.setParameter("resourceIds", resourceIds);
-        long count = (Long) query.getSingleResult();
-
-        return count == resourceIds.size();
+        for (PermissionCache.Access access : getResourceAccess(subject, resourceIds).values()) {
+            if (!access.isViewable()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -380,18 +429,17 @@ public class AuthorizationManagerBean implements AuthorizationManagerLocal {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean hasResourcePermission(Subject subject, Permission permission, Collection<Integer> resourceIds) {
         if (isInventoryManager(subject)) {
             return true;
         }
 
-        Query query = entityManager.createNamedQuery(Subject.QUERY_GET_RESOURCES_BY_PERMISSION);
-        query.setParameter("subject", subject);
-        query.setParameter("permission", permission);
-
-        List<Integer> results = query.getResultList();
-        return results.containsAll(resourceIds);
+        for (PermissionCache.Access access : getResourceAccess(subject, resourceIds).values()) {
+            if (!access.getPermissions().contains(permission)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,338 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.authz;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.authz.Permission;
+import org.rhq.enterprise.server.util.LookupUtil;
+
+/**
+ * Caches what {@link AuthorizationManagerBean} resolved for a subject: the permissions of all the subject's roles,
+ * and the subject's access to individual resources and groups. Nearly every GUI, REST and CLI request performs
+ * several authorization checks, so this saves the database from running the same queries over and over.
+ * <p>
+ * The whole cache is invalidated when roles, their assignments or group membership change on this server, see
+ * {@link #invalidate()}. Narrower changes only invalidate what they affect, see {@link #invalidateSubject(int)} and
+ * {@link #invalidateResources(Collection)}. Invalidation happens right away and once more when the transaction
+ * making the change completes, so that nothing loaded before the commit stays cached. Changes made by other servers
+ * are not seen at all, which is why entries also expire after a short time. The time to live in milliseconds is set
+ * with the <code>rhq.server.authz.cache.ttl</code> system property; 0 disables the cache. The number of entries is
+ * bounded by <code>rhq.server.authz.cache.max-entries</code>, the least recently used entries are evicted first.
+ *
+ * <p>This object is a {@link #getInstance() singleton}.</p>
+ */
+public final class PermissionCache {
+    private static final Log LOG = LogFactory.getLog(PermissionCache.class);
+
+    private static final long TTL;
+    private static final int MAX_ENTRIES;
+
+    static {
+        long ttl = 30000L;
+        try {
+            ttl = Long.parseLong(System.getProperty("rhq.server.authz.cache.ttl", "30000"));
+        } catch (Throwable t) {
+            //
+        }
+        TTL = ttl;
+
+        int maxEntries = 100000;
+        try {
+            maxEntries = Integer.parseInt(System.getProperty("rhq.server.authz.cache.max-entries", "100000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_ENTRIES = maxEntries;
+    }
+
+    private static final PermissionCache INSTANCE = new PermissionCache();
+
+    /**
+     * What a subject is allowed to do with a resource or group, or globally.
+     */
+    static final class Access {
+        static final Access NONE = new Access(EnumSet.noneOf(Permission.class), false);
+
+        private final Set<Permission> permissions;
+        private final boolean viewable;
+
+        Access(Set<Permission> permissions, boolean viewable) {
+            this.permissions = Collections.unmodifiableSet(permissions);
+            this.viewable = viewable;
+        }
+
+        /**
+         * @return the permissions, backed by a bit vector
+         */
+        Set<Permission> getPermissions() {
+            return permissions;
+        }
+
+        /**
+         * @return whether the subject can view the resource; only meaningful for resource access
+         */
+        boolean isViewable() {
+            return viewable;
+        }
+    }
+
+    private enum Scope {
+        GLOBAL, RESOURCE, GROUP
+    }
+
+    private Map<Key, Entry> entries = createEntries();
+
+    private long generation = 0L;
+
+    private PermissionCache() {
+    }
+
+    private static Map<Key, Entry> createEntries() {
+        return new LinkedHashMap<Key, Entry>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    public static PermissionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Forgets everything that was cached, now and again when the current transaction, if any, completes. Call this
+     * whenever something changes who can do what, i.e. roles, the subjects and groups assigned to roles, the
+     * permissions of roles, or the (implicit) resources of groups.
+     */
+    public void invalidate() {
+        clear();
+        afterCompletion(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Forgets what was cached for the subject, now and again when the current transaction, if any, completes. Call
+     * this when only the roles of the subject change.
+     */
+    public void invalidateSubject(final int subjectId) {
+        removeSubject(subjectId);
+        afterCompletion(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                removeSubject(subjectId);
+            }
+        });
+    }
+
+    /**
+     * Forgets what was cached about access to the resources, now and again when the current transaction, if any,
+     * completes. Call this when the resources become (implicit) members of groups.
+     */
+    public void invalidateResources(Collection<Integer> resourceIds) {
+        final Set<Integer> ids = new HashSet<Integer>(resourceIds);
+        removeResources(ids);
+        afterCompletion(new Synchronization() {
+            public void beforeCompletion() {
+            }
+
+            public void afterCompletion(int status) {
+                removeResources(ids);
+            }
+        });
+    }
+
+    private synchronized void clear() {
+        entries = createEntries();
+        generation++;
+    }
+
+    private synchronized void removeSubject(int subjectId) {
+        for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext();) {
+            if (i.next().subjectId == subjectId) {
+                i.remove();
+            }
+        }
+        generation++;
+    }
+
+    private synchronized void removeResources(Set<Integer> resourceIds) {
+        for (Iterator<Key> i = entries.keySet().iterator(); i.hasNext();) {
+            Key key = i.next();
+            if (key.scope == Scope.RESOURCE && resourceIds.contains(key.id)) {
+                i.remove();
+            }
+        }
+        generation++;
+    }
+
+    /**
+     * Has the synchronization called when the current transaction completes. Outside of a transaction, or outside of
+     * the server as in unit tests, there is nothing to wait for.
+     */
+    private static void afterCompletion(Synchronization synchronization) {
+        TransactionSynchronizationRegistry registry;
+        try {
+            registry = LookupUtil.getTransactionSynchronizationRegistry();
+        } catch (RuntimeException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Cannot invalidate the permission cache after the transaction completes", e);
+            }
+            return;
+        }
+        if (registry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            registry.registerInterposedSynchronization(synchronization);
+        }
+    }
+
+    /**
+     * Returns the current generation of the cache. Get it before loading what is to be cached and pass it to the
+     * put method, so that what was loaded is dropped if the cache was invalidated in the meantime.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the permissions of all the roles of the subject or <code>null</code> if they have to be loaded
+     */
+    Set<Permission> getRolePermissions(int subjectId) {
+        Access access = get(Scope.GLOBAL, subjectId, 0);
+        return (null != access) ? access.getPermissions() : null;
+    }
+
+    void putRolePermissions(int subjectId, Set<Permission> permissions, long generation) {
+        put(Scope.GLOBAL, subjectId, 0, new Access(toEnumSet(permissions), false), generation);
+    }
+
+    /**
+     * @return the subject's access to the resource or <code>null</code> if it has to be loaded
+     */
+    Access getResourceAccess(int subjectId, int resourceId) {
+        return get(Scope.RESOURCE, subjectId, resourceId);
+    }
+
+    void putResourceAccess(int subjectId, int resourceId, Access access, long generation) {
+        put(Scope.RESOURCE, subjectId, resourceId, access, generation);
+    }
+
+    /**
+     * @return the subject's permissions on the group or <code>null</code> if they have to be loaded
+     */
+    Set<Permission> getGroupPermissions(int subjectId, int groupId) {
+        Access access = get(Scope.GROUP, subjectId, groupId);
+        return (null != access) ? access.getPermissions() : null;
+    }
+
+    void putGroupPermissions(int subjectId, int groupId, Set<Permission> permissions, long generation) {
+        put(Scope.GROUP, subjectId, groupId, new Access(toEnumSet(permissions), false), generation);
+    }
+
+    static EnumSet<Permission> toEnumSet(Collection<Permission> permissions) {
+        return permissions.isEmpty() ? EnumSet.noneOf(Permission.class) : EnumSet.copyOf(permissions);
+    }
+
+    private synchronized Access get(Scope scope, int subjectId, int id) {
+        if (TTL <= 0L) {
+            return null;
+        }
+
+        Key key = new Key(scope, subjectId, id);
+        Entry entry = entries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.access;
+    }
+
+    private synchronized void put(Scope scope, int subjectId, int id, Access access, long generation) {
+        if (TTL <= 0L || generation != this.generation) {
+            return;
+        }
+        entries.put(new Key(scope, subjectId, id), new Entry(access, System.currentTimeMillis() + TTL));
+    }
+
+    private static final class Key {
+        private final Scope scope;
+        private final int subjectId;
+        private final int id;
+
+        private Key(Scope scope, int subjectId, int id) {
+            this.scope = scope;
+            this.subjectId = subjectId;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * (31 * scope.ordinal() + subjectId)) + id;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return scope == other.scope && subjectId == other.subjectId && id == other.id;
+        }
+    }
+
+    private static final class Entry {
+        private final Access access;
+        private final long expires;
+
+        private Entry(Access access, long expires) {
+            this.access = access;
+            this.expires = expires;
+        }
+    }
+}
@@ -141,6 +141,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public Role createRole(Subject whoami, Role newRole) {
+        PermissionCache.getInstance().invalidate();
         // Make sure there's not an existing role with the same name.
         RoleCriteria criteria = new RoleCriteria();
         criteria.addFilterName(newRole.getName());
@@ -189,6 +190,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void deleteRoles(Subject subject, int[] doomedRoleIds) {
+        PermissionCache.getInstance().invalidate();
         if (doomedRoleIds != null) {
             for (int roleId : doomedRoleIds) {
                 Role doomedRole = entityManager.find(Role.class, roleId);
@@ -255,6 +257,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
      */
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addRolesToSubject(Subject subject, int subjectId, int[] roleIds, boolean isLdap) {
+        PermissionCache.getInstance().invalidate();
         if (roleIds != null) {
             Subject subjectToModify = subjectManager.getSubjectById(subjectId); // attach it
             if (subjectToModify == null) {
@@ -288,6 +291,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addSubjectsToRole(Subject subject, int roleId, int[] subjectIds) {
+        PermissionCache.getInstance().invalidate();
         if (subjectIds != null) {
             Role role = getRoleById(roleId); // attach it
             if (role == null) {
@@ -320,6 +324,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromSubject(Subject subject, int subjectId, int[] roleIds) {
+        PermissionCache.getInstance().invalidate();
         if (roleIds != null) {
             Subject subjectToModify = subjectManager.getSubjectById(subjectId); // attach it
 
@@ -387,6 +392,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void setPermissions(Subject subject, Integer roleId, Set<Permission> permissions) {
+        PermissionCache.getInstance().invalidate();
         Role role = entityManager.find(Role.class, roleId);
         Set<Permission> rolePermissions = role.getPermissions();
         rolePermissions.clear();
@@ -412,6 +418,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public Role updateRole(Subject whoami, Role role) {
+        PermissionCache.getInstance().invalidate();
         Role attachedRole = entityManager.find(Role.class, role.getId());
         if (attachedRole == null) {
             throw new IllegalStateException("Cannot update " + role + ", since no role exists with that id.");
@@ -646,6 +653,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addResourceGroupsToRole(Subject subject, int roleId, int[] groupIds) {
+        PermissionCache.getInstance().invalidate();
         if ((groupIds != null) && (groupIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -694,6 +702,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeResourceGroupsFromRole(Subject subject, int roleId, int[] groupIds) {
+        PermissionCache.getInstance().invalidate();
         if ((groupIds != null) && (groupIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -735,6 +744,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void setAssignedResourceGroups(Subject subject, int roleId, int[] groupIds) {
+        PermissionCache.getInstance().invalidate();
         Role role = getRole(subject, roleId);
         List<Integer> currentGroups = new ArrayList<Integer>();
         for (ResourceGroup group : role.getResourceGroups()) {
@@ -807,6 +817,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeSubjectsFromRole(Subject subject, int roleId, int[] subjectIds) {
+        PermissionCache.getInstance().invalidate();
         if ((subjectIds != null) && (subjectIds.length > 0)) {
             Role role = entityManager.find(Role.class, roleId);
             if (role == null) {
@@ -832,6 +843,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void setAssignedSubjects(Subject subject, int roleId, int[] subjectIds) {
+        PermissionCache.getInstance().invalidate();
 
         Role role = getRole(subject, roleId);
         List<Integer> currentSubjects = new ArrayList<Integer>();
@@ -889,6 +901,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void removeRolesFromResourceGroup(Subject subject, int groupId, int[] roleIds) {
+        PermissionCache.getInstance().invalidate();
         if ((roleIds != null) && (roleIds.length > 0)) {
             ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
             if (group == null) {
@@ -941,6 +954,7 @@ public class RoleManagerBean implements RoleManagerLocal, RoleManagerRemote {
     @Override
     @RequiredPermission(Permission.MANAGE_SECURITY)
     public void addRolesToResourceGroup(Subject subject, int groupId, int[] roleIds) {
+        PermissionCache.getInstance().invalidate();
         if ((roleIds != null) && (roleIds.length > 0)) {
             ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
             if (group == null) {
@@ -19,6 +19,7 @@
 
 package org.rhq.enterprise.server.configuration;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
@@ -45,6 +46,7 @@ import com.google.common.collect.Iterables;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Hibernate;
+import org.jboss.ejb3.annotation.TransactionTimeout;
 import org.jetbrains.annotations.Nullable;
 import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
@@ -123,10 +125,12 @@ import org.rhq.enterprise.server.resource.ResourceNotFoundException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupNotFoundException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupUpdateException;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionChangeTracker;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
 import org.rhq.enterprise.server.util.CriteriaQuery;
 import org.rhq.enterprise.server.util.CriteriaQueryExecutor;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.QuartzUtil;
 
@@ -225,6 +229,7 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         // link to the newer, persisted configuration object -- regardless of errors
         resource.setAgentSynchronizationNeeded();
         resource.setPluginConfiguration(update.getConfiguration());
+        GroupDefinitionChangeTracker.getInstance().pluginConfigurationChanged(resource.getId());
 
         if (response.getStatus() == ConfigurationUpdateStatus.SUCCESS) {
             update.setStatus(ConfigurationUpdateStatus.SUCCESS);
@@ -332,6 +337,7 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
 
         resource.addPluginConfigurationUpdates(update);
         resource.setPluginConfiguration(update.getConfiguration());
+        GroupDefinitionChangeTracker.getInstance().pluginConfigurationChanged(resource.getId());
 
         entityManager.merge(update);
 
@@ -2466,6 +2472,23 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         return updates;
     }
 
+    @Override
+    @TransactionTimeout(6 * 60 * 60)
+    public int streamResourceConfigurationUpdatesByCriteria(Subject subject,
+        ResourceConfigurationUpdateCriteria criteria, String projection, CriteriaQueryRowHandler handler)
+        throws IOException {
+        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(subject, criteria);
+        if (!authorizationManager.isInventoryManager(subject)) {
+            generator.setAuthorizationResourceFragment(CriteriaQueryGenerator.AuthorizationTokenType.RESOURCE,
+                "resource", subject.getId());
+        }
+        generator.alterProjection(projection);
+
+        CriteriaQueryRunner<Object[]> queryRunner = new CriteriaQueryRunner<Object[]>(criteria, generator,
+            entityManager, false);
+        return queryRunner.scroll(handler);
+    }
+
     @Override
     public PageList<PluginConfigurationUpdate> findPluginConfigurationUpdatesByCriteria(Subject subject,
         PluginConfigurationUpdateCriteria criteria) {
@@ -19,6 +19,7 @@
 
 package org.rhq.enterprise.server.configuration;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -47,6 +48,8 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.configuration.job.GroupPluginConfigurationUpdateJob;
 import org.rhq.enterprise.server.resource.ResourceNotFoundException;
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
+import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 
 /**
  * The configuration manager which allows you to request resource configuration changes, view current resource
@@ -459,6 +462,24 @@ public interface ConfigurationManagerLocal extends ConfigurationManagerRemote {
     PageList<ResourceConfigurationUpdate> findResourceConfigurationUpdatesByCriteria(Subject subject,
         ResourceConfigurationUpdateCriteria criteria);
 
+    /**
+     * Streams the resource configuration updates matching the criteria to the handler, as rows of the given
+     * projection read through a forward-only database cursor, for exporting more of them than fit in memory.
+     * See {@link CriteriaQueryRunner#scroll(CriteriaQueryRowHandler)}.
+     * <p/>
+     * The transaction, and with it a database connection and the cursor, stays open until the handler has handled
+     * all rows, for up to six hours. A handler that writes to a slow client holds them for as long as the client takes.
+     *
+     * @param subject the user, who only gets to see updates of resources the user can view
+     * @param criteria the filters and sorting; paging is applied too
+     * @param projection the JPQL select list, using the criteria alias <code>resourceconfigurationupdate</code>
+     * @param handler receives the rows
+     * @return the number of rows
+     * @throws IOException if the handler failed
+     */
+    int streamResourceConfigurationUpdatesByCriteria(Subject subject, ResourceConfigurationUpdateCriteria criteria,
+        String projection, CriteriaQueryRowHandler handler) throws IOException;
+
     PageList<PluginConfigurationUpdate> findPluginConfigurationUpdatesByCriteria(Subject subject,
         PluginConfigurationUpdateCriteria criteria);
 
@@ -74,6 +74,7 @@ import org.rhq.enterprise.server.naming.NamingHack;
 import org.rhq.enterprise.server.plugin.pc.MasterServerPluginContainer;
 import org.rhq.enterprise.server.plugin.pc.ServerPluginServiceMBean;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
 import org.rhq.enterprise.server.scheduler.jobs.AsyncResourceDeleteJob;
 import org.rhq.enterprise.server.scheduler.jobs.CheckForSuspectedAgentsJob;
@@ -124,6 +125,9 @@ public class StartupBean implements StartupLocal {
     @EJB
     private ResourceTypeManagerLocal resourceTypeManager;
 
+    @EJB
+    private GroupDefinitionManagerLocal groupDefinitionManager;
+
     @EJB
     private SchedulerLocal schedulerBean;
 
@@ -646,6 +650,13 @@ public class StartupBean implements StartupLocal {
             log.error("Cannot schedule DynaGroup auto-recalculation job.", e);
         }
 
+        // DynaGroup incremental recalculation, per server
+        try {
+            groupDefinitionManager.scheduleIncrementalRecalculation();
+        } catch (Exception e) {
+            log.error("Cannot schedule DynaGroup incremental recalculation.", e);
+        }
+
         // Cluster Manager Job
         try {
             String oldJobName = "org.rhq.enterprise.server.scheduler.jobs.ClusterManagerJob";
@@ -22,7 +22,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -69,6 +68,7 @@ import org.rhq.enterprise.communications.ServiceContainerMetricsMBean;
 import org.rhq.enterprise.communications.command.client.ClientCommandSender;
 import org.rhq.enterprise.communications.command.client.ClientCommandSenderConfiguration;
 import org.rhq.enterprise.communications.command.client.ClientRemotePojoFactory;
+import org.rhq.enterprise.communications.command.client.SegmentedPersistentFifo;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
 import org.rhq.enterprise.communications.command.server.discovery.AutoDiscoveryListener;
 import org.rhq.enterprise.communications.util.ConcurrencyManager;
@@ -432,22 +432,18 @@ public class ServerCommunicationsService implements ServerCommunicationsServiceM
                 agent_client.stopSending();
             }
 
-            // purge the spool file, if it exists
+            // delete the spool, if it exists
             File spool_file = null;
 
             try {
                 ClientCommandSenderConfiguration sender_config = getSenderConfiguration(agent);
                 if (sender_config.commandSpoolFileName != null) {
                     spool_file = new File(sender_config.dataDirectory, sender_config.commandSpoolFileName);
-                    if (spool_file.exists()) {
-                        // first truncate it, in case Windows is locking it; then try to delete
-                        new FileOutputStream(spool_file, false).close();
-                        spool_file.delete();
-                    }
+                    SegmentedPersistentFifo.deleteSpool(spool_file);
                 }
             } catch (Exception e) {
-                LOG.warn("Failed to truncate/delete spool for deleted agent [" + agent + "]"
-                    + " please manually remove the file: " + spool_file, e);
+                LOG.warn("Failed to delete spool for deleted agent [" + agent + "]"
+                    + " please manually remove the file and its segments directory: " + spool_file, e);
             }
         }
 
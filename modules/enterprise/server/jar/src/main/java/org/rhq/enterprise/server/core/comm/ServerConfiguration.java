@@ -26,7 +26,7 @@ import mazz.i18n.Logger;
 
 import org.rhq.enterprise.communications.ServiceContainerConfiguration;
 import org.rhq.enterprise.communications.command.client.ClientCommandSenderConfiguration;
-import org.rhq.enterprise.communications.command.client.PersistentFifo;
+import org.rhq.enterprise.communications.command.client.SegmentedPersistentFifo;
 import org.rhq.enterprise.communications.command.client.RemoteInputStream;
 
 /**
@@ -247,8 +247,8 @@ public class ServerConfiguration {
 
     /**
      * Returns an array of command spool file parameters. The first element of the array is the maximum file size
-     * threshold. The second element is the purge percentage. See {@link PersistentFifo} for the meanings of these
-     * settings.
+     * threshold. The second element is the purge percentage. See {@link SegmentedPersistentFifo} for the meanings of
+     * these settings.
      *
      * <p>Because this is a weakly typed method (i.e. you have to know what the elements in the returned array
      * represent), it is recommended that you call {@link #getClientCommandSenderConfiguration()} because it will return
@@ -322,6 +322,19 @@ public class ServerConfiguration {
         return flag;
     }
 
+    /**
+     * Returns the number of commands spooled after which the command spool file is forced to disk. 0 means that this
+     * is left to the operating system.
+     *
+     * @return the command spool file sync interval
+     */
+    public int getClientSenderCommandSpoolFileSyncInterval() {
+        int value = m_preferences.getInt(ServerConfigurationConstants.CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL,
+            ServerConfigurationConstants.DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL);
+
+        return (value < 0) ? 0 : value;
+    }
+
     /**
      * Returns an array of send throttling parameters or <code>null</code> if send throttling is to be disabled. The
      * first element of the array is the maximum number of commands that can be sent before the quiet period must start.
@@ -472,6 +485,7 @@ public class ServerConfiguration {
         config.dataDirectory = getDataDirectory();
         config.serverPollingIntervalMillis = -1;
         config.commandSpoolFileCompressData = isClientSenderCommandSpoolFileCompressed();
+        config.commandSpoolFileSyncInterval = getClientSenderCommandSpoolFileSyncInterval();
         config.retryInterval = getClientSenderRetryInterval();
         config.maxRetries = getClientSenderMaxRetries();
         config.commandSpoolFileName = getClientSenderCommandSpoolFileName();
@@ -136,6 +136,18 @@ public interface ServerConfigurationConstants {
      */
     boolean DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_COMPRESSED = false;
 
+    /**
+     * Property that provides the number of spooled commands after which the spool file's data is forced to disk.
+     */
+    String CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL = PROPERTY_NAME_PREFIX
+        + "client.command-spool-file.sync-interval";
+
+    /**
+     * If the client sender command spool file sync interval is not specified, this is the default, which leaves
+     * writing the data to disk to the operating system.
+     */
+    int DEFAULT_CLIENT_SENDER_COMMAND_SPOOL_FILE_SYNC_INTERVAL = 0;
+
     /**
      * Property that provides the amount of time, in milliseconds, that the sender will pause before attempting to retry
      * a failed command whose delivery is to be guaranteed.
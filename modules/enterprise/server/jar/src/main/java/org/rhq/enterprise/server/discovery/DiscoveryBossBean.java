@@ -109,8 +109,10 @@ import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionChangeTracker;
 import org.rhq.enterprise.server.resource.metadata.PluginManagerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
+import org.rhq.enterprise.server.util.BatchIterator;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
@@ -173,6 +175,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
     @TransactionAttribute(TransactionAttributeType.NEVER)
     public MergeInventoryReportResults mergeInventoryReport(InventoryReport report)
         throws InvalidInventoryReportException {
+        long start = System.currentTimeMillis();
         validateInventoryReport(report);
 
         DeletedResourceTypeFilter filter = new DeletedResourceTypeFilter(subjectManager, resourceTypeManager,
@@ -192,7 +195,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
 
         Agent agent = report.getAgent();
-        long start = System.currentTimeMillis();
+        long validated = System.currentTimeMillis();
 
         Agent knownAgent = agentManager.getAgentByName(agent.getName());
         if (knownAgent == null) {
@@ -211,6 +214,9 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         LOG.debug(report);
 
         Map<String, ResourceType> allTypes = new HashMap<String, ResourceType>();
+        long typesMillis = 0L;
+        int mergedCount = 0;
+        int unchangedCount = 0;
 
         for (Resource root : roots) {
             // Make sure all platform, server, and service types are valid. Also, make sure they're fetched - otherwise
@@ -222,13 +228,16 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                     + "' installed that is not installed on the Server. Resource will be ignored...");
                 continue;
             }
+            typesMillis += System.currentTimeMillis() - rootStart;
 
             if (Resource.ROOT != root.getParentResource() && Resource.ROOT_ID == root.getParentResource().getId()) {
                 // This is a root resource. Just set it that way
                 root.setParentResource(Resource.ROOT);
             }
 
-            mergeResource(root, knownAgent);
+            int[] counts = mergeResource(root, knownAgent);
+            mergedCount += counts[0];
+            unchangedCount += counts[1];
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Root merged: resource/millis=" + root.getName() + '/'
@@ -237,6 +246,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
 
         allTypes = null; // maybe help GC? we don't need this anymore
+        long merged = System.currentTimeMillis();
 
         // Prepare the ResourceSyncInfo tree which contains all the info the PC needs to sync itself up with us.
         // The platform can be null in only one scenario.. a brand new agent has connected to the server
@@ -261,8 +271,17 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             results = null;
         }
 
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Inventory merge completed in (" + (System.currentTimeMillis() - start) + ")ms");
+        long end = System.currentTimeMillis();
+        if (LOG.isDebugEnabled() || (end - start) > 30000L) {
+            String msg = "Performance: inventory merge for agent [" + knownAgent.getName() + "] completed in ("
+                + (end - start) + ")ms: validate=" + (validated - start) + "ms, types=" + typesMillis + "ms, merge="
+                + (merged - validated - typesMillis) + "ms, sync=" + (end - merged) + "ms; resources reported="
+                + mergedCount + ", unchanged=" + unchangedCount;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(msg);
+            } else {
+                LOG.info(msg);
+            }
         }
 
         return results;
@@ -691,6 +710,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             } catch (ResourceAlreadyExistsException e) {
                 throw new IllegalStateException(e);
             }
+            GroupDefinitionChangeTracker.getInstance().inventoryChanged(resource.getId());
 
             mergeResourceResponse = new MergeResourceResponse(resource.getId(), resource.getCtime(), false);
         }
@@ -775,6 +795,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                     productVersion = productVersionManager.addProductVersion(resource.getResourceType(), newVersion);
                 }
                 resource.setProductVersion(productVersion);
+                GroupDefinitionChangeTracker.getInstance().inventoryChanged(resource.getId());
             }
         }
         return versionChanged;
@@ -816,6 +837,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
             if (allowGenericPropertiesUpgrade && needsUpgrade(resource.getName(), name)) {
                 resource.setName(name);
+                GroupDefinitionChangeTracker.getInstance().inventoryChanged(resource.getId());
                 logMessage.append("name, ");
                 ret.setUpgradedResourceName(resource.getName());
             }
@@ -901,9 +923,11 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
      * @param  resource       NotNull pojo, the resource to be merged, should have parent and children pojos set
      * @param  agent          NotNull detached entity, the agent that should be set on the resource being merged
      *
+     * @return the number of resources in the tree that were merged and, of those, the number that were unchanged
+     *
      * @throws InvalidInventoryReportException if a critical field in the resource is missing or invalid
      */
-    private void mergeResource(Resource resource, Agent agent) throws InvalidInventoryReportException {
+    private int[] mergeResource(Resource resource, Agent agent) throws InvalidInventoryReportException {
 
         long start = System.currentTimeMillis();
 
@@ -916,6 +940,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         // tree and chunk through it.  Parents must be merged before children, so use a breadth first approach.
         // NOTE: this will also strip out all resources that are to be ignored; thus, ignored resources won't get merged
         List<Resource> resourceList = treeToBreadthFirstList(resource);
+        int[] counts = { resourceList.size(), 0 };
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Preparing to merge [" + resourceList.size() + "] Resources with a batch size of ["
@@ -927,7 +952,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             int end = (MERGE_BATCH_SIZE < size) ? MERGE_BATCH_SIZE : size;
 
             List<Resource> resourceBatch = resourceList.subList(0, end);
-            discoveryBoss.mergeResourceInNewTransaction(resourceBatch, agent);
+            counts[1] += discoveryBoss.mergeResourceInNewTransaction(resourceBatch, agent);
 
             // Advance our progress and possibly help GC. This will remove the processed resources from the backing list
             resourceBatch.clear();
@@ -938,7 +963,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
                 + (System.currentTimeMillis() - start));
         }
 
-        return;
+        return counts;
     }
 
     private List<Resource> treeToBreadthFirstList(Resource resource) {
@@ -970,7 +995,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
     @Override
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void mergeResourceInNewTransaction(List<Resource> resourceBatch, Agent agent)
+    public int mergeResourceInNewTransaction(List<Resource> resourceBatch, Agent agent)
         throws InvalidInventoryReportException {
 
         long batchStart = System.currentTimeMillis();
@@ -978,7 +1003,16 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         // Cache parent resources we've already fetched from the DB, many resources will have the same parent
         Map<Integer, Resource> parentMap = new HashMap<Integer, Resource>();
 
+        // Most of a report is typically made of resources that are already in inventory and have not changed, e.g.
+        // the siblings of a newly discovered service or the whole platform after an agent restart. Diff the batch
+        // against inventory with a single query so that only new and changed resources are loaded and updated.
+        Set<Integer> unchangedIds = findUnchangedResourceIds(resourceBatch);
+
         for (Resource resource : resourceBatch) {
+            if (unchangedIds.contains(resource.getId())) {
+                continue;
+            }
+
             Resource existingResource = null;
             long start = System.currentTimeMillis();
 
@@ -1004,9 +1038,93 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
 
         if (isDebugEnabled) {
             long delta = (System.currentTimeMillis() - batchStart);
-            LOG.debug("Resource Batch merged: size/average/millis=" + resourceBatch.size() + "/" + delta
-                / resourceBatch.size() + "/" + delta);
+            LOG.debug("Resource Batch merged: size/unchanged/average/millis=" + resourceBatch.size() + "/"
+                + unchangedIds.size() + "/" + delta / resourceBatch.size() + "/" + delta);
         }
+
+        return unchangedIds.size();
+    }
+
+    /**
+     * <p>Requires A Transaction</p>
+     *
+     * Finds the reported resources that merging would leave untouched. A resource is unchanged if the agent reports
+     * it with the id of a resource in inventory that has the same uuid, key, parent and version, whose description
+     * would not be filled in and which is not marked as deleted - see
+     * {@link #updateExistingResource(Resource, Resource)}.
+     *
+     * @param resourceBatch pojos
+     * @return the ids of the unchanged resources
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Integer> findUnchangedResourceIds(List<Resource> resourceBatch) {
+        Set<Integer> unchangedIds = new HashSet<Integer>();
+
+        Map<Integer, Resource> reportedResources = new HashMap<Integer, Resource>(resourceBatch.size());
+        for (Resource resource : resourceBatch) {
+            if (resource.getId() > 0) {
+                reportedResources.put(resource.getId(), resource);
+            }
+        }
+        if (reportedResources.isEmpty()) {
+            return unchangedIds;
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(reportedResources.keySet());
+        for (List<Integer> idBatch : new BatchIterator<Integer>(ids)) {
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_MERGE_INFO_BY_IDS);
+            query.setParameter("ids", idBatch);
+            List<Object[]> rows = query.getResultList();
+            for (Object[] row : rows) {
+                Resource resource = reportedResources.get(row[0]);
+                if (null != resource && isUnchanged(resource, row)) {
+                    unchangedIds.add(resource.getId());
+                }
+            }
+        }
+
+        return unchangedIds;
+    }
+
+    /**
+     * @param resource pojo, as reported by the agent
+     * @param row the id, uuid, key, version, description, inventory status and parent id of the existing resource
+     * @return true if {@link #updateExistingResource(Resource, Resource)} would not change the existing resource
+     */
+    private boolean isUnchanged(Resource resource, Object[] row) {
+        InventoryStatus existingStatus = (InventoryStatus) row[5];
+        if (existingStatus == InventoryStatus.UNINVENTORIED) {
+            // an uninventoried resource is never updated
+            return true;
+        }
+        if (existingStatus == InventoryStatus.DELETED) {
+            return false;
+        }
+
+        if (!equal(resource.getUuid(), row[1]) || !equal(resource.getResourceKey(), row[2])) {
+            return false;
+        }
+
+        // we consider null and "" versions the same, just like updateResourceVersion does
+        String version = (null != resource.getVersion()) ? resource.getVersion() : "";
+        String existingVersion = (null != row[3]) ? (String) row[3] : "";
+        if (!version.equals(existingVersion)) {
+            return false;
+        }
+
+        if (null == row[4] && null != resource.getDescription()) {
+            return false;
+        }
+
+        // a different parent may mean the resource's type was moved and its existing parent has to be fixed
+        Resource parent = resource.getParentResource();
+        int parentId = (null != parent) ? parent.getId() : 0;
+        int existingParentId = (null != row[6]) ? (Integer) row[6] : 0;
+        return parentId == existingParentId;
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return (null == o1) ? (null == o2) : o1.equals(o2);
     }
 
     /**
@@ -1235,6 +1353,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
             existingResource.setInventoryStatus(InventoryStatus.COMMITTED);
             existingResource.setPluginConfiguration(updatedResource.getPluginConfiguration());
             existingResource.setAgentSynchronizationNeeded();
+            GroupDefinitionChangeTracker.getInstance().inventoryChanged(existingResource.getId());
         }
 
         return;
@@ -1352,6 +1471,9 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         resource.setModifiedBy(overlord.getName());
 
         setInventoryStatus(parentResource, resource);
+        if (resource.getInventoryStatus() == InventoryStatus.COMMITTED) {
+            GroupDefinitionChangeTracker.getInstance().inventoryChanged(resource.getId());
+        }
 
         // Extend implicit (recursive) group membership of the parent to the new child
         if (null != parentResource) {
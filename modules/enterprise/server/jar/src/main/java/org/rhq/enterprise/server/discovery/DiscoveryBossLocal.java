@@ -70,12 +70,14 @@ public interface DiscoveryBossLocal extends DiscoveryBossRemote {
      * <p>Exists for transactional boundary reasons only.</p>
      *
      * Merge In the provided batch of resources.  The list of resources must provide a parent before its child.
+     * Resources that are already in inventory and have not changed are skipped.
      *
      * @param resourceBatch
      * @param agent
+     * @return the number of resources in the batch that were unchanged
      * @throws InvalidInventoryReportException
      */
-    void mergeResourceInNewTransaction(List<Resource> resourceBatch, Agent agent)
+    int mergeResourceInNewTransaction(List<Resource> resourceBatch, Agent agent)
         throws InvalidInventoryReportException;
 
     /**
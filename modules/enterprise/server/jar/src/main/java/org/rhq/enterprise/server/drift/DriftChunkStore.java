@@ -0,0 +1,291 @@
+/*
+ * RHQ Management Platform
+ * Copyright 2014, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.drift;
+
+import static org.rhq.common.drift.ChunkedContent.CHUNK_ENTRY_PREFIX;
+import static org.rhq.common.drift.ChunkedContent.MANIFEST_ENTRY;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.common.drift.ChunkedContent;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.enterprise.server.util.LookupUtil;
+
+/**
+ * Stores the drift file chunks that agents send with chunked transfer, see {@link ChunkedContent}. Each chunk is a
+ * file named after its SHA-256 hash in the server data directory. The server rebuilds uploaded files from these
+ * chunks, so an agent only has to send the chunks of a file that changed.
+ * <p/>
+ * The store is a cache. Chunks are not shared between servers and chunks that have not been used for a while are
+ * purged along with the orphaned drift files. An agent simply sends the chunks the store does not have.
+ */
+public class DriftChunkStore {
+
+    private static final Log log = LogFactory.getLog(DriftChunkStore.class);
+
+    private static final String DIRECTORY = "drift-chunks";
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static volatile DriftChunkStore instance;
+
+    private final File dir;
+
+    /**
+     * @param dir the directory holding the chunks, created when needed
+     */
+    public DriftChunkStore(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return the chunk store in the data directory of this server
+     */
+    public static DriftChunkStore getInstance() {
+        if (instance == null) {
+            instance = new DriftChunkStore(new File(LookupUtil.getCoreServer().getJBossServerDataDir(), DIRECTORY));
+        }
+        return instance;
+    }
+
+    /**
+     * Looks up chunks. The chunks that are found are marked as used, so they are not purged before the agent sends
+     * the files they belong to.
+     *
+     * @param digests the SHA-256 hashes of the chunks
+     * @return the hashes of the chunks that are not in the store
+     */
+    public Set<String> findMissingChunks(Set<String> digests) {
+        Set<String> missing = new HashSet<String>();
+        long now = System.currentTimeMillis();
+        for (String digest : digests) {
+            File chunk = isValidDigest(digest) ? chunkFile(digest) : null;
+            if (chunk == null || !chunk.setLastModified(now)) {
+                missing.add(digest);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Stores the chunks of a chunked content zip file and rebuilds the files listed in its manifest. A file is left
+     * out if one of its chunks is missing or if the rebuilt content does not match its hash.
+     *
+     * @param chunkedZip a zip file in the {@link ChunkedContent} format
+     * @param leftOut receives the hashes of the files that were left out
+     * @return a temporary zip file in the regular content format, with an entry per file named after its hash, or
+     * null if no file could be rebuilt. The caller deletes the file.
+     */
+    public File assemble(File chunkedZip, Set<String> leftOut) throws IOException {
+        Map<String, List<String>> manifest = Collections.emptyMap();
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(chunkedZip),
+            BUFFER_SIZE));
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith(CHUNK_ENTRY_PREFIX)) {
+                    storeChunk(name.substring(CHUNK_ENTRY_PREFIX.length()), zis);
+                } else if (name.equals(MANIFEST_ENTRY)) {
+                    manifest = ChunkedContent.readManifest(zis);
+                } else {
+                    log.warn("Ignoring unexpected entry " + name + " in chunked content " + chunkedZip.getPath());
+                }
+            }
+        } finally {
+            zis.close();
+        }
+
+        File contentZip = null;
+        ZipOutputStream zos = null;
+        try {
+            for (Map.Entry<String, List<String>> file : manifest.entrySet()) {
+                if (!canAssemble(file.getKey(), file.getValue())) {
+                    leftOut.add(file.getKey());
+                    continue;
+                }
+                if (zos == null) {
+                    contentZip = File.createTempFile("drift-file", ".zip");
+                    zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(contentZip),
+                        BUFFER_SIZE));
+                }
+                zos.putNextEntry(new ZipEntry(file.getKey()));
+                for (String digest : file.getValue()) {
+                    copy(chunkFile(digest), zos);
+                }
+                zos.closeEntry();
+            }
+        } catch (IOException e) {
+            if (contentZip != null) {
+                DriftUtil.safeClose(zos);
+                zos = null;
+                contentZip.delete();
+            }
+            throw e;
+        } finally {
+            if (zos != null) {
+                zos.close();
+            }
+        }
+
+        return contentZip;
+    }
+
+    /**
+     * Removes the chunks that have not been stored or looked up since the given time.
+     *
+     * @return the number of chunks removed
+     */
+    public int purge(long purgeMillis) {
+        int count = 0;
+        File[] subdirs = dir.listFiles();
+        if (subdirs == null) {
+            return 0;
+        }
+        for (File subdir : subdirs) {
+            File[] chunks = subdir.listFiles();
+            if (chunks == null) {
+                continue;
+            }
+            for (File chunk : chunks) {
+                if (chunk.lastModified() < purgeMillis && chunk.delete()) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stores a chunk unless its content does not match the digest.
+     */
+    private void storeChunk(String digest, InputStream in) throws IOException {
+        if (!isValidDigest(digest)) {
+            log.warn("Ignoring chunk with invalid name " + digest);
+            return;
+        }
+        File chunk = chunkFile(digest);
+        File tempFile = new File(chunk.getPath() + ".tmp");
+        chunk.getParentFile().mkdirs();
+
+        MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digestGenerator.add(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!digest.equals(digestGenerator.getDigestString())) {
+            log.warn("Ignoring chunk " + digest + " since its content does not match its digest");
+            tempFile.delete();
+        } else if (!tempFile.renameTo(chunk)) {
+            // the chunk is already there, or was just stored by another upload
+            tempFile.delete();
+            chunk.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Checks that all chunks of the file are stored and add up to the file content.
+     */
+    private boolean canAssemble(String sha, List<String> digests) throws IOException {
+        MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (String digest : digests) {
+            File chunk = isValidDigest(digest) ? chunkFile(digest) : null;
+            if (chunk == null || !chunk.exists()) {
+                log.warn("Cannot rebuild drift file " + sha + ", chunk " + digest + " is missing");
+                return false;
+            }
+            InputStream in = new FileInputStream(chunk);
+            try {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digestGenerator.add(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        if (!sha.equals(digestGenerator.getDigestString())) {
+            log.warn("Cannot rebuild drift file " + sha + ", its chunks do not match its hash. The file probably "
+                + "changed while it was sent.");
+            return false;
+        }
+        return true;
+    }
+
+    private void copy(File chunk, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(chunk);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private File chunkFile(String digest) {
+        return new File(new File(dir, digest.substring(0, 2)), digest);
+    }
+
+    /**
+     * Digests name files in the store, so only accept what a SHA-256 hex string can look like.
+     */
+    private static boolean isValidDigest(String digest) {
+        if (digest.length() < 2 || digest.length() > 64) {
+            return false;
+        }
+        for (int i = 0; i < digest.length(); ++i) {
+            char c = digest.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -82,8 +82,13 @@ public class DriftFileBean implements MessageListener {
                         + "]");
                 }
 
-                driftManager.saveChangeSetContent(subjectManager.getOverlord(), request.getResourceId(), request
-                    .getDriftDefName(), request.getToken(), tempFile);
+                if (request.isChunked()) {
+                    driftManager.saveChunkedChangeSetContent(subjectManager.getOverlord(), request.getResourceId(),
+                        request.getDriftDefName(), request.getToken(), tempFile);
+                } else {
+                    driftManager.saveChangeSetContent(subjectManager.getOverlord(), request.getResourceId(), request
+                        .getDriftDefName(), request.getToken(), tempFile);
+                }
             } catch (IOException e) {
                 log.error(e);
 
@@ -82,6 +82,7 @@ import org.rhq.core.domain.drift.DriftSnapshot;
 import org.rhq.core.domain.drift.DriftSnapshotRequest;
 import org.rhq.core.domain.drift.FileDiffReport;
 import org.rhq.core.domain.drift.Filter;
+import org.rhq.core.domain.drift.JPADriftFile;
 import org.rhq.core.domain.drift.dto.DriftChangeSetDTO;
 import org.rhq.core.domain.drift.dto.DriftDTO;
 import org.rhq.core.domain.drift.dto.DriftFileDTO;
@@ -180,15 +181,31 @@ public class DriftManagerBean implements DriftManagerLocal, DriftManagerRemote {
     public void addFiles(Subject subject, int resourceId, String driftDefName, String token, long zipSize,
         InputStream zipStream) throws Exception {
         authorizeOrFail(subject, resourceId, "Can not update drifts");
+        sendFilesRequest(new DriftUploadRequest(resourceId, driftDefName, token, zipSize, zipStream));
+    }
+
+    @Override
+    @TransactionAttribute(REQUIRES_NEW)
+    public void addChunkedFiles(Subject subject, int resourceId, String driftDefName, String token, long zipSize,
+        InputStream zipStream) throws Exception {
+        authorizeOrFail(subject, resourceId, "Can not update drifts");
+        sendFilesRequest(new DriftUploadRequest(resourceId, driftDefName, token, zipSize, zipStream, true));
+    }
+
+    private void sendFilesRequest(DriftUploadRequest request) throws Exception {
         Connection connection = factory.createConnection();
         Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
         MessageProducer producer = session.createProducer(fileQueue);
-        ObjectMessage msg = session.createObjectMessage(new DriftUploadRequest(resourceId, driftDefName, token,
-            zipSize, zipStream));
+        ObjectMessage msg = session.createObjectMessage(request);
         producer.send(msg);
         connection.close();
     }
 
+    @Override
+    public Set<String> findMissingContentChunks(Subject subject, Set<String> chunkDigests) {
+        return DriftChunkStore.getInstance().findMissingChunks(chunkDigests);
+    }
+
     @Override
     @TransactionAttribute(NOT_SUPPORTED)
     public void saveChangeSetContent(Subject subject, int resourceId, String driftDefName, String token,
@@ -201,6 +218,39 @@ public class DriftManagerBean implements DriftManagerLocal, DriftManagerRemote {
         driftService.ackChangeSetContent(resourceId, driftDefName, token);
     }
 
+    @Override
+    @TransactionAttribute(NOT_SUPPORTED)
+    public void saveChunkedChangeSetContent(Subject subject, int resourceId, String driftDefName, String token,
+        File chunkedFilesZip) throws Exception {
+        authorizeOrFail(subject, resourceId, "Can not update drifts");
+        Set<String> leftOut = new HashSet<String>();
+        File changeSetFilesZip = DriftChunkStore.getInstance().assemble(chunkedFilesZip, leftOut);
+        if (changeSetFilesZip != null) {
+            try {
+                saveChangeSetFiles(subject, changeSetFilesZip);
+            } finally {
+                changeSetFilesZip.delete();
+            }
+        }
+
+        AgentClient agent = agentManager.getAgentClient(subjectManager.getOverlord(), resourceId);
+        DriftAgentService driftService = agent.getDriftAgentService();
+        if (leftOut.isEmpty()) {
+            driftService.ackChangeSetContent(resourceId, driftDefName, token);
+            return;
+        }
+
+        // The content is not acknowledged. The agent sends the files that could not be rebuilt again as whole files,
+        // which replaces the chunked content.
+        log.warn("Requesting " + leftOut.size() + " drift files for [resourceId: " + resourceId
+            + ", driftDefinitionName: " + driftDefName + "] again, they could not be rebuilt from their chunks");
+        List<JPADriftFile> driftFiles = new ArrayList<JPADriftFile>(leftOut.size());
+        for (String sha : leftOut) {
+            driftFiles.add(new JPADriftFile(sha));
+        }
+        driftService.resendDriftFiles(resourceId, driftDefName, token, driftFiles);
+    }
+
     @Override
     public void processRepeatChangeSet(int resourceId, String driftDefName, int version) {
         Subject overlord = subjectManager.getOverlord();
@@ -573,6 +623,10 @@ public class DriftManagerBean implements DriftManagerLocal, DriftManagerRemote {
     @Override
     @TransactionAttribute(NOT_SUPPORTED)
     public int purgeOrphanedDriftFiles(Subject subject, long purgeMillis) {
+        int purgedChunks = DriftChunkStore.getInstance().purge(purgeMillis);
+        if (purgedChunks > 0) {
+            log.info("Purged [" + purgedChunks + "] unused drift file chunks");
+        }
         DriftServerPluginFacet driftServerPlugin = getServerPlugin();
         return driftServerPlugin.purgeOrphanedDriftFiles(subject, purgeMillis);
     }
@@ -21,6 +21,7 @@ package org.rhq.enterprise.server.drift;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.Set;
 
 import javax.ejb.Local;
 
@@ -67,6 +68,25 @@ public interface DriftManagerLocal extends DriftManagerRemote {
     void addFiles(Subject subject, int resourceId, String driftDefName, String token, long zipSize,
         InputStream zipStream) throws Exception;
 
+    /**
+     * Like {@link #addFiles(Subject, int, String, String, long, InputStream)} for a zip in the
+     * {@link org.rhq.common.drift.ChunkedContent chunked} format. Upon successful upload of the zip, the files are
+     * rebuilt from their chunks and stored.
+     *
+     * @param resourceId The resource from which the drift file is being supplied.
+     * @param zipSize The size of the zip waiting to be streamed.
+     * @param zipStream The drift file chunks zip file stream
+     * @throws Exception
+     */
+    void addChunkedFiles(Subject subject, int resourceId, String driftDefName, String token, long zipSize,
+        InputStream zipStream) throws Exception;
+
+    /**
+     * @param chunkDigests The SHA-256 hashes of drift file chunks an agent is about to send
+     * @return The hashes of the chunks this server does not have
+     */
+    Set<String> findMissingContentChunks(Subject subject, Set<String> chunkDigests);
+
     /**
      * This is for internal use only - do not call it unless you know what you are doing.
      */
@@ -133,6 +153,14 @@ public interface DriftManagerLocal extends DriftManagerRemote {
     void saveChangeSetContent(Subject subject, int resourceId, String driftDefName, String token, File changeSetFilesZip)
         throws Exception;
 
+    /**
+     * Rebuilds the files of a chunked content zip from the stored chunks, stores them and acknowledges the content to
+     * the agent. If some files cannot be rebuilt, the content is not acknowledged; the agent is asked to send those
+     * files again as whole files instead.
+     */
+    void saveChunkedChangeSetContent(Subject subject, int resourceId, String driftDefName, String token,
+        File chunkedFilesZip) throws Exception;
+
     DriftChangeSetSummary saveChangeSet(Subject subject, int resourceId, File changeSetZip) throws Exception;
 
     void saveChangeSetFiles(Subject subject, File changeSetFilesZip) throws Exception;
@@ -71,6 +71,24 @@ public class DriftServerServiceImpl implements DriftServerService {
         }
     }
 
+    @Override
+    public void sendChunkedFilesZip(int resourceId, String driftDefinitionName, String token, long zipSize,
+        InputStream zipStream) {
+        try {
+            DriftManagerLocal driftManager = getDriftManager();
+            Subject overlord = getSubjectManager().getOverlord();
+            driftManager.addChunkedFiles(overlord, resourceId, driftDefinitionName, token, zipSize, zipStream);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Set<String> findMissingContentChunks(Set<String> chunkDigests) {
+        DriftManagerLocal driftManager = getDriftManager();
+        return driftManager.findMissingContentChunks(getSubjectManager().getOverlord(), chunkDigests);
+    }
+
     @Override
     public void repeatChangeSet(int resourceId, String driftDefName, int version) {
         DriftManagerLocal driftManager = getDriftManager();
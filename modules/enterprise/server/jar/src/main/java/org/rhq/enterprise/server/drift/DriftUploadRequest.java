@@ -35,17 +35,29 @@ public class DriftUploadRequest implements Serializable {
 
     private InputStream dataStream;
 
+    private boolean chunked;
+
     public DriftUploadRequest(int resourceId, long dataSize, InputStream dataStream) {
         this(resourceId, null, null, dataSize, dataStream);
     }
 
     public DriftUploadRequest(int resourceId, String driftDefName, String token, long dataSize,
         InputStream dataStream) {
+        this(resourceId, driftDefName, token, dataSize, dataStream, false);
+    }
+
+    /**
+     * @param chunked true if the data is drift file content in the
+     * {@link org.rhq.common.drift.ChunkedContent chunked} format
+     */
+    public DriftUploadRequest(int resourceId, String driftDefName, String token, long dataSize,
+        InputStream dataStream, boolean chunked) {
         this.resourceId = resourceId;
         this.driftDefName = driftDefName;
         this.token = token;
         this.dataSize = dataSize;
         this.dataStream = dataStream;
+        this.chunked = chunked;
     }
 
     public int getResourceId() {
@@ -67,4 +79,8 @@ public class DriftUploadRequest implements Serializable {
     public InputStream getDataStream() {
         return dataStream;
     }
+
+    public boolean isChunked() {
+        return chunked;
+    }
 }
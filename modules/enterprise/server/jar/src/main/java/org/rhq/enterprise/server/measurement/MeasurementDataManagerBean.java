@@ -100,6 +100,7 @@ import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.measurement.util.MeasurementDataManagerUtility;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionChangeTracker;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.storage.StorageClientManager;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
@@ -303,6 +304,19 @@ public class MeasurementDataManagerBean implements MeasurementDataManagerLocal,
                 // It is expected that some of these batch updates didn't update anything as the previous value was the same
             }
 
+            GroupDefinitionChangeTracker changeTracker = GroupDefinitionChangeTracker.getInstance();
+            if (changeTracker.isEnabled()) {
+                // only the traits whose values changed got inserted
+                List<Integer> changedScheduleIds = new ArrayList<Integer>();
+                int i = 0;
+                for (MeasurementDataTrait aData : data) {
+                    if (res[i++] != 0) {
+                        changedScheduleIds.add(aData.getScheduleId());
+                    }
+                }
+                changeTracker.traitsChanged(changedScheduleIds);
+            }
+
             notifyAlertConditionCacheManager("mergeMeasurementReport", data.toArray(new MeasurementData[data.size()]));
         } catch (SQLException e) {
             log.warn("Failure saving measurement trait data:\n" + ThrowableUtil.getAllMessages(e));
@@ -141,6 +141,7 @@ import org.rhq.enterprise.server.resource.disambiguation.DisambiguationUpdateStr
 import org.rhq.enterprise.server.resource.disambiguation.Disambiguator;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionChangeTracker;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
@@ -256,7 +257,9 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         // On name change make sure we update the ancestry as the name is part of the ancestry string
         if (!persistedResource.getName().equals(resource.getName())) {
             persistedResource.setName(resource.getName());
+            prefetchDescendants(persistedResource.getId());
             updateAncestry(persistedResource);
+            GroupDefinitionChangeTracker.getInstance().inventoryChanged(persistedResource.getId());
         }
         persistedResource.setLocation(resource.getLocation());
         persistedResource.setDescription(resource.getDescription());
@@ -819,6 +822,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         resource.setInventoryStatus(newStatus);
         resource.setItime(now);
         resource.setAgentSynchronizationNeeded();
+        GroupDefinitionChangeTracker.getInstance().inventoryChanged(resource.getId());
     }
 
     @SuppressWarnings("unchecked")
@@ -920,20 +924,49 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
     }
 
     // lineage is a getXXX (not findXXX) because it logically returns a single object, but modeled as a list here
+    @SuppressWarnings("unchecked")
     public List<Integer> getResourceIdLineage(int resourceId) {
-        List<Integer> lineage = new ArrayList<Integer>();
+        List<Integer> lineage = null;
+        Query query = null;
+
+        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+        if (DatabaseTypeFactory.isOracle(dbType)) {
+            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_ANCESTORS_ORACLE);
+
+        } else if (DatabaseTypeFactory.isPostgres(dbType)) {
+            query = entityManager.createNativeQuery(Resource.QUERY_NATIVE_FIND_ANCESTORS_POSTGRES);
+
+        } else {
+            // no recursive query support, walk up the hierarchy one parent at a time
+            lineage = new ArrayList<Integer>();
+            Integer child = resourceId;
+            Integer parent = null;
+            while ((parent = getParentResourceId(child)) != null) {
+                lineage.add(parent);
+                child = parent;
+            }
 
-        Integer child = resourceId;
-        Integer parent = null;
-        while ((parent = getParentResourceId(child)) != null) {
-            lineage.add(parent);
-            child = parent;
+            return lineage;
+        }
+
+        query.setParameter("resourceId", resourceId);
+
+        if (DatabaseTypeFactory.isOracle(dbType)) {
+            List<?> rl = query.getResultList();
+            lineage = new ArrayList<Integer>(rl.size());
+            for (Object id : rl) {
+                lineage.add(dbType.getInteger(id));
+            }
+        } else {
+            // native Integer support
+            lineage = query.getResultList();
         }
 
         return lineage;
     }
 
     // lineage is a getXXX (not findXXX) because it logically returns a single object, but modeled as a list here
+    @SuppressWarnings("unchecked")
     public List<Resource> getResourceLineage(int resourceId) {
         LinkedList<Resource> resourceLineage = new LinkedList<Resource>();
         Resource resource = entityManager.find(Resource.class, resourceId);
@@ -942,11 +975,24 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         }
 
         resourceLineage.add(resource);
-        int childResourceId = resourceId;
-        Resource parent;
-        while ((parent = getParentResource(childResourceId)) != null) {
-            resourceLineage.addFirst(parent);
-            childResourceId = parent.getId(); // This also ensures Hibernate actually populates parent's fields.
+
+        // fetch all the ancestors at once rather than one parent at a time
+        List<Integer> ancestorIds = getResourceIdLineage(resourceId);
+        if (!ancestorIds.isEmpty()) {
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_BY_IDS_ADMIN);
+            query.setParameter("ids", ancestorIds);
+            List<Resource> ancestors = query.getResultList();
+
+            Map<Integer, Resource> ancestorsById = new HashMap<Integer, Resource>(ancestors.size());
+            for (Resource ancestor : ancestors) {
+                ancestorsById.put(ancestor.getId(), ancestor);
+            }
+            for (Integer ancestorId : ancestorIds) {
+                Resource ancestor = ancestorsById.get(ancestorId);
+                if (ancestor != null) {
+                    resourceLineage.addFirst(ancestor);
+                }
+            }
         }
 
         return resourceLineage;
@@ -2187,6 +2233,9 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         Subject overlord = subjectManager.getOverlord();
         Resource root = getResourceById(overlord, rootResourceId);
         if (root != null) {
+            if (recursive) {
+                prefetchDescendants(rootResourceId);
+            }
             prefetchResource(root, recursive);
             // load the parent - note we only load the root resource's parent
             if (root.getParentResource() != null) {
@@ -2514,6 +2563,21 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         }
     }
 
+    /**
+     * Loads the whole subtree of the resource, with the plugin configurations and child resources, in a few bulk
+     * queries, so that walking the subtree afterwards does not issue queries node by node.
+     */
+    private void prefetchDescendants(int resourceId) {
+        List<Integer> descendantIds = getDescendents(resourceId);
+
+        for (int i = 0; i < descendantIds.size(); i += 1000) {
+            int j = Math.min(i + 1000, descendantIds.size());
+            Query query = entityManager.createNamedQuery(Resource.QUERY_FIND_WITH_CHILDREN_BY_IDS_ADMIN);
+            query.setParameter("ids", descendantIds.subList(i, j));
+            query.getResultList();
+        }
+    }
+
     private void prefetchResource(Resource resource, boolean recursive) {
         if (resource == null) {
             return; // Nothing to do on invalid input
@@ -2848,6 +2912,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
             throw new ResourceNotFoundException(resourceId);
         }
 
+        prefetchDescendants(resourceId);
         updateAncestry(resource);
     }
 
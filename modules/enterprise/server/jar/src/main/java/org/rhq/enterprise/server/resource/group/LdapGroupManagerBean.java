@@ -63,6 +63,7 @@ import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.enterprise.server.authz.PermissionCache;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.exception.LdapCommunicationException;
 import org.rhq.enterprise.server.exception.LdapFilterException;
@@ -281,6 +282,7 @@ public class LdapGroupManagerBean implements LdapGroupManagerLocal {
     }
 
     public void assignRolesToLdapSubject(int subjectId, List<String> ldapGroupNames) {
+        PermissionCache.getInstance().invalidateSubject(subjectId);
         Subject sub = entityManager.find(Subject.class, subjectId);
         List<Role> roles = findRolesByLdapGroupNames(ldapGroupNames);
         sub.getRoles().clear();
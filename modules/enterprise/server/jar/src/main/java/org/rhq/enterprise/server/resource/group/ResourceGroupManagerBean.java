@@ -84,6 +84,7 @@ import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.alert.GroupAlertDefinitionManagerLocal;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
+import org.rhq.enterprise.server.authz.PermissionCache;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.operation.OperationManagerLocal;
@@ -189,6 +190,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public ResourceGroup updateResourceGroup(Subject user, ResourceGroup group, RecursivityChangeType changeType,
         boolean updateMembership) throws ResourceGroupUpdateException {
+        PermissionCache.getInstance().invalidate();
 
         int groupId = group.getId();
         ResourceGroup attachedGroup = entityManager.find(ResourceGroup.class, groupId);
@@ -292,6 +294,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void deleteResourceGroup(Subject subject, int groupId) throws ResourceGroupNotFoundException,
         ResourceGroupDeleteException {
+        PermissionCache.getInstance().invalidate();
         ResourceGroup group = getResourceGroupById(subject, groupId, null);
 
         // create a copy of the collection in order to avoid ConcurrentModificationException
@@ -444,6 +447,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     }
 
     private void addResourcesToGroup(Subject subject, int groupId, int[] resourceIds, boolean setType) {
+        PermissionCache.getInstance().invalidate();
         Integer[] ids = ArrayUtils.wrapInArray(resourceIds);
         if (ids == null || ids.length == 0) {
             return;
@@ -595,6 +599,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     }
 
     private void removeResourcesFromGroup(Subject subject, int groupId, int[] resourceIds, boolean setType) {
+        PermissionCache.getInstance().invalidate();
         Integer[] ids = ArrayUtils.wrapInArray(resourceIds);
         if (ids == null || ids.length == 0) {
             return;
@@ -693,6 +698,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void removeAllResourcesFromGroup(Subject subject, int groupId) throws ResourceGroupDeleteException {
+        PermissionCache.getInstance().invalidate();
         Connection conn = null;
         PreparedStatement explicitStatement = null;
         PreparedStatement implicitStatement = null;
@@ -814,6 +820,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             resourceIdsToAdd.add(next.getId());
             toBeSearched.addAll(next.getChildResources());
         }
+        PermissionCache.getInstance().invalidateResources(resourceIdsToAdd);
 
         /*
          * now add this resource and all of its descendants to whatever recursive groups it's parent is already in
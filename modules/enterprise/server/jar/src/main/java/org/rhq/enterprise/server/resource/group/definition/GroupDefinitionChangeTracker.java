@@ -0,0 +1,290 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.resource.group.definition;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.rhq.core.domain.auth.Subject;
+
+/**
+ * Collects the changes made on this server that can change the membership of resources in DynaGroups: inventory
+ * changes (resources that got committed or renamed or changed their version), changed trait values and plugin
+ * configuration updates. {@link GroupDefinitionManagerLocal#recalculateDynaGroupsIncrementally(Subject)} periodically
+ * {@link #drain() drains} the changes and only evaluates the changed resources again, instead of
+ * recalculating the whole membership of the groups.
+ * <p>
+ * The changes are recorded before the transactions that make them are committed. So that they are not evaluated
+ * before they are visible, changes are only handed out by the drain after the one following their recording, and
+ * once more by the drain after that, for the transactions that took longer to commit. Changes that could not be
+ * applied are {@link #requeue(Changes) requeued}.
+ * <p>
+ * Incremental maintenance is enabled cluster wide with the
+ * {@link org.rhq.core.domain.common.composite.SystemSetting#DYNAGROUP_INCREMENTAL_RECALCULATION_ENABLED} system
+ * setting, which every server applies with {@link #setEnabled(boolean)}. Nothing is recorded while it is disabled. If
+ * more than <code>rhq.server.dynagroup.incremental.max-changes</code> changes pile up, the changes are dropped and the
+ * next drain asks for a full recalculation instead. Since changes made by other servers, changes of transactions that
+ * took even longer to commit and changes that were lost on a restart are not seen at all, group definitions that are
+ * maintained incrementally are still recalculated in full every
+ * <code>rhq.server.dynagroup.incremental.full-recalculation-interval</code> milliseconds, or their own recalculation
+ * interval, whichever is longer.
+ *
+ * <p>This object is a {@link #getInstance() singleton}.</p>
+ */
+public final class GroupDefinitionChangeTracker {
+
+    private static final int MAX_CHANGES;
+    private static final long FULL_RECALCULATION_INTERVAL;
+
+    /*
+     * how long after enabling the changes are known to be recorded by all servers; they reload the system settings
+     * every minute and apply them from their incremental recalculation timer, which also fires every minute
+     */
+    private static final long ENABLING_DELAY = 5L * 60 * 1000;
+
+    static {
+        int maxChanges = 100000;
+        try {
+            maxChanges = Integer.parseInt(System.getProperty("rhq.server.dynagroup.incremental.max-changes",
+                "100000"));
+        } catch (Throwable t) {
+            //
+        }
+        MAX_CHANGES = maxChanges;
+
+        long fullRecalculationInterval = 24L * 60 * 60 * 1000;
+        try {
+            fullRecalculationInterval = Long.parseLong(System.getProperty(
+                "rhq.server.dynagroup.incremental.full-recalculation-interval", "86400000"));
+        } catch (Throwable t) {
+            //
+        }
+        FULL_RECALCULATION_INTERVAL = fullRecalculationInterval;
+    }
+
+    private static final GroupDefinitionChangeTracker INSTANCE = new GroupDefinitionChangeTracker(MAX_CHANGES);
+
+    /**
+     * The changes recorded between two drains.
+     */
+    public static final class Changes {
+        private final Set<Integer> inventoryResourceIds = new HashSet<Integer>();
+        private final Set<Integer> traitScheduleIds = new HashSet<Integer>();
+        private final Set<Integer> pluginConfigurationResourceIds = new HashSet<Integer>();
+        private boolean overflowed = false;
+
+        /**
+         * @return the resources whose inventory data changed
+         */
+        public Set<Integer> getInventoryResourceIds() {
+            return inventoryResourceIds;
+        }
+
+        /**
+         * @return the schedules of the traits whose values changed
+         */
+        public Set<Integer> getTraitScheduleIds() {
+            return traitScheduleIds;
+        }
+
+        /**
+         * @return the resources whose plugin configuration changed
+         */
+        public Set<Integer> getPluginConfigurationResourceIds() {
+            return pluginConfigurationResourceIds;
+        }
+
+        /**
+         * @return whether there were too many changes to record, in which case the groups have to be recalculated in
+         * full
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        public boolean isEmpty() {
+            return !overflowed && inventoryResourceIds.isEmpty() && traitScheduleIds.isEmpty()
+                && pluginConfigurationResourceIds.isEmpty();
+        }
+
+        private void addAll(Changes changes, int maxChanges) {
+            if (changes.overflowed) {
+                overflow();
+                return;
+            }
+            for (Integer resourceId : changes.inventoryResourceIds) {
+                add(inventoryResourceIds, resourceId, maxChanges);
+            }
+            for (Integer scheduleId : changes.traitScheduleIds) {
+                add(traitScheduleIds, scheduleId, maxChanges);
+            }
+            for (Integer resourceId : changes.pluginConfigurationResourceIds) {
+                add(pluginConfigurationResourceIds, resourceId, maxChanges);
+            }
+        }
+
+        private void add(Set<Integer> ids, int id, int maxChanges) {
+            if (overflowed) {
+                return;
+            }
+            ids.add(id);
+            int size = inventoryResourceIds.size() + traitScheduleIds.size() + pluginConfigurationResourceIds.size();
+            if (size > maxChanges) {
+                overflow();
+            }
+        }
+
+        private void overflow() {
+            inventoryResourceIds.clear();
+            traitScheduleIds.clear();
+            pluginConfigurationResourceIds.clear();
+            overflowed = true;
+        }
+    }
+
+    private final int maxChanges;
+
+    private volatile boolean enabled = false;
+    private long enabledTime;
+
+    private Changes recording = new Changes();
+    private Changes settling = new Changes();
+    private Changes rechecking = new Changes();
+
+    GroupDefinitionChangeTracker(int maxChanges) {
+        this.maxChanges = maxChanges;
+    }
+
+    public static GroupDefinitionChangeTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return whether DynaGroups are maintained incrementally
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts or stops recording changes, following the system setting. Stopping forgets the changes recorded so far.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            enabledTime = System.currentTimeMillis();
+        } else if (!enabled && this.enabled) {
+            recording = new Changes();
+            settling = new Changes();
+            rechecking = new Changes();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return whether all servers have been recording changes since the given time, so that a group definition that
+     * was fully calculated at that time can be maintained incrementally from then on
+     */
+    public synchronized boolean isEnabledSince(long time) {
+        return enabled && enabledTime + ENABLING_DELAY <= time;
+    }
+
+    /**
+     * @return how long group definitions that are maintained incrementally go without a full recalculation
+     */
+    public long getFullRecalculationInterval() {
+        return FULL_RECALCULATION_INTERVAL;
+    }
+
+    /**
+     * Records that the resource was committed to inventory, renamed, or changed its version.
+     */
+    public void inventoryChanged(int resourceId) {
+        if (enabled) {
+            synchronized (this) {
+                recording.add(recording.inventoryResourceIds, resourceId, maxChanges);
+            }
+        }
+    }
+
+    /**
+     * Records that the values of the traits with the given schedules changed.
+     */
+    public void traitsChanged(Collection<Integer> scheduleIds) {
+        if (enabled) {
+            synchronized (this) {
+                for (Integer scheduleId : scheduleIds) {
+                    recording.add(recording.traitScheduleIds, scheduleId, maxChanges);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the plugin configuration of the resource changed.
+     */
+    public void pluginConfigurationChanged(int resourceId) {
+        if (enabled) {
+            synchronized (this) {
+                recording.add(recording.pluginConfigurationResourceIds, resourceId, maxChanges);
+            }
+        }
+    }
+
+    /**
+     * Returns the changes recorded before the previous drain, along with the ones it returned itself. Changes are not
+     * returned anymore after that.
+     *
+     * @return the changes, never <code>null</code>
+     */
+    public synchronized Changes drain() {
+        Changes drained = new Changes();
+        drained.addAll(settling, maxChanges);
+        drained.addAll(rechecking, maxChanges);
+        rechecking = settling;
+        settling = recording;
+        recording = new Changes();
+        return drained;
+    }
+
+    /**
+     * Hands drained changes out again with the next drain, because they could not be applied.
+     */
+    public void requeue(Changes changes) {
+        if (enabled) {
+            synchronized (this) {
+                settling.addAll(changes, maxChanges);
+            }
+        }
+    }
+
+    /**
+     * Hands the resources out again with the next drain, as if their inventory changed, because the changes could
+     * not be applied to them.
+     */
+    public void requeue(Collection<Integer> resourceIds) {
+        if (enabled) {
+            synchronized (this) {
+                for (Integer resourceId : resourceIds) {
+                    settling.add(settling.inventoryResourceIds, resourceId, maxChanges);
+                }
+            }
+        }
+    }
+}
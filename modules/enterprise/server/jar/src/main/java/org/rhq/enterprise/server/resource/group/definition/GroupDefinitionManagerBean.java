@@ -20,12 +20,19 @@ package org.rhq.enterprise.server.resource.group.definition;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
@@ -38,6 +45,7 @@ import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.authz.Permission;
+import org.rhq.core.domain.common.composite.SystemSetting;
 import org.rhq.core.domain.criteria.ResourceGroupDefinitionCriteria;
 import org.rhq.core.domain.resource.group.GroupDefinition;
 import org.rhq.core.domain.resource.group.ResourceGroup;
@@ -61,10 +69,12 @@ import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefini
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionNotFoundException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionUpdateException;
+import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionDependencies;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
 import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.enterprise.server.resource.group.definition.mbean.GroupDefinitionRecalculationThreadMonitor;
 import org.rhq.enterprise.server.resource.group.definition.mbean.GroupDefinitionRecalculationThreadMonitorMBean;
+import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 
@@ -90,6 +100,12 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
     @EJB
     private AuthorizationManagerLocal authorizationManager;
 
+    @EJB
+    private SystemManagerLocal systemManager;
+
+    @Resource
+    private TimerService timerService;
+
     @SuppressWarnings("unchecked")
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void recalculateDynaGroups(Subject subject) {
@@ -103,9 +119,14 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         }
 
         GroupDefinitionRecalculationThreadMonitorMBean monitor = GroupDefinitionRecalculationThreadMonitor.getMBean();
+        boolean incremental = isIncrementalRecalculationEnabled();
 
         long totalStart = System.currentTimeMillis();
         for (Integer groupDefinitionId : groupDefinitionIdsToRecalculate) {
+            if (incremental && isMaintainedIncrementally(groupDefinitionId, totalStart)) {
+                continue; // kept up to date by recalculateDynaGroupsIncrementally until its next full recalculation
+            }
+
             long singleStart = System.currentTimeMillis();
             boolean success = false;
             try {
@@ -133,6 +154,215 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         monitor.updateAutoRecalculationThreadTime(totalEnd - totalStart);
     }
 
+    public void scheduleIncrementalRecalculation() {
+        /* each time the webapp is reloaded, it would create
+         * duplicate events if we don't cancel the existing ones
+         */
+        Collection<Timer> timers = timerService.getTimers();
+        for (Timer existingTimer : timers) {
+            log.debug("Found timer - attempting to cancel: " + existingTimer.toString());
+            try {
+                existingTimer.cancel();
+            } catch (Exception e) {
+                log.warn("Failed in attempting to cancel timer: " + existingTimer.toString());
+            }
+        }
+
+        // start recording changes right away if enabled, the timer follows later changes of the setting
+        isIncrementalRecalculationEnabled();
+
+        // not a clustered quartz job, each server applies the changes it has seen itself
+        timerService.createIntervalTimer(60000L, 60000L, new TimerConfig(null, false));
+    }
+
+    @Timeout
+    public void handleIncrementalRecalculationTimer(Timer timer) {
+        try {
+            groupDefinitionManager.recalculateDynaGroupsIncrementally(subjectManager.getOverlord());
+        } catch (Throwable t) {
+            log.error("Failed to incrementally recalculate DynaGroups - will try again later. Cause: " + t);
+        }
+    }
+
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    public void recalculateDynaGroupsIncrementally(Subject subject) {
+        if (!isIncrementalRecalculationEnabled()) {
+            return;
+        }
+
+        GroupDefinitionChangeTracker tracker = GroupDefinitionChangeTracker.getInstance();
+        GroupDefinitionChangeTracker.Changes changes = tracker.drain();
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            recalculateDynaGroupsIncrementally(subject, changes);
+        } catch (RuntimeException e) {
+            tracker.requeue(changes);
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recalculateDynaGroupsIncrementally(Subject subject, GroupDefinitionChangeTracker.Changes changes) {
+        Query query = entityManager.createNamedQuery(GroupDefinition.QUERY_FIND_ALL_RECALCULATING);
+        List<GroupDefinition> groupDefinitions = query.getResultList();
+
+        Map<String, Set<Integer>> resourceIdsByTraitName = null; // only resolved if a definition depends on traits
+
+        // what could not be applied is handed out again by the next drain
+        boolean failed = false;
+        Set<Integer> failedResourceIds = new HashSet<Integer>();
+
+        long startTime = System.currentTimeMillis();
+        int recalculated = 0;
+        for (GroupDefinition groupDefinition : groupDefinitions) {
+            ExpressionDependencies dependencies = getDependencies(groupDefinition);
+            if (dependencies == null || !dependencies.isIncremental()) {
+                continue; // recalculated in full at its recalculation interval
+            }
+
+            int groupDefinitionId = groupDefinition.getId();
+            if (changes.isOverflowed()) {
+                try {
+                    groupDefinitionManager.calculateGroupMembership(subject, groupDefinitionId);
+                    recalculated++;
+                } catch (Throwable t) {
+                    log.error("Error recalculating DynaGroups for GroupDefinition[id=" + groupDefinitionId + "]", t);
+                    failed = true;
+                }
+                continue;
+            }
+
+            List<Integer> resourceIdList = null;
+            int fromIndex = 0;
+            try {
+                Set<Integer> resourceIds = new HashSet<Integer>(changes.getInventoryResourceIds());
+                if (dependencies.dependsOnPluginConfiguration()) {
+                    resourceIds.addAll(changes.getPluginConfigurationResourceIds());
+                }
+                if (!changes.getTraitScheduleIds().isEmpty()) {
+                    if (resourceIdsByTraitName == null) {
+                        resourceIdsByTraitName = getResourceIdsByTraitName(changes.getTraitScheduleIds());
+                    }
+                    for (Map.Entry<String, Set<Integer>> trait : resourceIdsByTraitName.entrySet()) {
+                        if (dependencies.dependsOnTrait(trait.getKey())) {
+                            resourceIds.addAll(trait.getValue());
+                        }
+                    }
+                }
+                if (resourceIds.isEmpty()) {
+                    continue;
+                }
+
+                // one batch at a time, for the IN clause and to help prevent xaction timeouts
+                resourceIdList = new ArrayList<Integer>(resourceIds);
+                for (; fromIndex < resourceIdList.size(); fromIndex += 1000) {
+                    int toIndex = Math.min(fromIndex + 1000, resourceIdList.size());
+                    groupDefinitionManager.calculateGroupMembershipIncrementally(subject, groupDefinitionId,
+                        new ArrayList<Integer>(resourceIdList.subList(fromIndex, toIndex)));
+                }
+                recalculated++;
+            } catch (Throwable t) {
+                // as for full recalculations, give all the other definitions a chance to be updated
+                log.error("Error incrementally recalculating DynaGroups for GroupDefinition[id=" + groupDefinitionId
+                    + "]", t);
+                if (resourceIdList != null) {
+                    // the batches before the failed one are committed
+                    failedResourceIds.addAll(resourceIdList.subList(fromIndex, resourceIdList.size()));
+                } else {
+                    failed = true;
+                }
+            }
+        }
+
+        GroupDefinitionChangeTracker tracker = GroupDefinitionChangeTracker.getInstance();
+        if (failed) {
+            tracker.requeue(changes);
+        } else if (!failedResourceIds.isEmpty()) {
+            tracker.requeue(failedResourceIds);
+        }
+
+        long endTime = System.currentTimeMillis();
+
+        if (log.isDebugEnabled()) {
+            log.debug("recalculateDynaGroupsIncrementally updated " + recalculated + " group definitions in "
+                + (endTime - startTime) + " millis");
+        }
+    }
+
+    /*
+     * applies the system setting to the change tracker of this server, which is how all servers of the cluster follow
+     * the setting
+     */
+    private boolean isIncrementalRecalculationEnabled() {
+        String setting = systemManager.getUnmaskedSystemSettings(true).get(
+            SystemSetting.DYNAGROUP_INCREMENTAL_RECALCULATION_ENABLED);
+        boolean enabled = Boolean.parseBoolean(setting);
+        GroupDefinitionChangeTracker.getInstance().setEnabled(enabled);
+        return enabled;
+    }
+
+    /*
+     * whether the group definition is kept up to date incrementally and doesn't need a full recalculation yet;
+     * those still get one every now and then for the changes the incremental updates did not see, and after
+     * incremental maintenance was enabled, for the changes that were not recorded before
+     */
+    private boolean isMaintainedIncrementally(int groupDefinitionId, long now) {
+        GroupDefinition groupDefinition = entityManager.find(GroupDefinition.class, groupDefinitionId);
+        if (groupDefinition == null || groupDefinition.getLastCalculationTime() == null) {
+            return false;
+        }
+        if (!GroupDefinitionChangeTracker.getInstance().isEnabledSince(groupDefinition.getLastCalculationTime())) {
+            return false;
+        }
+        long fullRecalculationInterval = GroupDefinitionChangeTracker.getInstance().getFullRecalculationInterval();
+        if (groupDefinition.getLastCalculationTime() + fullRecalculationInterval < now) {
+            return false;
+        }
+        ExpressionDependencies dependencies = getDependencies(groupDefinition);
+        return dependencies != null && dependencies.isIncremental();
+    }
+
+    private ExpressionDependencies getDependencies(GroupDefinition groupDefinition) {
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        try {
+            for (String expression : groupDefinition.getExpressionAsList()) {
+                evaluator.addExpression(expression);
+            }
+        } catch (InvalidExpressionException e) {
+            return null;
+        }
+        return evaluator.getDependencies();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Set<Integer>> getResourceIdsByTraitName(Set<Integer> scheduleIds) {
+        Map<String, Set<Integer>> resourceIdsByTraitName = new HashMap<String, Set<Integer>>();
+
+        Query query = entityManager.createQuery("" //
+            + "SELECT ms.definition.name, ms.resource.id " //
+            + "  FROM MeasurementSchedule ms " //
+            + " WHERE ms.id IN ( :scheduleIds )");
+        List<Integer> scheduleIdList = new ArrayList<Integer>(scheduleIds);
+        for (int fromIndex = 0; fromIndex < scheduleIdList.size(); fromIndex += 1000) {
+            int toIndex = Math.min(fromIndex + 1000, scheduleIdList.size());
+            query.setParameter("scheduleIds", scheduleIdList.subList(fromIndex, toIndex));
+            for (Object[] row : (List<Object[]>) query.getResultList()) {
+                String traitName = (String) row[0];
+                Set<Integer> resourceIds = resourceIdsByTraitName.get(traitName);
+                if (resourceIds == null) {
+                    resourceIds = new HashSet<Integer>();
+                    resourceIdsByTraitName.put(traitName, resourceIds);
+                }
+                resourceIds.add((Integer) row[1]);
+            }
+        }
+
+        return resourceIdsByTraitName;
+    }
+
     public GroupDefinition getById(int groupDefinitionId) throws GroupDefinitionNotFoundException {
         GroupDefinition groupDefinition = entityManager.find(GroupDefinition.class, groupDefinitionId);
         if (groupDefinition == null) {
@@ -357,11 +587,73 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         log.debug("calculateGroupMembership took " + (endTime - startTime) + " millis");
     }
 
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void calculateGroupMembershipIncrementally(Subject subject, int groupDefinitionId,
+        Collection<Integer> resourceIds) throws ResourceGroupDeleteException, GroupDefinitionDeleteException,
+        GroupDefinitionNotFoundException, InvalidExpressionException, ResourceGroupUpdateException {
+        long startTime = System.currentTimeMillis();
+
+        GroupDefinition groupDefinition = getById(groupDefinitionId);
+
+        ExpressionEvaluator evaluator = new ExpressionEvaluator();
+        for (String expression : groupDefinition.getExpressionAsList()) {
+            evaluator.addExpression(expression);
+        }
+        evaluator.restrictToResources(resourceIds);
+
+        /*
+         * the managed groups that contain any of the resources so far; whatever is left of them after looping over
+         * the results lost some of the resources, either because they no longer match or moved to another groupby
+         * tuple
+         */
+        Set<Integer> formerResourceGroupIds = new HashSet<Integer>(getManagedResourceGroupIdsForResources(
+            groupDefinitionId, resourceIds));
+
+        for (ExpressionEvaluator.Result result : evaluator) {
+            if (result == null || result.getData().isEmpty()) {
+                /*
+                 * none of the resources belongs to this group, don't create it if it doesn't exist yet; if it does,
+                 * the resources are removed from it below
+                 */
+                continue;
+            }
+
+            Integer nextResourceGroupId = groupDefinitionManager.calculateGroupMembership_helper(subject,
+                groupDefinitionId, result, resourceIds);
+            resourceGroupManager.setResourceType(nextResourceGroupId);
+            formerResourceGroupIds.remove(nextResourceGroupId);
+        }
+
+        for (Integer formerResourceGroupId : formerResourceGroupIds) {
+            boolean doomed = groupDefinitionManager.removeResourcesFromManagedGroup_helper(subject,
+                formerResourceGroupId, resourceIds);
+            if (doomed) {
+                groupDefinitionManager.removeManagedResource_helper(subject, groupDefinitionId, formerResourceGroupId);
+            } else {
+                resourceGroupManager.setResourceType(formerResourceGroupId);
+            }
+        }
+
+        long endTime = System.currentTimeMillis();
+
+        log.debug("calculateGroupMembershipIncrementally took " + (endTime - startTime) + " millis for "
+            + resourceIds.size() + " resources");
+    }
+
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public Integer calculateGroupMembership_helper(Subject overlord, int groupDefinitionId,
         ExpressionEvaluator.Result result) throws ResourceGroupDeleteException, GroupDefinitionNotFoundException,
         GroupDefinitionNotFoundException {
+        return calculateGroupMembership_helper(overlord, groupDefinitionId, result, null);
+    }
+
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Integer calculateGroupMembership_helper(Subject overlord, int groupDefinitionId,
+        ExpressionEvaluator.Result result, Collection<Integer> evaluatedResourceIds)
+        throws ResourceGroupDeleteException, GroupDefinitionNotFoundException {
         long startTime = System.currentTimeMillis();
 
         GroupDefinition groupDefinition = getById(groupDefinitionId);
@@ -397,6 +689,10 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         idsToAdd.removeAll(existingResourceIds);
 
         Set<Integer> idsToRemove = new HashSet<Integer>(existingResourceIds);
+        if (evaluatedResourceIds != null) {
+            // only these resources were evaluated, the result doesn't tell anything about the other members
+            idsToRemove.retainAll(evaluatedResourceIds);
+        }
         idsToRemove.removeAll(result.getData());
 
         resourceGroupManager.addResourcesToGroup(overlord, resourceGroupId, ArrayUtils.unwrapCollection(idsToAdd));
@@ -410,6 +706,29 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         return resourceGroupId;
     }
 
+    @RequiredPermission(Permission.MANAGE_INVENTORY)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean removeResourcesFromManagedGroup_helper(Subject overlord, int resourceGroupId,
+        Collection<Integer> resourceIds) {
+        Collection<Integer> existingResourceIds = resourceManager
+            .findExplicitResourceIdsByResourceGroup(resourceGroupId);
+
+        Set<Integer> idsToRemove = new HashSet<Integer>(resourceIds);
+        idsToRemove.retainAll(existingResourceIds);
+
+        resourceGroupManager.removeResourcesFromGroup(overlord, resourceGroupId, ArrayUtils
+            .unwrapCollection(idsToRemove));
+
+        /*
+         * a full recalculation deletes the groups of groupby tuples no resource has anymore; the group of a definition
+         * without groupby expressions stays, even if it is empty
+         */
+        ResourceGroup resourceGroup = entityManager.find(ResourceGroup.class, resourceGroupId);
+        String groupByClause = resourceGroup.getGroupByClause();
+        return existingResourceIds.size() == idsToRemove.size() && groupByClause != null
+            && groupByClause.length() > 0;
+    }
+
     @SuppressWarnings( { "unchecked" })
     public PageList<GroupDefinition> getGroupDefinitions(Subject subject, PageControl pc) {
         pc.initDefaultOrderingField("gd.name");
@@ -517,6 +836,21 @@ public class GroupDefinitionManagerBean implements GroupDefinitionManagerLocal,
         return results;
     }
 
+    @SuppressWarnings("unchecked")
+    private List<Integer> getManagedResourceGroupIdsForResources(int groupDefinitionId,
+        Collection<Integer> resourceIds) {
+        Query query = entityManager.createQuery("" //
+            + "SELECT DISTINCT rg.id " //
+            + "  FROM ResourceGroup rg JOIN rg.explicitResources res " //
+            + " WHERE rg.groupDefinition.id = :groupDefinitionId " //
+            + "   AND res.id IN ( :resourceIds )");
+        query.setParameter("groupDefinitionId", groupDefinitionId);
+        query.setParameter("resourceIds", resourceIds);
+
+        List<Integer> results = query.getResultList();
+        return results;
+    }
+
     private int getManagedResourceGroupSizeForGroupDefinition(int groupDefinitionId) {
         Query query = entityManager.createNamedQuery(GroupDefinition.QUERY_FIND_MANAGED_RESOURCE_GROUP_SIZE_ADMIN);
         query.setParameter("groupDefinitionId", groupDefinitionId);
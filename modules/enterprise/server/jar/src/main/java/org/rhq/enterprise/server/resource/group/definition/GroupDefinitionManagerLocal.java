@@ -18,13 +18,18 @@
  */
 package org.rhq.enterprise.server.resource.group.definition;
 
+import java.util.Collection;
+
 import javax.ejb.Local;
+import javax.ejb.Timer;
 
 import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.resource.group.InvalidExpressionException;
 import org.rhq.core.domain.resource.group.GroupDefinition;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
+import org.rhq.enterprise.server.resource.group.ResourceGroupUpdateException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionDeleteException;
 import org.rhq.enterprise.server.resource.group.definition.exception.GroupDefinitionNotFoundException;
 import org.rhq.enterprise.server.resource.group.definition.framework.ExpressionEvaluator;
@@ -34,11 +39,55 @@ public interface GroupDefinitionManagerLocal extends GroupDefinitionManagerRemot
 
     void recalculateDynaGroups(Subject subject);
 
+    /**
+     * Schedules {@link #recalculateDynaGroupsIncrementally(Subject)} on this server, which also applies changes of
+     * the system setting that enables maintaining DynaGroups incrementally, see {@link GroupDefinitionChangeTracker}.
+     */
+    void scheduleIncrementalRecalculation();
+
+    void handleIncrementalRecalculationTimer(Timer timer);
+
+    /**
+     * Updates the DynaGroups of the auto-recalculating group definitions for the changes this server recorded in the
+     * {@link GroupDefinitionChangeTracker}. Only the resources that changed are evaluated again, and only for the
+     * definitions whose expressions depend on what changed. Definitions whose membership can not be maintained that
+     * way are left to {@link #recalculateDynaGroups(Subject)}. Changes that could not be applied are tried again the
+     * next time. Does nothing unless enabled by the system setting.
+     */
+    void recalculateDynaGroupsIncrementally(Subject subject);
+
+    /**
+     * Like {@link GroupDefinitionManagerRemote#calculateGroupMembership(Subject, int)}, except that only the given
+     * resources are evaluated, and added to or removed from the managed groups of the definition accordingly.
+     *
+     * @param resourceIds at most 1000 resources to evaluate again
+     */
+    void calculateGroupMembershipIncrementally(Subject subject, int groupDefinitionId, Collection<Integer> resourceIds)
+        throws ResourceGroupDeleteException, GroupDefinitionDeleteException, GroupDefinitionNotFoundException,
+        InvalidExpressionException, ResourceGroupUpdateException;
+
     GroupDefinition getById(int groupDefinitionId) throws GroupDefinitionNotFoundException;
 
     Integer calculateGroupMembership_helper(Subject subject, int groupDefinitionId, ExpressionEvaluator.Result result)
         throws ResourceGroupDeleteException, GroupDefinitionNotFoundException, GroupDefinitionNotFoundException;
 
+    /**
+     * @param evaluatedResourceIds the resources the result was restricted to, members of the group that are not among
+     *                             them are left alone; <code>null</code> if all resources were evaluated
+     */
+    Integer calculateGroupMembership_helper(Subject subject, int groupDefinitionId, ExpressionEvaluator.Result result,
+        Collection<Integer> evaluatedResourceIds) throws ResourceGroupDeleteException,
+        GroupDefinitionNotFoundException;
+
+    /**
+     * Removes those of the given resources from a managed group that are members of it.
+     *
+     * @return whether the group is left without members and has to be removed, because it was created for a groupby
+     *         tuple
+     */
+    boolean removeResourcesFromManagedGroup_helper(Subject subject, int resourceGroupId,
+        Collection<Integer> resourceIds);
+
     PageList<GroupDefinition> getGroupDefinitions(Subject subject, PageControl pc);
 
     int getGroupDefinitionCount(Subject subject);
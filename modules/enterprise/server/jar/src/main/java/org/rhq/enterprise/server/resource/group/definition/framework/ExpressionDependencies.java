@@ -0,0 +1,80 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.resource.group.definition.framework;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What the membership of a resource in the groups of a group definition depends on, as far as it can be told from
+ * the expressions of the definition, see {@link ExpressionEvaluator#getDependencies()}.
+ * <p>
+ * The membership of a resource can be maintained incrementally if it only depends on the resource's own inventory
+ * data (id, name, version and type), traits and plugin configuration, i.e. when the expressions do not refer to
+ * parents, children, availability, the resource configuration or the membership in other groups. For such a definition
+ * only the resources that changed have to be evaluated again.
+ */
+public class ExpressionDependencies {
+
+    private final Set<String> traitNames = new HashSet<String>();
+    private boolean pluginConfiguration = false;
+    private boolean incremental = true;
+
+    void addTraitName(String traitName) {
+        traitNames.add(traitName);
+    }
+
+    void addPluginConfiguration() {
+        pluginConfiguration = true;
+    }
+
+    void setNotIncremental() {
+        incremental = false;
+    }
+
+    /**
+     * @return whether the membership of a resource only depends on the resource's own inventory data, traits and
+     * plugin configuration
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param traitName the name of the trait's measurement definition
+     *
+     * @return whether a change of the trait can change the membership of its resource
+     */
+    public boolean dependsOnTrait(String traitName) {
+        for (String name : traitNames) {
+            // trait names are matched with LIKE '%name%', be conservative about names that contain wildcards
+            if (traitName.contains(name) || name.indexOf('%') != -1 || name.indexOf('_') != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether a change of the plugin configuration can change the membership of its resource
+     */
+    public boolean dependsOnPluginConfiguration() {
+        return pluginConfiguration;
+    }
+}
@@ -20,6 +20,7 @@ package org.rhq.enterprise.server.resource.group.definition.framework;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -95,6 +96,8 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
     private String computedJPQLStatement;
     private String computedJPQLGroupStatement;
 
+    private ExpressionDependencies dependencies = new ExpressionDependencies();
+
     private EntityManagerFacadeLocal entityManagerFacade;
 
     private Map<String, String> resourceExpressions = new TreeMap<String, String>();
@@ -241,6 +244,35 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         whereStatics.remove("res.inventoryStatus = org.rhq.core.domain.resource.InventoryStatus.COMMITTED");
     }
 
+    /**
+     * Restricts the evaluation to the given resources, so that each result only contains those of the given resources
+     * that match the expressions. Used to incrementally update the groups when only a few resources changed.
+     *
+     * @param resourceIds the resources to evaluate, not empty and at most 1000 because of the limits of IN clauses
+     */
+    public void restrictToResources(Collection<Integer> resourceIds) {
+        if (resultsComputed) {
+            throw new IllegalStateException("Evaluation can not be restricted after the results were computed");
+        }
+
+        StringBuilder restriction = new StringBuilder("res.id IN (");
+        String separator = "";
+        for (Integer resourceId : resourceIds) {
+            restriction.append(separator).append(resourceId.intValue());
+            separator = ", ";
+        }
+        restriction.append(")");
+
+        whereStatics.add(restriction.toString());
+    }
+
+    /**
+     * @return what the membership of a resource depends on, given the expressions added so far
+     */
+    public ExpressionDependencies getDependencies() {
+        return dependencies;
+    }
+
     /**
      * @param  expression a string in the form of 'condition = value' or 'groupBy condition'
      *
@@ -473,6 +505,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
 
                     validateSubExpressionAgainstPreviouslySeen(groupName, false, true);
                     isMemberOf = true;
+                    dependencies.setNotIncremental(); // membership of other groups is not tracked
                     populatePredicateCollections(null, groupName);
 
                 } else if (nextToken.equals("groupby")) {
@@ -598,6 +631,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     }
                 }
                 addJoinCondition(JoinCondition.AVAILABILITY);
+                dependencies.setNotIncremental(); // availability changes too often to be tracked
                 populatePredicateCollections(JoinCondition.AVAILABILITY.alias + ".availabilityType", type);
             } else if (context == ParseContext.Trait) {
                 // SELECT res.id FROM Resource res JOIN res.schedules sched, sched.definition def, MeasurementDataTrait trait
@@ -605,6 +639,7 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                 // (SELECT max(mdt.id.timestamp) FROM MeasurementDataTrait mdt WHERE sched.id = mdt.schedule.id)
                 String traitName = parseTraitName(originalTokens);
                 addJoinCondition(JoinCondition.SCHEDULES);
+                dependencies.addTraitName(traitName);
                 populatePredicateCollections(METRIC_DEF_ALIAS + ".name", "%" + traitName + "%", false, false);
                 populatePredicateCollections(TRAIT_ALIAS + ".value", value);
                 whereStatics.add(TRAIT_ALIAS + ".schedule = " + JoinCondition.SCHEDULES.alias);
@@ -620,10 +655,12 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
                     prefix = "pluginconfiguration";
                     joinCondition = JoinCondition.PLUGIN_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.PLUGIN_CONFIGURATION_DEFINITION;
+                    dependencies.addPluginConfiguration();
                 } else if (subcontext == ParseSubContext.ResourceConfiguration) {
                     prefix = "resourceconfiguration";
                     joinCondition = JoinCondition.RESOURCE_CONFIGURATION;
                     definitionJoinCondition = JoinCondition.RESOURCE_CONFIGURATION_DEFINITION;
+                    dependencies.setNotIncremental(); // resource configuration changes are not tracked
                 } else {
                     throw new InvalidExpressionException("Invalid 'configuration' subexpression: " + subcontext);
                 }
@@ -686,6 +723,11 @@ public class ExpressionEvaluator implements Iterable<ExpressionEvaluator.Result>
         if (context.isExpressionTerminator() == false) {
             throw new InvalidExpressionException("Unexpected termination of expression");
         }
+
+        if (deepestResourceContext != null && deepestResourceContext != ParseContext.Resource) {
+            // the membership depends on parents or children, which a change of the resource itself doesn't reveal
+            dependencies.setNotIncremental();
+        }
     }
 
     private enum ResourceRelativeContext {
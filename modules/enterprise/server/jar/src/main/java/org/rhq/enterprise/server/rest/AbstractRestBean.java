@@ -26,16 +26,27 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.EJB;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -48,6 +59,7 @@ import freemarker.template.TemplateException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.infinispan.Cache;
 import org.infinispan.manager.CacheContainer;
 
@@ -61,6 +73,7 @@ import org.rhq.core.domain.resource.group.GroupCategory;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
+import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.rest.domain.GroupRest;
@@ -68,12 +81,19 @@ import org.rhq.enterprise.server.rest.domain.Link;
 import org.rhq.enterprise.server.rest.domain.MetricSchedule;
 import org.rhq.enterprise.server.rest.domain.PagingCollection;
 import org.rhq.enterprise.server.rest.domain.ResourceWithType;
+import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
  * Abstract base class for EJB classes that implement REST methods.
  * For the cache and its eviction policies see standalone-full.xml (in
  * the RHQ Server's AS7/standalone/configuration directory, as modified
  * by the installer.)
+ * <p>
+ * GET methods can have their responses cached, see {@link #getCachedResponse(Request, HttpHeaders, UriInfo,
+ * ResponseFactory)}. Cached responses are reused for <code>rhq.server.rest.response-cache.ttl</code> milliseconds
+ * (10 seconds by default, 0 disables the cache) and are all invalidated by any change made through the REST api on
+ * this server, again once the change is committed. Changes made elsewhere, e.g. by agents, the GUI or other servers,
+ * show up once the responses expired.
  *
  * @author Heiko W. Rupp
  * @author Jay Shaughnessy
@@ -90,6 +110,25 @@ public class AbstractRestBean {
 
     private static final CacheKey META_KEY = new CacheKey("rhq.rest.resourceMeta", 0);
 
+    private static final String RESPONSE_NAMESPACE = "rhq.rest.response";
+
+    private static final long RESPONSE_CACHE_TTL;
+
+    static {
+        long ttl = 10000L;
+        try {
+            ttl = Long.parseLong(System.getProperty("rhq.server.rest.response-cache.ttl", "10000"));
+        } catch (Throwable t) {
+            //
+        }
+        RESPONSE_CACHE_TTL = ttl;
+    }
+
+    /** Part of the cache key of all cached responses, bumped to invalidate them all at once */
+    private static final AtomicLong responseCacheVersion = new AtomicLong();
+
+    private static final ObjectMapper ENTITY_TAG_MAPPER = new ObjectMapper();
+
     @javax.annotation.Resource( name = "ISPN")
     private CacheContainer container;
     protected Cache<CacheKey, Object> cache;
@@ -267,6 +306,143 @@ public class AbstractRestBean {
         return true;
     }
 
+    /**
+     * Creates the response of a GET method, for {@link AbstractRestBean#getCachedResponse(Request, HttpHeaders,
+     * UriInfo, ResponseFactory)}.
+     */
+    protected interface ResponseFactory {
+        /**
+         * @return the builder of the response, with the entity and headers set
+         */
+        Response.ResponseBuilder createResponse();
+    }
+
+    /**
+     * Returns the response that was built for the same request of the caller before, or builds it with the passed
+     * factory and caches it. The response is tagged with a strong entity tag computed from its content, and a
+     * <i>304 Not Modified</i> is sent instead if the client already has that content. If the factory sets the last
+     * modification date, it is also evaluated against an <i>If-Modified-Since</i> header, unless the request has an
+     * <i>If-None-Match</i> header, which takes precedence.
+     *
+     * @param request The request, to evaluate its preconditions
+     * @param headers The headers of the request, the first acceptable media type is part of the cache key
+     * @param uriInfo The uriInfo of the request, the request uri including the query is part of the cache key
+     * @param factory Creates the response if it is not cached
+     * @return The response to send
+     */
+    protected Response getCachedResponse(Request request, HttpHeaders headers, UriInfo uriInfo,
+        ResponseFactory factory) {
+
+        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+        CacheKey key = new CacheKey(RESPONSE_NAMESPACE + ":" + responseCacheVersion.get() + ":" + mediaType + ":"
+            + uriInfo.getRequestUri(), caller.getId());
+
+        CachedResponse cached = null;
+        if (RESPONSE_CACHE_TTL > 0L) {
+            cached = (CachedResponse) cache.get(key);
+        }
+
+        if (null != cached) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cache Hit for " + key);
+            }
+        } else {
+            Response.ResponseBuilder builder = factory.createResponse();
+            // build a copy, the builder is kept to create the responses for later requests
+            Response response = builder.clone().build();
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                return response;
+            }
+
+            EntityTag eTag = createEntityTag(mediaType, response.getEntity());
+            if (null == eTag) {
+                return response;
+            }
+
+            Object lastModified = response.getMetadata().getFirst(HttpHeaders.LAST_MODIFIED);
+            cached = new CachedResponse(builder, eTag, (lastModified instanceof Date) ? (Date) lastModified : null);
+            if (RESPONSE_CACHE_TTL > 0L) {
+                try {
+                    cache.put(key, cached, RESPONSE_CACHE_TTL, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    log.warn(e.getMessage());
+                }
+            }
+        }
+
+        Response.ResponseBuilder builder;
+        List<String> ifNoneMatch = headers.getRequestHeader(HttpHeaders.IF_NONE_MATCH);
+        if (null != cached.getLastModified() && (null == ifNoneMatch || ifNoneMatch.isEmpty())) {
+            builder = request.evaluatePreconditions(cached.getLastModified(), cached.getEntityTag());
+        } else {
+            builder = request.evaluatePreconditions(cached.getEntityTag());
+        }
+        if (null == builder) {
+            builder = cached.getBuilder().clone();
+        }
+        builder.tag(cached.getEntityTag());
+
+        return builder.build();
+    }
+
+    /**
+     * Invalidates all the cached responses, of all callers, now and again when the current transaction, if any,
+     * completes, since responses cached in the meantime still show the data from before the change. Called after
+     * every change made through the REST api.
+     */
+    static void invalidateResponseCache() {
+        responseCacheVersion.incrementAndGet();
+
+        TransactionSynchronizationRegistry registry;
+        try {
+            registry = LookupUtil.getTransactionSynchronizationRegistry();
+        } catch (RuntimeException e) {
+            // outside of the server, as in unit tests, there is no transaction to wait for
+            return;
+        }
+        if (registry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+            registry.registerInterposedSynchronization(new Synchronization() {
+                public void beforeCompletion() {
+                }
+
+                public void afterCompletion(int status) {
+                    responseCacheVersion.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Computes a strong entity tag from the content of the passed entity. Unlike a tag computed from the identity
+     * or modification time of the underlying entities, it changes whenever anything that is sent changes, and every
+     * server computes the same tag for the same content.
+     *
+     * @param mediaType Media type the entity is sent as
+     * @param entity The entity to compute the tag for
+     * @return The tag or null if it can not be computed for the entity
+     */
+    protected EntityTag createEntityTag(MediaType mediaType, Object entity) {
+        try {
+            MessageDigestGenerator digest = new MessageDigestGenerator(MessageDigestGenerator.MD5);
+            digest.add(String.valueOf(mediaType).getBytes("UTF-8"));
+            if (entity instanceof GenericEntity) {
+                entity = ((GenericEntity<?>) entity).getEntity();
+            }
+            if (entity instanceof String) {
+                digest.add(((String) entity).getBytes("UTF-8"));
+            } else {
+                digest.add(ENTITY_TAG_MAPPER.writeValueAsBytes(entity));
+            }
+
+            return new EntityTag(digest.getDigestString());
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Can not compute an entity tag: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
     public ResourceWithType fillRWT(Resource res, UriInfo uriInfo) {
         ResourceType resourceType = res.getResourceType();
         ResourceWithType rwt = new ResourceWithType(res.getName(), res.getId());
@@ -661,6 +837,36 @@ public class AbstractRestBean {
         }
     }
 
+    private static class CachedResponse {
+        private final Response.ResponseBuilder builder;
+        private final EntityTag entityTag;
+        private final Date lastModified;
+
+        public CachedResponse(Response.ResponseBuilder builder, EntityTag entityTag, Date lastModified) {
+            this.builder = builder;
+            this.entityTag = entityTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the builder of the response, must be cloned before use
+         */
+        public Response.ResponseBuilder getBuilder() {
+            return builder;
+        }
+
+        public EntityTag getEntityTag() {
+            return entityTag;
+        }
+
+        /**
+         * @return the last modification date of the entity or <code>null</code> if unknown
+         */
+        public Date getLastModified() {
+            return lastModified;
+        }
+    }
+
     private static class CacheValue {
         private Object value;
         private Set<Integer> readers;
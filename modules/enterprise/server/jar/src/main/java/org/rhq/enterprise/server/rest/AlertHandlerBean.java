@@ -34,7 +34,6 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
-import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -96,83 +95,87 @@ public class AlertHandlerBean extends AbstractRestBean {
         @ApiError(code = 406, reason = "Page number was < 0")
     })
     public Response listAlerts(
-        @ApiParam(value = "Page number") @QueryParam("page") @DefaultValue("0") int page,
-        @ApiParam(value = "Page size; use -1 for 'unlimited'") @QueryParam("size") @DefaultValue("100")int size,
-        @ApiParam(value = "Limit to priority", allowableValues = "High, Medium, Low, All") @DefaultValue("All") @QueryParam("prio") String prio,
-        @ApiParam(value = "Should full resources and definitions be sent") @QueryParam("slim") @DefaultValue("false") boolean slim,
-        @ApiParam(value = "If non-null only send alerts that have fired after this time, time is millisecond since epoch") @QueryParam("since") Long since,
-        @ApiParam(value = "Id of a resource to limit search for") @QueryParam("resourceId") Integer resourceId,
-        @ApiParam(value = "If of an alert definition to search for") @QueryParam("definitionId") Integer definitionId,
-        @ApiParam(value = "Should only unacknowledged alerts be sent") @QueryParam("unacknowledgedOnly") @DefaultValue("false") boolean unacknowledgedOnly,
-        @Context UriInfo uriInfo, @Context HttpHeaders headers) {
-
-        if (resourceId!=null && definitionId!=null) {
-            throw new BadArgumentException("At most one of 'resourceId' and 'definitionId' may be given");
-        }
-        if (size==0) {
-            throw new BadArgumentException("size","Must not be 0");
-        }
-        if (page<0) {
-            throw new BadArgumentException("page","Must be >=1");
-        }
-
-        AlertCriteria criteria = new AlertCriteria();
-
-        if (size==-1) {
-            PageControl pageControl = PageControl.getUnlimitedInstance();
-            pageControl.setPageNumber(page);
-            criteria.setPageControl(pageControl);
-        }
-        else {
-            criteria.setPaging(page, size);
-        }
-
-        if (since!=null) {
-            criteria.addFilterStartTime(since);
-        }
-
-        if (resourceId!=null) {
-            criteria.addFilterResourceIds(resourceId);
-        }
-        if (definitionId!=null) {
-            criteria.addFilterAlertDefinitionIds(definitionId);
-        }
-
-        if (!prio.equals("All")) {
-            AlertPriority alertPriority = AlertPriority.valueOf(prio.toUpperCase());
-            criteria.addFilterPriorities(alertPriority);
-        }
-
-        if (unacknowledgedOnly) {
-            criteria.addFilterUnacknowledgedOnly(Boolean.TRUE);
-        }
-        criteria.addSortCtime(PageOrdering.DESC);
-
-        PageList<Alert> alerts = alertManager.findAlertsByCriteria(caller,criteria);
-        List<AlertRest> ret = new ArrayList<AlertRest>(alerts.size());
-        for (Alert al : alerts) {
-            AlertRest ar = alertToDomain(al, uriInfo, slim);
-            ret.add(ar);
-        }
-
-        MediaType type = headers.getAcceptableMediaTypes().get(0);
-        Response.ResponseBuilder builder = Response.ok();
-        builder.type(type);
-
-        if (type.equals(MediaType.TEXT_HTML_TYPE)) {
-            builder.entity(renderTemplate("listAlerts.ftl",ret));
-        } else {
-            if (type.equals(wrappedCollectionJsonType)) {
-                wrapForPaging(builder,uriInfo,alerts,ret);
-            }
-            else {
-                GenericEntity<List<AlertRest>> entity = new GenericEntity<List<AlertRest>>(ret) {};
-                builder.entity(entity);
-                createPagingHeader(builder,uriInfo,alerts);
+        @ApiParam(value = "Page number") @QueryParam("page") @DefaultValue("0") final int page,
+        @ApiParam(value = "Page size; use -1 for 'unlimited'") @QueryParam("size") @DefaultValue("100") final int size,
+        @ApiParam(value = "Limit to priority", allowableValues = "High, Medium, Low, All") @DefaultValue("All") @QueryParam("prio") final String prio,
+        @ApiParam(value = "Should full resources and definitions be sent") @QueryParam("slim") @DefaultValue("false") final boolean slim,
+        @ApiParam(value = "If non-null only send alerts that have fired after this time, time is millisecond since epoch") @QueryParam("since") final Long since,
+        @ApiParam(value = "Id of a resource to limit search for") @QueryParam("resourceId") final Integer resourceId,
+        @ApiParam(value = "If of an alert definition to search for") @QueryParam("definitionId") final Integer definitionId,
+        @ApiParam(value = "Should only unacknowledged alerts be sent") @QueryParam("unacknowledgedOnly") @DefaultValue("false") final boolean unacknowledgedOnly,
+        @Context final UriInfo uriInfo, @Context Request request, @Context final HttpHeaders headers) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                if (resourceId!=null && definitionId!=null) {
+                    throw new BadArgumentException("At most one of 'resourceId' and 'definitionId' may be given");
+                }
+                if (size==0) {
+                    throw new BadArgumentException("size","Must not be 0");
+                }
+                if (page<0) {
+                    throw new BadArgumentException("page","Must be >=1");
+                }
+
+                AlertCriteria criteria = new AlertCriteria();
+
+                if (size==-1) {
+                    PageControl pageControl = PageControl.getUnlimitedInstance();
+                    pageControl.setPageNumber(page);
+                    criteria.setPageControl(pageControl);
+                }
+                else {
+                    criteria.setPaging(page, size);
+                }
+
+                if (since!=null) {
+                    criteria.addFilterStartTime(since);
+                }
+
+                if (resourceId!=null) {
+                    criteria.addFilterResourceIds(resourceId);
+                }
+                if (definitionId!=null) {
+                    criteria.addFilterAlertDefinitionIds(definitionId);
+                }
+
+                if (!prio.equals("All")) {
+                    AlertPriority alertPriority = AlertPriority.valueOf(prio.toUpperCase());
+                    criteria.addFilterPriorities(alertPriority);
+                }
+
+                if (unacknowledgedOnly) {
+                    criteria.addFilterUnacknowledgedOnly(Boolean.TRUE);
+                }
+                criteria.addSortCtime(PageOrdering.DESC);
+
+                PageList<Alert> alerts = alertManager.findAlertsByCriteria(caller,criteria);
+                List<AlertRest> ret = new ArrayList<AlertRest>(alerts.size());
+                for (Alert al : alerts) {
+                    AlertRest ar = alertToDomain(al, uriInfo, slim);
+                    ret.add(ar);
+                }
+
+                MediaType type = headers.getAcceptableMediaTypes().get(0);
+                Response.ResponseBuilder builder = Response.ok();
+                builder.type(type);
+
+                if (type.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder.entity(renderTemplate("listAlerts.ftl",ret));
+                } else {
+                    if (type.equals(wrappedCollectionJsonType)) {
+                        wrapForPaging(builder,uriInfo,alerts,ret);
+                    }
+                    else {
+                        GenericEntity<List<AlertRest>> entity = new GenericEntity<List<AlertRest>>(ret) {};
+                        builder.entity(entity);
+                        createPagingHeader(builder,uriInfo,alerts);
+                    }
+                }
+
+                return builder;
             }
-        }
-
-        return builder.build();
+        });
     }
 
     @GET
@@ -202,26 +205,26 @@ public class AlertHandlerBean extends AbstractRestBean {
     @Path("/{id}")
     @ApiOperation(value = "Get one alert with the passed id", responseClass = "AlertRest")
     public Response getAlert(
-            @ApiParam("Id of the alert to retrieve") @PathParam("id") int id,
-            @ApiParam(value = "Should full resources and definitions be sent") @QueryParam("slim") @DefaultValue("false") boolean slim,
-            @Context UriInfo uriInfo, @Context Request request, @Context HttpHeaders headers) {
-
-        Alert al = findAlertWithId(id);
-        MediaType type = headers.getAcceptableMediaTypes().get(0);
-
-        EntityTag eTag = new EntityTag(Integer.toHexString(al.hashCode()));
-        Response.ResponseBuilder builder = request.evaluatePreconditions(eTag);
-        if (builder==null) {
-            AlertRest ar = alertToDomain(al, uriInfo, slim);
-            if (type.equals(MediaType.TEXT_HTML_TYPE)) {
-                builder = Response.ok(renderTemplate("alert.ftl",ar),type);
-            } else {
-                builder = Response.ok(ar);
+            @ApiParam("Id of the alert to retrieve") @PathParam("id") final int id,
+            @ApiParam(value = "Should full resources and definitions be sent") @QueryParam("slim") @DefaultValue("false") final boolean slim,
+            @Context final UriInfo uriInfo, @Context Request request, @Context final HttpHeaders headers) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                Alert al = findAlertWithId(id);
+                MediaType type = headers.getAcceptableMediaTypes().get(0);
+
+                Response.ResponseBuilder builder;
+                AlertRest ar = alertToDomain(al, uriInfo, slim);
+                if (type.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder = Response.ok(renderTemplate("alert.ftl",ar),type);
+                } else {
+                    builder = Response.ok(ar);
+                }
+
+                return builder;
             }
-        }
-        builder.tag(eTag);
-
-        return builder.build();
+        });
     }
 
     @GET
@@ -40,6 +40,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -109,47 +110,51 @@ public class GroupHandlerBean extends AbstractRestBean  {
     @GET
     @Path("/")
     @ApiOperation(value = "List all groups", multiValueResponse = true, responseClass = "GroupRest")
-    public Response getGroups(@ApiParam("String to search in the group name") @QueryParam("q") String q,
-                              @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") int pageSize,
-                              @ApiParam("Page number for paging, 0-based") @QueryParam("page") Integer page,
-                              @Context HttpHeaders headers, @Context UriInfo uriInfo) {
-
-        ResourceGroupCriteria criteria = new ResourceGroupCriteria();
-        criteria.addSortId(PageOrdering.ASC);
-
-        if (q!=null) {
-            criteria.addFilterName(q);
-        }
-        if (page!=null) {
-            criteria.setPaging(page,pageSize);
-        }
-
-        PageList<ResourceGroup> groups = resourceGroupManager.findResourceGroupsByCriteria(caller, criteria);
-
-        List<GroupRest> list = new ArrayList<GroupRest>();
-        for (ResourceGroup group : groups) {
-            list.add(fillGroup(group, uriInfo));
-        }
-
-        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
-        Response.ResponseBuilder builder = Response.ok();
-        builder.type(mediaType);
-
-        if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
-            builder.entity(renderTemplate("listGroup", list));
-        }
-        else if (mediaType.equals(wrappedCollectionJsonType)) {
-            wrapForPaging(builder,uriInfo,groups,list);
-        }
-        else {
-            GenericEntity<List<GroupRest>> ret = new GenericEntity<List<GroupRest>>(list) {};
-            builder.entity(ret);
-            createPagingHeader(builder,uriInfo,groups);
-        }
-
-
-        return builder.build();
-
+    public Response getGroups(@ApiParam("String to search in the group name") @QueryParam("q") final String q,
+                              @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") final int pageSize,
+                              @ApiParam("Page number for paging, 0-based") @QueryParam("page") final Integer page,
+                              @Context Request request, @Context final HttpHeaders headers,
+                              @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                ResourceGroupCriteria criteria = new ResourceGroupCriteria();
+                criteria.addSortId(PageOrdering.ASC);
+
+                if (q!=null) {
+                    criteria.addFilterName(q);
+                }
+                if (page!=null) {
+                    criteria.setPaging(page,pageSize);
+                }
+
+                PageList<ResourceGroup> groups = resourceGroupManager.findResourceGroupsByCriteria(caller, criteria);
+
+                List<GroupRest> list = new ArrayList<GroupRest>();
+                for (ResourceGroup group : groups) {
+                    list.add(fillGroup(group, uriInfo));
+                }
+
+                MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+                Response.ResponseBuilder builder = Response.ok();
+                builder.type(mediaType);
+
+                if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder.entity(renderTemplate("listGroup", list));
+                }
+                else if (mediaType.equals(wrappedCollectionJsonType)) {
+                    wrapForPaging(builder,uriInfo,groups,list);
+                }
+                else {
+                    GenericEntity<List<GroupRest>> ret = new GenericEntity<List<GroupRest>>(list) {};
+                    builder.entity(ret);
+                    createPagingHeader(builder,uriInfo,groups);
+                }
+
+
+                return builder;
+            }
+        });
     }
 
     @Cache(isPrivate = true,maxAge = 60)
@@ -157,27 +162,32 @@ public class GroupHandlerBean extends AbstractRestBean  {
     @Path("{id}")
     @ApiOperation(value = "Get the group with the passed id")
     @ApiError(code = 404, reason = "Group with passed id not found")
-    public Response getGroup(@ApiParam(value = "Id of the group") @PathParam("id") int id,
-                             @Context HttpHeaders headers,
-                             @Context UriInfo uriInfo) {
-
-        ResourceGroup group = fetchGroup(id, false);
-
-        GroupRest groupRest = fillGroup(group, uriInfo);
-
-        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
-
-        Response.ResponseBuilder builder = Response.ok();
-        builder.type(mediaType);
-
-        if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
-            builder.entity(renderTemplate("group", groupRest));
-        }
-        else {
-            builder.entity(groupRest);
-        }
-
-        return builder.build();
+    public Response getGroup(@ApiParam(value = "Id of the group") @PathParam("id") final int id,
+                             @Context Request request,
+                             @Context final HttpHeaders headers,
+                             @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                ResourceGroup group = fetchGroup(id, false);
+
+                GroupRest groupRest = fillGroup(group, uriInfo);
+
+                MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+
+                Response.ResponseBuilder builder = Response.ok();
+                builder.type(mediaType);
+
+                if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder.entity(renderTemplate("group", groupRest));
+                }
+                else {
+                    builder.entity(groupRest);
+                }
+
+                return builder;
+            }
+        });
     }
 
     @POST
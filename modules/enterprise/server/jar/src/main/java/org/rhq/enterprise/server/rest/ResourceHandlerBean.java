@@ -52,7 +52,6 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
-import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -150,33 +149,32 @@ public class ResourceHandlerBean extends AbstractRestBean {
     @Cache(isPrivate = true,maxAge = 120)
     @ApiOperation(value = "Retrieve a single resource", responseClass = "ResourceWithType")
     @ApiError(code = 404, reason = NO_RESOURCE_FOR_ID)
-    public Response getResource(@ApiParam("Id of the resource to retrieve") @PathParam("id") int id,
-                @Context Request request, @Context HttpHeaders headers,
-                             @Context UriInfo uriInfo) {
-
-        Resource res;
-        res = fetchResource(id);
-
-        long mtime = res.getMtime();
-        EntityTag eTag = new EntityTag(Long.toOctalString(res.hashCode() + mtime)); // factor in mtime in etag
-        Response.ResponseBuilder builder = request.evaluatePreconditions(new Date(mtime), eTag);
-
-        if (builder != null) {
-            return builder.build();
-        }
-
-        ResourceWithType rwt = fillRWT(res, uriInfo);
-
-        // What media type does the user request?
-        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
-
-        if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
-            builder = Response.ok(renderTemplate("resourceWithType", rwt), mediaType);
-        } else {
-            builder = Response.ok(rwt);
-        }
+    public Response getResource(@ApiParam("Id of the resource to retrieve") @PathParam("id") final int id,
+                @Context Request request, @Context final HttpHeaders headers,
+                             @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                Resource res;
+                res = fetchResource(id);
+
+                ResourceWithType rwt = fillRWT(res, uriInfo);
+
+                // What media type does the user request?
+                MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+                Response.ResponseBuilder builder;
+
+                if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder = Response.ok(renderTemplate("resourceWithType", rwt), mediaType);
+                } else {
+                    builder = Response.ok(rwt);
+                }
+                // for clients that revalidate with If-Modified-Since
+                builder.lastModified(new Date(res.getMtime()));
 
-        return builder.build();
+                return builder;
+            }
+        });
     }
 
     @PUT
@@ -229,41 +227,46 @@ public class ResourceHandlerBean extends AbstractRestBean {
     @Path("/")
     @ApiError(code = 406, reason = "The passed inventory status was invalid")
     @ApiOperation(value = "Search for resources by the given search string, possibly limited by category and paged", responseClass = "ResourceWithType")
-    public Response getResourcesByQuery(@ApiParam("Limit results to param in the resource name") @QueryParam("q") String q,
-                                        @ApiParam("Limit to category (PLATFORM, SERVER, SERVICE") @QueryParam("category") String category,
-                                        @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") int pageSize,
-                                        @ApiParam("Page for paging, 0-based") @QueryParam("page") Integer page,
+    public Response getResourcesByQuery(@ApiParam("Limit results to param in the resource name") @QueryParam("q") final String q,
+                                        @ApiParam("Limit to category (PLATFORM, SERVER, SERVICE") @QueryParam("category") final String category,
+                                        @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") final int pageSize,
+                                        @ApiParam("Page for paging, 0-based") @QueryParam("page") final Integer page,
                                         @ApiParam(value = "Limit to Inventory status of the resources", allowableValues = "ALL, NEW, IGNORED, COMMITTED, DELETED, UNINVENTORIED")
-                                            @DefaultValue("COMMITTED") @QueryParam("status") String status,
-                                        @Context HttpHeaders headers,
-                                        @Context UriInfo uriInfo) {
-
-        ResourceCriteria criteria = new ResourceCriteria();
-        criteria.addSortName(PageOrdering.ASC);
-        if (!status.toLowerCase().equals("all")) {
-            try {
-                criteria.addFilterInventoryStatus(InventoryStatus.valueOf(status.toUpperCase()));
-            } catch (IllegalArgumentException iae) {
-                throw new BadArgumentException("status","Value " + status + " is not in the list of allowed values: ALL, NEW, IGNORED, COMMITTED, DELETED, UNINVENTORIED" );
-            }
-        } else {
-            // JavaDoc says to explicitly set to null in order to get all Status
-            criteria.addFilterInventoryStatus(null);
-        }
-        if (q!=null) {
-            criteria.addFilterName(q);
-        }
-        if (category!=null) {
-            criteria.addFilterResourceCategories(ResourceCategory.valueOf(category.toUpperCase()));
-        }
-        if (page!=null) {
-            criteria.setPaging(page,pageSize);
-        }
-        PageList<Resource> ret = resMgr.findResourcesByCriteria(caller,criteria);
+                                            @DefaultValue("COMMITTED") @QueryParam("status") final String status,
+                                        @Context Request request,
+                                        @Context final HttpHeaders headers,
+                                        @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                ResourceCriteria criteria = new ResourceCriteria();
+                criteria.addSortName(PageOrdering.ASC);
+                if (!status.toLowerCase().equals("all")) {
+                    try {
+                        criteria.addFilterInventoryStatus(InventoryStatus.valueOf(status.toUpperCase()));
+                    } catch (IllegalArgumentException iae) {
+                        throw new BadArgumentException("status","Value " + status + " is not in the list of allowed values: ALL, NEW, IGNORED, COMMITTED, DELETED, UNINVENTORIED" );
+                    }
+                } else {
+                    // JavaDoc says to explicitly set to null in order to get all Status
+                    criteria.addFilterInventoryStatus(null);
+                }
+                if (q!=null) {
+                    criteria.addFilterName(q);
+                }
+                if (category!=null) {
+                    criteria.addFilterResourceCategories(ResourceCategory.valueOf(category.toUpperCase()));
+                }
+                if (page!=null) {
+                    criteria.setPaging(page,pageSize);
+                }
+                PageList<Resource> ret = resMgr.findResourcesByCriteria(caller,criteria);
 
-        Response.ResponseBuilder builder = getResponseBuilderForResourceList(headers,uriInfo,ret);
+                Response.ResponseBuilder builder = getResponseBuilderForResourceList(headers,uriInfo,ret);
 
-        return builder.build();
+                return builder;
+            }
+        });
     }
 
     @GZIP
@@ -272,24 +275,29 @@ public class ResourceHandlerBean extends AbstractRestBean {
     @Cache(isPrivate = true,maxAge = 300)
     @ApiOperation(value = "List all platforms in the system", multiValueResponse = true, responseClass = "ResourceWithType")
     public Response getPlatforms(
-        @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") int pageSize,
-        @ApiParam("Page for paging, 0-based") @QueryParam("page") Integer page,
-        @Context HttpHeaders headers, @Context UriInfo uriInfo) {
+        @ApiParam("Page size for paging") @QueryParam("ps") @DefaultValue("20") final int pageSize,
+        @ApiParam("Page for paging, 0-based") @QueryParam("page") final Integer page,
+        @Context Request request, @Context final HttpHeaders headers,
+        @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                PageControl pc;
+                if (page!=null) {
+                    pc = new PageControl(page,pageSize);
+                }
+                else {
+                    pc = PageControl.getUnlimitedInstance();
+                }
+                pc.setPrimarySort("id",PageOrdering.ASC);
 
-        PageControl pc;
-        if (page!=null) {
-            pc = new PageControl(page,pageSize);
-        }
-        else {
-            pc = PageControl.getUnlimitedInstance();
-        }
-        pc.setPrimarySort("id",PageOrdering.ASC);
+                PageList<Resource> ret = resMgr.findResourcesByCategory(caller, ResourceCategory.PLATFORM,
+                    InventoryStatus.COMMITTED, pc);
+                Response.ResponseBuilder builder = getResponseBuilderForResourceList(headers, uriInfo, ret);
 
-        PageList<Resource> ret = resMgr.findResourcesByCategory(caller, ResourceCategory.PLATFORM,
-            InventoryStatus.COMMITTED, pc);
-        Response.ResponseBuilder builder = getResponseBuilderForResourceList(headers, uriInfo, ret);
-
-        return builder.build();
+                return builder;
+            }
+        });
     }
 
     /**
@@ -554,35 +562,39 @@ public class ResourceHandlerBean extends AbstractRestBean {
     @ApiOperation(value = "Get the direct children of the passed resource")
     @ApiError(code = 404, reason = NO_RESOURCE_FOR_ID)
     public Response getChildren(
-            @ApiParam("Id of the resource to get children") @PathParam("id") int id,
-            @Context HttpHeaders headers,
-            @Context UriInfo uriInfo) {
-
-        PageControl pc = new PageControl();
-        Resource parent;
-        parent = fetchResource(id);
-        List<Resource> ret = resMgr.findResourceByParentAndInventoryStatus(caller, parent, InventoryStatus.COMMITTED,
-            pc);
-        List<ResourceWithType> rwtList = new ArrayList<ResourceWithType>(ret.size());
-        for (Resource r : ret) {
-            ResourceWithType rwt = fillRWT(r, uriInfo);
-            rwtList.add(rwt);
-        }
+            @ApiParam("Id of the resource to get children") @PathParam("id") final int id,
+            @Context Request request,
+            @Context final HttpHeaders headers,
+            @Context final UriInfo uriInfo) {
+        return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+            @Override
+            public Response.ResponseBuilder createResponse() {
+                PageControl pc = new PageControl();
+                Resource parent;
+                parent = fetchResource(id);
+                List<Resource> ret = resMgr.findResourceByParentAndInventoryStatus(caller, parent, InventoryStatus.COMMITTED,
+                    pc);
+                List<ResourceWithType> rwtList = new ArrayList<ResourceWithType>(ret.size());
+                for (Resource r : ret) {
+                    ResourceWithType rwt = fillRWT(r, uriInfo);
+                    rwtList.add(rwt);
+                }
 
-        // What media type does the user request?
-        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
-        Response.ResponseBuilder builder;
+                // What media type does the user request?
+                MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+                Response.ResponseBuilder builder;
 
-        if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
-            builder = Response.ok(renderTemplate("listResourceWithType", rwtList), mediaType);
-        } else {
-            GenericEntity<List<ResourceWithType>> list = new GenericEntity<List<ResourceWithType>>(rwtList) {
-            };
-            builder = Response.ok(list);
-        }
-
-        return builder.build();
+                if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
+                    builder = Response.ok(renderTemplate("listResourceWithType", rwtList), mediaType);
+                } else {
+                    GenericEntity<List<ResourceWithType>> list = new GenericEntity<List<ResourceWithType>>(rwtList) {
+                    };
+                    builder = Response.ok(list);
+                }
 
+                return builder;
+            }
+        });
     }
 
 
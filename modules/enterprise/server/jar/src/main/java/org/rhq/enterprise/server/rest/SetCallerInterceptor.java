@@ -31,6 +31,7 @@ import javax.ejb.EJB;
 import javax.ejb.EJBContext;
 import javax.interceptor.AroundInvoke;
 import javax.interceptor.InvocationContext;
+import javax.ws.rs.GET;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
@@ -47,6 +48,8 @@ import org.rhq.enterprise.server.auth.SubjectManagerLocal;
  * <li>extends AbstractRestBean</li>
  * <li>Add this class as Interceptor like this : @Interceptors(SetCallerInterceptor.class) </li>
  * </ul>
+ * Calls of methods that are not GET methods may change entities, so the cached responses of
+ * GET methods are invalidated after them, and again once their transaction completed.
  * @author Heiko W. Rupp
  */
 public class SetCallerInterceptor {
@@ -88,7 +91,15 @@ public class SetCallerInterceptor {
         target.caller = caller;
 
         // Call the EJBs
-        Object result =  ctx.proceed();
+        Object result;
+        try {
+            result = ctx.proceed();
+        } finally {
+            // the caller's transaction is still open here, the cache is invalidated again when it completes
+            if (!ctx.getMethod().isAnnotationPresent(GET.class)) {
+                AbstractRestBean.invalidateResponseCache();
+            }
+        }
 
         // if result is StreamingOutput, we do not want to invalidate the session until it
         // is finished writing the output; otherwise, any secure SLSB calls will fail. We
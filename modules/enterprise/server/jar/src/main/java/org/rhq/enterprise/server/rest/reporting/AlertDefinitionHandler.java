@@ -1,5 +1,7 @@
 package org.rhq.enterprise.server.rest.reporting;
 
+import static org.rhq.core.domain.criteria.Criteria.Restriction.COLLECTION_ONLY;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -73,6 +75,9 @@ public class AlertDefinitionHandler extends AbstractRestBean implements AlertDef
 
                     CriteriaQuery<AlertDefinition, AlertDefinitionCriteria> query =
                             new CriteriaQuery<AlertDefinition, AlertDefinitionCriteria>(criteria, queryExecutor);
+                    query.setKeysetPaging(true);
+                    // the report never needs the total count, so do not run a count query for every page
+                    criteria.setRestriction(COLLECTION_ONLY);
 
                     CsvWriter<AlertDefinition> csvWriter = new CsvWriter<AlertDefinition>();
                     csvWriter.setColumns("name", "description", "enabled", "priority", "parent", "ancestry",
@@ -15,18 +15,12 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.auth.Subject;
-import org.rhq.core.domain.configuration.ResourceConfigurationUpdate;
 import org.rhq.core.domain.criteria.ResourceConfigurationUpdateCriteria;
-import org.rhq.core.domain.util.PageList;
 import org.rhq.enterprise.server.configuration.ConfigurationManagerLocal;
 import org.rhq.enterprise.server.rest.AbstractRestBean;
 import org.rhq.enterprise.server.rest.ReportsInterceptor;
-import org.rhq.enterprise.server.util.CriteriaQuery;
-import org.rhq.enterprise.server.util.CriteriaQueryExecutor;
 
 import static org.rhq.core.domain.util.PageOrdering.ASC;
-import static org.rhq.enterprise.server.rest.reporting.ReportFormatHelper.cleanForCSV;
-import static org.rhq.enterprise.server.rest.reporting.ReportFormatHelper.formatDateTime;
 
 @Interceptors(ReportsInterceptor.class)
 @Stateless
@@ -34,6 +28,21 @@ public class ConfigurationHistoryHandler extends AbstractRestBean implements Con
 
     private final Log log = LogFactory.getLog(ConfigurationHistoryHandler.class);
 
+    // the columns of the report, in order of their index in the projection below
+    private static final int UPDATE_ID = 0;
+    private static final int CREATED_TIME = 1;
+    private static final int MODIFIED_TIME = 2;
+    private static final int STATUS = 3;
+    private static final int RESOURCE_ID = 4;
+    private static final int RESOURCE_NAME = 5;
+    private static final int RESOURCE_ANCESTRY = 6;
+
+    private static final String PROJECTION = "" //
+        + "resourceconfigurationupdate.id, resourceconfigurationupdate.createdTime, " //
+        + "resourceconfigurationupdate.modifiedTime, resourceconfigurationupdate.status, " //
+        + "resourceconfigurationupdate.resource.id, resourceconfigurationupdate.resource.name, " //
+        + "resourceconfigurationupdate.resource.ancestry";
+
     @EJB
     private ConfigurationManagerLocal configurationManager;
 
@@ -53,43 +62,47 @@ public class ConfigurationHistoryHandler extends AbstractRestBean implements Con
             @Override
             public void write(OutputStream stream) throws IOException, WebApplicationException {
                 final ResourceConfigurationUpdateCriteria criteria = new ResourceConfigurationUpdateCriteria();
-                criteria.fetchConfiguration(true);
                 criteria.addSortCreatedTime(ASC);
-
-                CriteriaQueryExecutor<ResourceConfigurationUpdate, ResourceConfigurationUpdateCriteria> queryExecutor =
-                        new CriteriaQueryExecutor<ResourceConfigurationUpdate, ResourceConfigurationUpdateCriteria>() {
-                            @Override
-                            public PageList<ResourceConfigurationUpdate> execute(ResourceConfigurationUpdateCriteria criteria) {
-                                return configurationManager.findResourceConfigurationUpdatesByCriteria(caller, criteria);
-                            }
-                        };
-
-                CriteriaQuery<ResourceConfigurationUpdate, ResourceConfigurationUpdateCriteria> query =
-                        new CriteriaQuery<ResourceConfigurationUpdate, ResourceConfigurationUpdateCriteria>(criteria, queryExecutor);
-
-                stream.write((getHeader() + "\n").getBytes());
-                for (ResourceConfigurationUpdate alert : query) {
-                    String record = toCSV(alert)  + "\n";
-                    stream.write(record.getBytes());
+                // the rows are streamed from a database cursor rather than paged through. This keeps a database
+                // connection for as long as the client takes to download the report, see the stream method.
+                criteria.clearPaging();
+
+                final String detailsURLPrefix = getDetailsURLPrefix();
+
+                CsvRowWriter csvWriter = new CsvRowWriter(stream);
+                csvWriter.addColumn(csvWriter.column(UPDATE_ID));
+                csvWriter.addColumn(csvWriter.dateTimeColumn(CREATED_TIME));
+                csvWriter.addColumn(csvWriter.dateTimeColumn(MODIFIED_TIME));
+                csvWriter.addColumn(csvWriter.column(STATUS));
+                csvWriter.addColumn(csvWriter.column(RESOURCE_NAME));
+                csvWriter.addColumn(new ColumnAccessor() {
+                    @Override
+                    public Object getValue(Object[] row) {
+                        return ReportFormatHelper.parseAncestry((String) row[RESOURCE_ANCESTRY]);
+                    }
+                });
+                csvWriter.addColumn(new ColumnAccessor() {
+                    @Override
+                    public Object getValue(Object[] row) {
+                        return detailsURLPrefix + row[RESOURCE_ID] + "/Configuration/History/" + row[UPDATE_ID];
+                    }
+                });
+
+                csvWriter.writeLine(getHeader());
+                int rows = configurationManager.streamResourceConfigurationUpdatesByCriteria(caller, criteria,
+                    PROJECTION, csvWriter);
+                csvWriter.flush();
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Wrote " + rows + " configuration updates for " + caller);
                 }
-
-            }
-            private String toCSV(ResourceConfigurationUpdate configurationUpdate) {
-                return  configurationUpdate.getId() + ","
-                        + formatDateTime(configurationUpdate.getCreatedTime())+","
-                        + formatDateTime(configurationUpdate.getModifiedTime())+","
-                        + configurationUpdate.getStatus()+","
-                        + cleanForCSV(configurationUpdate.getResource().getName())+ ","
-                        + cleanForCSV(ReportFormatHelper.parseAncestry(configurationUpdate.getResource().getAncestry())) + ","
-                        + getDetailsURL(configurationUpdate);
-                //@todo: check dates, user, update-type
             }
 
             private String getHeader(){
                 return "Version,Date Submitted,Date Completed,Status,Name,Ancestry,Details URL";
             }
 
-            private String getDetailsURL(ResourceConfigurationUpdate configUpdate) {
+            private String getDetailsURLPrefix() {
                 String protocol;
                 if (request.isSecure()) {
                     protocol = "https";
@@ -98,8 +111,7 @@ public class ConfigurationHistoryHandler extends AbstractRestBean implements Con
                 }
 
                 return protocol + "://" + request.getServerName() + ":" + request.getServerPort() +
-                    "/coregui/#Resource/" + configUpdate.getResource().getId() + "/Configuration/History/" +
-                    configUpdate.getId();
+                    "/coregui/#Resource/";
             }
         };
     }
@@ -0,0 +1,116 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.rest.reporting;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.rhq.enterprise.server.util.CriteriaQueryRowHandler;
+import org.rhq.enterprise.server.util.CriteriaQueryRunner;
+
+/**
+ * Writes the rows of a projection query as CSV while they are read from the database, see
+ * {@link CriteriaQueryRunner#scroll(CriteriaQueryRowHandler)}. Unlike {@link CsvWriter}, which reads the properties
+ * of entities reflectively, the columns are accessors of the row values that are set up before the rows are
+ * written. The output is buffered, call {@link #flush()} when done.
+ */
+public class CsvRowWriter implements CriteriaQueryRowHandler {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Writer writer;
+
+    private final List<ColumnAccessor> columns = new ArrayList<ColumnAccessor>();
+
+    // same format as ReportFormatHelper.formatDateTime(), but only created once
+    private final DateFormat dateTimeFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.LONG);
+
+    public CsvRowWriter(OutputStream outputStream) {
+        writer = new BufferedWriter(new OutputStreamWriter(outputStream), BUFFER_SIZE);
+    }
+
+    /**
+     * Adds the next column.
+     */
+    public void addColumn(ColumnAccessor column) {
+        columns.add(column);
+    }
+
+    /**
+     * @return an accessor of the value at the given index of the row
+     */
+    public ColumnAccessor column(final int index) {
+        return new ColumnAccessor() {
+            @Override
+            public Object getValue(Object[] row) {
+                return row[index];
+            }
+        };
+    }
+
+    /**
+     * @return an accessor that formats the epoch milliseconds at the given index of the row like
+     * {@link ReportFormatHelper#formatDateTime(long)}
+     */
+    public ColumnAccessor dateTimeColumn(final int index) {
+        return new ColumnAccessor() {
+            @Override
+            public Object getValue(Object[] row) {
+                Long epochMillis = (Long) row[index];
+                if (epochMillis == null) {
+                    return null;
+                }
+                return (epochMillis != 0L) ? dateTimeFormat.format(new Date(epochMillis)) : " ";
+            }
+        };
+    }
+
+    /**
+     * Writes a line as it is, e.g. the header.
+     */
+    public void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    @Override
+    public void handleRow(Object[] row) throws IOException {
+        for (int i = 0, size = columns.size(); i < size; ++i) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = columns.get(i).getValue(row);
+            if (value != null) {
+                writer.write(ReportFormatHelper.cleanForCSV(value.toString()));
+            }
+        }
+        writer.write('\n');
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+}
@@ -48,6 +48,7 @@ import org.rhq.enterprise.server.rest.ReportsInterceptor;
 import org.rhq.enterprise.server.util.CriteriaQuery;
 import org.rhq.enterprise.server.util.CriteriaQueryExecutor;
 
+import static org.rhq.core.domain.criteria.Criteria.Restriction.COLLECTION_ONLY;
 import static org.rhq.core.domain.resource.InventoryStatus.COMMITTED;
 import static org.rhq.core.domain.util.PageOrdering.ASC;
 
@@ -120,6 +121,9 @@ public class InventorySummaryHandler extends AbstractRestBean implements Invento
 
                     CriteriaQuery<Resource, ResourceCriteria> query =
                         new CriteriaQuery<Resource, ResourceCriteria>(criteria, queryExecutor);
+                    query.setKeysetPaging(true);
+                    // the report never needs the total count, so do not run a count query for every page
+                    criteria.setRestriction(COLLECTION_ONLY);
 
                     CsvWriter<Resource> csvWriter = new CsvWriter<Resource>();
                     List<String> columns = getDetailsColumns();
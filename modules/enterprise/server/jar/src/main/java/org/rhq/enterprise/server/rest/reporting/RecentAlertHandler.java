@@ -4,8 +4,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -17,22 +18,18 @@ import javax.ws.rs.core.StreamingOutput;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import org.rhq.core.domain.alert.Alert;
 import org.rhq.core.domain.alert.AlertCondition;
 import org.rhq.core.domain.alert.AlertConditionCategory;
-import org.rhq.core.domain.alert.AlertConditionLog;
 import org.rhq.core.domain.alert.AlertConditionOperator;
 import org.rhq.core.domain.alert.AlertPriority;
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.criteria.AlertCriteria;
 import org.rhq.core.domain.measurement.MeasurementUnits;
-import org.rhq.core.domain.util.PageList;
 import org.rhq.core.domain.util.PageOrdering;
+import org.rhq.enterprise.server.alert.AlertConditionManagerLocal;
 import org.rhq.enterprise.server.alert.AlertManagerLocal;
 import org.rhq.enterprise.server.rest.AbstractRestBean;
 import org.rhq.enterprise.server.rest.ReportsInterceptor;
-import org.rhq.enterprise.server.util.CriteriaQuery;
-import org.rhq.enterprise.server.util.CriteriaQueryExecutor;
 
 @Interceptors(ReportsInterceptor.class)
 @Stateless
@@ -40,9 +37,32 @@ public class RecentAlertHandler extends AbstractRestBean implements RecentAlertL
 
     private final Log log = LogFactory.getLog(RecentAlertHandler.class);
 
+    // the columns of the report, in order of their index in the projection below
+    private static final int ALERT_ID = 0;
+    private static final int CTIME = 1;
+    private static final int DEFINITION_NAME = 2;
+    private static final int PRIORITY = 3;
+    private static final int ACKNOWLEDGE_TIME = 4;
+    private static final int ACKNOWLEDGING_SUBJECT = 5;
+    private static final int RESOURCE_ID = 6;
+    private static final int RESOURCE_NAME = 7;
+    private static final int RESOURCE_ANCESTRY = 8;
+    private static final int CONDITION_COUNT = 9;
+    private static final int CONDITION_ID = 10;
+
+    private static final String PROJECTION = "" //
+        + "alert.id, alert.ctime, alert.alertDefinition.name, alert.alertDefinition.priority, " //
+        + "alert.acknowledgeTime, alert.acknowledgingSubject, alert.alertDefinition.resource.id, " //
+        + "alert.alertDefinition.resource.name, alert.alertDefinition.resource.ancestry, " //
+        + "(SELECT COUNT(acl) FROM AlertConditionLog acl WHERE acl.alert = alert), " //
+        + "(SELECT MIN(acl2.condition.id) FROM AlertConditionLog acl2 WHERE acl2.alert = alert)";
+
     @EJB
     private AlertManagerLocal alertManager;
 
+    @EJB
+    private AlertConditionManagerLocal alertConditionManager;
+
     public StreamingOutput recentAlertsInternal(
             String alertPriority,
             Long startTime,
@@ -79,57 +99,51 @@ public class RecentAlertHandler extends AbstractRestBean implements RecentAlertL
                 }
 
                 criteria.addFilterPriorities(getAlertPriorities());
+                // the rows are streamed from a database cursor rather than paged through. This keeps a database
+                // connection for as long as the client takes to download the report, see the stream method.
+                criteria.clearPaging();
 
-                CriteriaQueryExecutor<Alert, AlertCriteria> queryExecutor =
-                        new CriteriaQueryExecutor<Alert, AlertCriteria>() {
-                            @Override
-                            public PageList<Alert> execute(AlertCriteria criteria) {
-
-                                return alertManager.findAlertsByCriteria(caller, criteria);
-                            }
-                        };
+                final String detailsURLPrefix = getDetailsURLPrefix();
+                final Map<Integer, String> conditionTexts = new HashMap<Integer, String>();
 
-                CriteriaQuery<Alert, AlertCriteria> query =
-                        new CriteriaQuery<Alert, AlertCriteria>(criteria, queryExecutor);
-
-                CsvWriter<Alert> csvWriter = new CsvWriter<Alert>();
-                csvWriter.setColumns("ctime", "alertDefinition.name", "conditionText", "alertDefinition.priority",
-                    "status", "alertDefinition.resource.name", "ancestry", "detailsURL");
-
-                csvWriter.setPropertyConverter("ctime", csvWriter.DATE_CONVERTER);
-                csvWriter.setPropertyConverter("conditionText", new PropertyConverter<Alert>() {
+                CsvRowWriter csvWriter = new CsvRowWriter(stream);
+                csvWriter.addColumn(csvWriter.dateTimeColumn(CTIME));
+                csvWriter.addColumn(csvWriter.column(DEFINITION_NAME));
+                csvWriter.addColumn(new ColumnAccessor() {
                     @Override
-                    public Object convert(Alert alert, String propertyName) {
-                        return getConditionText(alert);
+                    public Object getValue(Object[] row) {
+                        return getConditionText(((Number) row[CONDITION_COUNT]).longValue(),
+                            (Integer) row[CONDITION_ID], conditionTexts);
                     }
                 });
-
-                csvWriter.setPropertyConverter("status", new PropertyConverter<Alert>() {
+                csvWriter.addColumn(csvWriter.column(PRIORITY));
+                csvWriter.addColumn(new ColumnAccessor() {
                     @Override
-                    public Object convert(Alert alert, String propertyName) {
-                        return getStatus(alert);
+                    public Object getValue(Object[] row) {
+                        return getStatus((Long) row[ACKNOWLEDGE_TIME], (String) row[ACKNOWLEDGING_SUBJECT]);
                     }
                 });
-
-                csvWriter.setPropertyConverter("ancestry", new PropertyConverter<Alert>() {
+                csvWriter.addColumn(csvWriter.column(RESOURCE_NAME));
+                csvWriter.addColumn(new ColumnAccessor() {
                     @Override
-                    public Object convert(Alert alert, String propertyName) {
-                        return ReportFormatHelper.parseAncestry(alert.getAlertDefinition().getResource().getAncestry());
+                    public Object getValue(Object[] row) {
+                        return ReportFormatHelper.parseAncestry((String) row[RESOURCE_ANCESTRY]);
                     }
                 });
-
-                csvWriter.setPropertyConverter("detailsURL", new PropertyConverter<Alert>() {
+                csvWriter.addColumn(new ColumnAccessor() {
                     @Override
-                    public Object convert(Alert alert, String propertyName) {
-                        return getDetailsURL(alert);
+                    public Object getValue(Object[] row) {
+                        return detailsURLPrefix + row[RESOURCE_ID] + "/Alerts/History/" + row[ALERT_ID];
                     }
                 });
 
-                stream.write((getHeader() + "\n").getBytes());
-                for (Alert alert : query) {
-                    csvWriter.write(alert, stream);
-                }
+                csvWriter.writeLine(getHeader());
+                int rows = alertManager.streamAlertsByCriteria(caller, criteria, PROJECTION, csvWriter);
+                csvWriter.flush();
 
+                if (log.isDebugEnabled()) {
+                    log.debug("Wrote " + rows + " alerts for " + caller);
+                }
             }
 
             private AlertPriority[] getAlertPriorities() {
@@ -147,14 +161,14 @@ public class RecentAlertHandler extends AbstractRestBean implements RecentAlertL
                 return "Creation Time,Name,Condition Text,Priority,Status,Resource,Ancestry,Details URL";
             }
 
-            private String getStatus(Alert alert) {
-                if (alert.getAcknowledgeTime() == null || alert.getAcknowledgeTime() < 0) {
+            private String getStatus(Long acknowledgeTime, String acknowledgingSubject) {
+                if (acknowledgeTime == null || acknowledgeTime < 0) {
                     return "No Ack";
                 }
-                return "Ack (" + alert.getAcknowledgingSubject() + ")";
+                return "Ack (" + acknowledgingSubject + ")";
             }
 
-            private String getDetailsURL(Alert alert) {
+            private String getDetailsURLPrefix() {
                 String protocol;
                 if (request.isSecure()) {
                     protocol = "https";
@@ -163,36 +177,26 @@ public class RecentAlertHandler extends AbstractRestBean implements RecentAlertL
                 }
 
                 return protocol + "://" + request.getServerName() + ":" + request.getServerPort() +
-                    "/coregui/#Resource/" + alert.getAlertDefinition().getResource().getId() + "/Alerts/History/" +
-                    alert.getId();
+                    "/coregui/#Resource/";
             }
 
-            private String getConditionText(Alert alert) {
-                Set<AlertConditionLog> conditionLogs = alert.getConditionLogs();
-                String conditionText = null;
-                String conditionValue;
-
-                if (conditionLogs.size() > 1) {
-                    conditionText = "Multiple Conditions";
-                } else if (conditionLogs.size() == 1) {
-                    AlertConditionLog conditionLog = conditionLogs.iterator().next();
-                    AlertCondition condition = conditionLog.getCondition();
-                    conditionText = formatCondition(condition);
-                    conditionValue = conditionLog.getValue();
-                    if (condition.getMeasurementDefinition() != null) {
-                        try {
-                            conditionValue = MeasurementConverter.format(conditionLog.getValue(),
-                                condition.getMeasurementDefinition().getUnits());
-                        } catch (Exception e) {
-                            // the condition log value was probably not a number (most likely a trait). Ignore this exception.
-                            // even if any other errors occur trying to format the value, ignore this and just use the raw value string
-                        }
-                    }
-                } else {
-                    conditionText = "No Conditions";
-                    conditionValue = "--";
+            /**
+             * Alerts of the same definition share their conditions, so the text of each condition is only
+             * formatted once.
+             */
+            private String getConditionText(long conditionCount, Integer conditionId,
+                Map<Integer, String> conditionTexts) {
+                if (conditionCount > 1) {
+                    return "Multiple Conditions";
+                } else if (conditionCount == 0 || conditionId == null) {
+                    return "No Conditions";
                 }
 
+                String conditionText = conditionTexts.get(conditionId);
+                if (conditionText == null) {
+                    conditionText = formatCondition(alertConditionManager.getAlertConditionById(conditionId));
+                    conditionTexts.put(conditionId, conditionText);
+                }
                 return conditionText;
             }
 
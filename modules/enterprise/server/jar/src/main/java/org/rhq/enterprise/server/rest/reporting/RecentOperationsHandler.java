@@ -1,5 +1,7 @@
 package org.rhq.enterprise.server.rest.reporting;
 
+import static org.rhq.core.domain.criteria.Criteria.Restriction.COLLECTION_ONLY;
+
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -92,6 +94,9 @@ public class RecentOperationsHandler extends AbstractRestBean implements RecentO
 
                 CriteriaQuery<ResourceOperationHistory, ResourceOperationHistoryCriteria> query =
                         new CriteriaQuery<ResourceOperationHistory, ResourceOperationHistoryCriteria>(criteria, queryExecutor);
+                query.setKeysetPaging(true);
+                // the report never needs the total count, so do not run a count query for every page
+                criteria.setRestriction(COLLECTION_ONLY);
 
                 CsvWriter<ResourceOperationHistory> csvWriter = new CsvWriter<ResourceOperationHistory>();
                 csvWriter.setColumns("startedTime", "operationDefinition.displayName", "subjectName", "status",
@@ -21,6 +21,10 @@ package org.rhq.enterprise.server.storage;
 
 import static org.rhq.server.metrics.StorageClientConstants.DATA_CENTER;
 import static org.rhq.server.metrics.StorageClientConstants.LOAD_BALANCING;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_ENABLED;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_MAX;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_MIN;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_QUEUE_TIMEOUT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
@@ -32,6 +36,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import javax.annotation.Resource;
 import javax.ejb.ConcurrencyManagement;
@@ -58,6 +64,7 @@ import com.datastax.driver.core.policies.DefaultRetryPolicy;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
 import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -79,8 +86,11 @@ import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
 import org.rhq.server.metrics.MetricsConstants;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.MetricsSeriesCache;
 import org.rhq.server.metrics.MetricsServer;
+import org.rhq.server.metrics.StorageNodeLimiter;
 import org.rhq.server.metrics.StorageSession;
+import org.rhq.server.metrics.aggregation.AggregationProgress;
 
 /**
  * @author John Sanda
@@ -434,7 +444,139 @@ public class StorageClientManager implements StorageClientManagerMBean{
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public long getTotalRequests() {
-        return session.getTimeouts();
+        return session.getTotalRequests();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public boolean isStorageNodeLimitEnabled() {
+        return session.isNodeLimitEnabled();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setStorageNodeLimitEnabled(boolean enabled) {
+        session.setNodeLimitEnabled(enabled);
+        persistStorageProperty(NODE_LIMIT_ENABLED, Boolean.toString(enabled));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getStorageNodeLimitMin() {
+        return session.getNodeLimitMin();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getStorageNodeLimitMax() {
+        return session.getNodeLimitMax();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setStorageNodeLimits(double min, double max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Invalid storage node limits [min: " + min + ", max: " + max + "]");
+        }
+        session.setNodeLimits(min, max);
+        persistStorageProperty(NODE_LIMIT_MIN, Double.toString(min));
+        persistStorageProperty(NODE_LIMIT_MAX, Double.toString(max));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getStorageNodeLimitQueueTimeout() {
+        return session.getNodeLimitQueueTimeout();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setStorageNodeLimitQueueTimeout(long queueTimeout) {
+        session.setNodeLimitQueueTimeout(queueTimeout);
+        persistStorageProperty(NODE_LIMIT_QUEUE_TIMEOUT, Long.toString(queueTimeout));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getStorageNodeRejectedRequests() {
+        return session.getNodeRejections();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Map<String, String> getStorageNodeRequestStats() {
+        Map<String, String> stats = new TreeMap<String, String>();
+        for (StorageNodeLimiter limiter : session.getNodeLimiters()) {
+            stats.put(limiter.getAddress().getHostAddress(), "limit=" + (int) limiter.getLimit() + ", inFlight=" +
+                limiter.getInFlight() + ", requests=" + limiter.getRequests() + ", rejections=" +
+                limiter.getRejections() + ", timeouts=" + limiter.getTimeouts() + ", avgLatency=" +
+                Math.round(limiter.getAverageLatency()) + "ms");
+        }
+        return stats;
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public String getAggregationProgress() {
+        AggregationProgress progress = metricsServer.getAggregationProgress();
+        return progress == null ? "Aggregation has not run yet" : progress.toString();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheHits() {
+        MetricsSeriesCache cache = metricsServer.getSeriesCache();
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCachePartialHits() {
+        MetricsSeriesCache cache = metricsServer.getSeriesCache();
+        return cache == null ? 0 : cache.getPartialHits();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheMisses() {
+        MetricsSeriesCache cache = metricsServer.getSeriesCache();
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getMetricsCacheSize() {
+        MetricsSeriesCache cache = metricsServer.getSeriesCache();
+        return cache == null ? 0 : cache.getSize();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void clearMetricsCache() {
+        MetricsSeriesCache cache = metricsServer.getSeriesCache();
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int getGroupQueryConcurrency() {
+        return metricsServer.getGroupQueryConcurrency();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getGroupQueryTimeout() {
+        return metricsServer.getGroupQueryTimeout();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setGroupQueryLimits(int maxConcurrency, long timeout) {
+        metricsServer.setGroupQueryLimits(maxConcurrency, timeout);
+        persistStorageProperty(MetricsConstants.GROUP_QUERY_CONCURRENCY, Integer.toString(maxConcurrency));
+        persistStorageProperty(MetricsConstants.GROUP_QUERY_TIMEOUT, Long.toString(timeout));
     }
 
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
@@ -522,6 +664,11 @@ public class StorageClientManager implements StorageClientManagerMBean{
         if (policy == null || policy.equals("RoundRobin")) {
             return new RoundRobinPolicy();
         }
+        if (policy.equals("TokenAwareRoundRobin")) {
+            // routes each request to a replica of its partition. The per node admission control in StorageSession
+            // is only applied with this policy since it is the only one where the coordinator is known up front.
+            return new TokenAwarePolicy(new RoundRobinPolicy());
+        }
         if (policy.equals("DCAwareRoundRobin")) {
             String dataCenter = System.getProperty(DATA_CENTER);
             if (dataCenter == null) {
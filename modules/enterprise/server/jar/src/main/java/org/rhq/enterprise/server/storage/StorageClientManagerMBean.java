@@ -1,5 +1,7 @@
 package org.rhq.enterprise.server.storage;
 
+import java.util.Map;
+
 /**
  * @author John Sanda
  */
@@ -29,4 +31,55 @@ public interface StorageClientManagerMBean {
 
     long getTotalRequests();
 
+    boolean isStorageNodeLimitEnabled();
+
+    void setStorageNodeLimitEnabled(boolean enabled);
+
+    double getStorageNodeLimitMin();
+
+    double getStorageNodeLimitMax();
+
+    void setStorageNodeLimits(double min, double max);
+
+    long getStorageNodeLimitQueueTimeout();
+
+    void setStorageNodeLimitQueueTimeout(long queueTimeout);
+
+    long getStorageNodeRejectedRequests();
+
+    /**
+     * @return The current admission state (limit, in flight requests, latency, rejections) of each storage node
+     * keyed by node address
+     */
+    Map<String, String> getStorageNodeRequestStats();
+
+    /**
+     * @return The number of schedules read from the index and the number of schedules aggregated so far for the
+     * current (or most recent) aggregation run
+     */
+    String getAggregationProgress();
+
+    /**
+     * @return The hit and miss counts of the graph data cache
+     */
+    long getMetricsCacheHits();
+
+    long getMetricsCachePartialHits();
+
+    long getMetricsCacheMisses();
+
+    long getMetricsCacheSize();
+
+    void clearMetricsCache();
+
+    int getGroupQueryConcurrency();
+
+    long getGroupQueryTimeout();
+
+    /**
+     * @param maxConcurrency The maximum number of schedules queried concurrently by a group query
+     * @param timeout The number of milliseconds after which a group query fails
+     */
+    void setGroupQueryLimits(int maxConcurrency, long timeout);
+
 }
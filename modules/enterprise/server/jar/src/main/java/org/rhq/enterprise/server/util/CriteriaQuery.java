@@ -18,10 +18,17 @@
  */
 package org.rhq.enterprise.server.util;
 
+import java.lang.reflect.Method;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.rhq.core.domain.criteria.BaseCriteria;
+import org.rhq.core.domain.criteria.Criteria;
+import org.rhq.core.domain.util.OrderingField;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 
@@ -33,6 +40,14 @@ import org.rhq.core.domain.util.PageList;
  * 
  * and automatically page through all of the results in PageControl.getPageSize(def. 200) chunks.
  * 
+ * Callers that do not need the total number of results should restrict the criteria to
+ * {@link Criteria.Restriction#COLLECTION_ONLY}, so that no count query is run for the pages.
+ *
+ * With {@link #setKeysetPaging(boolean) keyset paging}, the pages after the first one are fetched by seeking past
+ * the last result of the previous page rather than by increasing the page number, see
+ * {@link Criteria#setSeekPosition(Object...)}. This keeps the database from producing and throwing away all the
+ * preceding results for every page, which makes iterating over large results quadratic.
+ *
  * @author John Sanda
  * @author Simeon Pinder
  *
@@ -41,12 +56,16 @@ import org.rhq.core.domain.util.PageList;
  */
 public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
 
+    private static final Log LOG = LogFactory.getLog(CriteriaQuery.class);
+
     //Criteria instance used by Executor to page through results
     private C criteria;
 
     //Executor
     private CriteriaQueryExecutor<T, C> queryExecutor;
 
+    private boolean keysetPaging;
+
     /**
      * It is important that the <code>criteria</code> includes sorting.  If not then paging is nonsensical as the DB
      * provides no guarantee of ordering.  If no sort is specified, an implicit sort on ID is added.
@@ -60,12 +79,28 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
         this.queryExecutor = queryExecutor;
     }
 
+    /**
+     * Turns keyset paging on or off, it is off by default. Only turn it on if the executor runs the criteria through
+     * {@link CriteriaQueryRunner} or otherwise honors the seek position, and if it returns the entities the criteria
+     * is for. If the criteria uses page control overrides or customized sorting, keyset paging is not used. If
+     * the values of the ordering fields can not be read from the last result of a page, e.g. because one of them is
+     * null, the next page is fetched by increasing the page number, counting from the last seek position.
+     *
+     * @param keysetPaging whether to seek to the pages after the first one
+     */
+    public void setKeysetPaging(boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+    }
+
     /** Returns iterator for a single page of results as defined by
      * i)the Criteria instance
      * ii)the paging details applied to the Criteria instance
      */
     @Override
     public Iterator<T> iterator() {
+        if (isSeekable()) {
+            ((Criteria) criteria).setSeekPosition();
+        }
         return new QueryResultsIterator(executeQuery());
     }
 
@@ -73,6 +108,65 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
         return queryExecutor.execute(criteria);
     }
 
+    private boolean isSeekable() {
+        if (!keysetPaging || !(criteria instanceof Criteria)) {
+            return false;
+        }
+        Criteria c = (Criteria) criteria;
+        return c.getPageControlOverrides() == null && c.getPageSize() != null && c.getPageSize() > 0
+            && c.isSupportsAddSortId() && CriteriaQueryGenerator.isSeekable(c);
+    }
+
+    /**
+     * @return the values of the ordering fields of the given result or null if they can not all be read
+     */
+    private Object[] getSeekPosition(Criteria criteria, Object result) {
+        List<OrderingField> orderingFields = CriteriaQueryGenerator.getPageControl(criteria).getOrderingFields();
+        Object[] seekPosition = new Object[orderingFields.size()];
+        for (int i = 0; i < seekPosition.length; i++) {
+            String fieldName = orderingFields.get(i).getField();
+            String override = criteria.getJPQLSortOverride(fieldName);
+            Object value = getPropertyValue(result, (override == null) ? fieldName : override);
+            if (!(value instanceof Comparable)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Can not seek past [" + fieldName + "] value [" + value + "], falling back to paging");
+                }
+                return null;
+            }
+            seekPosition[i] = value;
+        }
+        return seekPosition;
+    }
+
+    /**
+     * Follows a property path like <code>resourceType.name</code> through the getters of the given bean, which also
+     * works for lazy-loaded proxies.
+     *
+     * @return the value of the property or null if it, or a property on the way, is null or can not be read
+     */
+    private static Object getPropertyValue(Object bean, String path) {
+        for (String propertyName : path.split("\\.")) {
+            if (bean == null || propertyName.length() == 0
+                || !Character.isJavaIdentifierStart(propertyName.charAt(0))) {
+                return null;
+            }
+            String suffix = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+            try {
+                Method getter;
+                try {
+                    getter = bean.getClass().getMethod("get" + suffix);
+                } catch (NoSuchMethodException e) {
+                    getter = bean.getClass().getMethod("is" + suffix);
+                }
+                getter.setAccessible(true);
+                bean = getter.invoke(bean);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return bean;
+    }
+
     //Defines the iterator that:
     //    i)creates page sized chunks results
     //    ii)at the end of each pageList, moves the iterator to next page and continues iteration
@@ -85,12 +179,15 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
 
         private boolean reachedEnd;
 
+        private final boolean seekable;
+
         /**The first pageList returned by the criteria instance is where iteration begins.
          * @param firstPage
          */
         public QueryResultsIterator(PageList<T> firstPage) {
             currentPage = firstPage;
             iterator = currentPage.iterator();
+            seekable = isSeekable();
         }
 
         @Override
@@ -105,26 +202,46 @@ public class CriteriaQuery<T, C extends BaseCriteria> implements Iterable<T> {
                 if (pcCurrent == null && pcOverrides == null) {
                     // Without any indication on paging, iterate only on the initially provided list
                     reachedEnd = true;
+                } else if (seekable) {
+                    Criteria c = (Criteria) criteria;
+                    int pageSize = c.getPageSize();
+                    if (currentPage.size() < pageSize) {
+                        // a page that is not full is the last one, no need to fetch an empty one
+                        reachedEnd = true;
+                    } else {
+                        Object[] seekPosition = getSeekPosition(c, currentPage.get(currentPage.size() - 1));
+                        if (seekPosition != null) {
+                            c.setSeekPosition(seekPosition);
+                            c.setPaging(0, pageSize);
+                        } else {
+                            // the page number counts from the last seek position
+                            c.setPaging(c.getPageNumber() + 1, pageSize);
+                        }
+                        fetchNextPage();
+                    }
                 } else {
                     if (pcOverrides != null) {
                         pcOverrides.setPageNumber(pcOverrides.getPageNumber() + 1);
                     } else {
                         criteria.setPaging(pcCurrent.getPageNumber() + 1, pcCurrent.getPageSize());
                     }
-
-                    //help out the GC.
-                    currentPage.clear();
-
-                    currentPage = queryExecutor.execute(criteria);
-                    iterator = currentPage.iterator();
-                    reachedEnd = !iterator.hasNext(); //if we got an empty collection as a result for obtaining the next page
-                                                      //we can be pretty sure we're past the number of available results
+                    fetchNextPage();
                 }
             }
 
             return iterator.hasNext();
         }
 
+        private void fetchNextPage() {
+            //help out the GC.
+            currentPage.clear();
+
+            currentPage = queryExecutor.execute(criteria);
+            iterator = currentPage.iterator();
+            reachedEnd = !iterator.hasNext(); //if we got an empty collection as a result for obtaining the next page
+                                              //we can be pretty sure we're past the number of available results
+        }
+
         @Override
         public T next() {
             if (!hasNext()) {
@@ -24,9 +24,11 @@ package org.rhq.enterprise.server.util;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EnumType;
@@ -66,6 +68,9 @@ public final class CriteriaQueryGenerator {
 
     private static final Log LOG = LogFactory.getLog(CriteriaQueryGenerator.class);
 
+    // a sort field or override that can be compared against a seek position
+    private static final Pattern PROPERTY_PATH = Pattern.compile("[A-Za-z_]\\w*(\\.[A-Za-z_]\\w*)*");
+
     public enum AuthorizationTokenType {
         RESOURCE, // specifies the resource alias to join on for standard res-group-role-subject authorization checking
         GROUP, // specifies the group alias to join on for standard group-role-subject authorization checking
@@ -481,6 +486,7 @@ public final class CriteriaQueryGenerator {
         // figure out the 'LEFT JOIN's needed for 'ORDER BY' tokens
         List<String> orderingFieldRequiredJoins = new ArrayList<String>();
         List<String> orderingFieldTokens = new ArrayList<String>();
+        List<String> orderingFieldExpressions = new ArrayList<String>();
 
         for (OrderingField orderingField : pc.getOrderingFields()) {
             PageOrdering ordering = orderingField.getOrdering();
@@ -500,6 +506,7 @@ public final class CriteriaQueryGenerator {
             if (criteria.hasCustomizedSorting()) {
                 // customized sorting does not get LEFT JOIN expressions added
                 orderingFieldTokens.add(sortFragment + " " + ordering);
+                orderingFieldExpressions.add(null);
                 continue;
             }
 
@@ -507,6 +514,7 @@ public final class CriteriaQueryGenerator {
             if (lastDelimiterIndex == -1) {
                 // does not require joins, just add the ordering field token directly
                 orderingFieldTokens.add(sortFragment + " " + ordering);
+                orderingFieldExpressions.add(null);
                 continue;
             }
 
@@ -515,6 +523,7 @@ public final class CriteriaQueryGenerator {
                 // only one dot implies its a property/field directly off of the primary alias
                 // thus, also does not require joins, just add the ordering field token directly
                 orderingFieldTokens.add(sortFragment + " " + ordering);
+                orderingFieldExpressions.add(sortFragment);
                 continue;
             }
 
@@ -533,11 +542,16 @@ public final class CriteriaQueryGenerator {
             }
 
             orderingFieldTokens.add(joinAlias + "." + expressionLeaf + " " + ordering);
+            orderingFieldExpressions.add(joinAlias + "." + expressionLeaf);
         }
 
+        // the count query counts all results, not only those after the seek position
+        String seekFragment = countQuery ? null : getSeekFragment(pc, orderingFieldExpressions);
+
         Map<String, Object> filterFields = getFilterFields(criteria);
         if (filterFields.size() > 0 || authorizationPermsFragment != null
-            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null) {
+            || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null
+            || seekFragment != null) {
             results.append("WHERE ");
         }
 
@@ -620,6 +634,16 @@ public final class CriteriaQueryGenerator {
             results.append(searchExpressionWhereClause);
         }
 
+        if (seekFragment != null) {
+            if (firstCrit) {
+                firstCrit = false;
+            } else {
+                // always want AND for the seek, regardless of conjunctiveFragment
+                results.append(NL).append(" AND ");
+            }
+            results.append(seekFragment);
+        }
+
         if (countQuery == false) {
             // group by clause
             if (groupByClause != null) {
@@ -650,6 +674,77 @@ public final class CriteriaQueryGenerator {
         return results.toString();
     }
 
+    /**
+     * Builds the condition that restricts the results to those sorting after the {@link Criteria#getSeekPosition()
+     * seek position}. For ordering fields f1, f2 and id, the condition is
+     * <pre>f1 > :seek0 OR (f1 = :seek0 AND f2 > :seek1) OR (f1 = :seek0 AND f2 = :seek1 AND id > :seek2)</pre>
+     * where the comparison is reversed for descending fields.
+     *
+     * @return the condition or null if there is no seek position to start from
+     */
+    private String getSeekFragment(PageControl pc, List<String> orderingFieldExpressions) {
+        Object[] seekPosition = criteria.getSeekPosition();
+        if (seekPosition == null || seekPosition.length == 0) {
+            return null;
+        }
+
+        List<OrderingField> orderingFields = pc.getOrderingFields();
+        if (seekPosition.length != orderingFields.size() || Arrays.asList(seekPosition).contains(null)
+            || orderingFieldExpressions.contains(null)) {
+            throw new IllegalArgumentException("Can not seek to " + Arrays.toString(seekPosition)
+                + " for ordering fields " + orderingFields
+                + ", they must all be entity properties and the position must not contain null values");
+        }
+
+        StringBuilder fragment = new StringBuilder("( ");
+        for (int i = 0; i < orderingFields.size(); i++) {
+            if (i > 0) {
+                fragment.append(NL).append(" OR ");
+            }
+            fragment.append("( ");
+            for (int j = 0; j < i; j++) {
+                fragment.append(orderingFieldExpressions.get(j)).append(" = :seek").append(j).append(" AND ");
+            }
+
+            OrderingField orderingField = orderingFields.get(i);
+            String expression = orderingFieldExpressions.get(i);
+            if (orderingField.getOrdering() == PageOrdering.DESC) {
+                // NULLs sort first in descending order, so they were all returned before the position
+                fragment.append(expression).append(" < :seek").append(i);
+            } else if ("id".equals(orderingField.getField())) {
+                fragment.append(expression).append(" > :seek").append(i);
+            } else {
+                // NULLs sort last in ascending order on the databases we support
+                fragment.append("( ").append(expression).append(" > :seek").append(i).append(" OR ")
+                    .append(expression).append(" IS NULL )");
+            }
+            fragment.append(" )");
+        }
+        fragment.append(" )");
+
+        return fragment.toString();
+    }
+
+    /**
+     * Tells whether the results of the criteria can be paged through by {@link Criteria#setSeekPosition(Object...)
+     * seeking}, which requires all ordering fields to be entity properties. This is not the case for customized
+     * sorting, for sorting by column ordinal or for sort overrides that are expressions, like aggregates.
+     */
+    public static boolean isSeekable(Criteria criteria) {
+        if (criteria.hasCustomizedSorting()) {
+            return false;
+        }
+        for (OrderingField orderingField : getPageControl(criteria).getOrderingFields()) {
+            String fieldName = orderingField.getField();
+            String override = criteria.getJPQLSortOverride(fieldName);
+            String suffix = (override == null) ? fieldName : override;
+            if (!PROPERTY_PATH.matcher(suffix).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private boolean isNumber(String input) {
         if (input == null) {
             return false;
@@ -894,6 +989,7 @@ public final class CriteriaQueryGenerator {
         String queryString = getQueryString(false);
         Query query = em.createQuery(queryString);
         setBindValues(query);
+        setSeekBindValues(query);
         PersistenceUtility.setDataPage(query, getPageControl(criteria));
         return query;
     }
@@ -934,6 +1030,19 @@ public final class CriteriaQueryGenerator {
         }
     }
 
+    private void setSeekBindValues(Query query) {
+        Object[] seekPosition = criteria.getSeekPosition();
+        if (seekPosition == null) {
+            return;
+        }
+        for (int i = 0; i < seekPosition.length; i++) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Bind: (seek" + i + ", " + seekPosition[i] + ")");
+            }
+            query.setParameter("seek" + i, seekPosition[i]);
+        }
+    }
+
     private String prepareStringBindValue(String value) {
         if (!criteria.isStrict()) {
             value = "%" + QueryUtility.escapeSearchParameter(value) + "%";
@@ -1075,9 +1184,23 @@ public final class CriteriaQueryGenerator {
         // set, because they may still not have unique values. See https://bugzilla.redhat.com/show_bug.cgi?id=966665.
         if (!pc.isUnlimited() && criteria.isSupportsAddSortId()) {
             pc.addDefaultOrderingField("id");
+
+            // addDefaultOrderingField() gives up if there already are three ordering fields, but keyset paging only
+            // works if the position of a result is unique.
+            if (criteria.getSeekPosition() != null && !hasOrderingField(pc, "id")) {
+                pc.getOrderingFields().add(new OrderingField("id", PageOrdering.ASC));
+            }
         }
 
         return pc;
     }
 
+    private static boolean hasOrderingField(PageControl pc, String fieldName) {
+        for (OrderingField orderingField : pc.getOrderingFields()) {
+            if (orderingField.getField().equals(fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
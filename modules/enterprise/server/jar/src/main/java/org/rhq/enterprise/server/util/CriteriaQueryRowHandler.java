@@ -0,0 +1,35 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a criteria query one at a time, see {@link CriteriaQueryRunner#scroll(CriteriaQueryRowHandler)}.
+ */
+public interface CriteriaQueryRowHandler {
+
+    /**
+     * @param row the values selected by the projection of the query, in order. The array is only valid during the
+     *            call.
+     * @throws IOException if the row could not be handled, which stops the query
+     */
+    void handleRow(Object[] row) throws IOException;
+
+}
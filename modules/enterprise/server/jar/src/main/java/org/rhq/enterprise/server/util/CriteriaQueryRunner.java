@@ -23,6 +23,7 @@
 
 package org.rhq.enterprise.server.util;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.Collection;
 import java.util.Iterator;
@@ -34,7 +35,11 @@ import javax.persistence.Query;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.ejb.QueryImpl;
 
 import org.rhq.core.domain.criteria.Criteria;
 import org.rhq.core.domain.criteria.Criteria.Restriction;
@@ -56,6 +61,18 @@ public class CriteriaQueryRunner<T> {
         DATA_FETCH_SETTINGS.setThrowOnMaxAttempts(true);
     }
 
+    // the number of rows the JDBC driver fetches at a time when scrolling through the results
+    private static final int SCROLL_FETCH_SIZE;
+    static {
+        int fetchSize = 500;
+        try {
+            fetchSize = Integer.parseInt(System.getProperty("rhq.server.criteria.scroll-fetch-size", "500"));
+        } catch (Throwable t) {
+            //
+        }
+        SCROLL_FETCH_SIZE = fetchSize;
+    }
+
     public CriteriaQueryRunner(Criteria criteria, CriteriaQueryGenerator queryGenerator, EntityManager entityManager) {
         this(criteria, queryGenerator, entityManager, true);
     }
@@ -74,7 +91,18 @@ public class CriteriaQueryRunner<T> {
         PageControl pageControl = CriteriaQueryGenerator.getPageControl(criteria);
 
         Restriction criteriaRestriction = criteria.getRestriction();
-        if (criteriaRestriction == null) {
+        Object[] seekPosition = criteria.getSeekPosition();
+        if (criteriaRestriction == null && seekPosition != null
+            && (seekPosition.length > 0 || pageControl.getPageNumber() > 0)) {
+            // a page past the first one is only fetched to iterate over the results, don't count them all again for
+            // every page, that would cost as much as the offset the seek position saves
+            results = new PageList<T>(getCollection(), pageControl);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("restriction=" + criteriaRestriction + ", seek=" + seekPosition.length + ", resultSize="
+                    + results.size());
+            }
+
+        } else if (criteriaRestriction == null) {
             try {
                 results = QueryUtility.fetchPagedDataAndCount(queryGenerator.getQuery(entityManager),
                     queryGenerator.getCountQuery(entityManager), pageControl, DATA_FETCH_SETTINGS);
@@ -120,6 +148,50 @@ public class CriteriaQueryRunner<T> {
         return results;
     }
 
+    /**
+     * Runs the query and hands its rows to the given handler one at a time, as they are read from a forward-only
+     * database cursor. Unlike {@link #execute()}, this does not hold the whole result in memory, so it is meant for
+     * exporting large results. The rows should be {@link CriteriaQueryGenerator#alterProjection(String) projected}
+     * to the values that are needed; no fields are fetched and no count query is run. Paging still applies, so clear
+     * it on the criteria to get all the results.
+     * <p/>
+     * This must be called within a transaction, which stays open until all rows are handled. The database connection
+     * and the cursor are held that long too, so a handler that writes to a slow consumer, e.g. the response of an
+     * HTTP client, keeps them for as long as the consumer takes. That is the price of not holding the result in
+     * memory; where it is not acceptable, iterate a {@link CriteriaQuery} with keyset paging instead, which only
+     * needs a short transaction per page.
+     *
+     * @param handler receives the rows
+     * @return the number of rows
+     * @throws IOException if the handler failed, no more rows are read then
+     */
+    public int scroll(CriteriaQueryRowHandler handler) throws IOException {
+        Query query = queryGenerator.getQuery(entityManager);
+        org.hibernate.Query hibernateQuery = ((QueryImpl) query).getHibernateQuery();
+        hibernateQuery.setFetchSize(SCROLL_FETCH_SIZE);
+        hibernateQuery.setReadOnly(true);
+        hibernateQuery.setCacheMode(CacheMode.IGNORE);
+
+        int rows = 0;
+        ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                handler.handleRow(results.get());
+                if (++rows % SCROLL_FETCH_SIZE == 0) {
+                    // don't keep whatever the handler loaded around for the rest of the results
+                    entityManager.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("scrolled through " + rows + " rows of " + CriteriaUtil.toString(criteria));
+        }
+        return rows;
+    }
+
     @SuppressWarnings("unchecked")
     private Collection<? extends T> getCollection() {
         Query query = queryGenerator.getQuery(entityManager);
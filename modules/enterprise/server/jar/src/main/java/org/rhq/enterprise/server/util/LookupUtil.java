@@ -27,6 +27,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -259,6 +260,23 @@ public final class LookupUtil {
         }
     }
 
+    /**
+     * Returns the registry that lets you register callbacks for the completion of the current transaction.
+     *
+     * @return the transaction synchronization registry
+     */
+    public static TransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
+        try {
+            InitialContext context = new InitialContext();
+            String jndi = RHQConstants.TRANSACTION_SYNCHRONIZATION_REGISTRY_JNDI_NAME;
+            TransactionSynchronizationRegistry registry = (TransactionSynchronizationRegistry) context.lookup(jndi);
+            context.close();
+            return registry;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to get the transaction synchronization registry", e);
+        }
+    }
+
     /**
      * Creates and returns an EntityManager that allows you to perform JPA operations.
      *
@@ -18,9 +18,8 @@
  */
 package org.rhq.enterprise.server.util.concurrent;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
@@ -29,8 +28,10 @@ import org.apache.commons.logging.LogFactory;
 public class InventoryReportSerializer {
     private final Log log = LogFactory.getLog(InventoryReportSerializer.class);
 
-    private static Map<String, ReentrantReadWriteLock> locks = new HashMap<String, ReentrantReadWriteLock>();
-    private static Map<String, Long> lockTimes = Collections.synchronizedMap(new HashMap<String, Long>());
+    // concurrent maps so that reports from different agents never wait on each other to look up their locks
+    private static ConcurrentMap<String, ReentrantReadWriteLock> locks =
+        new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+    private static ConcurrentMap<String, Long> lockTimes = new ConcurrentHashMap<String, Long>();
     private static InventoryReportSerializer singleton = new InventoryReportSerializer();
 
     public static InventoryReportSerializer getSingleton() {
@@ -41,15 +42,13 @@ public class InventoryReportSerializer {
         String msg = "tid=" + Thread.currentThread().getId() + "; agent=" + agentName;
         boolean debug = this.log.isDebugEnabled();
 
-        ReentrantReadWriteLock lock = null;
-        logDebug(debug, msg, ": about to synchronize");
-        synchronized (this) {
-            logDebug(debug, msg, ": synchronized");
-            lock = InventoryReportSerializer.locks.get(agentName);
+        ReentrantReadWriteLock lock = InventoryReportSerializer.locks.get(agentName);
+        if (lock == null) {
+            logDebug(debug, msg, ": creating new lock");
+            ReentrantReadWriteLock newLock = new ReentrantReadWriteLock();
+            lock = InventoryReportSerializer.locks.putIfAbsent(agentName, newLock);
             if (lock == null) {
-                logDebug(debug, msg, ": creating new lock");
-                lock = new ReentrantReadWriteLock();
-                InventoryReportSerializer.locks.put(agentName, lock);
+                lock = newLock;
             }
         }
 
@@ -0,0 +1,64 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+@Test
+public class IntObjectMapTest {
+
+    public void testPutAndGet() {
+        IntObjectMap<String> map = new IntObjectMap<String>();
+        for (int i = -500; i < 500; ++i) {
+            assert null == map.put(i * 7, "value" + i);
+        }
+        assert map.size() == 1000;
+        for (int i = -500; i < 500; ++i) {
+            assert ("value" + i).equals(map.get(i * 7));
+        }
+        assert null == map.get(1);
+        assert null == map.get(Integer.MAX_VALUE);
+    }
+
+    public void testReplace() {
+        IntObjectMap<String> map = new IntObjectMap<String>(1);
+        map.put(0, "a");
+        assert "a".equals(map.put(0, "b"));
+        assert "b".equals(map.get(0));
+        assert map.size() == 1;
+    }
+
+    public void testValues() {
+        IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 100; ++i) {
+            map.put(i, i);
+            expected.add(i);
+        }
+        assert expected.equals(new HashSet<Integer>(map.values()));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.alert.engine.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.alert.AlertConditionOperator;
+import org.rhq.enterprise.server.alert.engine.AlertConditionCacheStats;
+import org.rhq.enterprise.server.alert.engine.jms.CachedConditionProducerLocal;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementBaselineCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.MeasurementRangeNumericCacheElement;
+import org.rhq.enterprise.server.alert.engine.model.NumericDoubleCacheElement;
+
+/**
+ * Checks that the evaluator sends the same messages as the cache elements would on their own.
+ */
+@Test
+public class NumericConditionEvaluatorTest {
+
+    private static final int SCHEDULE_ID = 42;
+
+    private static final Double[] BOUNDARY_VALUES = { null, Double.NaN, Double.NEGATIVE_INFINITY,
+        Double.POSITIVE_INFINITY, -Double.MAX_VALUE, -0.0, 0.0, Double.MIN_VALUE, 9.999999, 10.0, 10.000001, 19.99,
+        20.0, 20.01, 30.0, 49.99, 50.0, 50.01, Double.MAX_VALUE };
+
+    private List<Integer> activated;
+
+    private List<Integer> deactivated;
+
+    private AbstractConditionCache cache;
+
+    @BeforeMethod
+    public void init() {
+        activated = new ArrayList<Integer>();
+        deactivated = new ArrayList<Integer>();
+        cache = new AbstractConditionCache(new CachedConditionProducerLocal() {
+            @Override
+            public <S> void sendActivateAlertConditionMessage(int alertConditionId, long timestamp, S value,
+                Object... extraParams) {
+                activated.add(alertConditionId);
+            }
+
+            @Override
+            public void sendDeactivateAlertConditionMessage(int alertConditionId, long timestamp) {
+                deactivated.add(alertConditionId);
+            }
+        }) {
+            @Override
+            public int getCacheSize(AlertConditionCacheCoordinator.Cache cache) {
+                return 0;
+            }
+        };
+    }
+
+    public void testGreaterThan() {
+        assertSameAsCacheElement(AlertConditionOperator.GREATER_THAN, 10.0);
+        assertSameAsCacheElement(AlertConditionOperator.GREATER_THAN, 0.0);
+    }
+
+    public void testLessThan() {
+        assertSameAsCacheElement(AlertConditionOperator.LESS_THAN, 10.0);
+        assertSameAsCacheElement(AlertConditionOperator.LESS_THAN, 0.0);
+    }
+
+    public void testEquals() {
+        assertSameAsCacheElement(AlertConditionOperator.EQUALS, 10.0);
+        // Double.compare, like Double.compareTo, tells 0.0 and -0.0 apart
+        assertSameAsCacheElement(AlertConditionOperator.EQUALS, 0.0);
+        assertSameAsCacheElement(AlertConditionOperator.EQUALS, -0.0);
+    }
+
+    public void testRanges() {
+        assertRangeSameAsCacheElement(AlertConditionOperator.LESS_THAN);
+        assertRangeSameAsCacheElement(AlertConditionOperator.GREATER_THAN);
+        assertRangeSameAsCacheElement(AlertConditionOperator.LESS_THAN_OR_EQUAL_TO);
+        assertRangeSameAsCacheElement(AlertConditionOperator.GREATER_THAN_OR_EQUAL_TO);
+    }
+
+    public void testRangeBoundaries() {
+        MeasurementRangeNumericCacheElement inside = new MeasurementRangeNumericCacheElement(
+            AlertConditionOperator.LESS_THAN, 20.0, 50.0, 1);
+        MeasurementRangeNumericCacheElement insideInclusive = new MeasurementRangeNumericCacheElement(
+            AlertConditionOperator.LESS_THAN_OR_EQUAL_TO, 20.0, 50.0, 2);
+        NumericConditionEvaluator evaluator = createEvaluator(inside, insideInclusive);
+
+        assertActivated(evaluator, 20.0, 2);
+        assertActivated(evaluator, 50.0, 2);
+        assertActivated(evaluator, 30.0, 1, 2);
+        assertActivated(evaluator, 50.01);
+    }
+
+    public void testRangeWithoutUpperBoundNeverMatches() {
+        MeasurementRangeNumericCacheElement element = new MeasurementRangeNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 20.0, null, 1);
+        NumericConditionEvaluator evaluator = createEvaluator(element);
+
+        assertActivated(evaluator, 10.0);
+        assertActivated(evaluator, 60.0);
+    }
+
+    public void testChanges() {
+        MeasurementNumericCacheElement element = new MeasurementNumericCacheElement(AlertConditionOperator.CHANGES,
+            1.0, 1);
+        NumericConditionEvaluator evaluator = createEvaluator(element);
+
+        assertActivated(evaluator, 1.0);
+        assertActivated(evaluator, 2.0, 1);
+        assertActivated(evaluator, 2.0);
+        // invalid values are neither reported nor remembered
+        assertActivated(evaluator, Double.NaN);
+        assertActivated(evaluator, null);
+        assertActivated(evaluator, 2.0);
+        assertActivated(evaluator, 3.0, 1);
+        assert Double.valueOf(3.0).equals(element.getAlertConditionValue()) : "The element must track the last value";
+        assert deactivated.isEmpty() : "CHANGES is stateless";
+    }
+
+    public void testChangesWithoutInitialValueNeverMatches() {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementNumericCacheElement(
+            AlertConditionOperator.CHANGES, null, 1));
+
+        assertActivated(evaluator, 1.0);
+        assertActivated(evaluator, 2.0);
+    }
+
+    public void testBaselineWithoutValueNeverMatches() {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementBaselineCacheElement(
+            AlertConditionOperator.GREATER_THAN, Double.NaN, 1, "mean"));
+
+        assertActivated(evaluator, 0.0);
+        assertActivated(evaluator, Double.MAX_VALUE);
+    }
+
+    public void testStatefulConditionIsDeactivatedOnce() {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 10.0, 1));
+
+        assertActivated(evaluator, 11.0, 1);
+        assertActivated(evaluator, 5.0);
+        assert deactivated.equals(Arrays.asList(1)) : deactivated;
+        assertActivated(evaluator, 5.0);
+        assert deactivated.equals(Arrays.asList(1)) : "Inactive conditions must not be deactivated again";
+        assertActivated(evaluator, 12.0, 1);
+    }
+
+    public void testUnknownScheduleIsIgnored() {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementNumericCacheElement(
+            AlertConditionOperator.GREATER_THAN, 10.0, 1));
+
+        assert evaluator.evaluate(cache, SCHEDULE_ID + 1, 11.0, 0, new AlertConditionCacheStats()) == 0;
+        assert activated.isEmpty();
+        assert deactivated.isEmpty();
+    }
+
+    private void assertSameAsCacheElement(AlertConditionOperator operator, double threshold) {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementNumericCacheElement(operator, threshold,
+            1));
+        MeasurementNumericCacheElement reference = new MeasurementNumericCacheElement(operator, threshold, 1);
+        for (Double value : BOUNDARY_VALUES) {
+            assertMatches(evaluator, value, reference.matches(value), operator + " " + threshold);
+        }
+    }
+
+    private void assertRangeSameAsCacheElement(AlertConditionOperator operator) {
+        NumericConditionEvaluator evaluator = createEvaluator(new MeasurementRangeNumericCacheElement(operator, 20.0,
+            50.0, 1));
+        MeasurementRangeNumericCacheElement reference = new MeasurementRangeNumericCacheElement(operator, 20.0, 50.0,
+            1);
+        for (Double value : BOUNDARY_VALUES) {
+            assertMatches(evaluator, value, reference.matches(value), "range " + operator);
+        }
+    }
+
+    private void assertMatches(NumericConditionEvaluator evaluator, Double value, boolean expected, String condition) {
+        activated.clear();
+        evaluator.evaluate(cache, SCHEDULE_ID, value, 0, new AlertConditionCacheStats());
+        assert activated.isEmpty() != expected : condition + " should " + (expected ? "" : "not ") + "match "
+            + value;
+    }
+
+    private void assertActivated(NumericConditionEvaluator evaluator, Double value, Integer... conditionIds) {
+        activated.clear();
+        AlertConditionCacheStats stats = new AlertConditionCacheStats();
+        assert evaluator.evaluate(cache, SCHEDULE_ID, value, 0, stats) == 0;
+        assert activated.equals(Arrays.asList(conditionIds)) : value + " activated " + activated;
+        assert stats.matched == conditionIds.length;
+    }
+
+    private NumericConditionEvaluator createEvaluator(NumericDoubleCacheElement... elements) {
+        IntObjectMap<List<NumericDoubleCacheElement>> elementsBySchedule =
+            new IntObjectMap<List<NumericDoubleCacheElement>>();
+        elementsBySchedule.put(SCHEDULE_ID, Arrays.asList(elements));
+        return new NumericConditionEvaluator(elementsBySchedule);
+    }
+}
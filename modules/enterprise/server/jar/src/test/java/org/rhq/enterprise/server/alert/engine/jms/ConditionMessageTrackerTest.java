@@ -0,0 +1,113 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.alert.engine.jms;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ConditionMessageTrackerTest {
+
+    // the tracker is a singleton, so every test uses its own condition ids
+
+    public void testNothingPending() {
+        ConditionMessageTracker tracker = ConditionMessageTracker.getInstance();
+        long waits = tracker.getWaits();
+
+        assert tracker.awaitProcessed(new int[] { 1001, 1002 }, 0);
+        assert tracker.getWaits() == waits;
+    }
+
+    public void testTimeout() {
+        ConditionMessageTracker tracker = ConditionMessageTracker.getInstance();
+        long timeouts = tracker.getWaitTimeouts();
+
+        tracker.sent(2001);
+        try {
+            assert !tracker.awaitProcessed(new int[] { 2001 }, 50);
+            assert tracker.getWaitTimeouts() == timeouts + 1;
+        } finally {
+            tracker.processed(2001);
+        }
+        assert tracker.awaitProcessed(new int[] { 2001 }, 0);
+    }
+
+    public void testWaitUntilProcessed() throws Exception {
+        final ConditionMessageTracker tracker = ConditionMessageTracker.getInstance();
+        int pending = tracker.getPendingCount();
+
+        tracker.sent(3001);
+        tracker.sent(3001);
+        tracker.sent(3002);
+        assert tracker.getPendingCount() == pending + 3;
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    waiting.await();
+                    tracker.processed(3001);
+                    tracker.processed(3002);
+                    tracker.processed(3001);
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        consumer.start();
+        waiting.countDown();
+
+        assert tracker.awaitProcessed(new int[] { 3001, 3002 }, 10000);
+        assert tracker.getPendingCount() == pending;
+        consumer.join();
+    }
+
+    public void testUnknownProcessedIsIgnored() {
+        ConditionMessageTracker tracker = ConditionMessageTracker.getInstance();
+        int pending = tracker.getPendingCount();
+
+        tracker.processed(4001);
+        assert tracker.getPendingCount() == pending;
+    }
+
+    public void testLostMessagesExpire() throws Exception {
+        ConditionMessageTracker tracker = new ConditionMessageTracker(50);
+
+        tracker.sent(5001);
+        tracker.sent(5002);
+        assert tracker.getPendingCount() == 2;
+
+        Thread.sleep(100);
+        tracker.sent(5002);
+        // both have expired, 5002 was sent again and is pending
+        assert tracker.awaitProcessed(new int[] { 5001 }, 0);
+        assert !tracker.awaitProcessed(new int[] { 5002 }, 0);
+        assert tracker.getExpiredCount() == 2;
+
+        Thread.sleep(100);
+        assert tracker.getPendingCount() == 0;
+        assert tracker.getExpiredCount() == 3;
+
+        // a late processed call for an expired message is ignored
+        tracker.processed(5002);
+        assert tracker.getPendingCount() == 0;
+    }
+}
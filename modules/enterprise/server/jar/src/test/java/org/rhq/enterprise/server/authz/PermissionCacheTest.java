@@ -0,0 +1,120 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.authz;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.authz.Permission;
+
+@Test
+public class PermissionCacheTest {
+
+    private PermissionCache cache;
+
+    @BeforeMethod
+    public void clearCache() {
+        cache = PermissionCache.getInstance();
+        cache.invalidate();
+    }
+
+    public void testRolePermissions() {
+        assertNull(cache.getRolePermissions(10));
+
+        Set<Permission> permissions = new HashSet<Permission>();
+        permissions.add(Permission.MANAGE_INVENTORY);
+        permissions.add(Permission.CONFIGURE_READ);
+        cache.putRolePermissions(10, permissions, cache.getGeneration());
+
+        assertEquals(cache.getRolePermissions(10), permissions);
+        assertNull(cache.getRolePermissions(11), "permissions must be cached per subject");
+        assertNull(cache.getGroupPermissions(10, 0), "group permissions must not be mixed up with role permissions");
+    }
+
+    public void testResourceAccess() {
+        PermissionCache.Access access = new PermissionCache.Access(EnumSet.of(Permission.CONTROL), true);
+        cache.putResourceAccess(10, 500, access, cache.getGeneration());
+        cache.putResourceAccess(11, 500, PermissionCache.Access.NONE, cache.getGeneration());
+
+        PermissionCache.Access cached = cache.getResourceAccess(10, 500);
+        assertTrue(cached.isViewable());
+        assertEquals(cached.getPermissions(), EnumSet.of(Permission.CONTROL));
+
+        cached = cache.getResourceAccess(11, 500);
+        assertFalse(cached.isViewable());
+        assertTrue(cached.getPermissions().isEmpty());
+
+        assertNull(cache.getResourceAccess(10, 501));
+    }
+
+    public void testInvalidate() {
+        cache.putGroupPermissions(10, 20, EnumSet.of(Permission.MODIFY_RESOURCE), cache.getGeneration());
+        assertEquals(cache.getGroupPermissions(10, 20), EnumSet.of(Permission.MODIFY_RESOURCE));
+
+        cache.invalidate();
+        assertNull(cache.getGroupPermissions(10, 20));
+    }
+
+    public void testInvalidateSubject() {
+        cache.putRolePermissions(10, EnumSet.of(Permission.MANAGE_INVENTORY), cache.getGeneration());
+        cache.putResourceAccess(10, 500, PermissionCache.Access.NONE, cache.getGeneration());
+        cache.putRolePermissions(11, EnumSet.of(Permission.MANAGE_INVENTORY), cache.getGeneration());
+
+        cache.invalidateSubject(10);
+        assertNull(cache.getRolePermissions(10));
+        assertNull(cache.getResourceAccess(10, 500));
+        assertEquals(cache.getRolePermissions(11), EnumSet.of(Permission.MANAGE_INVENTORY));
+    }
+
+    public void testInvalidateResources() {
+        cache.putResourceAccess(10, 500, PermissionCache.Access.NONE, cache.getGeneration());
+        cache.putResourceAccess(11, 500, PermissionCache.Access.NONE, cache.getGeneration());
+        cache.putResourceAccess(10, 501, PermissionCache.Access.NONE, cache.getGeneration());
+        cache.putGroupPermissions(10, 500, EnumSet.of(Permission.CONTROL), cache.getGeneration());
+
+        cache.invalidateResources(Collections.singleton(500));
+        assertNull(cache.getResourceAccess(10, 500));
+        assertNull(cache.getResourceAccess(11, 500));
+        assertNotNull(cache.getResourceAccess(10, 501));
+        assertEquals(cache.getGroupPermissions(10, 500), EnumSet.of(Permission.CONTROL),
+            "a group with the same id as the resource must not be invalidated");
+    }
+
+    public void testLoadRacingInvalidateIsDropped() {
+        // what was loaded before the cache got invalidated may already be stale and must not be cached
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        cache.putGroupPermissions(10, 20, EnumSet.of(Permission.MODIFY_RESOURCE), generation);
+        assertNull(cache.getGroupPermissions(10, 20));
+
+        cache.putGroupPermissions(10, 20, EnumSet.of(Permission.MODIFY_RESOURCE), cache.getGeneration());
+        assertEquals(cache.getGroupPermissions(10, 20), EnumSet.of(Permission.MODIFY_RESOURCE));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.resource.group.definition;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+@Test
+public class GroupDefinitionChangeTrackerTest {
+
+    public void testChangesAreHandedOutOneDrainLater() {
+        GroupDefinitionChangeTracker tracker = createTracker(100);
+        tracker.inventoryChanged(1);
+        tracker.traitsChanged(Arrays.asList(10, 11));
+        tracker.pluginConfigurationChanged(2);
+
+        // the transactions that recorded the changes may not have committed yet
+        assertTrue(tracker.drain().isEmpty());
+
+        tracker.inventoryChanged(3);
+        GroupDefinitionChangeTracker.Changes changes = tracker.drain();
+        assertFalse(changes.isEmpty());
+        assertFalse(changes.isOverflowed());
+        assertEquals(changes.getInventoryResourceIds(), ids(1));
+        assertEquals(changes.getTraitScheduleIds(), ids(10, 11));
+        assertEquals(changes.getPluginConfigurationResourceIds(), ids(2));
+
+        // once more for the transactions that took longer to commit
+        changes = tracker.drain();
+        assertEquals(changes.getInventoryResourceIds(), ids(1, 3));
+        assertEquals(changes.getTraitScheduleIds(), ids(10, 11));
+        assertEquals(changes.getPluginConfigurationResourceIds(), ids(2));
+
+        changes = tracker.drain();
+        assertEquals(changes.getInventoryResourceIds(), ids(3));
+        assertTrue(changes.getTraitScheduleIds().isEmpty());
+        assertTrue(tracker.drain().isEmpty());
+    }
+
+    public void testRequeuedChangesAreHandedOutAgain() {
+        GroupDefinitionChangeTracker tracker = createTracker(100);
+        tracker.inventoryChanged(1);
+        tracker.traitsChanged(Arrays.asList(10));
+        tracker.drain();
+        GroupDefinitionChangeTracker.Changes changes = tracker.drain();
+        tracker.drain();
+        assertTrue(tracker.drain().isEmpty());
+
+        tracker.requeue(changes);
+        changes = tracker.drain();
+        assertEquals(changes.getInventoryResourceIds(), ids(1));
+        assertEquals(changes.getTraitScheduleIds(), ids(10));
+
+        tracker.drain();
+        tracker.requeue(Arrays.asList(2, 3));
+        changes = tracker.drain();
+        assertEquals(changes.getInventoryResourceIds(), ids(2, 3));
+        assertTrue(changes.getTraitScheduleIds().isEmpty());
+    }
+
+    public void testTooManyChangesOverflow() {
+        GroupDefinitionChangeTracker tracker = createTracker(3);
+        tracker.inventoryChanged(1);
+        tracker.inventoryChanged(2);
+        tracker.traitsChanged(Arrays.asList(10, 11));
+        tracker.pluginConfigurationChanged(3);
+        tracker.drain();
+
+        GroupDefinitionChangeTracker.Changes changes = tracker.drain();
+        assertFalse(changes.isEmpty(), "an overflow asks for a full recalculation");
+        assertTrue(changes.isOverflowed());
+        assertTrue(changes.getInventoryResourceIds().isEmpty());
+        assertTrue(changes.getTraitScheduleIds().isEmpty());
+        assertTrue(changes.getPluginConfigurationResourceIds().isEmpty());
+
+        tracker.drain();
+        tracker.requeue(changes);
+        assertTrue(tracker.drain().isOverflowed(), "a requeued overflow still asks for a full recalculation");
+    }
+
+    public void testNothingIsRecordedWhenDisabled() {
+        GroupDefinitionChangeTracker tracker = new GroupDefinitionChangeTracker(100);
+        tracker.inventoryChanged(1);
+        tracker.traitsChanged(Arrays.asList(10));
+        tracker.pluginConfigurationChanged(2);
+        tracker.requeue(Arrays.asList(3));
+        tracker.drain();
+
+        assertTrue(tracker.drain().isEmpty());
+        assertFalse(tracker.isEnabledSince(System.currentTimeMillis()));
+    }
+
+    public void testDisablingForgetsTheChanges() {
+        GroupDefinitionChangeTracker tracker = createTracker(100);
+        tracker.inventoryChanged(1);
+        tracker.drain();
+        tracker.inventoryChanged(2);
+
+        tracker.setEnabled(false);
+        tracker.setEnabled(true);
+        tracker.drain();
+        assertTrue(tracker.drain().isEmpty());
+    }
+
+    public void testEnabledSince() {
+        GroupDefinitionChangeTracker tracker = createTracker(100);
+        long now = System.currentTimeMillis();
+
+        // the other servers may not have applied the setting yet
+        assertFalse(tracker.isEnabledSince(now));
+        assertTrue(tracker.isEnabledSince(now + 60L * 60 * 1000));
+    }
+
+    private static GroupDefinitionChangeTracker createTracker(int maxChanges) {
+        GroupDefinitionChangeTracker tracker = new GroupDefinitionChangeTracker(maxChanges);
+        tracker.setEnabled(true);
+        return tracker;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        return new HashSet<Integer>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.rest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.lang.reflect.Field;
+import java.security.Principal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.EJBContext;
+import javax.interceptor.InvocationContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.infinispan.Cache;
+import org.jboss.resteasy.mock.MockHttpRequest;
+import org.jboss.resteasy.specimpl.RequestImpl;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+
+@Test
+public class AbstractRestBeanTest {
+
+    private static final int NOT_MODIFIED = Response.Status.NOT_MODIFIED.getStatusCode();
+    private static final int OK = Response.Status.OK.getStatusCode();
+
+    /** the entries of the REST-API cache, shared by the beans like the real one */
+    private Map<Object, Object> entries;
+
+    @BeforeMethod
+    public void clearCache() {
+        entries = new HashMap<Object, Object>();
+    }
+
+    public void testNotModified() throws Exception {
+        TestBean bean = createBean("alice", 2);
+
+        Response response = get(bean, null, null);
+        assertEquals(response.getStatus(), OK);
+        assertEquals(response.getEntity(), "first");
+        Object eTag = response.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        response = get(bean, eTag.toString(), null);
+        assertEquals(response.getStatus(), NOT_MODIFIED, "the client already has the content");
+        assertEquals(bean.created, 1, "the response should have come from the cache");
+
+        response = get(bean, "\"outdated\"", null);
+        assertEquals(response.getStatus(), OK);
+        assertEquals(response.getEntity(), "first");
+        assertEquals(response.getMetadata().getFirst(HttpHeaders.ETAG).toString(), eTag.toString());
+    }
+
+    public void testIfModifiedSince() throws Exception {
+        TestBean bean = createBean("alice", 2);
+        bean.lastModified = new Date(1400000000000L);
+        String before = "Mon, 12 May 2014 00:00:00 GMT";
+        String after = "Wed, 14 May 2014 00:00:00 GMT";
+
+        assertEquals(get(bean, null, before).getStatus(), OK);
+        assertEquals(get(bean, null, after).getStatus(), NOT_MODIFIED);
+
+        // the entity tag takes precedence
+        Object eTag = get(bean, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+        assertEquals(get(bean, "\"outdated\"", after).getStatus(), OK);
+        assertEquals(get(bean, eTag.toString(), before).getStatus(), NOT_MODIFIED);
+    }
+
+    public void testResponsesAreCachedPerCaller() throws Exception {
+        TestBean aliceBean = createBean("alice", 2);
+        TestBean bobBean = createBean("bob", 3);
+        bobBean.content = "second";
+
+        assertEquals(get(aliceBean, null, null).getEntity(), "first");
+        assertEquals(get(bobBean, null, null).getEntity(), "second", "bob must not get alice's response");
+        assertEquals(get(aliceBean, null, null).getEntity(), "first");
+        assertEquals(get(bobBean, null, null).getEntity(), "second");
+        assertEquals(aliceBean.created, 1);
+        assertEquals(bobBean.created, 1);
+    }
+
+    public void testChangesInvalidateTheCache() throws Exception {
+        TestBean bean = createBean("alice", 2);
+        SetCallerInterceptor interceptor = createInterceptor("alice", 2);
+
+        get(bean, null, null);
+        get(bean, null, null);
+        assertEquals(bean.created, 1);
+
+        interceptor.setCaller(createInvocationContext(bean, "read"));
+        get(bean, null, null);
+        assertEquals(bean.created, 1, "a GET method does not change anything");
+
+        bean.content = "updated";
+        interceptor.setCaller(createInvocationContext(bean, "update"));
+        assertEquals(get(bean, null, null).getEntity(), "updated");
+        assertEquals(bean.created, 2);
+
+        bean.content = "created";
+        interceptor.setCaller(createInvocationContext(bean, "create"));
+        assertEquals(get(bean, null, null).getEntity(), "created");
+        assertEquals(bean.created, 3);
+    }
+
+    private Response get(TestBean bean, String ifNoneMatch, String ifModifiedSince) throws Exception {
+        MockHttpRequest httpRequest = MockHttpRequest.get("/test/1").accept(MediaType.APPLICATION_JSON_TYPE);
+        if (ifNoneMatch != null) {
+            httpRequest.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            httpRequest.header(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince);
+        }
+        return bean.get(new RequestImpl(httpRequest), httpRequest.getHttpHeaders(), httpRequest.getUri());
+    }
+
+    @SuppressWarnings("unchecked")
+    private TestBean createBean(String name, int subjectId) {
+        Cache<AbstractRestBean.CacheKey, Object> cache = mock(Cache.class);
+        when(cache.get(any())).thenAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                return entries.get(invocation.getArguments()[0]);
+            }
+        });
+        when(cache.put(any(AbstractRestBean.CacheKey.class), any(), anyLong(), any(TimeUnit.class))).thenAnswer(
+            new Answer<Object>() {
+                public Object answer(InvocationOnMock invocation) {
+                    return entries.put(invocation.getArguments()[0], invocation.getArguments()[1]);
+                }
+            });
+
+        TestBean bean = new TestBean();
+        bean.cache = cache;
+        bean.caller = createSubject(name, subjectId);
+        return bean;
+    }
+
+    private static SetCallerInterceptor createInterceptor(String name, int subjectId) throws Exception {
+        Principal principal = mock(Principal.class);
+        when(principal.getName()).thenReturn(name);
+        EJBContext ejbContext = mock(EJBContext.class);
+        when(ejbContext.getCallerPrincipal()).thenReturn(principal);
+        SubjectManagerLocal subjectManager = mock(SubjectManagerLocal.class);
+        when(subjectManager.getSubjectByName(anyString())).thenReturn(createSubject(name, subjectId));
+
+        SetCallerInterceptor interceptor = new SetCallerInterceptor();
+        setField(interceptor, "ejbContext", ejbContext);
+        setField(interceptor, "subjectManager", subjectManager);
+        return interceptor;
+    }
+
+    private static InvocationContext createInvocationContext(TestBean bean, String methodName) throws Exception {
+        InvocationContext ctx = mock(InvocationContext.class);
+        when(ctx.getTarget()).thenReturn(bean);
+        when(ctx.getMethod()).thenReturn(TestBean.class.getMethod(methodName));
+        when(ctx.proceed()).thenReturn(null);
+        return ctx;
+    }
+
+    private static Subject createSubject(String name, int id) {
+        Subject subject = new Subject(name, true, false);
+        subject.setId(id);
+        return subject;
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    public static class TestBean extends AbstractRestBean {
+        private String content = "first";
+        private Date lastModified;
+        private int created;
+
+        public Response get(Request request, HttpHeaders headers, UriInfo uriInfo) {
+            return getCachedResponse(request, headers, uriInfo, new ResponseFactory() {
+                @Override
+                public Response.ResponseBuilder createResponse() {
+                    created++;
+                    Response.ResponseBuilder builder = Response.ok(content, MediaType.APPLICATION_JSON_TYPE);
+                    if (lastModified != null) {
+                        builder.lastModified(lastModified);
+                    }
+                    return builder;
+                }
+            });
+        }
+
+        @GET
+        public void read() {
+        }
+
+        @PUT
+        public void update() {
+        }
+
+        @POST
+        public void create() {
+        }
+    }
+}
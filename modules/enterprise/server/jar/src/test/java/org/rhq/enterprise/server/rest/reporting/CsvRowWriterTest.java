@@ -0,0 +1,77 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.rest.reporting;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.testng.annotations.Test;
+
+@Test
+public class CsvRowWriterTest {
+
+    public void testWriteRows() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvRowWriter writer = new CsvRowWriter(out);
+        writer.addColumn(writer.column(1));
+        writer.addColumn(writer.column(0));
+        writer.addColumn(new ColumnAccessor() {
+            @Override
+            public Object getValue(Object[] row) {
+                return "#" + row[0];
+            }
+        });
+
+        writer.writeLine("Name,Id,Link");
+        writer.handleRow(new Object[] { 1, "first" });
+        writer.handleRow(new Object[] { 2, null });
+        assertEquals(out.size(), 0, "the output should be buffered until flushed");
+
+        writer.flush();
+        assertEquals(out.toString(), "Name,Id,Link\nfirst,1,#1\n,2,#2\n");
+    }
+
+    public void testValuesAreCleaned() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvRowWriter writer = new CsvRowWriter(out);
+        writer.addColumn(writer.column(0));
+        writer.addColumn(writer.column(1));
+
+        writer.handleRow(new Object[] { "a,b", "line\nbreak" });
+        writer.flush();
+
+        assertEquals(out.toString(), "a b,line break\n");
+    }
+
+    public void testDateTimeColumn() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CsvRowWriter writer = new CsvRowWriter(out);
+        writer.addColumn(writer.dateTimeColumn(0));
+
+        long time = 1400000000000L;
+        writer.handleRow(new Object[] { time });
+        writer.handleRow(new Object[] { 0L });
+        writer.handleRow(new Object[] { null });
+        writer.flush();
+
+        String expected = ReportFormatHelper.cleanForCSV(ReportFormatHelper.formatDateTime(time));
+        assertEquals(out.toString(), expected + "\n \n\n");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.server.util;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.criteria.ResourceCriteria;
+import org.rhq.core.domain.util.OrderingField;
+import org.rhq.core.domain.util.PageOrdering;
+
+/**
+ * Tests the conditions the generator adds to seek past the last result of the previous page.
+ */
+@Test
+public class CriteriaQueryGeneratorTest {
+
+    // the default filter of the resource criteria, the seek condition must be ANDed to it
+    private static final String WHERE = "WHERE ( resource.inventoryStatus = :inventoryStatus ) AND ";
+
+    public void testSeekAscending() {
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setSeekPosition("b", 7);
+
+        assertWhere(criteria, "( ( ( resource.name > :seek0 OR resource.name IS NULL ) )"
+            + " OR ( resource.name = :seek0 AND resource.id > :seek1 ) )");
+        assertSeekParameters(criteria, "b", 7);
+    }
+
+    public void testSeekDescending() {
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortName(PageOrdering.DESC);
+        criteria.setSeekPosition("b", 7);
+
+        assertWhere(criteria, "( ( resource.name < :seek0 )"
+            + " OR ( resource.name = :seek0 AND resource.id > :seek1 ) )");
+        assertSeekParameters(criteria, "b", 7);
+    }
+
+    public void testSeekJoinedSortPath() {
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortResourceTypeName(PageOrdering.ASC);
+        criteria.setSeekPosition("Linux", 7);
+
+        String query = getQueryString(criteria);
+        assertTrue(query.contains(" LEFT JOIN resource.resourceType orderingField0 "), query);
+        assertWhere(criteria, "( ( ( orderingField0.name > :seek0 OR orderingField0.name IS NULL ) )"
+            + " OR ( orderingField0.name = :seek0 AND resource.id > :seek1 ) )");
+        assertSeekParameters(criteria, "Linux", 7);
+    }
+
+    public void testSeekNullHandling() {
+        // NULLs sort last in ascending and first in descending order, ids are never null
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.addSortVersion(PageOrdering.DESC);
+        criteria.setSeekPosition("b", "1.0", 7);
+
+        assertWhere(criteria, "( ( ( resource.name > :seek0 OR resource.name IS NULL ) )"
+            + " OR ( resource.name = :seek0 AND resource.version < :seek1 )"
+            + " OR ( resource.name = :seek0 AND resource.version = :seek1 AND resource.id > :seek2 ) )");
+
+        // a null value can not be compared, such a result has to be paged past instead
+        criteria.setSeekPosition("b", null, 7);
+        try {
+            getQueryString(criteria);
+            assert false : "Seeking to a null value should have failed";
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testSeekAddsIdBeyondThreeOrderingFields() {
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.addSortVersion(PageOrdering.DESC);
+        criteria.addSortResourceTypeName(PageOrdering.ASC);
+
+        // without a seek position the sort on id is only added if there are less than three ordering fields
+        List<OrderingField> orderingFields = CriteriaQueryGenerator.getPageControl(criteria).getOrderingFields();
+        assertEquals(orderingFields.size(), 3);
+        assertFalse(getQueryString(criteria).contains("resource.id"));
+
+        criteria.setSeekPosition("b", "1.0", "Linux", 7);
+        orderingFields = CriteriaQueryGenerator.getPageControl(criteria).getOrderingFields();
+        assertEquals(orderingFields.size(), 4);
+        assertEquals(orderingFields.get(3).getField(), "id");
+        assertEquals(orderingFields.get(3).getOrdering(), PageOrdering.ASC);
+
+        assertWhere(criteria, "( ( ( resource.name > :seek0 OR resource.name IS NULL ) )"
+            + " OR ( resource.name = :seek0 AND resource.version < :seek1 )"
+            + " OR ( resource.name = :seek0 AND resource.version = :seek1"
+            + " AND ( orderingField0.name > :seek2 OR orderingField0.name IS NULL ) )"
+            + " OR ( resource.name = :seek0 AND resource.version = :seek1 AND orderingField0.name = :seek2"
+            + " AND resource.id > :seek3 ) )");
+        assertTrue(getQueryString(criteria).endsWith(
+            " ORDER BY resource.name ASC, resource.version DESC, orderingField0.name ASC, resource.id ASC "));
+        assertSeekParameters(criteria, "b", "1.0", "Linux", 7);
+    }
+
+    public void testCountIgnoresSeekPosition() {
+        ResourceCriteria criteria = createCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setSeekPosition("b", 7);
+
+        CriteriaQueryGenerator generator = new CriteriaQueryGenerator(new Subject(), criteria);
+        assertFalse(generator.getQueryString(true).contains(":seek"));
+
+        EntityManager entityManager = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(entityManager.createQuery(anyString())).thenReturn(query);
+        generator.getCountQuery(entityManager);
+        verify(query, never()).setParameter(eq("seek0"), eq("b"));
+        verify(query, never()).setParameter(eq("seek1"), eq(7));
+    }
+
+    private static ResourceCriteria createCriteria() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.setPaging(0, 100);
+        return criteria;
+    }
+
+    private static String getQueryString(ResourceCriteria criteria) {
+        // ignore how the query is split into lines
+        return new CriteriaQueryGenerator(new Subject(), criteria).getQueryString(false).replaceAll("\\s+", " ");
+    }
+
+    private static void assertWhere(ResourceCriteria criteria, String seekFragment) {
+        String query = getQueryString(criteria);
+        assertTrue(query.contains(" " + WHERE + seekFragment + " ORDER BY "), query);
+    }
+
+    private static void assertSeekParameters(ResourceCriteria criteria, Object... seekPosition) {
+        EntityManager entityManager = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(entityManager.createQuery(anyString())).thenReturn(query);
+
+        new CriteriaQueryGenerator(new Subject(), criteria).getQuery(entityManager);
+        for (int i = 0; i < seekPosition.length; i++) {
+            verify(query).setParameter("seek" + i, seekPosition[i]);
+        }
+    }
+}
@@ -20,6 +20,9 @@ package org.rhq.enterprise.server.util;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -60,6 +63,22 @@ public class CriteriaQueryTest {
         }
     }
 
+    /**
+     * Sorts by the first column of the result rather than by a property of the entity.
+     */
+    private static class FakeColumnOrdinalCriteria extends FakeEntityCriteria {
+        private PageOrdering sortName;
+
+        public FakeColumnOrdinalCriteria() {
+            sortOverrides.put("name", "1");
+        }
+
+        public void addSortName(PageOrdering sortName) {
+            addSortField("name");
+            this.sortName = sortName;
+        }
+    }
+
     private static class FakeCriteriaQueryExecutor implements CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria> {
 
         //list of pagelists
@@ -273,6 +292,93 @@ public class CriteriaQueryTest {
         assertEquals(num, realResults, "Unexpected number for results returned");
     }
 
+    @Test
+    public void iterateWithKeysetPaging() {
+        final List<FakeEntity> total = new ArrayList<FakeEntity>();
+        for (int i = 0; i < 250; i++) {
+            total.add(new FakeEntity(i));
+        }
+        final List<Object[]> seekPositions = new ArrayList<Object[]>();
+
+        CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria> executor = new CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria>() {
+            @Override
+            public PageList<FakeEntity> execute(FakeEntityCriteria criteria) {
+                assertNull(criteria.getRestriction(), "iterating must not restrict the criteria");
+                assertEquals(criteria.getPageNumber(), Integer.valueOf(0), "keyset paging must not skip results");
+
+                Object[] seekPosition = criteria.getSeekPosition();
+                seekPositions.add(seekPosition);
+                int start = (seekPosition.length == 0) ? 0 : ((Integer) seekPosition[0] + 1);
+                int end = Math.min(start + criteria.getPageSize(), total.size());
+                return new PageList<FakeEntity>(total.subList(start, end), new PageControl(0, criteria.getPageSize()));
+            }
+        };
+
+        FakeEntityCriteria criteria = new FakeEntityCriteria();
+        criteria.setPaging(0, 100);
+
+        CriteriaQuery<FakeEntity, FakeEntityCriteria> query = new CriteriaQuery<FakeEntity, FakeEntityCriteria>(
+            criteria, executor);
+        query.setKeysetPaging(true);
+
+        List<FakeEntity> actual = new ArrayList<FakeEntity>();
+        for (FakeEntity entity : query) {
+            actual.add(entity);
+        }
+
+        assertEquals(actual, total);
+        // the last page is not full, so there is no need to ask for another one
+        assertEquals(seekPositions.size(), 3);
+        assertEquals(seekPositions.get(0), new Object[0]);
+        assertEquals(seekPositions.get(1), new Object[] { 99 });
+        assertEquals(seekPositions.get(2), new Object[] { 199 });
+    }
+
+    @Test
+    public void iterateWithKeysetPagingWhenSortingByColumnOrdinal() {
+        final List<FakeEntity> total = new ArrayList<FakeEntity>();
+        for (int i = 0; i < 250; i++) {
+            total.add(new FakeEntity(i));
+        }
+
+        CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria> executor = new CriteriaQueryExecutor<FakeEntity, FakeEntityCriteria>() {
+            @Override
+            public PageList<FakeEntity> execute(FakeEntityCriteria criteria) {
+                assertNull(criteria.getSeekPosition(), "a column ordinal can not be compared to a seek position");
+
+                int start = criteria.getPageNumber() * criteria.getPageSize();
+                int end = Math.min(start + criteria.getPageSize(), total.size());
+                return new PageList<FakeEntity>(total.subList(Math.min(start, end), end), new PageControl(
+                    criteria.getPageNumber(), criteria.getPageSize()));
+            }
+        };
+
+        FakeColumnOrdinalCriteria criteria = new FakeColumnOrdinalCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.setPaging(0, 100);
+        assertFalse(CriteriaQueryGenerator.isSeekable(criteria));
+
+        CriteriaQuery<FakeEntity, FakeEntityCriteria> query = new CriteriaQuery<FakeEntity, FakeEntityCriteria>(
+            criteria, executor);
+        query.setKeysetPaging(true);
+
+        List<FakeEntity> actual = new ArrayList<FakeEntity>();
+        for (FakeEntity entity : query) {
+            actual.add(entity);
+        }
+
+        assertEquals(actual, total);
+    }
+
+    @Test
+    public void isSeekable() {
+        ResourceCriteria criteria = new ResourceCriteria();
+        criteria.addSortName(PageOrdering.ASC);
+        criteria.addSortResourceTypeName(PageOrdering.DESC);
+        criteria.setPaging(0, 100);
+        assertTrue(CriteriaQueryGenerator.isSeekable(criteria));
+    }
+
     @Test
     public void singleResultTest() {
         // This test doesn't really fit here but I;m adding it for convenience
@@ -0,0 +1,140 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.rhq.core.util.exception.ThrowableUtil;
+
+/**
+ * Runs a query for each schedule of a group, with at most a fixed number of queries in flight at a time. Each schedule
+ * is its own partition in the storage cluster, so the queries are independent of each other. Results are expected to
+ * be merged by the query as soon as its partition has been read rather than after all partitions have been read, so
+ * that the time to query a group is close to the time it takes to read the slowest partition.
+ */
+class GroupQueryExecutor {
+
+    interface ScheduleQuery {
+
+        /**
+         * Starts the query for one schedule. The returned future must complete once the data of the schedule has been
+         * merged.
+         */
+        ListenableFuture<?> execute(int scheduleId);
+    }
+
+    private final int maxConcurrency;
+
+    private final long timeout;
+
+    /**
+     * @param maxConcurrency The maximum number of schedule queries in flight
+     * @param timeout The maximum number of milliseconds to wait for all schedule queries to finish
+     */
+    GroupQueryExecutor(int maxConcurrency, long timeout) {
+        this.maxConcurrency = maxConcurrency;
+        this.timeout = timeout;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Runs the query for every schedule and waits for all of them to finish.
+     *
+     * @throws CQLException If any of the queries fails, if the queries do not finish within the timeout or if the
+     * calling thread is interrupted
+     */
+    void execute(List<Integer> scheduleIds, ScheduleQuery query) {
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        final CountDownLatch done = new CountDownLatch(scheduleIds.size());
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        FutureCallback<Object> callback = new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                permits.release();
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                error.compareAndSet(null, t);
+                permits.release();
+                done.countDown();
+            }
+        };
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        try {
+            for (Integer scheduleId : scheduleIds) {
+                if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw timedOut(scheduleIds.size());
+                }
+                if (error.get() != null) {
+                    // No point in starting more queries
+                    break;
+                }
+                ListenableFuture<?> future;
+                try {
+                    future = query.execute(scheduleId);
+                } catch (RuntimeException e) {
+                    callback.onFailure(e);
+                    break;
+                }
+                Futures.addCallback(future, callback);
+            }
+            if (error.get() == null && !done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                throw timedOut(scheduleIds.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CQLException("There was an interrupt while querying data for " + scheduleIds.size() +
+                " schedules", e);
+        }
+
+        Throwable t = error.get();
+        if (t != null) {
+            throw new CQLException("Failed to query data for " + scheduleIds.size() + " schedules: " +
+                ThrowableUtil.getRootMessage(t), t);
+        }
+    }
+
+    private CQLException timedOut(int numSchedules) {
+        return new CQLException("Querying data for " + numSchedules + " schedules did not finish within " + timeout +
+            " ms");
+    }
+}
@@ -63,6 +63,9 @@ public class MetricsConfiguration {
 
     private Duration sixHourTimeSliceDuration = Duration.standardHours(24);
 
+    private int indexPageSize = Integer.parseInt(System.getProperty(MetricsConstants.AGGREGATION_INDEX_PAGE_SIZE,
+        "5000"));
+
     public int getRawTTL() {
         return rawTTL;
     }
@@ -151,6 +154,17 @@ public class MetricsConfiguration {
         this.sixHourTimeSliceDuration = sixHourTimeSliceDuration;
     }
 
+    /**
+     * @return The maximum number of index entries that are fetched with a single query during aggregation
+     */
+    public int getIndexPageSize() {
+        return indexPageSize;
+    }
+
+    public void setIndexPageSize(int indexPageSize) {
+        this.indexPageSize = indexPageSize;
+    }
+
     public Duration getTimeSliceDuration(MetricsTable table) {
         if (MetricsTable.RAW.equals(table)) {
             return this.getRawTimeSliceDuration();
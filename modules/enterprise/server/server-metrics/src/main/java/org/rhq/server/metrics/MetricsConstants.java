@@ -11,6 +11,24 @@ public class MetricsConstants {
 
     public static final String AGGREGATION_PARALLELISM = "rhq.metrics.aggregation.parallelism";
 
+    public static final String AGGREGATION_INDEX_PAGE_SIZE = "rhq.metrics.aggregation.index-page-size";
+
+    public static final String RAW_BATCH_MAX_BYTES = "rhq.metrics.raw.batch.max-bytes";
+
+    public static final String RAW_BATCH_MAX_PARTITIONS = "rhq.metrics.raw.batch.max-partitions";
+
+    public static final String AGGREGATION_ACCUMULATE_RAW_DATA = "rhq.metrics.aggregation.accumulate-raw-data";
+
+    public static final String CACHE_MAX_DATA_POINTS = "rhq.metrics.cache.max-data-points";
+
+    public static final String CACHE_REFRESH_INTERVAL = "rhq.metrics.cache.refresh-interval";
+
+    public static final String CACHE_MAX_AGE = "rhq.metrics.cache.max-age";
+
+    public static final String GROUP_QUERY_CONCURRENCY = "rhq.metrics.group-query.concurrency";
+
+    public static final String GROUP_QUERY_TIMEOUT = "rhq.metrics.group-query.timeout";
+
     private MetricsConstants() {
     }
 }
@@ -26,9 +26,12 @@
 package org.rhq.server.metrics;
 
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
@@ -76,9 +79,17 @@ public class MetricsDAO {
     private PreparedStatement findSixHourMetricsByDateRange;
     private PreparedStatement findTwentyFourHourMetricsByDateRange;
     private PreparedStatement findIndexEntries;
+    private PreparedStatement findIndexEntriesPage;
     private PreparedStatement findTimeSliceForIndex;
     private PreparedStatement deleteIndexEntries;
 
+    // Prepared unlogged batches keyed by the number of statements in the batch. Batches are padded to the next power
+    // of two, so there is at most one prepared statement per power of two up to the largest batch size.
+    private ConcurrentMap<Integer, PreparedStatement> insertRawDataBatches =
+        new ConcurrentHashMap<Integer, PreparedStatement>();
+    private ConcurrentMap<Integer, PreparedStatement> updateMetricsIndexBatches =
+        new ConcurrentHashMap<Integer, PreparedStatement>();
+
     public MetricsDAO(StorageSession session, MetricsConfiguration configuration) {
         this.storageSession = session;
         this.configuration = configuration;
@@ -134,11 +145,18 @@ public class MetricsDAO {
         findIndexEntries = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
+        // LIMIT cannot be a bound value in CQL 3.0, so the page size is fixed when the statement is prepared
+        findIndexEntriesPage = storageSession.prepare("SELECT time, schedule_id FROM " + MetricsTable.INDEX +
+            " WHERE bucket = ? AND time = ? AND schedule_id > ? LIMIT " + configuration.getIndexPageSize());
+
         findTimeSliceForIndex = storageSession.prepare("SELECT time FROM " + MetricsTable.INDEX +
             " WHERE bucket = ? AND time = ?");
 
         deleteIndexEntries = storageSession.prepare("DELETE FROM " + MetricsTable.INDEX + " WHERE bucket = ? AND time = ?");
 
+        insertRawDataBatches.clear();
+        updateMetricsIndexBatches.clear();
+
         long endTime = System.currentTimeMillis();
         log.info("Finished initializing prepared statements in " + (endTime - startTime) + " ms");
     }
@@ -149,6 +167,25 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Inserts the raw data with a single unlogged batch. The caller is responsible for keeping the batch reasonably
+     * small and for grouping data by partition (i.e., schedule id).
+     */
+    public StorageResultSetFuture insertRawData(List<MeasurementDataNumeric> batch) {
+        int size = getBatchSize(batch.size());
+        PreparedStatement statement = getBatchStatement(insertRawDataBatches, size, "INSERT INTO " +
+            MetricsTable.RAW + " (schedule_id, time, value) VALUES (?, ?, ?) USING TTL " + configuration.getRawTTL());
+        Object[] values = new Object[size * 3];
+        int i = 0;
+        for (MeasurementDataNumeric data : batch) {
+            values[i++] = data.getScheduleId();
+            values[i++] = new Date(data.getTimestamp());
+            values[i++] = data.getValue();
+        }
+        padBatch(values, i);
+        return storageSession.executeAsync(statement.bind(values));
+    }
+
     public ResultSet insertOneHourData(int scheduleId, long timestamp, AggregateType type, double value) {
         BoundStatement statement = insertOneHourData.bind(scheduleId, new Date(timestamp), type.ordinal(), value);
         return storageSession.execute(statement);
@@ -288,6 +325,17 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Fetches the next page of index entries, i.e., at most {@link MetricsConfiguration#getIndexPageSize()} entries
+     * with schedule ids greater than <code>afterScheduleId</code>. Entries are ordered by schedule id, so the schedule
+     * id of the last entry of a page is used to fetch the next one. Use {@link Integer#MIN_VALUE} for the first page.
+     */
+    public StorageResultSetFuture findMetricsIndexEntriesAsync(MetricsTable table, long timestamp,
+        int afterScheduleId) {
+        BoundStatement statement = findIndexEntriesPage.bind(table.toString(), new Date(timestamp), afterScheduleId);
+        return storageSession.executeAsync(statement);
+    }
+
     public ResultSet setFindTimeSliceForIndex(MetricsTable table, long timestamp) {
         BoundStatement statement = findTimeSliceForIndex.bind(table.toString(), new Date(timestamp));
         return storageSession.execute(statement);
@@ -306,6 +354,66 @@ public class MetricsDAO {
         return storageSession.executeAsync(statement);
     }
 
+    /**
+     * Adds the schedule ids to a single index partition with one unlogged batch.
+     */
+    public StorageResultSetFuture updateMetricsIndex(MetricsTable table, long timestamp,
+        Collection<Integer> scheduleIds) {
+        int size = getBatchSize(scheduleIds.size());
+        PreparedStatement statement = getBatchStatement(updateMetricsIndexBatches, size, "INSERT INTO " +
+            MetricsTable.INDEX + " (bucket, time, schedule_id) VALUES (?, ?, ?)");
+        Object[] values = new Object[size * 3];
+        Date time = new Date(timestamp);
+        int i = 0;
+        for (Integer scheduleId : scheduleIds) {
+            values[i++] = table.getTableName();
+            values[i++] = time;
+            values[i++] = scheduleId;
+        }
+        padBatch(values, i);
+        return storageSession.executeAsync(statement.bind(values));
+    }
+
+    /**
+     * @return The number of statements of the prepared batch to use for <code>size</code> rows, i.e., the next power
+     * of two
+     */
+    static int getBatchSize(int size) {
+        int batchSize = Integer.highestOneBit(Math.max(1, size));
+        return batchSize < size ? batchSize << 1 : batchSize;
+    }
+
+    /**
+     * Fills the unused statements of a padded batch by repeating the last row. Inserting the same row twice is
+     * idempotent, but it is not free: every padding statement binds and sends all the values of the last row again,
+     * so a batch of <code>2^n + 1</code> rows sends nearly twice the values of its rows, and the node parses and
+     * applies the repeated rows too. The padding keeps the number of prepared batch statements down to one per power
+     * of two.
+     */
+    static void padBatch(Object[] values, int length) {
+        for (int i = length; i < values.length; i += 3) {
+            System.arraycopy(values, length - 3, values, i, 3);
+        }
+    }
+
+    private PreparedStatement getBatchStatement(ConcurrentMap<Integer, PreparedStatement> cache, int size,
+        String cql) {
+        PreparedStatement statement = cache.get(size);
+        if (statement == null) {
+            StringBuilder batch = new StringBuilder("BEGIN UNLOGGED BATCH ");
+            for (int i = 0; i < size; ++i) {
+                batch.append(cql).append("; ");
+            }
+            batch.append("APPLY BATCH");
+            statement = storageSession.prepare(batch.toString());
+            PreparedStatement existing = cache.putIfAbsent(size, statement);
+            if (existing != null) {
+                statement = existing;
+            }
+        }
+        return statement;
+    }
+
     public void deleteMetricsIndexEntries(MetricsTable table, long timestamp) {
         BoundStatement statement = deleteIndexEntries.bind(table.getTableName(), new Date(timestamp));
         storageSession.execute(statement);
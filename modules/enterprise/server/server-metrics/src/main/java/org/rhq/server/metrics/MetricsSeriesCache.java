@@ -0,0 +1,507 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+
+/**
+ * A bounded read-through cache of the metric data that backs graphs. Graph windows slide with the current time, so
+ * caching bucketed results by window would hardly ever produce a hit. Instead the cache keeps the underlying series
+ * per schedule and table, and the buckets are computed from memory for each request. Only the parts of a window that
+ * are not covered yet are read from the storage cluster.
+ * <p>
+ * Raw series are kept current in three ways. Raw data that is stored by this server is merged as soon as it has been
+ * persisted, however late it arrives. Raw data stored by other servers is picked up by re-reading the tail of the
+ * series at most once per refresh interval. Data stored by other servers that is older than the tail, e.g., reports
+ * that agents spooled while their server was down, is picked up when the series is read in full again after the max
+ * age. Aggregate series are discarded whenever aggregation finishes on this server and after the max age, which
+ * covers aggregation runs on other servers.
+ * <p>
+ * The cache is bounded by the total number of data points it holds. Least recently used series are evicted first.
+ */
+public class MetricsSeriesCache {
+
+    /**
+     * Agents report data in batches, so raw data can be stored some time after it was collected. Tail reads start this
+     * many milliseconds before the end of the cached series to pick up data that arrived late.
+     */
+    static final long REFRESH_OVERLAP = 10 * 60 * 1000;
+
+    /**
+     * Raw data for a series that has not been read in a while is buffered until the next read. If the buffer grows
+     * beyond this size the series is discarded instead.
+     */
+    private static final int MAX_PENDING = 1000;
+
+    private final MetricsDAO dao;
+
+    private final DateTimeService dateTimeService;
+
+    private final Cache<SeriesKey, Series> cache;
+
+    private final long maxDataPoints;
+
+    private volatile long refreshInterval;
+
+    private volatile long maxAge;
+
+    private final AtomicInteger aggregationGeneration = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong partialHits = new AtomicLong();
+
+    /**
+     * @param maxDataPoints The maximum number of data points held in memory
+     * @param refreshInterval The minimum number of milliseconds between two reads of the tail of a raw series
+     * @param maxAge The number of milliseconds after which series are read in full again
+     */
+    public MetricsSeriesCache(MetricsDAO dao, DateTimeService dateTimeService, long maxDataPoints,
+        long refreshInterval, long maxAge) {
+        this.dao = dao;
+        this.dateTimeService = dateTimeService;
+        this.maxDataPoints = maxDataPoints;
+        this.refreshInterval = refreshInterval;
+        this.maxAge = maxAge;
+        cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxDataPoints)
+            .weigher(new Weigher<SeriesKey, Series>() {
+                @Override
+                public int weigh(SeriesKey key, Series series) {
+                    return series.weight();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Inserts the data of the schedule that falls into the buckets' time range, reading whatever is not cached from
+     * the storage cluster. The buckets are locked while data is inserted, so they can be shared by concurrent calls
+     * for different schedules.
+     *
+     * @param table {@link MetricsTable#RAW}, {@link MetricsTable#ONE_HOUR}, {@link MetricsTable#SIX_HOUR} or
+     * {@link MetricsTable#TWENTY_FOUR_HOUR}
+     */
+    public void insertInto(Buckets buckets, MetricsTable table, int scheduleId, long beginTime, long endTime) {
+        final SeriesKey key = new SeriesKey(table, scheduleId);
+        Series series;
+        try {
+            series = cache.get(key, new Callable<Series>() {
+                @Override
+                public Series call() {
+                    return new Series(key);
+                }
+            });
+        } catch (ExecutionException e) {
+            // Cannot happen, creating an empty series does not throw a checked exception
+            throw new RuntimeException(e);
+        }
+
+        boolean reweigh;
+        synchronized (series) {
+            int weight = series.weight();
+            series.load(beginTime, endTime);
+            series.insertInto(buckets, beginTime, endTime);
+            reweigh = series.weight() != weight;
+        }
+        if (reweigh) {
+            // The weigher is only consulted when an entry is stored, so the series has to be put back for the cache
+            // to account for its new size. Do not put back series that have been evicted or invalidated meanwhile.
+            cache.asMap().replace(key, series, series);
+        }
+    }
+
+    /**
+     * Appends raw data that has been stored by this server to the cached series of the schedule, if there is one.
+     */
+    public void addRawData(int scheduleId, long timestamp, double value) {
+        SeriesKey key = new SeriesKey(MetricsTable.RAW, scheduleId);
+        Series series = cache.getIfPresent(key);
+        if (series != null && !series.addPending(timestamp, value)) {
+            cache.asMap().remove(key, series);
+        }
+    }
+
+    /**
+     * Discards all aggregate series. This has to be called whenever aggregates have been computed.
+     */
+    public void invalidateAggregates() {
+        aggregationGeneration.incrementAndGet();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long getMaxDataPoints() {
+        return maxDataPoints;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return The number of requests that were served from memory only
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests that were not fully covered by memory, e.g., because the tail of a raw series
+     * had to be read or was not due to be read yet
+     */
+    public long getPartialHits() {
+        return partialHits.get();
+    }
+
+    /**
+     * @return The number of requests for which nothing was cached
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSeriesCache[series: " + cache.size() + ", hits: " + hits + ", partialHits: " + partialHits +
+            ", misses: " + misses + "]";
+    }
+
+    private static class SeriesKey {
+
+        private final MetricsTable table;
+
+        private final int scheduleId;
+
+        SeriesKey(MetricsTable table, int scheduleId) {
+            this.table = table;
+            this.scheduleId = scheduleId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey that = (SeriesKey) o;
+            return scheduleId == that.scheduleId && table == that.table;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + scheduleId;
+        }
+    }
+
+    /**
+     * The cached data points of a schedule, sorted by timestamp and covering the time range [from, until). Raw series
+     * only use the avg array, min and max are the same as the value.
+     */
+    private class Series {
+
+        private final SeriesKey key;
+
+        private final boolean raw;
+
+        private final Queue<RawNumericMetric> pending = new ConcurrentLinkedQueue<RawNumericMetric>();
+
+        private final AtomicInteger numPending = new AtomicInteger();
+
+        private long[] timestamps = new long[0];
+
+        private double[] avg = new double[0];
+
+        private double[] min;
+
+        private double[] max;
+
+        private int size;
+
+        private boolean loaded;
+
+        private long from;
+
+        private long until;
+
+        private long loadedAt;
+
+        private long refreshedAt;
+
+        private int generation;
+
+        Series(SeriesKey key) {
+            this.key = key;
+            raw = key.table == MetricsTable.RAW;
+            if (!raw) {
+                min = new double[0];
+                max = new double[0];
+            }
+        }
+
+        int weight() {
+            // Empty series still take up space
+            return Math.max(1, size);
+        }
+
+        boolean addPending(long timestamp, double value) {
+            if (numPending.incrementAndGet() > MAX_PENDING) {
+                return false;
+            }
+            pending.add(new RawNumericMetric(key.scheduleId, timestamp, value));
+            return true;
+        }
+
+        void load(long beginTime, long endTime) {
+            long now = dateTimeService.nowInMillis();
+            if (loaded && (now - loadedAt > maxAge || (!raw && generation != aggregationGeneration.get()))) {
+                size = 0;
+                loaded = false;
+            }
+            // Never cache past the current time for raw data. Anything after that is either merged by this server
+            // or picked up by the next tail read.
+            long end = raw ? Math.min(endTime, now) : endTime;
+
+            if (!loaded) {
+                misses.incrementAndGet();
+                pending.clear();
+                numPending.set(0);
+                generation = aggregationGeneration.get();
+                loadedAt = now;
+                refreshedAt = now;
+                from = beginTime;
+                until = Math.max(beginTime, end);
+                read(from, until, false);
+                loaded = true;
+                return;
+            }
+
+            mergePending();
+            boolean hit = true;
+            if (beginTime < from) {
+                hit = false;
+                read(beginTime, from, true);
+                from = beginTime;
+            } else if (beginTime > from) {
+                // Graph windows slide forward, drop what has fallen out of them
+                removeHead(beginTime);
+                from = beginTime;
+            }
+            if (end > until) {
+                // Until the next tail read, raw data after the end of the series is only what this server stored
+                hit = false;
+                if (!raw) {
+                    read(until, end, false);
+                    until = end;
+                } else if (now - refreshedAt >= refreshInterval) {
+                    long readFrom = Math.max(from, until - REFRESH_OVERLAP);
+                    truncate(readFrom);
+                    read(readFrom, end, false);
+                    until = end;
+                    refreshedAt = now;
+                }
+            }
+            (hit ? hits : partialHits).incrementAndGet();
+        }
+
+        void insertInto(Buckets buckets, long beginTime, long endTime) {
+            int i = indexOf(beginTime);
+            // Group queries share the buckets between threads
+            synchronized (buckets) {
+                for (; i < size && timestamps[i] < endTime; ++i) {
+                    if (raw) {
+                        buckets.insert(timestamps[i], avg[i], avg[i], avg[i]);
+                    } else {
+                        buckets.insert(timestamps[i], avg[i], min[i], max[i]);
+                    }
+                }
+            }
+        }
+
+        private void read(long startTime, long endTime, boolean prepend) {
+            Series data = new Series(key);
+            if (raw) {
+                for (RawNumericMetric metric : dao.findRawMetrics(key.scheduleId, startTime, endTime)) {
+                    data.append(metric.getTimestamp(), metric.getValue(), 0, 0);
+                }
+            } else {
+                for (AggregateNumericMetric metric : findAggregates(startTime, endTime)) {
+                    data.append(metric.getTimestamp(), metric.getAvg(), metric.getMin(), metric.getMax());
+                }
+            }
+            if (prepend) {
+                data.appendAll(this);
+                timestamps = data.timestamps;
+                avg = data.avg;
+                min = data.min;
+                max = data.max;
+                size = data.size;
+            } else {
+                appendAll(data);
+            }
+        }
+
+        private Iterable<AggregateNumericMetric> findAggregates(long startTime, long endTime) {
+            switch (key.table) {
+            case ONE_HOUR:
+                return dao.findOneHourMetrics(key.scheduleId, startTime, endTime);
+            case SIX_HOUR:
+                return dao.findSixHourMetrics(key.scheduleId, startTime, endTime);
+            default:
+                return dao.findTwentyFourHourMetrics(key.scheduleId, startTime, endTime);
+            }
+        }
+
+        /**
+         * Merges raw data stored by this server since the last read.
+         */
+        private void mergePending() {
+            RawNumericMetric metric;
+            while ((metric = pending.poll()) != null) {
+                numPending.decrementAndGet();
+                long timestamp = metric.getTimestamp();
+                if (timestamp < from) {
+                    continue;
+                }
+                int i = Arrays.binarySearch(timestamps, 0, size, timestamp);
+                if (i >= 0) {
+                    avg[i] = metric.getValue();
+                } else {
+                    insert(-(i + 1), timestamp, metric.getValue());
+                }
+            }
+        }
+
+        private void truncate(long timestamp) {
+            size = indexOf(timestamp);
+        }
+
+        private void removeHead(long timestamp) {
+            int i = indexOf(timestamp);
+            if (i > 0) {
+                System.arraycopy(timestamps, i, timestamps, 0, size - i);
+                System.arraycopy(avg, i, avg, 0, size - i);
+                if (!raw) {
+                    System.arraycopy(min, i, min, 0, size - i);
+                    System.arraycopy(max, i, max, 0, size - i);
+                }
+                size -= i;
+            }
+        }
+
+        /**
+         * @return The index of the first data point at or after the timestamp
+         */
+        private int indexOf(long timestamp) {
+            int i = Arrays.binarySearch(timestamps, 0, size, timestamp);
+            if (i < 0) {
+                i = -(i + 1);
+            } else {
+                while (i > 0 && timestamps[i - 1] == timestamp) {
+                    --i;
+                }
+            }
+            return i;
+        }
+
+        private void append(long timestamp, double value, double minValue, double maxValue) {
+            ensureCapacity(size + 1);
+            timestamps[size] = timestamp;
+            avg[size] = value;
+            if (!raw) {
+                min[size] = minValue;
+                max[size] = maxValue;
+            }
+            ++size;
+        }
+
+        private void appendAll(Series other) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+            System.arraycopy(other.avg, 0, avg, size, other.size);
+            if (!raw) {
+                System.arraycopy(other.min, 0, min, size, other.size);
+                System.arraycopy(other.max, 0, max, size, other.size);
+            }
+            size += other.size;
+        }
+
+        private void insert(int index, long timestamp, double value) {
+            ensureCapacity(size + 1);
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(avg, index, avg, index + 1, size - index);
+            timestamps[index] = timestamp;
+            avg[index] = value;
+            ++size;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > timestamps.length) {
+                int newCapacity = Math.max(capacity, timestamps.length + (timestamps.length >> 1) + 16);
+                timestamps = Arrays.copyOf(timestamps, newCapacity);
+                avg = Arrays.copyOf(avg, newCapacity);
+                if (!raw) {
+                    min = Arrays.copyOf(min, newCapacity);
+                    max = Arrays.copyOf(max, newCapacity);
+                }
+            }
+        }
+    }
+}
@@ -25,20 +25,35 @@
 
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.MetricsConstants.AGGREGATION_ACCUMULATE_RAW_DATA;
+import static org.rhq.server.metrics.MetricsConstants.CACHE_MAX_AGE;
+import static org.rhq.server.metrics.MetricsConstants.CACHE_MAX_DATA_POINTS;
+import static org.rhq.server.metrics.MetricsConstants.CACHE_REFRESH_INTERVAL;
+import static org.rhq.server.metrics.MetricsConstants.GROUP_QUERY_CONCURRENCY;
+import static org.rhq.server.metrics.MetricsConstants.GROUP_QUERY_TIMEOUT;
+import static org.rhq.server.metrics.MetricsConstants.RAW_BATCH_MAX_BYTES;
+import static org.rhq.server.metrics.MetricsConstants.RAW_BATCH_MAX_PARTITIONS;
+
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -54,12 +69,15 @@ import org.joda.time.Duration;
 
 import org.rhq.core.domain.measurement.MeasurementDataNumeric;
 import org.rhq.core.domain.measurement.composite.MeasurementDataNumericHighLowComposite;
+import org.rhq.server.metrics.aggregation.AggregationProgress;
 import org.rhq.server.metrics.aggregation.Aggregator;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
 import org.rhq.server.metrics.domain.AggregateType;
 import org.rhq.server.metrics.domain.MetricsIndexEntry;
 import org.rhq.server.metrics.domain.MetricsTable;
 import org.rhq.server.metrics.domain.RawNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetricMapper;
 
 /**
  * @author John Sanda
@@ -80,6 +98,8 @@ public class MetricsServer {
 
     private AtomicLong totalAggregationTime = new AtomicLong();
 
+    private volatile AggregationProgress aggregationProgress;
+
     private int numAggregationWorkers = Math.min(Integer.parseInt(System.getProperty("rhq.metrics.aggregation.workers",
         "4")), Runtime.getRuntime().availableProcessors());
 
@@ -91,6 +111,43 @@ public class MetricsServer {
 
     private boolean useAsyncAggregation = Boolean.valueOf(System.getProperty("rhq.metrics.aggregation.async", "true"));
 
+    /**
+     * The serialized size of the bound values of a raw data insert, i.e., schedule id (int), time (timestamp) and
+     * value (double). Raw rows are fixed width, so the byte limit for batches translates directly into a row limit.
+     */
+    static final int RAW_DATA_ROW_SIZE = 20;
+
+    private int rawBatchMaxBytes = Integer.parseInt(System.getProperty(RAW_BATCH_MAX_BYTES, "4000"));
+
+    private int rawBatchMaxPartitions = Integer.parseInt(System.getProperty(RAW_BATCH_MAX_PARTITIONS, "50"));
+
+    /**
+     * Pre-aggregating raw data as it is stored is only correct if this is the only server that stores raw data, so it
+     * is disabled by default.
+     */
+    private boolean accumulateRawData = Boolean.valueOf(System.getProperty(AGGREGATION_ACCUMULATE_RAW_DATA,
+        "false"));
+
+    private RawDataAccumulator rawDataAccumulator;
+
+    /**
+     * The maximum number of data points kept in the graph data cache. A value of zero disables the cache.
+     */
+    private long cacheMaxDataPoints = Long.parseLong(System.getProperty(CACHE_MAX_DATA_POINTS, "1000000"));
+
+    private MetricsSeriesCache seriesCache;
+
+    private volatile GroupQueryExecutor groupQueryExecutor = new GroupQueryExecutor(Integer.parseInt(System.getProperty(
+        GROUP_QUERY_CONCURRENCY, "20")), Long.parseLong(System.getProperty(GROUP_QUERY_TIMEOUT, "60000")));
+
+    /**
+     * Runs the per schedule reads of group queries that go through the series cache. The cache reads synchronously,
+     * so the number of threads also limits the number of those reads across all group queries.
+     */
+    private ListeningExecutorService groupQueryWorkers;
+
+    private ThreadPoolExecutor groupQueryPool;
+
     public void setDAO(MetricsDAO dao) {
         this.dao = dao;
     }
@@ -123,16 +180,86 @@ public class MetricsServer {
         return numAggregationWorkers;
     }
 
+    public int getRawBatchMaxBytes() {
+        return rawBatchMaxBytes;
+    }
+
+    public void setRawBatchMaxBytes(int maxBytes) {
+        rawBatchMaxBytes = maxBytes;
+    }
+
+    public int getRawBatchMaxPartitions() {
+        return rawBatchMaxPartitions;
+    }
+
+    public void setRawBatchMaxPartitions(int maxPartitions) {
+        rawBatchMaxPartitions = maxPartitions;
+    }
+
     public void setUseAsyncAggregation(boolean useAsyncAggregation) {
         this.useAsyncAggregation = useAsyncAggregation;
     }
 
+    public void setAccumulateRawData(boolean accumulateRawData) {
+        this.accumulateRawData = accumulateRawData;
+    }
+
+    public int getGroupQueryConcurrency() {
+        return groupQueryExecutor.getMaxConcurrency();
+    }
+
+    public long getGroupQueryTimeout() {
+        return groupQueryExecutor.getTimeout();
+    }
+
+    public void setGroupQueryLimits(int maxConcurrency, long timeout) {
+        groupQueryExecutor = new GroupQueryExecutor(maxConcurrency, timeout);
+        if (groupQueryPool != null) {
+            // The core size may never exceed the maximum size, so the order depends on the direction of the change
+            synchronized (groupQueryPool) {
+                if (maxConcurrency > groupQueryPool.getMaximumPoolSize()) {
+                    groupQueryPool.setMaximumPoolSize(maxConcurrency);
+                    groupQueryPool.setCorePoolSize(maxConcurrency);
+                } else {
+                    groupQueryPool.setCorePoolSize(maxConcurrency);
+                    groupQueryPool.setMaximumPoolSize(maxConcurrency);
+                }
+            }
+        }
+    }
+
+    public void setCacheMaxDataPoints(long maxDataPoints) {
+        cacheMaxDataPoints = maxDataPoints;
+    }
+
+    /**
+     * @return The cache for graph data or null if caching is disabled
+     */
+    public MetricsSeriesCache getSeriesCache() {
+        return seriesCache;
+    }
+
     public void init() {
         if (log.isDebugEnabled() && useAsyncAggregation) {
             log.debug("Async aggregation is enabled");
         }
         aggregationWorkers = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(numAggregationWorkers,
             new StorageClientThreadFactory()));
+        if (accumulateRawData) {
+            log.info("Raw data will be pre-aggregated as it is stored");
+            rawDataAccumulator = new RawDataAccumulator(dateTimeService.nowInMillis());
+        }
+        if (cacheMaxDataPoints > 0) {
+            seriesCache = new MetricsSeriesCache(dao, dateTimeService, cacheMaxDataPoints,
+                Long.parseLong(System.getProperty(CACHE_REFRESH_INTERVAL, "60000")),
+                Long.parseLong(System.getProperty(CACHE_MAX_AGE, "600000")));
+        }
+        // Same as Executors.newFixedThreadPool, but kept as ThreadPoolExecutor so that it can be resized
+        int groupQueryConcurrency = groupQueryExecutor.getMaxConcurrency();
+        groupQueryPool = new ThreadPoolExecutor(groupQueryConcurrency, groupQueryConcurrency, 0L,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+            new StorageClientThreadFactory("GroupQueryWorker"));
+        groupQueryWorkers = MoreExecutors.listeningDecorator(groupQueryPool);
         determineMostRecentRawDataSinceLastShutdown();
     }
 
@@ -187,6 +314,7 @@ public class MetricsServer {
 
     public void shutdown() {
         aggregationWorkers.shutdown();
+        groupQueryWorkers.shutdown();
     }
 
     public RawNumericMetric findLatestValueForResource(int scheduleId) {
@@ -202,12 +330,26 @@ public class MetricsServer {
         return totalAggregationTime.get();
     }
 
+    /**
+     * @return The progress of the current aggregation run or of the last one if aggregation is not running. Null if
+     * aggregation has not run since server start.
+     */
+    public AggregationProgress getAggregationProgress() {
+        return aggregationProgress;
+    }
+
     public Iterable<MeasurementDataNumericHighLowComposite> findDataForResource(int scheduleId, long beginTime,
         long endTime, int numberOfBuckets) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
             DateTime begin = new DateTime(beginTime);
 
+            if (seriesCache != null) {
+                Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
+                seriesCache.insertInto(buckets, getTable(begin), scheduleId, beginTime, endTime);
+                return createComposites(buckets);
+            }
+
             if (dateTimeService.isInRawDataRange(begin)) {
                 Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleId, beginTime, endTime);
                 return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
@@ -238,25 +380,67 @@ public class MetricsServer {
         long endTime, int numberOfBuckets) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
+            final MetricsTable table = getTable(new DateTime(beginTime));
+            final Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
+            final long begin = beginTime;
+            final long end = endTime;
 
-            if (dateTimeService.isInRawDataRange(begin)) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-                return createRawComposites(metrics, beginTime, endTime, numberOfBuckets);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleIds, beginTime, endTime);
+            if (seriesCache != null) {
+                groupQueryExecutor.execute(scheduleIds, new GroupQueryExecutor.ScheduleQuery() {
+                    @Override
+                    public ListenableFuture<?> execute(final int scheduleId) {
+                        return groupQueryWorkers.submit(new Runnable() {
+                            @Override
+                            public void run() {
+                                seriesCache.insertInto(buckets, table, scheduleId, begin, end);
+                            }
+                        });
+                    }
+                });
+            } else if (table == MetricsTable.RAW) {
+                groupQueryExecutor.execute(scheduleIds, new GroupQueryExecutor.ScheduleQuery() {
+                    @Override
+                    public ListenableFuture<?> execute(int scheduleId) {
+                        return Futures.transform(dao.findRawMetricsAsync(scheduleId, begin, end),
+                            new Function<ResultSet, Void>() {
+                                @Override
+                                public Void apply(ResultSet resultSet) {
+                                    List<RawNumericMetric> metrics = new RawNumericMetricMapper().mapAll(resultSet);
+                                    synchronized (buckets) {
+                                        for (RawNumericMetric metric : metrics) {
+                                            buckets.insert(metric.getTimestamp(), metric.getValue(),
+                                                metric.getValue(), metric.getValue());
+                                        }
+                                    }
+                                    return null;
+                                }
+                            });
+                    }
+                });
             } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
+                groupQueryExecutor.execute(scheduleIds, new GroupQueryExecutor.ScheduleQuery() {
+                    @Override
+                    public ListenableFuture<?> execute(int scheduleId) {
+                        return Futures.transform(findAggregateMetricsAsync(table, scheduleId, begin, end),
+                            new Function<ResultSet, Void>() {
+                                @Override
+                                public Void apply(ResultSet resultSet) {
+                                    List<AggregateNumericMetric> metrics = new AggregateNumericMetricMapper().mapAll(
+                                        resultSet);
+                                    synchronized (buckets) {
+                                        for (AggregateNumericMetric metric : metrics) {
+                                            buckets.insert(metric.getTimestamp(), metric.getAvg(), metric.getMin(),
+                                                metric.getMax());
+                                        }
+                                    }
+                                    return null;
+                                }
+                            });
+                    }
+                });
             }
 
-            return createComposites(metrics, beginTime, endTime, numberOfBuckets);
+            return createComposites(buckets);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -336,25 +520,36 @@ public class MetricsServer {
     public AggregateNumericMetric getSummaryAggregate(List<Integer> scheduleIds, long beginTime, long endTime) {
         Stopwatch stopwatch = new Stopwatch().start();
         try {
-            DateTime begin = new DateTime(beginTime);
-
-            if (dateTimeService.isInRawDataRange(new DateTime(beginTime))) {
-                Iterable<RawNumericMetric> metrics = dao.findRawMetrics(scheduleIds, beginTime, endTime);
-                return calculateAggregatedRaw(metrics, beginTime);
-            }
-
-            Iterable<AggregateNumericMetric> metrics = null;
-            if (dateTimeService.isIn1HourDataRange(begin)) {
-                metrics = dao.findOneHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn6HourDataRnage(begin)) {
-                metrics = dao.findSixHourMetrics(scheduleIds, beginTime, endTime);
-            } else if (dateTimeService.isIn24HourDataRnage(begin)) {
-                metrics = dao.findTwentyFourHourMetrics(scheduleIds, beginTime, endTime);
-            } else {
-                throw new IllegalArgumentException("beginTime[" + beginTime + "] is outside the accepted range.");
-            }
+            final MetricsTable table = getTable(new DateTime(beginTime));
+            final SummaryAccumulator summary = new SummaryAccumulator();
+            final long begin = beginTime;
+            final long end = endTime;
+
+            groupQueryExecutor.execute(scheduleIds, new GroupQueryExecutor.ScheduleQuery() {
+                @Override
+                public ListenableFuture<?> execute(int scheduleId) {
+                    if (table == MetricsTable.RAW) {
+                        return Futures.transform(dao.findRawMetricsAsync(scheduleId, begin, end),
+                            new Function<ResultSet, Void>() {
+                                @Override
+                                public Void apply(ResultSet resultSet) {
+                                    summary.addRawMetrics(new RawNumericMetricMapper().mapAll(resultSet));
+                                    return null;
+                                }
+                            });
+                    }
+                    return Futures.transform(findAggregateMetricsAsync(table, scheduleId, begin, end),
+                        new Function<ResultSet, Void>() {
+                            @Override
+                            public Void apply(ResultSet resultSet) {
+                                summary.addAggregateMetrics(new AggregateNumericMetricMapper().mapAll(resultSet));
+                                return null;
+                            }
+                        });
+                }
+            });
 
-            return calculateAggregate(metrics, beginTime);
+            return summary.toAggregate(beginTime);
         } finally {
             stopwatch.stop();
             if (log.isDebugEnabled()) {
@@ -365,14 +560,38 @@ public class MetricsServer {
         }
     }
 
-    private List<MeasurementDataNumericHighLowComposite> createRawComposites(Iterable<RawNumericMetric> metrics,
-        long beginTime, long endTime, int numberOfBuckets) {
-        Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
-        for (RawNumericMetric metric : metrics) {
-            buckets.insert(metric.getTimestamp(), metric.getValue(), metric.getValue(), metric.getValue());
+    private StorageResultSetFuture findAggregateMetricsAsync(MetricsTable table, int scheduleId, long beginTime,
+        long endTime) {
+        switch (table) {
+        case ONE_HOUR:
+            return dao.findOneHourMetricsAsync(scheduleId, beginTime, endTime);
+        case SIX_HOUR:
+            return dao.findSixHourMetricsAsync(scheduleId, beginTime, endTime);
+        default:  // 24 hour
+            return dao.findTwentyFourHourMetricsAsync(scheduleId, beginTime, endTime);
+        }
+    }
+
+    /**
+     * @return The table that holds the data for graphs starting at the specified time
+     */
+    private MetricsTable getTable(DateTime begin) {
+        if (dateTimeService.isInRawDataRange(begin)) {
+            return MetricsTable.RAW;
+        } else if (dateTimeService.isIn1HourDataRange(begin)) {
+            return MetricsTable.ONE_HOUR;
+        } else if (dateTimeService.isIn6HourDataRnage(begin)) {
+            return MetricsTable.SIX_HOUR;
+        } else if (dateTimeService.isIn24HourDataRnage(begin)) {
+            return MetricsTable.TWENTY_FOUR_HOUR;
+        } else {
+            throw new IllegalArgumentException("beginTime[" + begin.getMillis() + "] is outside the accepted range.");
         }
+    }
 
-        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>();
+    private List<MeasurementDataNumericHighLowComposite> createComposites(Buckets buckets) {
+        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>(
+            buckets.getNumDataPoints());
         for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
             Buckets.Bucket bucket = buckets.get(i);
             data.add(new MeasurementDataNumericHighLowComposite(bucket.getStartTime(), bucket.getAvg(),
@@ -381,6 +600,15 @@ public class MetricsServer {
         return data;
     }
 
+    private List<MeasurementDataNumericHighLowComposite> createRawComposites(Iterable<RawNumericMetric> metrics,
+        long beginTime, long endTime, int numberOfBuckets) {
+        Buckets buckets = new Buckets(beginTime, endTime, numberOfBuckets);
+        for (RawNumericMetric metric : metrics) {
+            buckets.insert(metric.getTimestamp(), metric.getValue(), metric.getValue(), metric.getValue());
+        }
+        return createComposites(buckets);
+    }
+
     private List<MeasurementDataNumericHighLowComposite> createComposites(Iterable<AggregateNumericMetric> metrics,
         long beginTime, long endTime, int numberOfBuckets) {
 
@@ -388,15 +616,7 @@ public class MetricsServer {
         for (AggregateNumericMetric metric : metrics) {
             buckets.insert(metric.getTimestamp(), metric.getAvg(), metric.getMin(), metric.getMax());
         }
-
-        List<MeasurementDataNumericHighLowComposite> data = new ArrayList<MeasurementDataNumericHighLowComposite>();
-        for (int i = 0; i < buckets.getNumDataPoints(); ++i) {
-            Buckets.Bucket bucket = buckets.get(i);
-            data.add(new MeasurementDataNumericHighLowComposite(bucket.getStartTime(), bucket.getAvg(),
-                bucket.getMax(), bucket.getMin()));
-        }
-        return data;
-
+        return createComposites(buckets);
     }
 
     public void addNumericData(final Set<MeasurementDataNumeric> dataSet,
@@ -408,25 +628,43 @@ public class MetricsServer {
 
             final long startTime = dateTimeService.now().getMillis();
             final AtomicInteger remainingInserts = new AtomicInteger(dataSet.size());
+            int maxRows = Math.max(1, rawBatchMaxBytes / RAW_DATA_ROW_SIZE);
 
-            for (final MeasurementDataNumeric data : dataSet) {
-                StorageResultSetFuture resultSetFuture = dao.insertRawData(data);
+            for (final List<MeasurementDataNumeric> batch : createBatches(dataSet, maxRows, rawBatchMaxPartitions)) {
+                final RawDataAccumulator accumulator = rawDataAccumulator;
+                if (accumulator != null) {
+                    for (MeasurementDataNumeric rawData : batch) {
+                        accumulator.begin(getRawTimeSlice(rawData.getTimestamp()), rawData.getScheduleId());
+                    }
+                }
+                StorageResultSetFuture resultSetFuture = dao.insertRawData(batch);
                 Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
                     @Override
                     public void onSuccess(ResultSet rows) {
-                        updateMetricsIndex(data, dataSet.size(), remainingInserts, startTime, callback);
+                        updateMetricsIndex(batch, dataSet.size(), remainingInserts, startTime, callback);
                     }
 
                     @Override
                     public void onFailure(Throwable throwable) {
-                        if (log.isDebugEnabled()) {
-                            log.error("An error occurred while inserting raw data " + data, throwable);
+                        if (throwable instanceof StorageNodeOverloadedException) {
+                            // Only the data owned by the overloaded node is shed. Everything else keeps flowing.
+                            if (log.isDebugEnabled()) {
+                                log.debug("Failed to insert " + batch.size() + " raw metrics: " +
+                                    throwable.getMessage());
+                            }
+                        } else if (log.isDebugEnabled()) {
+                            log.error("An error occurred while inserting raw data " + batch, throwable);
                         } else {
                             log.error(
-                                "An error occurred while inserting raw data " + data + ": " +
+                                "An error occurred while inserting " + batch.size() + " raw metrics: " +
                                     throwable.getClass().getName() + ": " + throwable.getMessage());
                         }
-                        callback.onFailure(throwable);
+                        for (MeasurementDataNumeric rawData : batch) {
+                            if (accumulator != null) {
+                                accumulator.failed(getRawTimeSlice(rawData.getTimestamp()), rawData.getScheduleId());
+                            }
+                            callback.onFailure(throwable);
+                        }
                     }
                 }, aggregationWorkers);
             }
@@ -436,33 +674,122 @@ public class MetricsServer {
         }
     }
 
-    void updateMetricsIndex(final MeasurementDataNumeric rawData, final int total,
-        final AtomicInteger remainingInserts, final long startTime, final RawDataInsertedCallback callback) {
+    private long getRawTimeSlice(long timestamp) {
+        return dateTimeService.getTimeSlice(new DateTime(timestamp), configuration.getRawTimeSliceDuration())
+            .getMillis();
+    }
 
-        long timeSlice = dateTimeService.getTimeSlice(new DateTime(rawData.getTimestamp()),
-            configuration.getRawTimeSliceDuration()).getMillis();
-        StorageResultSetFuture resultSetFuture = dao.updateMetricsIndex(MetricsTable.ONE_HOUR, rawData.getScheduleId(),
-            timeSlice);
-        Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
-            @Override
-            public void onSuccess(ResultSet rows) {
-                callback.onSuccess(rawData);
-                if (remainingInserts.decrementAndGet() == 0) {
-                    long endTime = System.currentTimeMillis();
-                    if (log.isDebugEnabled()) {
-                        log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) + " ms");
-                    }
-                    callback.onFinish();
+    /**
+     * Splits the data into batches for insertion. Data is grouped by schedule id so that all of the data for a
+     * partition ends up in the same batch whenever possible. A batch contains at most <code>maxRows</code> rows and
+     * data from at most <code>maxPartitions</code> partitions. A partition with more than <code>maxRows</code> rows
+     * is spread across multiple batches.
+     */
+    static List<List<MeasurementDataNumeric>> createBatches(Collection<MeasurementDataNumeric> dataSet, int maxRows,
+        int maxPartitions) {
+        Map<Integer, List<MeasurementDataNumeric>> partitions = new LinkedHashMap<Integer,
+            List<MeasurementDataNumeric>>();
+        for (MeasurementDataNumeric data : dataSet) {
+            List<MeasurementDataNumeric> partition = partitions.get(data.getScheduleId());
+            if (partition == null) {
+                partition = new ArrayList<MeasurementDataNumeric>();
+                partitions.put(data.getScheduleId(), partition);
+            }
+            partition.add(data);
+        }
+
+        List<List<MeasurementDataNumeric>> batches = new ArrayList<List<MeasurementDataNumeric>>();
+        List<MeasurementDataNumeric> batch = new ArrayList<MeasurementDataNumeric>(maxRows);
+        int numPartitions = 0;
+        for (List<MeasurementDataNumeric> partition : partitions.values()) {
+            if (!batch.isEmpty() && (batch.size() + partition.size() > maxRows || numPartitions == maxPartitions)) {
+                batches.add(batch);
+                batch = new ArrayList<MeasurementDataNumeric>(maxRows);
+                numPartitions = 0;
+            }
+            for (MeasurementDataNumeric data : partition) {
+                if (batch.size() == maxRows) {
+                    batches.add(batch);
+                    batch = new ArrayList<MeasurementDataNumeric>(maxRows);
+                    numPartitions = 0;
                 }
+                if (batch.isEmpty() || batch.get(batch.size() - 1).getScheduleId() != data.getScheduleId()) {
+                    ++numPartitions;
+                }
+                batch.add(data);
             }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    void updateMetricsIndex(List<MeasurementDataNumeric> batch, final int total, final AtomicInteger remainingInserts,
+        final long startTime, final RawDataInsertedCallback callback) {
+
+        // All of the data in a batch usually falls in the same hour, so this typically results in a single index
+        // update for the whole batch.
+        Map<Long, List<MeasurementDataNumeric>> timeSlices = new TreeMap<Long, List<MeasurementDataNumeric>>();
+        for (MeasurementDataNumeric rawData : batch) {
+            long timeSlice = getRawTimeSlice(rawData.getTimestamp());
+            List<MeasurementDataNumeric> data = timeSlices.get(timeSlice);
+            if (data == null) {
+                data = new ArrayList<MeasurementDataNumeric>();
+                timeSlices.put(timeSlice, data);
+            }
+            data.add(rawData);
+        }
 
-            @Override
-            public void onFailure(Throwable throwable) {
-                log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for raw data " +
-                    rawData);
-                callback.onFailure(throwable);
+        for (Map.Entry<Long, List<MeasurementDataNumeric>> entry : timeSlices.entrySet()) {
+            final long timeSlice = entry.getKey();
+            final List<MeasurementDataNumeric> data = entry.getValue();
+            Set<Integer> scheduleIds = new TreeSet<Integer>();
+            for (MeasurementDataNumeric rawData : data) {
+                scheduleIds.add(rawData.getScheduleId());
             }
-        }, aggregationWorkers);
+            StorageResultSetFuture resultSetFuture = dao.updateMetricsIndex(MetricsTable.ONE_HOUR, timeSlice,
+                scheduleIds);
+            Futures.addCallback(resultSetFuture, new FutureCallback<ResultSet>() {
+                @Override
+                public void onSuccess(ResultSet rows) {
+                    // The data is only accumulated once both the raw data and the index have been stored. Anything
+                    // that fails is not accumulated and the caller is responsible for resubmitting it.
+                    RawDataAccumulator accumulator = rawDataAccumulator;
+                    for (MeasurementDataNumeric rawData : data) {
+                        if (accumulator != null) {
+                            accumulator.add(timeSlice, rawData.getScheduleId(), rawData.getValue());
+                        }
+                        if (seriesCache != null) {
+                            seriesCache.addRawData(rawData.getScheduleId(), rawData.getTimestamp(),
+                                rawData.getValue());
+                        }
+                        callback.onSuccess(rawData);
+                    }
+                    if (remainingInserts.addAndGet(-data.size()) == 0) {
+                        long endTime = System.currentTimeMillis();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Finished inserting " + total + " raw metrics in " + (endTime - startTime) +
+                                " ms");
+                        }
+                        callback.onFinish();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    log.error("An error occurred while trying to update " + MetricsTable.INDEX + " for " +
+                        data.size() + " raw metrics");
+                    RawDataAccumulator accumulator = rawDataAccumulator;
+                    for (MeasurementDataNumeric rawData : data) {
+                        if (accumulator != null) {
+                            accumulator.failed(timeSlice, rawData.getScheduleId());
+                        }
+                        callback.onFailure(throwable);
+                    }
+                }
+            }, aggregationWorkers);
+        }
     }
 
     /**
@@ -481,14 +808,19 @@ public class MetricsServer {
             if (useAsyncAggregation) {
                 if (pastAggregationMissed) {
                     DateTime missedHour = roundDownToHour(mostRecentRawDataPriorToStartup);
-                    new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, missedHour,
-                        aggregationBatchSize, parallelism).run();
+                    Aggregator aggregator = new Aggregator(aggregationWorkers, dao, configuration, dateTimeService,
+                        missedHour, aggregationBatchSize, parallelism);
+                    aggregationProgress = aggregator.getProgress();
+                    aggregator.run();
                     pastAggregationMissed = false;
                 }
 
                 DateTime timeSlice = theHour.minus(configuration.getRawTimeSliceDuration());
-                return new Aggregator(aggregationWorkers, dao, configuration, dateTimeService, timeSlice,
-                    aggregationBatchSize, parallelism).run();
+                Aggregator aggregator = new Aggregator(aggregationWorkers, dao, configuration, dateTimeService,
+                    timeSlice, aggregationBatchSize, parallelism);
+                aggregator.setRawDataAccumulator(rawDataAccumulator);
+                aggregationProgress = aggregator.getProgress();
+                return aggregator.run();
             } else {
                 if (pastAggregationMissed) {
                     calculateAggregates(roundDownToHour(mostRecentRawDataPriorToStartup).plusHours(1).getMillis());
@@ -497,9 +829,13 @@ public class MetricsServer {
                 return calculateAggregates(theHour.getMillis());
             }
         } finally {
+            if (seriesCache != null) {
+                seriesCache.invalidateAggregates();
+            }
             stopwatch.stop();
             totalAggregationTime.addAndGet(stopwatch.elapsed(TimeUnit.MILLISECONDS));
-            log.info("Finished metrics aggregation in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+            log.info("Finished metrics aggregation in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms" +
+                (aggregationProgress == null ? "" : ": " + aggregationProgress));
         }
     }
 
@@ -750,4 +1086,53 @@ public class MetricsServer {
         return new AggregateNumericMetric(0, mean.getArithmeticMean(), min, max, timestamp);
     }
 
+    /**
+     * Computes the summary aggregate of a group as the data of its schedules is read. The average is calculated like
+     * in {@link #calculateAggregatedRaw(Iterable, long)} and {@link #calculateAggregate(Iterable, long)}. Unlike
+     * the latter, min and max are compared independently, so an aggregate that extends both ends of the range
+     * updates both of them.
+     */
+    private static class SummaryAccumulator {
+
+        private double min = Double.NaN;
+
+        private double max = Double.NaN;
+
+        private int count;
+
+        private ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
+
+        synchronized void addRawMetrics(List<RawNumericMetric> metrics) {
+            for (RawNumericMetric metric : metrics) {
+                add(metric.getValue(), metric.getValue(), metric.getValue());
+            }
+        }
+
+        synchronized void addAggregateMetrics(List<AggregateNumericMetric> metrics) {
+            for (AggregateNumericMetric metric : metrics) {
+                add(metric.getAvg(), metric.getMin(), metric.getMax());
+            }
+        }
+
+        private void add(double avg, double minValue, double maxValue) {
+            if (count == 0) {
+                min = minValue;
+                max = maxValue;
+            }
+            if (minValue < min) {
+                min = minValue;
+            }
+            if (maxValue > max) {
+                max = maxValue;
+            }
+            mean.add(avg);
+            ++count;
+        }
+
+        synchronized AggregateNumericMetric toAggregate(long timestamp) {
+            // We let the caller handle setting the schedule id because in some cases we do not care about it.
+            return new AggregateNumericMetric(0, mean.getArithmeticMean(), min, max, timestamp);
+        }
+    }
+
 }
@@ -0,0 +1,367 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+/**
+ * Maintains min/max/sum/count for each schedule and raw data time slice as raw data is stored, so that 1 hour
+ * aggregates can be computed without reading the raw data back from the storage cluster.
+ * <p>
+ * The accumulated data for a time slice is only complete if this server stored all of the raw data for that time
+ * slice. {@link #drain(long)} therefore only returns aggregates for time slices that started after the accumulator was
+ * created. For anything else, e.g., the hour during which the server was started or hours that were missed while the
+ * server was down, the caller has to fall back to reading raw data. Since there is no coordination between servers,
+ * the accumulator must not be used when more than one server stores raw data.
+ * <p>
+ * Raw data is only accumulated once both the raw data and the index entry have been stored. So that data whose writes
+ * are still in flight when the time slice is drained is not silently left out, writes are announced with
+ * {@link #begin(long, int)} before they are submitted. A schedule with announced writes that have not been
+ * {@link #add(long, int, double) accumulated} yet is left out of the drained aggregates and is marked
+ * {@link #isDirty(long, int) dirty} instead, as is a schedule whose writes failed or arrived after its time slice was
+ * drained. The 1 hour aggregates of dirty schedules have to be computed from raw data.
+ * <p>
+ * State is kept in primitive arrays with open addressing, partitioned into stripes by schedule id to keep lock
+ * contention low when reports are being inserted concurrently.
+ */
+public class RawDataAccumulator {
+
+    private static final int NUM_STRIPES = 16;
+
+    private final long startTime;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+    /**
+     * @param startTime The time from which on all raw data is passed to this accumulator
+     */
+    public RawDataAccumulator(long startTime) {
+        this.startTime = startTime;
+        for (int i = 0; i < stripes.length; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Announces that raw data for the schedule and time slice is about to be stored. Every call has to be followed by
+     * either {@link #add(long, int, double)} or {@link #failed(long, int)}.
+     */
+    public void begin(long timeSlice, int scheduleId) {
+        if (timeSlice < startTime) {
+            return;
+        }
+        getStripe(scheduleId).begin(timeSlice, scheduleId);
+    }
+
+    /**
+     * Accumulates raw data that has been stored along with its index entry.
+     */
+    public void add(long timeSlice, int scheduleId, double value) {
+        if (timeSlice < startTime) {
+            // The time slice cannot be complete, it is only accounted for by the raw data read path
+            return;
+        }
+        getStripe(scheduleId).add(timeSlice, scheduleId, value);
+    }
+
+    /**
+     * Records that storing raw data announced with {@link #begin(long, int)} failed. The schedule is marked dirty since
+     * the data may still have been partially written.
+     */
+    public void failed(long timeSlice, int scheduleId) {
+        if (timeSlice < startTime) {
+            return;
+        }
+        getStripe(scheduleId).failed(timeSlice, scheduleId);
+    }
+
+    /**
+     * Removes and returns the aggregates for the time slice. Data for older time slices is discarded. Schedules with
+     * writes that are still in flight are not returned but marked dirty.
+     *
+     * @return The 1 hour aggregates for each schedule with complete data in the time slice, or null if the accumulated
+     * data for the time slice is incomplete and raw data has to be read instead
+     */
+    public List<AggregateNumericMetric> drain(long timeSlice) {
+        boolean complete = timeSlice >= startTime;
+        List<AggregateNumericMetric> aggregates = complete ? new ArrayList<AggregateNumericMetric>() : null;
+        for (Stripe stripe : stripes) {
+            stripe.drain(timeSlice, aggregates);
+        }
+        return aggregates;
+    }
+
+    /**
+     * @return True if the 1 hour aggregate of the schedule for the time slice has to be computed from raw data
+     * because the accumulated data is, or might be, incomplete
+     */
+    public boolean isDirty(long timeSlice, int scheduleId) {
+        return getStripe(scheduleId).isDirty(timeSlice, scheduleId);
+    }
+
+    /**
+     * @return The number of schedule/time slice pairs currently being accumulated
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Stripe getStripe(int scheduleId) {
+        return stripes[(scheduleId & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    private static class Stripe {
+
+        // There are rarely more than two time slices (the current and the previous hour) in here, so boxing the key
+        // does not matter.
+        private final Map<Long, Slice> slices = new HashMap<Long, Slice>(4);
+
+        // Dirty schedules are the exception, so a set of boxed ids is fine here as well
+        private final Map<Long, Set<Integer>> dirty = new HashMap<Long, Set<Integer>>(4);
+
+        private long lastDrainedTimeSlice = Long.MIN_VALUE;
+
+        synchronized void begin(long timeSlice, int scheduleId) {
+            if (timeSlice <= lastDrainedTimeSlice) {
+                markDirty(timeSlice, scheduleId);
+                return;
+            }
+            getSlice(timeSlice).begin(scheduleId);
+        }
+
+        synchronized void add(long timeSlice, int scheduleId, double value) {
+            if (timeSlice <= lastDrainedTimeSlice) {
+                // The time slice has already been aggregated, the data has to be picked up from raw data
+                markDirty(timeSlice, scheduleId);
+                return;
+            }
+            getSlice(timeSlice).add(scheduleId, value);
+        }
+
+        synchronized void failed(long timeSlice, int scheduleId) {
+            markDirty(timeSlice, scheduleId);
+            Slice slice = slices.get(timeSlice);
+            if (slice != null) {
+                slice.failed(scheduleId);
+            }
+        }
+
+        synchronized void drain(long timeSlice, List<AggregateNumericMetric> aggregates) {
+            if (timeSlice > lastDrainedTimeSlice) {
+                lastDrainedTimeSlice = timeSlice;
+            }
+            for (Iterator<Long> i = dirty.keySet().iterator(); i.hasNext();) {
+                if (i.next() < timeSlice) {
+                    i.remove();
+                }
+            }
+            Slice slice = slices.remove(timeSlice);
+            for (Iterator<Long> i = slices.keySet().iterator(); i.hasNext();) {
+                if (i.next() < timeSlice) {
+                    i.remove();
+                }
+            }
+            if (slice != null) {
+                Set<Integer> incomplete = new HashSet<Integer>();
+                slice.drainTo(aggregates, incomplete, timeSlice);
+                for (Integer scheduleId : incomplete) {
+                    markDirty(timeSlice, scheduleId);
+                }
+            }
+        }
+
+        synchronized boolean isDirty(long timeSlice, int scheduleId) {
+            Set<Integer> scheduleIds = dirty.get(timeSlice);
+            return scheduleIds != null && scheduleIds.contains(scheduleId);
+        }
+
+        synchronized int size() {
+            int size = 0;
+            for (Slice slice : slices.values()) {
+                size += slice.size;
+            }
+            return size;
+        }
+
+        private Slice getSlice(long timeSlice) {
+            Slice slice = slices.get(timeSlice);
+            if (slice == null) {
+                slice = new Slice();
+                slices.put(timeSlice, slice);
+            }
+            return slice;
+        }
+
+        private void markDirty(long timeSlice, int scheduleId) {
+            Set<Integer> scheduleIds = dirty.get(timeSlice);
+            if (scheduleIds == null) {
+                scheduleIds = new HashSet<Integer>();
+                dirty.put(timeSlice, scheduleIds);
+            }
+            scheduleIds.add(scheduleId);
+        }
+    }
+
+    /**
+     * An open addressing hash table from schedule id to aggregate state. A slot is in use if its count or its number
+     * of pending writes is non-zero.
+     */
+    private static class Slice {
+
+        private static final int INITIAL_CAPACITY = 256;
+
+        private int[] scheduleIds = new int[INITIAL_CAPACITY];
+
+        private double[] min = new double[INITIAL_CAPACITY];
+
+        private double[] max = new double[INITIAL_CAPACITY];
+
+        private double[] sum = new double[INITIAL_CAPACITY];
+
+        private int[] count = new int[INITIAL_CAPACITY];
+
+        private int[] pending = new int[INITIAL_CAPACITY];
+
+        private int size;
+
+        void begin(int scheduleId) {
+            int slot = use(scheduleId);
+            ++pending[slot];
+        }
+
+        void add(int scheduleId, double value) {
+            int slot = use(scheduleId);
+            if (pending[slot] > 0) {
+                --pending[slot];
+            }
+            if (count[slot] == 0) {
+                min[slot] = value;
+                max[slot] = value;
+                sum[slot] = value;
+                count[slot] = 1;
+            } else {
+                if (value < min[slot]) {
+                    min[slot] = value;
+                } else if (value > max[slot]) {
+                    max[slot] = value;
+                }
+                sum[slot] += value;
+                ++count[slot];
+            }
+        }
+
+        void failed(int scheduleId) {
+            int slot = findSlot(scheduleId);
+            if (pending[slot] > 0) {
+                --pending[slot];
+            }
+        }
+
+        private boolean inUse(int slot) {
+            return count[slot] != 0 || pending[slot] != 0;
+        }
+
+        /**
+         * @return The slot of the schedule, which is claimed if the schedule is not in the table yet
+         */
+        private int use(int scheduleId) {
+            int slot = findSlot(scheduleId);
+            if (!inUse(slot)) {
+                if (size + 1 > scheduleIds.length / 2) {
+                    resize();
+                    slot = findSlot(scheduleId);
+                }
+                scheduleIds[slot] = scheduleId;
+                ++size;
+            }
+            return slot;
+        }
+
+        private int findSlot(int scheduleId) {
+            int mask = scheduleIds.length - 1;
+            int hash = scheduleId * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (inUse(slot) && scheduleIds[slot] != scheduleId) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            int[] oldScheduleIds = scheduleIds;
+            double[] oldMin = min;
+            double[] oldMax = max;
+            double[] oldSum = sum;
+            int[] oldCount = count;
+            int[] oldPending = pending;
+            int capacity = oldScheduleIds.length * 2;
+
+            scheduleIds = new int[capacity];
+            min = new double[capacity];
+            max = new double[capacity];
+            sum = new double[capacity];
+            count = new int[capacity];
+            pending = new int[capacity];
+
+            for (int i = 0; i < oldScheduleIds.length; ++i) {
+                if (oldCount[i] != 0 || oldPending[i] != 0) {
+                    int slot = findSlot(oldScheduleIds[i]);
+                    scheduleIds[slot] = oldScheduleIds[i];
+                    min[slot] = oldMin[i];
+                    max[slot] = oldMax[i];
+                    sum[slot] = oldSum[i];
+                    count[slot] = oldCount[i];
+                    pending[slot] = oldPending[i];
+                }
+            }
+        }
+
+        /**
+         * Adds the aggregates of the schedules without pending writes to <code>aggregates</code>, which may be null,
+         * and the ids of the schedules with pending writes to <code>incomplete</code>.
+         */
+        void drainTo(List<AggregateNumericMetric> aggregates, Set<Integer> incomplete, long timeSlice) {
+            for (int i = 0; i < scheduleIds.length; ++i) {
+                if (pending[i] != 0) {
+                    incomplete.add(scheduleIds[i]);
+                } else if (count[i] != 0 && aggregates != null) {
+                    aggregates.add(new AggregateNumericMetric(scheduleIds[i], sum[i] / count[i], min[i], max[i],
+                        timeSlice));
+                }
+            }
+        }
+    }
+}
@@ -15,6 +15,20 @@ public class StorageClientConstants {
 
     public static final String REQUEST_TOPOLOGY_CHANGE_DELTA = "rhq.storage.request.limit.topology-delta";
 
+    public static final String NODE_LIMIT_ENABLED = "rhq.storage.request.node-limit.enabled";
+
+    public static final String NODE_LIMIT_INITIAL = "rhq.storage.request.node-limit.initial";
+
+    public static final String NODE_LIMIT_MIN = "rhq.storage.request.node-limit.min";
+
+    public static final String NODE_LIMIT_MAX = "rhq.storage.request.node-limit.max";
+
+    public static final String NODE_LIMIT_BACKOFF = "rhq.storage.request.node-limit.backoff";
+
+    public static final String NODE_LIMIT_LATENCY_THRESHOLD = "rhq.storage.request.node-limit.latency-threshold";
+
+    public static final String NODE_LIMIT_QUEUE_TIMEOUT = "rhq.storage.request.node-limit.queue-timeout";
+
     public static final String LOAD_BALANCING = "rhq.storage.client.load-balancing";
 
     public static final String DATA_CENTER = "rhq.storage.dc";
@@ -0,0 +1,202 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for requests that are routed to a single storage node. The number of concurrent (in flight)
+ * requests a node may have is adjusted with an AIMD (additive increase, multiplicative decrease) policy. Every
+ * request that completes within the latency threshold grows the limit by <code>1 / limit</code>, so the limit grows
+ * by roughly one for every full window of fast requests. A timeout or a request slower than the threshold shrinks the
+ * limit by the backoff factor, at most once per dampening interval. This way a single slow node, e.g. one that is in
+ * a long GC pause, only throttles the requests that have to go to it instead of the whole cluster.
+ */
+public class StorageNodeLimiter {
+
+    private final InetAddress address;
+
+    private final Object lock = new Object();
+
+    private double limit;
+
+    private double minLimit;
+
+    private double maxLimit;
+
+    private double backoff;
+
+    private long latencyThreshold;
+
+    private long dampening;
+
+    private long limitLastDecreased;
+
+    private int inFlight;
+
+    private long requests;
+
+    private long rejections;
+
+    private long timeouts;
+
+    private double avgLatency;
+
+    /**
+     * @param address The address of the storage node
+     * @param initialLimit The initial number of concurrent requests allowed
+     * @param minLimit The limit never drops below this value
+     * @param maxLimit The limit never grows beyond this value
+     * @param backoff The multiplicative decrease factor, a value between 0 and 1
+     * @param latencyThreshold Requests that take longer than this many milliseconds are treated as congestion
+     * @param dampening The minimum number of milliseconds between two consecutive decreases of the limit
+     */
+    public StorageNodeLimiter(InetAddress address, double initialLimit, double minLimit, double maxLimit,
+        double backoff, long latencyThreshold, long dampening) {
+        this.address = address;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.latencyThreshold = latencyThreshold;
+        this.dampening = dampening;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Acquires a permit for a single request, waiting up to the specified time for one to become available.
+     *
+     * @return true if the permit was acquired, false if the node is saturated and the request should be shed
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        synchronized (lock) {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    ++rejections;
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ++rejections;
+                    return false;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            ++inFlight;
+            ++requests;
+            return true;
+        }
+    }
+
+    /**
+     * Releases a permit previously obtained with {@link #tryAcquire(long, TimeUnit)} and feeds the observed latency
+     * into the limit calculation.
+     *
+     * @param latency The request latency in milliseconds
+     * @param timedOut true if the request failed due to a client or server side timeout
+     */
+    public void release(long latency, boolean timedOut) {
+        synchronized (lock) {
+            --inFlight;
+            // exponentially weighted moving average, mostly for monitoring purposes
+            avgLatency = avgLatency == 0 ? latency : (avgLatency * 0.9) + (latency * 0.1);
+
+            if (timedOut || latency > latencyThreshold) {
+                if (timedOut) {
+                    ++timeouts;
+                }
+                long now = System.currentTimeMillis();
+                if (now - limitLastDecreased >= dampening) {
+                    limit = Math.max(minLimit, limit * backoff);
+                    limitLastDecreased = now;
+                }
+            } else if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + (1.0 / limit));
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public double getLimit() {
+        synchronized (lock) {
+            return limit;
+        }
+    }
+
+    public void setLimits(double minLimit, double maxLimit) {
+        synchronized (lock) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            limit = Math.min(maxLimit, Math.max(minLimit, limit));
+            lock.notifyAll();
+        }
+    }
+
+    public int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public long getRequests() {
+        synchronized (lock) {
+            return requests;
+        }
+    }
+
+    public long getRejections() {
+        synchronized (lock) {
+            return rejections;
+        }
+    }
+
+    public long getTimeouts() {
+        synchronized (lock) {
+            return timeouts;
+        }
+    }
+
+    public double getAverageLatency() {
+        synchronized (lock) {
+            return avgLatency;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "StorageNodeLimiter[address: " + address + ", limit: " + (int) limit + ", inFlight: " + inFlight +
+                ", requests: " + requests + ", rejections: " + rejections + ", timeouts: " + timeouts +
+                ", avgLatency: " + Math.round(avgLatency) + " ms]";
+        }
+    }
+}
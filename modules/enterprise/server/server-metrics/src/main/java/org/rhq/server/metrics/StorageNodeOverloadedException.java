@@ -0,0 +1,46 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import java.net.InetAddress;
+
+/**
+ * Thrown when a request is shed because the storage node that owns the partition has no admission permits left.
+ * Callers should treat this like any other failed write, i.e., report the failure for the affected data only.
+ */
+public class StorageNodeOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private InetAddress address;
+
+    public StorageNodeOverloadedException(InetAddress address) {
+        super("Request rejected because storage node " + address + " is overloaded");
+        this.address = address;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+}
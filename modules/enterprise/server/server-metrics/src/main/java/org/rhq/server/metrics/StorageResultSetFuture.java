@@ -18,28 +18,52 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
 
     private StorageSession session;
 
+    private RuntimeException failure;
+
     public StorageResultSetFuture(ResultSetFuture resultSetFuture, StorageSession session) {
         wrapperFuture = resultSetFuture;
         this.session = session;
     }
 
+    /**
+     * Creates a future for a request that was never submitted, e.g. because it was rejected by admission control.
+     * The future is done right away and {@link #get()} throws the passed exception, just like the driver's futures
+     * throw the exception the request failed with.
+     */
+    public StorageResultSetFuture(RuntimeException failure) {
+        this.failure = failure;
+    }
+
     @Override
     public void addListener(Runnable listener, Executor executor) {
+        if (failure != null) {
+            executor.execute(listener);
+            return;
+        }
         wrapperFuture.addListener(listener, executor);
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
+        if (failure != null) {
+            return false;
+        }
         return wrapperFuture.cancel(mayInterruptIfRunning);
     }
 
     @Override
     public boolean isCancelled() {
+        if (failure != null) {
+            return false;
+        }
         return wrapperFuture.isCancelled();
     }
 
     @Override
     public boolean isDone() {
+        if (failure != null) {
+            return true;
+        }
         return wrapperFuture.isDone();
     }
 
@@ -48,6 +72,9 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
      */
     @Override
     public ResultSet get() {
+        if (failure != null) {
+            throw failure;
+        }
         try {
             return wrapperFuture.getUninterruptibly();
         } catch (NoHostAvailableException e) {
@@ -61,6 +88,9 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
      */
     @Override
     public ResultSet get(long timeout, TimeUnit unit) throws TimeoutException {
+        if (failure != null) {
+            throw failure;
+        }
         try {
             return wrapperFuture.getUninterruptibly(timeout, unit);
         } catch (NoHostAvailableException e) {
@@ -1,5 +1,12 @@
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_BACKOFF;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_ENABLED;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_INITIAL;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_LATENCY_THRESHOLD;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_MAX;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_MIN;
+import static org.rhq.server.metrics.StorageClientConstants.NODE_LIMIT_QUEUE_TIMEOUT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LIMIT_MIN;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
@@ -10,11 +17,17 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Host;
 import com.datastax.driver.core.PreparedStatement;
@@ -22,7 +35,13 @@ import com.datastax.driver.core.Query;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryTimeoutException;
+import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.RateLimiter;
 
 import org.apache.commons.logging.Log;
@@ -58,6 +77,23 @@ public class StorageSession implements Host.StateListener {
 
     private AtomicLong totalRequests = new AtomicLong();
 
+    private boolean nodeLimitEnabled = Boolean.valueOf(System.getProperty(NODE_LIMIT_ENABLED, "true"));
+
+    private double nodeLimitInitial = Double.parseDouble(System.getProperty(NODE_LIMIT_INITIAL, "256"));
+
+    private double nodeLimitMin = Double.parseDouble(System.getProperty(NODE_LIMIT_MIN, "32"));
+
+    private double nodeLimitMax = Double.parseDouble(System.getProperty(NODE_LIMIT_MAX, "2048"));
+
+    private double nodeLimitBackoff = Double.parseDouble(System.getProperty(NODE_LIMIT_BACKOFF, "0.75"));
+
+    private long nodeLimitLatencyThreshold = Long.parseLong(System.getProperty(NODE_LIMIT_LATENCY_THRESHOLD, "1000"));
+
+    private long nodeLimitQueueTimeout = Long.parseLong(System.getProperty(NODE_LIMIT_QUEUE_TIMEOUT, "500"));
+
+    private ConcurrentMap<InetAddress, StorageNodeLimiter> nodeLimiters =
+        new ConcurrentHashMap<InetAddress, StorageNodeLimiter>();
+
     public StorageSession(Session wrappedSession) {
         this.wrappedSession = wrappedSession;
         this.wrappedSession.getCluster().register(this);
@@ -139,6 +175,57 @@ public class StorageSession implements Host.StateListener {
         return timeouts;
     }
 
+    public long getTotalRequests() {
+        return totalRequests.get();
+    }
+
+    public boolean isNodeLimitEnabled() {
+        return nodeLimitEnabled;
+    }
+
+    public void setNodeLimitEnabled(boolean nodeLimitEnabled) {
+        this.nodeLimitEnabled = nodeLimitEnabled;
+    }
+
+    public double getNodeLimitMin() {
+        return nodeLimitMin;
+    }
+
+    public double getNodeLimitMax() {
+        return nodeLimitMax;
+    }
+
+    public void setNodeLimits(double min, double max) {
+        nodeLimitMin = min;
+        nodeLimitMax = max;
+        for (StorageNodeLimiter limiter : nodeLimiters.values()) {
+            limiter.setLimits(min, max);
+        }
+    }
+
+    public long getNodeLimitQueueTimeout() {
+        return nodeLimitQueueTimeout;
+    }
+
+    public void setNodeLimitQueueTimeout(long queueTimeout) {
+        nodeLimitQueueTimeout = queueTimeout;
+    }
+
+    /**
+     * @return The admission controllers of the storage nodes that requests have been routed to so far
+     */
+    public Collection<StorageNodeLimiter> getNodeLimiters() {
+        return nodeLimiters.values();
+    }
+
+    public long getNodeRejections() {
+        long rejections = 0;
+        for (StorageNodeLimiter limiter : nodeLimiters.values()) {
+            rejections += limiter.getRejections();
+        }
+        return rejections;
+    }
+
     public ResultSet execute(String query) {
         try {
             totalRequests.incrementAndGet();
@@ -151,13 +238,24 @@ public class StorageSession implements Host.StateListener {
     }
 
     public ResultSet execute(Query query) {
+        StorageNodeLimiter limiter = acquireNodePermit(query);
+        long start = System.currentTimeMillis();
+        boolean timedOut = false;
         try {
             totalRequests.incrementAndGet();
             permits.acquire();
             return wrappedSession.execute(query);
         } catch (NoHostAvailableException e) {
+            timedOut = isClientTimeout(e);
             handleNoHostAvailable(e);
             throw e;
+        } catch (QueryTimeoutException e) {
+            timedOut = true;
+            throw e;
+        } finally {
+            if (limiter != null) {
+                limiter.release(System.currentTimeMillis() - start, timedOut);
+            }
         }
     }
 
@@ -168,13 +266,128 @@ public class StorageSession implements Host.StateListener {
         return new StorageResultSetFuture(future, this);
     }
 
+    /**
+     * Executes the query asynchronously. If the query is a write with a routing key and the token aware load
+     * balancing policy is in use, a permit has to be obtained from the admission controller of the replica that
+     * will coordinate the request before the query is submitted. If that node cannot admit the request within the
+     * queue timeout, the returned future fails with a {@link StorageNodeOverloadedException}.
+     */
     public StorageResultSetFuture executeAsync(Query query) {
-        totalRequests.incrementAndGet();
-        permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
+        StorageNodeLimiter limiter;
+        try {
+            limiter = acquireNodePermit(query);
+        } catch (StorageNodeOverloadedException e) {
+            return new StorageResultSetFuture(e);
+        }
+        ResultSetFuture future;
+        try {
+            totalRequests.incrementAndGet();
+            permits.acquire();
+            future = wrappedSession.executeAsync(query);
+        } catch (RuntimeException e) {
+            if (limiter != null) {
+                limiter.release(0, false);
+            }
+            throw e;
+        }
+        if (limiter != null) {
+            releaseOnCompletion(future, limiter);
+        }
         return new StorageResultSetFuture(future, this);
     }
 
+    private StorageNodeLimiter acquireNodePermit(Query query) {
+        if (!nodeLimitEnabled || !isWrite(query)) {
+            return null;
+        }
+        Host coordinator = getCoordinator(query);
+        if (coordinator == null) {
+            return null;
+        }
+
+        StorageNodeLimiter limiter = getNodeLimiter(coordinator.getAddress());
+        if (!limiter.tryAcquire(nodeLimitQueueTimeout, TimeUnit.MILLISECONDS)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Rejecting request because no permits are available: " + limiter);
+            }
+            throw new StorageNodeOverloadedException(limiter.getAddress());
+        }
+        return limiter;
+    }
+
+    /**
+     * Determines the node that the driver will send the query to. This is only known up front with the token aware
+     * policy, which always tries the first live replica of the partition first. With the other policies any node can
+     * end up coordinating the request, so there is no node to charge it to and null is returned.
+     */
+    private Host getCoordinator(Query query) {
+        if (query.getRoutingKey() == null) {
+            return null;
+        }
+        LoadBalancingPolicy policy = wrappedSession.getCluster().getConfiguration().getPolicies()
+            .getLoadBalancingPolicy();
+        if (!(policy instanceof TokenAwarePolicy)) {
+            return null;
+        }
+        Iterator<Host> queryPlan = policy.newQueryPlan(query);
+        return queryPlan.hasNext() ? queryPlan.next() : null;
+    }
+
+    /**
+     * Only writes are subject to admission control. Reads, e.g. for graphs or aggregation, are comparatively few
+     * and are better served late than rejected.
+     */
+    static boolean isWrite(Query query) {
+        String cql;
+        if (query instanceof BoundStatement) {
+            cql = ((BoundStatement) query).preparedStatement().getQueryString();
+        } else if (query instanceof Statement) {
+            cql = ((Statement) query).getQueryString();
+        } else {
+            return false;
+        }
+        return isWrite(cql);
+    }
+
+    static boolean isWrite(String cql) {
+        if (cql == null) {
+            return false;
+        }
+        String statement = cql.trim().toUpperCase();
+        return statement.startsWith("INSERT") || statement.startsWith("UPDATE") || statement.startsWith("DELETE") ||
+            statement.startsWith("BEGIN");
+    }
+
+    private StorageNodeLimiter getNodeLimiter(InetAddress address) {
+        StorageNodeLimiter limiter = nodeLimiters.get(address);
+        if (limiter == null) {
+            limiter = new StorageNodeLimiter(address, nodeLimitInitial, nodeLimitMin, nodeLimitMax, nodeLimitBackoff,
+                nodeLimitLatencyThreshold, timeoutDampening);
+            StorageNodeLimiter existing = nodeLimiters.putIfAbsent(address, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    private void releaseOnCompletion(ResultSetFuture future, final StorageNodeLimiter limiter) {
+        final long start = System.currentTimeMillis();
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                limiter.release(System.currentTimeMillis() - start, false);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                boolean timedOut = t instanceof QueryTimeoutException ||
+                    (t instanceof NoHostAvailableException && isClientTimeout((NoHostAvailableException) t));
+                limiter.release(System.currentTimeMillis() - start, timedOut);
+            }
+        });
+    }
+
     public PreparedStatement prepare(String query) {
         totalRequests.incrementAndGet();
         permits.acquire();
@@ -231,6 +444,7 @@ public class StorageSession implements Host.StateListener {
     @Override
     public void onRemove(Host host) {
         log.debug(host + " has been removed.");
+        nodeLimiters.remove(host.getAddress());
         decreaseRequestThroughput(-topologyDelta);
         for (StorageStateListener listener : listeners) {
             listener.onStorageNodeRemoved(host.getAddress());
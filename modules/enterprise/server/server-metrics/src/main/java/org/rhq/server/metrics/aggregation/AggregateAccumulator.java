@@ -0,0 +1,96 @@
+package org.rhq.server.metrics.aggregation;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
+
+/**
+ * Computes an aggregate in a single pass over a result set using only primitive state. Rows are consumed directly
+ * from the result set instead of being copied into a list first, so no per row objects are retained.
+ */
+class AggregateAccumulator {
+
+    private int scheduleId;
+
+    private double min = Double.NaN;
+
+    private double max = Double.NaN;
+
+    private int count;
+
+    private double mean;
+
+    private int meanCount;
+
+    /**
+     * @param resultSet Raw data rows with the columns schedule_id, time, value
+     * @return The aggregate or null if the result set is empty
+     */
+    static AggregateNumericMetric aggregateRawData(ResultSet resultSet, long timestamp) {
+        AggregateAccumulator accumulator = new AggregateAccumulator();
+        for (Row row : resultSet) {
+            accumulator.addValue(row.getInt(0), row.getDouble(2));
+        }
+        return accumulator.toAggregate(timestamp);
+    }
+
+    /**
+     * @param resultSet Aggregate rows with the columns schedule_id, time, type, value
+     * @return The aggregate or null if the result set is empty
+     */
+    static AggregateNumericMetric aggregateAggregateData(ResultSet resultSet, long timestamp) {
+        AggregateAccumulator accumulator = new AggregateAccumulator();
+        for (Row row : resultSet) {
+            accumulator.addAggregate(row.getInt(0), row.getInt(2), row.getDouble(3));
+        }
+        return accumulator.toAggregate(timestamp);
+    }
+
+    void addValue(int scheduleId, double value) {
+        this.scheduleId = scheduleId;
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else if (value < min) {
+            min = value;
+        } else if (value > max) {
+            max = value;
+        }
+        addToMean(value);
+        ++count;
+    }
+
+    /**
+     * Aggregates are stored as one row per type, so each row only contributes to the component that matches its type.
+     * This does not depend on the rows of an aggregate all being present.
+     */
+    void addAggregate(int scheduleId, int type, double value) {
+        this.scheduleId = scheduleId;
+        switch (AggregateType.valueOf(type)) {
+        case MAX:
+            max = (Double.isNaN(max) || value > max) ? value : max;
+            break;
+        case MIN:
+            min = (Double.isNaN(min) || value < min) ? value : min;
+            break;
+        default:  // AVG
+            addToMean(value);
+        }
+        ++count;
+    }
+
+    private void addToMean(double value) {
+        // same incremental calculation as ArithmeticMeanCalculator
+        ++meanCount;
+        mean = mean + (value - mean) / meanCount;
+    }
+
+    AggregateNumericMetric toAggregate(long timestamp) {
+        if (count == 0) {
+            return null;
+        }
+        return new AggregateNumericMetric(scheduleId, mean, min, max, timestamp);
+    }
+}
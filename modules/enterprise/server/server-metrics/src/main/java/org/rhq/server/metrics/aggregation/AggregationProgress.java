@@ -0,0 +1,71 @@
+package org.rhq.server.metrics.aggregation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the progress of a single aggregation run. Counters are updated as index pages are read and as batches of
+ * schedules complete, so this can be polled while aggregation is still running.
+ */
+public class AggregationProgress {
+
+    private AtomicInteger[] scheduled = new AtomicInteger[AggregationType.values().length];
+
+    private AtomicInteger[] completed = new AtomicInteger[AggregationType.values().length];
+
+    private AtomicInteger indexPages = new AtomicInteger();
+
+    public AggregationProgress() {
+        for (int i = 0; i < scheduled.length; ++i) {
+            scheduled[i] = new AtomicInteger();
+            completed[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Records an index page that was read along with the number of schedules from it that were scheduled for
+     * aggregation. Pages without any schedules to aggregate, e.g. the empty page that ends a partition, are not
+     * counted.
+     */
+    void addIndexPage(AggregationType type, int count) {
+        if (count > 0) {
+            addScheduled(type, count);
+            indexPages.incrementAndGet();
+        }
+    }
+
+    void addScheduled(AggregationType type, int count) {
+        scheduled[type.ordinal()].addAndGet(count);
+    }
+
+    void addCompleted(AggregationType type, int count) {
+        completed[type.ordinal()].addAndGet(count);
+    }
+
+    /**
+     * @return The number of schedules read from the index so far for the aggregation type
+     */
+    public int getScheduled(AggregationType type) {
+        return scheduled[type.ordinal()].get();
+    }
+
+    /**
+     * @return The number of schedules for which aggregates have been computed and stored (or failed)
+     */
+    public int getCompleted(AggregationType type) {
+        return completed[type.ordinal()].get();
+    }
+
+    public int getIndexPages() {
+        return indexPages.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder("AggregationProgress[indexPages: " + indexPages.get());
+        for (AggregationType type : AggregationType.values()) {
+            buffer.append(", ").append(type).append(": ").append(getCompleted(type)).append("/")
+                .append(getScheduled(type));
+        }
+        return buffer.append("]").toString();
+    }
+}
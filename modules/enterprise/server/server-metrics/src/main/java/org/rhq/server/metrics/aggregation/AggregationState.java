@@ -8,6 +8,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 import org.joda.time.DateTime;
 
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.RawDataAccumulator;
 import org.rhq.server.metrics.SignalingCountDownLatch;
 
 /**
@@ -19,6 +20,14 @@ class AggregationState {
 
     private int batchSize;
 
+    private int indexPageSize;
+
+    private AggregationProgress progress;
+
+    private int[] precomputedSchedules = new int[0];
+
+    private RawDataAccumulator rawDataAccumulator;
+
     private MetricsDAO dao;
 
     private ListeningExecutorService aggregationTasks;
@@ -77,6 +86,49 @@ class AggregationState {
         return this;
     }
 
+    int getIndexPageSize() {
+        return indexPageSize;
+    }
+
+    AggregationState setIndexPageSize(int indexPageSize) {
+        this.indexPageSize = indexPageSize;
+        return this;
+    }
+
+    AggregationProgress getProgress() {
+        return progress;
+    }
+
+    AggregationState setProgress(AggregationProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * @return The sorted ids of the schedules whose 1 hour aggregates have already been stored from pre-aggregated
+     * raw data
+     */
+    int[] getPrecomputedSchedules() {
+        return precomputedSchedules;
+    }
+
+    AggregationState setPrecomputedSchedules(int[] precomputedSchedules) {
+        this.precomputedSchedules = precomputedSchedules;
+        return this;
+    }
+
+    /**
+     * @return The accumulator the pre-computed 1 hour aggregates came from, or null if raw data is not pre-aggregated
+     */
+    RawDataAccumulator getRawDataAccumulator() {
+        return rawDataAccumulator;
+    }
+
+    AggregationState setRawDataAccumulator(RawDataAccumulator rawDataAccumulator) {
+        this.rawDataAccumulator = rawDataAccumulator;
+        return this;
+    }
+
     MetricsDAO getDao() {
         return dao;
     }
@@ -1,12 +1,14 @@
 package org.rhq.server.metrics.aggregation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -28,6 +30,7 @@ import org.rhq.server.metrics.AbortedException;
 import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.RawDataAccumulator;
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
@@ -61,12 +64,22 @@ public class Aggregator {
 
     private Set<AggregateNumericMetric> oneHourData;
 
+    private AggregationProgress progress = new AggregationProgress();
+
+    private RawDataAccumulator rawDataAccumulator;
+
+    private int batchSize;
+
+    private int parallelism;
+
     public Aggregator(ListeningExecutorService aggregationTasks, MetricsDAO dao, MetricsConfiguration configuration,
         DateTimeService dtService, DateTime startTime, int batchSize, int parallelism) {
         this.dao = dao;
         this.configuration = configuration;
         this.dtService = dtService;
         this.startTime = startTime;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
         oneHourData = new ConcurrentSkipListSet<AggregateNumericMetric>(AGGREGATE_COMPARATOR);
 
         DateTime sixHourTimeSlice = get6HourTimeSlice();
@@ -76,6 +89,8 @@ public class Aggregator {
             .setDao(dao)
             .setStartTime(startTime)
             .setBatchSize(batchSize)
+            .setIndexPageSize(configuration.getIndexPageSize())
+            .setProgress(progress)
             .setAggregationTasks(aggregationTasks)
             .setPermits(new Semaphore(parallelism * batchSize, true))
             .setRawAggregationDone(new SignalingCountDownLatch(new CountDownLatch(1)))
@@ -115,15 +130,32 @@ public class Aggregator {
         return dtService.getTimeSlice(dtService.now(), configuration.getRawTimeSliceDuration());
     }
 
+    public AggregationProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * If set, the 1 hour aggregates that have been accumulated while raw data was stored are written directly and raw
+     * data is only read for the schedules that are not covered by the accumulator, or that the accumulator marked
+     * dirty because some of their raw data was still being written or arrived late.
+     */
+    public void setRawDataAccumulator(RawDataAccumulator rawDataAccumulator) {
+        this.rawDataAccumulator = rawDataAccumulator;
+        state.setRawDataAccumulator(rawDataAccumulator);
+    }
+
     public Set<AggregateNumericMetric> run() {
         log.info("Starting aggregation for time slice " + startTime);
         try {
             Stopwatch stopwatch = new Stopwatch().start();
+            if (rawDataAccumulator != null) {
+                storePrecomputedAggregates();
+            }
             List<MetricsTable> indexUpdates = new ArrayList<MetricsTable>(3);
             indexUpdates.add(MetricsTable.ONE_HOUR);
-            StorageResultSetFuture rawIndexFuture = dao.findMetricsIndexEntriesAsync(MetricsTable.ONE_HOUR,
-                startTime.getMillis());
-            Futures.addCallback(rawIndexFuture, new RawDataScheduler(state), state.getAggregationTasks());
+            RawDataScheduler rawDataScheduler = new RawDataScheduler(state);
+            Futures.addCallback(rawDataScheduler.findIndexEntries(Integer.MIN_VALUE), rawDataScheduler,
+                state.getAggregationTasks());
 
             state.getRawAggregationDone().await();
             stopwatch.stop();
@@ -133,9 +165,8 @@ public class Aggregator {
                 log.info("Starting aggregation of 1 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.SIX_HOUR);
-                StorageResultSetFuture oneHourIndexFuture = dao.findMetricsIndexEntriesAsync(MetricsTable.SIX_HOUR,
-                    state.getSixHourTimeSlice().getMillis());
-                Futures.addCallback(oneHourIndexFuture, new OneHourDataScheduler(state),
+                OneHourDataScheduler oneHourDataScheduler = new OneHourDataScheduler(state);
+                Futures.addCallback(oneHourDataScheduler.findIndexEntries(Integer.MIN_VALUE), oneHourDataScheduler,
                     state.getAggregationTasks());
 
                 state.getOneHourAggregationDone().await();
@@ -147,9 +178,8 @@ public class Aggregator {
                 log.info("Starting aggregation of 6 hour data");
                 stopwatch.reset().start();
                 indexUpdates.add(MetricsTable.TWENTY_FOUR_HOUR);
-                StorageResultSetFuture sixHourIndexFuture = dao.findMetricsIndexEntriesAsync(
-                    MetricsTable.TWENTY_FOUR_HOUR, state.getTwentyFourHourTimeSlice().getMillis());
-                Futures.addCallback(sixHourIndexFuture, new SixHourDataScheduler(state),
+                SixHourDataScheduler sixHourDataScheduler = new SixHourDataScheduler(state);
+                Futures.addCallback(sixHourDataScheduler.findIndexEntries(Integer.MIN_VALUE), sixHourDataScheduler,
                     state.getAggregationTasks());
 
                 state.getSixHourAggregationDone().await();
@@ -173,6 +203,63 @@ public class Aggregator {
         }
     }
 
+    /**
+     * Stores the 1 hour aggregates from the raw data accumulator. Schedules whose aggregates were stored successfully
+     * are recorded in the aggregation state so that their raw data is not read again, unless the accumulator marks
+     * them dirty in the meantime. If any of the writes for a schedule fails, the schedule is left to the regular raw
+     * data aggregation. Schedules with raw data writes that were still in flight are not returned by the accumulator
+     * and are aggregated from raw data as well.
+     */
+    private void storePrecomputedAggregates() throws InterruptedException {
+        List<AggregateNumericMetric> aggregates = rawDataAccumulator.drain(startTime.getMillis());
+        if (aggregates == null) {
+            log.info("Raw data for time slice " + startTime + " has not been fully accumulated. Raw data will be read " +
+                "for all schedules.");
+            return;
+        }
+        Stopwatch stopwatch = new Stopwatch().start();
+        Compute1HourData compute1HourData = state.getCompute1HourData();
+        int chunkSize = batchSize * parallelism;
+        int[] precomputed = new int[aggregates.size()];
+        int numPrecomputed = 0;
+
+        for (int i = 0; i < aggregates.size(); i += chunkSize) {
+            List<AggregateNumericMetric> chunk = aggregates.subList(i, Math.min(aggregates.size(), i + chunkSize));
+            List<StorageResultSetFuture> insertFutures = new ArrayList<StorageResultSetFuture>(chunk.size() *
+                Compute1HourData.WRITES_PER_AGGREGATE);
+            for (AggregateNumericMetric aggregate : chunk) {
+                compute1HourData.insertAggregate(aggregate, insertFutures);
+            }
+            List<ResultSet> results;
+            try {
+                results = Futures.successfulAsList(insertFutures).get();
+            } catch (ExecutionException e) {
+                // successfulAsList does not fail, failed writes show up as null results
+                log.warn("There was an unexpected error while storing pre-computed 1 hour aggregates: " +
+                    ThrowableUtil.getRootMessage(e));
+                continue;
+            }
+            for (int j = 0; j < chunk.size(); ++j) {
+                boolean stored = true;
+                for (int k = 0; k < Compute1HourData.WRITES_PER_AGGREGATE; ++k) {
+                    stored &= results.get(j * Compute1HourData.WRITES_PER_AGGREGATE + k) != null;
+                }
+                if (stored) {
+                    precomputed[numPrecomputed++] = chunk.get(j).getScheduleId();
+                }
+            }
+        }
+        precomputed = Arrays.copyOf(precomputed, numPrecomputed);
+        Arrays.sort(precomputed);
+        state.setPrecomputedSchedules(precomputed);
+        progress.addScheduled(AggregationType.RAW, numPrecomputed);
+        progress.addCompleted(AggregationType.RAW, numPrecomputed);
+
+        stopwatch.stop();
+        log.info("Stored pre-computed 1 hour aggregates for " + numPrecomputed + " of " + aggregates.size() +
+            " schedules in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
+    }
+
     private void deleteIndexEntries(final MetricsTable table, final CountDownLatch doneSignal) {
         final DateTime time;
         switch (table) {
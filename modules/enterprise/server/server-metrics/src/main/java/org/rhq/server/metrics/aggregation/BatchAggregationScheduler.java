@@ -39,34 +39,53 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
         Stopwatch stopwatch = new Stopwatch().start();
         Stopwatch batchStopwatch = new Stopwatch().start();
         List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>(state.getBatchSize());
-
-        // Calling indexResultSet.all() is somewhat inefficient as it requires copying all of the rows into a new
-        // List. We need the size up front though in order to set remainingSchedules in the statement below. I
-        // opened https://datastax-oss.atlassian.net/browse/JAVA-260 to provide a better way of getting the result
-        // set count.
-        List<Row> rows = indexResultSet.all();
-        getRemainingSchedules().getAndSet(rows.size());
+        int numSchedules = 0;
+
+        // The index is read one page at a time and the total number of schedules is not known until the last page
+        // has been read. The remaining schedules count therefore starts at one so that batches that finish while we
+        // are still paging cannot signal completion. That extra count is removed after the last page is scheduled.
+        // Since every schedule needs a permit before its data is queried, the number of schedules whose data is held
+        // in memory never exceeds the number of permits, regardless of how many schedules there are in the index.
+        getRemainingSchedules().set(1);
         try {
-            for (Row row : rows) {
-                state.getPermits().acquire();
-                queryFutures.add(findMetricData(row.getInt(1)));
-                if (queryFutures.size() == state.getBatchSize()) {
-                    state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(queryFutures,
-                        batchStopwatch)));
-                    queryFutures = new ArrayList<StorageResultSetFuture>(state.getBatchSize());
-                    batchStopwatch = new Stopwatch().start();
+            ResultSet page = indexResultSet;
+            while (page != null) {
+                int pageSize = 0;
+                int pageScheduled = 0;
+                int lastScheduleId = Integer.MIN_VALUE;
+                for (Row row : page) {
+                    lastScheduleId = row.getInt(1);
+                    ++pageSize;
+                    if (isAggregated(lastScheduleId)) {
+                        continue;
+                    }
+                    ++pageScheduled;
+                    state.getPermits().acquire();
+                    queryFutures.add(findMetricData(lastScheduleId));
+                    if (queryFutures.size() == state.getBatchSize()) {
+                        submitBatch(queryFutures, batchStopwatch);
+                        queryFutures = new ArrayList<StorageResultSetFuture>(state.getBatchSize());
+                        batchStopwatch = new Stopwatch().start();
+                    }
+                }
+                numSchedules += pageScheduled;
+                state.getProgress().addIndexPage(getAggregationType(), pageScheduled);
+
+                if (pageSize < state.getIndexPageSize()) {
+                    page = null;
+                } else {
+                    page = findIndexEntries(lastScheduleId).get();
                 }
             }
             if (!queryFutures.isEmpty()) {
-                state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(queryFutures,
-                    batchStopwatch)));
+                submitBatch(queryFutures, batchStopwatch);
             }
-            if (rows.isEmpty()) {
+            if (getRemainingSchedules().decrementAndGet() == 0) {
                 getAggregationDoneSignal().countDown();
             }
             stopwatch.stop();
             if (log.isDebugEnabled()) {
-                log.debug("Finished scheduling " + getAggregationType() + " aggregation tasks for " + rows.size() +
+                log.debug("Finished scheduling " + getAggregationType() + " aggregation tasks for " + numSchedules +
                     " schedules in " + stopwatch.elapsed(TimeUnit.MILLISECONDS) + " ms");
             }
         } catch (InterruptedException e) {
@@ -75,9 +94,17 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
             log.info("Aggregation will be aborted");
             getAggregationDoneSignal().abort("There was an interrupt while scheduling aggregation tasks for " +
                 getAggregationType() + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            onFailure(e);
         }
     }
 
+    private void submitBatch(List<StorageResultSetFuture> queryFutures, Stopwatch batchStopwatch) {
+        getRemainingSchedules().addAndGet(queryFutures.size());
+        state.getAggregationTasks().submit(new BatchAggregator(createBatchAggregationState(queryFutures,
+            batchStopwatch)));
+    }
+
     private BatchAggregationState createBatchAggregationState(List<StorageResultSetFuture> queryFutures,
         Stopwatch batchStopwatch) {
         return new BatchAggregationState()
@@ -88,7 +115,8 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
             .setPermits(state.getPermits())
             .setQueryFutures(queryFutures)
             .setRemainingSchedules(getRemainingSchedules())
-            .setStopwatch(batchStopwatch);
+            .setStopwatch(batchStopwatch)
+            .setProgress(state.getProgress());
     }
 
     @Override
@@ -111,6 +139,20 @@ abstract class BatchAggregationScheduler implements FutureCallback<ResultSet> {
 
     protected abstract StorageResultSetFuture findMetricData(int scheduleId);
 
+    /**
+     * @return The next page of index entries, i.e., the entries with schedule ids greater than
+     * <code>afterScheduleId</code>. Pass {@link Integer#MIN_VALUE} to fetch the first page.
+     */
+    protected abstract StorageResultSetFuture findIndexEntries(int afterScheduleId);
+
+    /**
+     * @return true if the aggregate for the schedule has already been computed and stored by other means, in which case
+     * its data is not queried. Defaults to false.
+     */
+    protected boolean isAggregated(int scheduleId) {
+        return false;
+    }
+
     protected abstract AsyncFunction<List<ResultSet>, List<ResultSet>> getComputeAggregates();
 
     protected abstract AtomicInteger getRemainingSchedules();
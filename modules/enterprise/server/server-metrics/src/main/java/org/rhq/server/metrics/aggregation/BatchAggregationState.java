@@ -33,6 +33,8 @@ class BatchAggregationState {
 
     private Stopwatch stopwatch;
 
+    private AggregationProgress progress;
+
     AggregationType getAggregationType() {
         return aggregationType;
     }
@@ -105,4 +107,13 @@ class BatchAggregationState {
         return this;
     }
 
+    AggregationProgress getProgress() {
+        return progress;
+    }
+
+    BatchAggregationState setProgress(AggregationProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+
 }
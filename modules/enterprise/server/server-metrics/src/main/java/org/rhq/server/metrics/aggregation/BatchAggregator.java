@@ -62,6 +62,7 @@ class BatchAggregator implements Runnable {
     }
 
     private void updateRemainingSchedules() {
+        state.getProgress().addCompleted(state.getAggregationType(), state.getQueryFutures().size());
         int count = state.getRemainingSchedules().addAndGet(-state.getQueryFutures().size());
         if (log.isDebugEnabled()) {
             log.debug("There are " + count + " remaining schedules with " + state.getAggregationType() +
@@ -6,7 +6,6 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Row;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -16,7 +15,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 
-import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
@@ -31,6 +29,8 @@ import org.rhq.server.metrics.domain.MetricsTable;
  */
 class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>> {
 
+    static final int WRITES_PER_AGGREGATE = 4;
+
     private final Log log = LogFactory.getLog(Compute1HourData.class);
 
     private DateTime startTime;
@@ -64,16 +64,12 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
                     // schedule id, possibly for debugging purposes.
                     continue;
                 }
-                AggregateNumericMetric aggregate = calculateAggregatedRaw(resultSet);
-                oneHourData.add(aggregate);
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MIN, aggregate.getMin()));
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.MAX, aggregate.getMax()));
-                insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
-                    AggregateType.AVG, aggregate.getAvg()));
-                insertFutures.add(dao.updateMetricsIndex(MetricsTable.SIX_HOUR, aggregate.getScheduleId(),
-                    sixHourTimeSlice.getMillis()));
+                AggregateNumericMetric aggregate = AggregateAccumulator.aggregateRawData(resultSet,
+                    startTime.getMillis());
+                if (aggregate == null) {
+                    continue;
+                }
+                insertAggregate(aggregate, insertFutures);
             }
             return Futures.successfulAsList(insertFutures);
         } finally {
@@ -85,30 +81,19 @@ class Compute1HourData implements AsyncFunction<List<ResultSet>, List<ResultSet>
         }
     }
 
-    private AggregateNumericMetric calculateAggregatedRaw(ResultSet resultSet) {
-        double min = Double.NaN;
-        double max = min;
-        int count = 0;
-        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
-        double value;
-        List<Row> rows = resultSet.all();
-
-        for (Row row : rows) {
-            value = row.getDouble(2);
-            if (count == 0) {
-                min = value;
-                max = min;
-            }
-            if (value < min) {
-                min = value;
-            } else if (value > max) {
-                max = value;
-            }
-            mean.add(value);
-            ++count;
-        }
-
-        return new AggregateNumericMetric(rows.get(0).getInt(0), mean.getArithmeticMean(), min, max,
-            startTime.getMillis());
+    /**
+     * Stores the 1 hour aggregate along with its 6 hour index update. The futures of the
+     * {@link #WRITES_PER_AGGREGATE} writes are added to <code>insertFutures</code> in order.
+     */
+    void insertAggregate(AggregateNumericMetric aggregate, List<StorageResultSetFuture> insertFutures) {
+        oneHourData.add(aggregate);
+        insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+            AggregateType.MIN, aggregate.getMin()));
+        insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+            AggregateType.MAX, aggregate.getMax()));
+        insertFutures.add(dao.insertOneHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
+            AggregateType.AVG, aggregate.getAvg()));
+        insertFutures.add(dao.updateMetricsIndex(MetricsTable.SIX_HOUR, aggregate.getScheduleId(),
+            sixHourTimeSlice.getMillis()));
     }
 }
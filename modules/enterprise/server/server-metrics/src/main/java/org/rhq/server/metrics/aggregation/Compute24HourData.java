@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Row;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -15,7 +14,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 
-import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.MetricsDAO;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
@@ -55,7 +53,11 @@ class Compute24HourData implements AsyncFunction<List<ResultSet>, List<ResultSet
                     // schedule id, possibly for debugging purposes.
                     continue;
                 }
-                AggregateNumericMetric aggregate = calculateAggregate(resultSet);
+                AggregateNumericMetric aggregate = AggregateAccumulator.aggregateAggregateData(resultSet,
+                    startTime.getMillis());
+                if (aggregate == null) {
+                    continue;
+                }
                 insertFutures.add(dao.insertTwentyFourHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
                     AggregateType.MIN, aggregate.getMin()));
                 insertFutures.add(dao.insertTwentyFourHourDataAsync(aggregate.getScheduleId(), aggregate.getTimestamp(),
@@ -72,34 +74,4 @@ class Compute24HourData implements AsyncFunction<List<ResultSet>, List<ResultSet
             }
         }
     }
-
-    private AggregateNumericMetric calculateAggregate(ResultSet resultSet) {
-        double min = Double.NaN;
-        double max = min;
-        ArithmeticMeanCalculator mean = new ArithmeticMeanCalculator();
-        List<Row> rows = resultSet.all();
-
-        // Inserting an aggregate metric currently requires three writes. If one of those writes fails, we could wind
-        // update with an IndexOutOfBoundsException in the loop below because it assumes rows.size() % 3 == 0 and that
-        // would could be false if writes fail. This won't be an issue though when the changes for BZ 1049054 are
-        // implemented, and this long comment can then be deleted.
-
-        for (int i = 0; i < rows.size(); i += 3) {
-            if (i == 0) {
-                min = rows.get(i + 1).getDouble(3);
-                max = rows.get(i).getDouble(3);
-            } else {
-                if (rows.get(i + 1).getDouble(3) < min) {
-                    min = rows.get(i + 1).getDouble(3);
-                }
-                if (rows.get(i).getDouble(3) > max) {
-                    max = rows.get(i).getDouble(3);
-                }
-            }
-            mean.add(rows.get(i + 2).getDouble(3));
-        }
-        return new AggregateNumericMetric(rows.get(0).getInt(0), mean.getArithmeticMean(), min, max,
-            startTime.getMillis());
-    }
-
 }
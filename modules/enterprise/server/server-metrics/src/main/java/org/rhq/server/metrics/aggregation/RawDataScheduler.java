@@ -1,13 +1,16 @@
 package org.rhq.server.metrics.aggregation;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.datastax.driver.core.ResultSet;
 import com.google.common.util.concurrent.AsyncFunction;
 
+import org.rhq.server.metrics.RawDataAccumulator;
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
  * @author John Sanda
@@ -28,12 +31,28 @@ class RawDataScheduler extends BatchAggregationScheduler {
         return AggregationType.RAW;
     }
 
+    @Override
+    protected StorageResultSetFuture findIndexEntries(int afterScheduleId) {
+        return state.getDao().findMetricsIndexEntriesAsync(MetricsTable.ONE_HOUR, state.getOneHourTimeSlice().getMillis(),
+            afterScheduleId);
+    }
+
     @Override
     protected StorageResultSetFuture findMetricData(int scheduleId) {
         return state.getDao().findRawMetricsAsync(scheduleId, state.getOneHourTimeSlice().getMillis(),
             state.getOneHourTimeSliceEnd().getMillis());
     }
 
+    @Override
+    protected boolean isAggregated(int scheduleId) {
+        if (Arrays.binarySearch(state.getPrecomputedSchedules(), scheduleId) < 0) {
+            return false;
+        }
+        // Raw data that was written after the pre-computed aggregate was taken is only picked up by reading raw data
+        RawDataAccumulator accumulator = state.getRawDataAccumulator();
+        return accumulator == null || !accumulator.isDirty(state.getOneHourTimeSlice().getMillis(), scheduleId);
+    }
+
     @Override
     protected AsyncFunction<List<ResultSet>, List<ResultSet>> getComputeAggregates() {
         return state.getCompute1HourData();
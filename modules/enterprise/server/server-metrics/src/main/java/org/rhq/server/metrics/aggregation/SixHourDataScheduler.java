@@ -8,6 +8,7 @@ import com.google.common.util.concurrent.AsyncFunction;
 
 import org.rhq.server.metrics.SignalingCountDownLatch;
 import org.rhq.server.metrics.StorageResultSetFuture;
+import org.rhq.server.metrics.domain.MetricsTable;
 
 /**
  * @author John Sanda
@@ -28,6 +29,12 @@ class SixHourDataScheduler extends BatchAggregationScheduler {
         return AggregationType.SIX_HOUR;
     }
 
+    @Override
+    protected StorageResultSetFuture findIndexEntries(int afterScheduleId) {
+        return state.getDao().findMetricsIndexEntriesAsync(MetricsTable.TWENTY_FOUR_HOUR, state.getTwentyFourHourTimeSlice().getMillis(),
+            afterScheduleId);
+    }
+
     @Override
     protected StorageResultSetFuture findMetricData(int scheduleId) {
         return state.getDao().findSixHourMetricsAsync(scheduleId, state.getTwentyFourHourTimeSlice().getMillis(),
@@ -0,0 +1,133 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class GroupQueryExecutorTest {
+
+    private ListeningExecutorService executor;
+
+    @BeforeClass
+    public void initExecutor() {
+        executor = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+    }
+
+    @AfterClass
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void limitConcurrentQueries() {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        new GroupQueryExecutor(3, 10000).execute(scheduleIds(50), new GroupQueryExecutor.ScheduleQuery() {
+            @Override
+            public ListenableFuture<?> execute(int scheduleId) {
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+                return executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(2);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        inFlight.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                });
+            }
+        });
+
+        assertEquals(completed.get(), 50, "All queries should have finished");
+        assertTrue(maxInFlight.get() <= 3, "Expected at most 3 queries in flight but there were " + maxInFlight);
+    }
+
+    @Test
+    public void failWhenAnyQueryFails() {
+        try {
+            new GroupQueryExecutor(5, 10000).execute(scheduleIds(10), new GroupQueryExecutor.ScheduleQuery() {
+                @Override
+                public ListenableFuture<?> execute(int scheduleId) {
+                    SettableFuture<Void> future = SettableFuture.create();
+                    if (scheduleId == 3) {
+                        future.setException(new RuntimeException("read failed"));
+                    } else {
+                        future.set(null);
+                    }
+                    return future;
+                }
+            });
+            fail("Expected a CQLException");
+        } catch (CQLException e) {
+            assertTrue(e.getMessage().contains("read failed"), "Unexpected message: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void failWhenQueriesTimeOut() {
+        try {
+            new GroupQueryExecutor(5, 50).execute(scheduleIds(2), new GroupQueryExecutor.ScheduleQuery() {
+                @Override
+                public ListenableFuture<?> execute(int scheduleId) {
+                    return SettableFuture.create();
+                }
+            });
+            fail("Expected a CQLException");
+        } catch (CQLException e) {
+            assertTrue(e.getMessage().contains("did not finish"), "Unexpected message: " + e.getMessage());
+        }
+    }
+
+    private List<Integer> scheduleIds(int count) {
+        List<Integer> scheduleIds = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; ++i) {
+            scheduleIds.add(i);
+        }
+        return scheduleIds;
+    }
+}
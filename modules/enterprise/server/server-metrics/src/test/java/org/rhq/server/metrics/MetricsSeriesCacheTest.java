@@ -0,0 +1,221 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.MetricsTable;
+import org.rhq.server.metrics.domain.RawNumericMetric;
+
+public class MetricsSeriesCacheTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final int SCHEDULE_ID = 100;
+
+    private long now;
+
+    private MetricsDAO dao;
+
+    private MetricsSeriesCache cache;
+
+    @BeforeMethod
+    public void initCache() {
+        now = 1000 * MINUTE;
+        dao = mock(MetricsDAO.class);
+        DateTimeService dateTimeService = new DateTimeService() {
+            @Override
+            public long nowInMillis() {
+                return now;
+            }
+        };
+        cache = new MetricsSeriesCache(dao, dateTimeService, 1000, MINUTE, 10 * MINUTE);
+    }
+
+    @Test
+    public void serveRepeatedRequestsFromMemory() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0), raw(20, 3.0)));
+
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+        assertEquals(buckets.get(0).getAvg(), 2.0);
+
+        buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+        assertEquals(buckets.get(0).getAvg(), 2.0);
+        assertEquals(buckets.get(0).getMax(), 3.0);
+
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, 0, now);
+        verifyNoMoreInteractions(dao);
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getHits(), 1);
+    }
+
+    @Test
+    public void appendRawDataStoredByThisServer() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0)));
+
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.RAW, SCHEDULE_ID, 0, now);
+        cache.addRawData(SCHEDULE_ID, now - 5, 5.0);
+
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 3.0);
+        assertEquals(buckets.get(0).getMax(), 5.0);
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, 0, now);
+    }
+
+    @Test
+    public void readTailAfterRefreshInterval() {
+        long end = now;
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, end)).thenReturn(asList(raw(10, 1.0)));
+        cache.insertInto(new Buckets(0, end, 1), MetricsTable.RAW, SCHEDULE_ID, 0, end);
+
+        now += MINUTE;
+        long tailStart = end - MetricsSeriesCache.REFRESH_OVERLAP;
+        when(dao.findRawMetrics(SCHEDULE_ID, tailStart, now)).thenReturn(asList(raw(now - 10, 7.0)));
+
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 4.0);
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, tailStart, now);
+        assertEquals(cache.getPartialHits(), 1);
+    }
+
+    @Test
+    public void mergeLateRawDataStoredByThisServer() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0)));
+
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.RAW, SCHEDULE_ID, 0, now);
+        cache.addRawData(SCHEDULE_ID, now - 2 * MetricsSeriesCache.REFRESH_OVERLAP, 5.0);
+
+        now += MINUTE;
+        long tailStart = now - MINUTE - MetricsSeriesCache.REFRESH_OVERLAP;
+        when(dao.findRawMetrics(SCHEDULE_ID, tailStart, now)).thenReturn(Collections.<RawNumericMetric>emptyList());
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 3.0);
+    }
+
+    @Test
+    public void countUnreadTailAsPartialHit() {
+        long end = now;
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, end)).thenReturn(asList(raw(10, 1.0)));
+        cache.insertInto(new Buckets(0, end, 1), MetricsTable.RAW, SCHEDULE_ID, 0, end);
+
+        now += MINUTE / 2;
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, 0, end);
+        verifyNoMoreInteractions(dao);
+        assertEquals(cache.getHits(), 0);
+        assertEquals(cache.getPartialHits(), 1);
+    }
+
+    @Test
+    public void readRawSeriesInFullAfterMaxAge() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0)));
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        // Stored by another server long after it was collected
+        now += 11 * MINUTE;
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0), raw(20, 5.0)));
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 3.0);
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, 0, now);
+        assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void dropDataThatFellOutOfTheWindow() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(raw(10, 1.0), raw(200, 3.0)));
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        Buckets buckets = new Buckets(100, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 100, now);
+        assertEquals(buckets.get(0).getAvg(), 3.0);
+
+        // The head has been dropped, so it has to be read again
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, 100)).thenReturn(asList(raw(10, 1.0)));
+        buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 2.0);
+        verify(dao, times(1)).findRawMetrics(SCHEDULE_ID, 0, 100);
+    }
+
+    @Test
+    public void readMissingHead() {
+        when(dao.findRawMetrics(SCHEDULE_ID, 100, now)).thenReturn(asList(raw(200, 2.0)));
+        when(dao.findRawMetrics(SCHEDULE_ID, 0, 100)).thenReturn(asList(raw(50, 4.0)));
+
+        cache.insertInto(new Buckets(100, now, 1), MetricsTable.RAW, SCHEDULE_ID, 100, now);
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.RAW, SCHEDULE_ID, 0, now);
+
+        assertEquals(buckets.get(0).getAvg(), 3.0);
+        assertEquals(buckets.get(0).getMin(), 2.0);
+    }
+
+    @Test
+    public void discardAggregatesAfterAggregation() {
+        when(dao.findOneHourMetrics(SCHEDULE_ID, 0, now)).thenReturn(asList(new AggregateNumericMetric(SCHEDULE_ID,
+            2.0, 1.0, 3.0, 10)));
+
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.ONE_HOUR, SCHEDULE_ID, 0, now);
+        cache.insertInto(new Buckets(0, now, 1), MetricsTable.ONE_HOUR, SCHEDULE_ID, 0, now);
+        verify(dao, times(1)).findOneHourMetrics(SCHEDULE_ID, 0, now);
+
+        cache.invalidateAggregates();
+        when(dao.findOneHourMetrics(SCHEDULE_ID, 0, now)).thenReturn(
+            Collections.<AggregateNumericMetric>emptyList());
+        Buckets buckets = new Buckets(0, now, 1);
+        cache.insertInto(buckets, MetricsTable.ONE_HOUR, SCHEDULE_ID, 0, now);
+
+        verify(dao, times(2)).findOneHourMetrics(SCHEDULE_ID, 0, now);
+        assertTrue(Double.isNaN(buckets.get(0).getAvg()), "There should not be any data after aggregation");
+    }
+
+    private RawNumericMetric raw(long timestamp, double value) {
+        return new RawNumericMetric(SCHEDULE_ID, timestamp, value);
+    }
+}
@@ -266,7 +266,7 @@ public class MetricsServerTest extends CassandraIntegrationTest {
         WaitForRawInserts waitForIndexUpdates = new WaitForRawInserts(rawMetrics.size());
         AtomicInteger remainingUpdates = new AtomicInteger(rawMetrics.size());
         for (MeasurementDataNumeric raw : rawMetrics) {
-            metricsServer.updateMetricsIndex(raw, rawMetrics.size(), remainingUpdates, hour8.getMillis(),
+            metricsServer.updateMetricsIndex(asList(raw), rawMetrics.size(), remainingUpdates, hour8.getMillis(),
                 waitForIndexUpdates);
         }
         waitForIndexUpdates.await("Failed to update metrics index for raw data");
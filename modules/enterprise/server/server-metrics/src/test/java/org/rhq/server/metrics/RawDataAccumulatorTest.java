@@ -0,0 +1,180 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+
+public class RawDataAccumulatorTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void computeAggregates() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(HOUR);
+        for (int i = 0; i < 1000; ++i) {
+            accumulator.add(HOUR, i, 2.0);
+            accumulator.add(HOUR, i, 4.0);
+            accumulator.add(HOUR, i, 6.0);
+        }
+        accumulator.add(2 * HOUR, 1, 1.0);
+
+        List<AggregateNumericMetric> aggregates = accumulator.drain(HOUR);
+
+        assertEquals(aggregates.size(), 1000);
+        for (AggregateNumericMetric aggregate : aggregates) {
+            assertEquals(aggregate.getMin(), 2.0);
+            assertEquals(aggregate.getMax(), 6.0);
+            assertEquals(aggregate.getAvg(), 4.0);
+            assertEquals(aggregate.getTimestamp(), HOUR);
+        }
+        assertEquals(accumulator.size(), 1, "The next time slice should not have been drained");
+    }
+
+    @Test
+    public void doNotAggregateIncompleteTimeSlices() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(HOUR + 1);
+        accumulator.add(HOUR, 1, 1.0);
+
+        assertEquals(accumulator.size(), 0);
+        assertNull(accumulator.drain(HOUR), "The time slice started before the accumulator was created");
+    }
+
+    @Test
+    public void ignoreDataForDrainedTimeSlices() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(0);
+        accumulator.add(HOUR, 1, 1.0);
+        accumulator.drain(HOUR);
+        accumulator.add(HOUR, 1, 1.0);
+
+        assertEquals(accumulator.size(), 0);
+    }
+
+    @Test
+    public void leaveOutSchedulesWithWritesInFlight() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(0);
+        accumulator.begin(HOUR, 1);
+        accumulator.add(HOUR, 1, 1.0);
+        accumulator.begin(HOUR, 1);
+        accumulator.begin(HOUR, 2);
+        accumulator.add(HOUR, 2, 2.0);
+
+        // the second write for schedule 1 has been stored, but its index callback has not run yet
+        List<AggregateNumericMetric> aggregates = accumulator.drain(HOUR);
+
+        assertEquals(aggregates.size(), 1);
+        assertEquals(aggregates.get(0).getScheduleId(), 2);
+        assertTrue(accumulator.isDirty(HOUR, 1), "Schedule 1 has to be aggregated from raw data");
+        assertFalse(accumulator.isDirty(HOUR, 2));
+
+        accumulator.add(HOUR, 1, 3.0);
+        assertEquals(accumulator.size(), 0, "Late data should not be accumulated");
+        assertTrue(accumulator.isDirty(HOUR, 1));
+    }
+
+    @Test
+    public void markLateWritesDirty() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(0);
+        accumulator.begin(HOUR, 1);
+        accumulator.add(HOUR, 1, 1.0);
+        assertEquals(accumulator.drain(HOUR).size(), 1);
+        assertFalse(accumulator.isDirty(HOUR, 1));
+
+        accumulator.begin(HOUR, 1);
+        assertTrue(accumulator.isDirty(HOUR, 1), "A write for a drained time slice should mark the schedule dirty");
+        accumulator.add(HOUR, 1, 2.0);
+        assertTrue(accumulator.isDirty(HOUR, 1));
+
+        accumulator.drain(2 * HOUR);
+        assertFalse(accumulator.isDirty(HOUR, 1), "Dirty schedules of older time slices should be discarded");
+    }
+
+    @Test
+    public void markFailedWritesDirty() {
+        RawDataAccumulator accumulator = new RawDataAccumulator(0);
+        accumulator.begin(HOUR, 1);
+        accumulator.begin(HOUR, 1);
+        accumulator.add(HOUR, 1, 1.0);
+        accumulator.failed(HOUR, 1);
+
+        List<AggregateNumericMetric> aggregates = accumulator.drain(HOUR);
+
+        assertEquals(aggregates.size(), 1, "The stored data should still be aggregated");
+        assertTrue(accumulator.isDirty(HOUR, 1), "The failed write might have been partially stored");
+    }
+
+    @Test
+    public void interleaveWritesWithDrain() throws Exception {
+        final int numSchedules = 50;
+        final int numValues = 200;
+        final RawDataAccumulator accumulator = new RawDataAccumulator(0);
+        final CountDownLatch started = new CountDownLatch(numSchedules);
+        Thread[] writers = new Thread[numSchedules];
+        for (int i = 0; i < numSchedules; ++i) {
+            final int scheduleId = i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int value = 1; value <= numValues; ++value) {
+                        accumulator.begin(HOUR, scheduleId);
+                        Thread.yield();
+                        accumulator.add(HOUR, scheduleId, value);
+                    }
+                }
+            };
+            writers[i].start();
+        }
+        started.await();
+        List<AggregateNumericMetric> aggregates = accumulator.drain(HOUR);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Map<Integer, AggregateNumericMetric> bySchedule = new HashMap<Integer, AggregateNumericMetric>();
+        for (AggregateNumericMetric aggregate : aggregates) {
+            bySchedule.put(aggregate.getScheduleId(), aggregate);
+        }
+        for (int scheduleId = 0; scheduleId < numSchedules; ++scheduleId) {
+            if (accumulator.isDirty(HOUR, scheduleId)) {
+                continue;
+            }
+            AggregateNumericMetric aggregate = bySchedule.get(scheduleId);
+            assertEquals(aggregate.getMin(), 1.0, "The aggregate of schedule " + scheduleId + " is incomplete");
+            assertEquals(aggregate.getMax(), (double) numValues, "The aggregate of schedule " + scheduleId +
+                " is incomplete");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.MeasurementDataNumeric;
+
+public class RawDataBatchTest {
+
+    @Test
+    public void keepPartitionsTogether() {
+        List<MeasurementDataNumeric> data = new ArrayList<MeasurementDataNumeric>();
+        for (int i = 0; i < 3; ++i) {
+            data.add(new MeasurementDataNumeric(i, 100, 1.0));
+            data.add(new MeasurementDataNumeric(i, 200, 1.0));
+        }
+
+        List<List<MeasurementDataNumeric>> batches = MetricsServer.createBatches(data, 4, 10);
+
+        assertEquals(batches.size(), 2, "Each partition should fit into its own batch");
+        assertEquals(batches.get(0).size(), 3);
+        assertEquals(batches.get(1).size(), 3);
+        for (MeasurementDataNumeric raw : batches.get(0)) {
+            assertEquals(raw.getScheduleId(), 100);
+        }
+    }
+
+    @Test
+    public void limitPartitionsPerBatch() {
+        List<MeasurementDataNumeric> data = new ArrayList<MeasurementDataNumeric>();
+        for (int i = 0; i < 10; ++i) {
+            data.add(new MeasurementDataNumeric(1000, i, 1.0));
+        }
+
+        List<List<MeasurementDataNumeric>> batches = MetricsServer.createBatches(data, 100, 3);
+
+        assertEquals(batches.size(), 4);
+        assertEquals(batches.get(0).size(), 3);
+        assertEquals(batches.get(3).size(), 1);
+    }
+
+    @Test
+    public void splitLargePartitions() {
+        List<MeasurementDataNumeric> data = new ArrayList<MeasurementDataNumeric>();
+        for (int i = 0; i < 25; ++i) {
+            data.add(new MeasurementDataNumeric(i, 100, 1.0));
+        }
+
+        List<List<MeasurementDataNumeric>> batches = MetricsServer.createBatches(data, 10, 5);
+
+        assertEquals(batches.size(), 3);
+        assertEquals(batches.get(0).size(), 10);
+        assertEquals(batches.get(1).size(), 10);
+        assertEquals(batches.get(2).size(), 5);
+    }
+
+    @Test
+    public void padBatchesToPowersOfTwo() {
+        assertEquals(MetricsDAO.getBatchSize(1), 1);
+        assertEquals(MetricsDAO.getBatchSize(2), 2);
+        assertEquals(MetricsDAO.getBatchSize(3), 4);
+        assertEquals(MetricsDAO.getBatchSize(64), 64);
+        assertEquals(MetricsDAO.getBatchSize(65), 128);
+
+        Object[] values = new Object[4 * 3];
+        values[0] = 100;
+        values[1] = 1L;
+        values[2] = 1.0;
+        values[3] = 200;
+        values[4] = 2L;
+        values[5] = 2.0;
+        MetricsDAO.padBatch(values, 6);
+
+        for (int i = 6; i < values.length; i += 3) {
+            assertEquals(values[i], 200, "Padding should repeat the last row");
+            assertEquals(values[i + 1], 2L);
+            assertEquals(values[i + 2], 2.0);
+        }
+    }
+
+}
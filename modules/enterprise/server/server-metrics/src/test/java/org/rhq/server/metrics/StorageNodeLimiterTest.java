@@ -0,0 +1,130 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.datastax.driver.core.ResultSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.testng.annotations.Test;
+
+public class StorageNodeLimiterTest {
+
+    @Test
+    public void rejectWhenLimitIsReached() throws Exception {
+        StorageNodeLimiter limiter = new StorageNodeLimiter(InetAddress.getByName("127.0.0.1"), 2, 1, 10, 0.5, 100,
+            0);
+
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS), "The third request should have been rejected");
+        assertEquals(limiter.getInFlight(), 2);
+        assertEquals(limiter.getRejections(), 1);
+
+        limiter.release(5, false);
+        assertTrue(limiter.tryAcquire(0, TimeUnit.MILLISECONDS), "A permit should be available after a release");
+    }
+
+    @Test
+    public void decreaseLimitOnSlowRequests() throws Exception {
+        StorageNodeLimiter limiter = new StorageNodeLimiter(InetAddress.getByName("127.0.0.1"), 100, 10, 200, 0.5, 100,
+            0);
+
+        limiter.tryAcquire(0, TimeUnit.MILLISECONDS);
+        limiter.release(500, false);
+        assertEquals(limiter.getLimit(), 50.0, 0.001);
+
+        limiter.tryAcquire(0, TimeUnit.MILLISECONDS);
+        limiter.release(50, true);
+        assertEquals(limiter.getLimit(), 25.0, 0.001);
+        assertEquals(limiter.getTimeouts(), 1);
+
+        for (int i = 0; i < 10; ++i) {
+            limiter.tryAcquire(0, TimeUnit.MILLISECONDS);
+            limiter.release(5000, false);
+        }
+        assertEquals(limiter.getLimit(), 10.0, 0.001, "The limit should not drop below the minimum");
+    }
+
+    @Test
+    public void increaseLimitOnFastRequests() throws Exception {
+        StorageNodeLimiter limiter = new StorageNodeLimiter(InetAddress.getByName("127.0.0.1"), 10, 1, 12, 0.5, 100,
+            0);
+
+        for (int i = 0; i < 10; ++i) {
+            limiter.tryAcquire(0, TimeUnit.MILLISECONDS);
+            limiter.release(5, false);
+        }
+        assertTrue(limiter.getLimit() > 10.9, "Expected the limit to grow by about one after a full window");
+
+        for (int i = 0; i < 100; ++i) {
+            limiter.tryAcquire(0, TimeUnit.MILLISECONDS);
+            limiter.release(5, false);
+        }
+        assertEquals(limiter.getLimit(), 12.0, 0.001, "The limit should not grow beyond the maximum");
+    }
+
+    @Test
+    public void onlyWritesAreAdmissionControlled() {
+        assertTrue(StorageSession.isWrite("INSERT INTO raw_metrics (schedule_id, time, value) VALUES (?, ?, ?)"));
+        assertTrue(StorageSession.isWrite("  update metrics_index SET x = 1"));
+        assertTrue(StorageSession.isWrite("DELETE FROM metrics_index WHERE bucket = ? AND time = ?"));
+        assertTrue(StorageSession.isWrite("BEGIN UNLOGGED BATCH INSERT INTO raw_metrics (schedule_id) VALUES (?) " +
+            "APPLY BATCH"));
+        assertFalse(StorageSession.isWrite("SELECT schedule_id, time, value FROM raw_metrics WHERE schedule_id = ?"));
+        assertFalse(StorageSession.isWrite(null));
+    }
+
+    @Test
+    public void rejectionFailsTheFuture() throws Exception {
+        StorageNodeOverloadedException rejection = new StorageNodeOverloadedException(
+            InetAddress.getByName("127.0.0.1"));
+        StorageResultSetFuture future = new StorageResultSetFuture(rejection);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failure.set(t);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        assertTrue(future.isDone());
+        assertEquals(failure.get(), rejection, "The rejection should be reported through the future");
+    }
+
+}
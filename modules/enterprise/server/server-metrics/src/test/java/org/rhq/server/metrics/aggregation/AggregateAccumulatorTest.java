@@ -0,0 +1,70 @@
+package org.rhq.server.metrics.aggregation;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.Test;
+
+import org.rhq.server.metrics.domain.AggregateNumericMetric;
+import org.rhq.server.metrics.domain.AggregateType;
+
+public class AggregateAccumulatorTest {
+
+    private static final double TEST_PRECISION = Math.pow(10, -10);
+
+    @Test
+    public void aggregateRawValues() {
+        AggregateAccumulator accumulator = new AggregateAccumulator();
+        accumulator.addValue(100, 3.0);
+        accumulator.addValue(100, 1.0);
+        accumulator.addValue(100, 5.0);
+
+        AggregateNumericMetric aggregate = accumulator.toAggregate(1000);
+
+        assertEquals(aggregate.getScheduleId(), 100);
+        assertEquals(aggregate.getTimestamp(), 1000);
+        assertEquals(aggregate.getMin(), 1.0, TEST_PRECISION);
+        assertEquals(aggregate.getMax(), 5.0, TEST_PRECISION);
+        assertEquals(aggregate.getAvg(), 3.0, TEST_PRECISION);
+    }
+
+    @Test
+    public void aggregateAggregates() {
+        AggregateAccumulator accumulator = new AggregateAccumulator();
+        accumulator.addAggregate(100, AggregateType.MAX.ordinal(), 10.0);
+        accumulator.addAggregate(100, AggregateType.MIN.ordinal(), 2.0);
+        accumulator.addAggregate(100, AggregateType.AVG.ordinal(), 5.0);
+        accumulator.addAggregate(100, AggregateType.MAX.ordinal(), 12.0);
+        accumulator.addAggregate(100, AggregateType.MIN.ordinal(), 3.0);
+        accumulator.addAggregate(100, AggregateType.AVG.ordinal(), 7.0);
+
+        AggregateNumericMetric aggregate = accumulator.toAggregate(1000);
+
+        assertEquals(aggregate.getMin(), 2.0, TEST_PRECISION);
+        assertEquals(aggregate.getMax(), 12.0, TEST_PRECISION);
+        assertEquals(aggregate.getAvg(), 6.0, TEST_PRECISION);
+    }
+
+    @Test
+    public void aggregateIncompleteAggregates() {
+        // a failed write can leave an aggregate with a missing row
+        AggregateAccumulator accumulator = new AggregateAccumulator();
+        accumulator.addAggregate(100, AggregateType.MAX.ordinal(), 10.0);
+        accumulator.addAggregate(100, AggregateType.AVG.ordinal(), 5.0);
+        accumulator.addAggregate(100, AggregateType.MAX.ordinal(), 12.0);
+        accumulator.addAggregate(100, AggregateType.MIN.ordinal(), 3.0);
+        accumulator.addAggregate(100, AggregateType.AVG.ordinal(), 7.0);
+
+        AggregateNumericMetric aggregate = accumulator.toAggregate(1000);
+
+        assertEquals(aggregate.getMin(), 3.0, TEST_PRECISION);
+        assertEquals(aggregate.getMax(), 12.0, TEST_PRECISION);
+        assertEquals(aggregate.getAvg(), 6.0, TEST_PRECISION);
+    }
+
+    @Test
+    public void returnNullWhenThereIsNoData() {
+        assertNull(new AggregateAccumulator().toAggregate(1000));
+    }
+
+}
@@ -0,0 +1,32 @@
+package org.rhq.server.metrics.aggregation;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class AggregationProgressTest {
+
+    @Test
+    public void countOnlyPagesWithSchedules() {
+        AggregationProgress progress = new AggregationProgress();
+        progress.addIndexPage(AggregationType.RAW, 100);
+        progress.addIndexPage(AggregationType.RAW, 0);
+        progress.addIndexPage(AggregationType.ONE_HOUR, 20);
+        progress.addIndexPage(AggregationType.ONE_HOUR, 0);
+
+        assertEquals(progress.getIndexPages(), 2, "Empty index pages should not be counted");
+        assertEquals(progress.getScheduled(AggregationType.RAW), 100);
+        assertEquals(progress.getScheduled(AggregationType.ONE_HOUR), 20);
+    }
+
+    @Test
+    public void precomputedSchedulesAreNotIndexPages() {
+        AggregationProgress progress = new AggregationProgress();
+        progress.addScheduled(AggregationType.RAW, 50);
+        progress.addCompleted(AggregationType.RAW, 50);
+
+        assertEquals(progress.getIndexPages(), 0);
+        assertEquals(progress.getScheduled(AggregationType.RAW), 50);
+        assertEquals(progress.getCompleted(AggregationType.RAW), 50);
+    }
+}